@@ -0,0 +1,27 @@
+package com.soze.common.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class ConstructFactoryDTO {
+
+	private final String templateId;
+	private final String cityId;
+
+	@JsonCreator
+	public ConstructFactoryDTO(@JsonProperty("templateId") String templateId,
+														 @JsonProperty("cityId") String cityId
+														) {
+		this.templateId = templateId;
+		this.cityId = cityId;
+	}
+
+	public String getTemplateId() {
+		return templateId;
+	}
+
+	public String getCityId() {
+		return cityId;
+	}
+
+}
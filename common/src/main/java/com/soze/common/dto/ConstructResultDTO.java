@@ -0,0 +1,51 @@
+package com.soze.common.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Outcome of constructing one factory of a batch. Holds the factory if it was constructed, the error otherwise.
+ */
+public class ConstructResultDTO {
+
+	private final String templateId;
+	private final String cityId;
+	private final boolean success;
+	private final FactoryDTO factory;
+	private final String error;
+
+	@JsonCreator
+	public ConstructResultDTO(@JsonProperty("templateId") String templateId,
+														@JsonProperty("cityId") String cityId,
+														@JsonProperty("success") boolean success,
+														@JsonProperty("factory") FactoryDTO factory,
+														@JsonProperty("error") String error
+													 ) {
+		this.templateId = templateId;
+		this.cityId = cityId;
+		this.success = success;
+		this.factory = factory;
+		this.error = error;
+	}
+
+	public String getTemplateId() {
+		return templateId;
+	}
+
+	public String getCityId() {
+		return cityId;
+	}
+
+	public boolean isSuccess() {
+		return success;
+	}
+
+	public FactoryDTO getFactory() {
+		return factory;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+}
@@ -14,6 +14,11 @@ public class FactoryDTO {
 
 	private String cityId;
 
+	/**
+	 * Version of the factory this state is at, events up to this version are already applied.
+	 */
+	private long version;
+
 	public FactoryDTO() {
 
 	}
@@ -66,9 +71,17 @@ public class FactoryDTO {
 		this.cityId = cityId;
 	}
 
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
 	@Override
 	public String toString() {
-		return "FactoryDTO{" + "id='" + id + '\'' + ", name='" + name + '\'' + ", texture='" + texture + '\'' + ", producer=" + producer + ", storage=" + storage + ", cityId='" + cityId + '\'' + '}';
+		return "FactoryDTO{" + "id='" + id + '\'' + ", name='" + name + '\'' + ", texture='" + texture + '\'' + ", producer=" + producer + ", storage=" + storage + ", cityId='" + cityId + '\'' + ", version=" + version + '}';
 	}
 
 }
@@ -33,6 +33,14 @@ public class JsonUtils {
 		}
 	}
 
+	public static <T> T parse(byte[] json, Class<T> clazz) {
+		try {
+			return MAPPER.readValue(json, clazz);
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
 	public static <T> List<T> parseList(String json, Class<T> clazz) {
 		try {
 			return MAPPER.readValue(json, MAPPER.getTypeFactory().constructCollectionType(List.class, clazz));
@@ -66,4 +74,15 @@ public class JsonUtils {
 		}
 	}
 
+	/**
+	 * Serializes without pretty printing, for places where size matters more than readability.
+	 */
+	public static byte[] serializeToBytes(Object object) {
+		try {
+			return MAPPER.writeValueAsBytes(object);
+		} catch (JsonProcessingException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
 }
@@ -13,7 +13,8 @@ import java.util.UUID;
 	@JsonSubTypes.Type(value = TruckTravelRequest.class, name = "TRUCK_TRAVEL_REQUEST"),
 	@JsonSubTypes.Type(value = BuyResourceRequest.class, name = "BUY_RESOURCE_REQUEST"),
 	@JsonSubTypes.Type(value = SellResourceRequest.class, name = "SELL_RESOURCE_REQUEST"),
-	@JsonSubTypes.Type(value = DumpContent.class, name = "DUMP_CONTENT")
+	@JsonSubTypes.Type(value = DumpContent.class, name = "DUMP_CONTENT"),
+	@JsonSubTypes.Type(value = SubscriptionRequest.class, name = "SUBSCRIPTION_REQUEST")
 })
 @JsonIgnoreProperties(ignoreUnknown = true)
 public abstract class ClientMessage {
@@ -31,7 +32,7 @@ public abstract class ClientMessage {
 	public abstract ClientMessageType getType();
 
 	public enum ClientMessageType {
-		TRUCK_TRAVEL_REQUEST, BUY_RESOURCE_REQUEST, SELL_RESOURCE_REQUEST, DUMP_CONTENT
+		TRUCK_TRAVEL_REQUEST, BUY_RESOURCE_REQUEST, SELL_RESOURCE_REQUEST, DUMP_CONTENT, SUBSCRIPTION_REQUEST
 	}
 
 }
@@ -0,0 +1,51 @@
+package com.soze.common.message.client;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Declares the cities and factories the client wants updates of, replacing what it declared before.
+ * A client which never sent a subscription gets updates of everything.
+ */
+public class SubscriptionRequest extends ClientMessage {
+
+	private final Set<String> cityIds;
+	private final Set<String> factoryIds;
+
+	@JsonCreator
+	public SubscriptionRequest(@JsonProperty("messageId") UUID messageId,
+														 @JsonProperty("cityIds") Set<String> cityIds,
+														 @JsonProperty("factoryIds") Set<String> factoryIds
+														) {
+		super(messageId);
+		this.cityIds = cityIds == null ? Collections.emptySet() : new HashSet<>(cityIds);
+		this.factoryIds = factoryIds == null ? Collections.emptySet() : new HashSet<>(factoryIds);
+	}
+
+	public SubscriptionRequest(Set<String> cityIds, Set<String> factoryIds) {
+		this(UUID.randomUUID(), cityIds, factoryIds);
+	}
+
+	public Set<String> getCityIds() {
+		return cityIds;
+	}
+
+	public Set<String> getFactoryIds() {
+		return factoryIds;
+	}
+
+	@Override
+	public ClientMessageType getType() {
+		return ClientMessageType.SUBSCRIPTION_REQUEST;
+	}
+
+	@Override
+	public String toString() {
+		return "SubscriptionRequest{" + "cityIds=" + cityIds + ", factoryIds=" + factoryIds + '}';
+	}
+}
@@ -0,0 +1,59 @@
+package com.soze.common.message.server;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.soze.common.dto.FactoryDTO;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * State of all factories, sent once when a client connects and cannot resume from where it left off.
+ * Later messages carry a position, a client which reconnects with the epoch and the last position it saw
+ * gets only the messages it missed, if the server still has them.
+ */
+public class FactoriesSnapshot extends ServerMessage {
+
+	private final String epoch;
+	private final long position;
+	private final List<FactoryDTO> factories;
+
+	@JsonCreator
+	public FactoriesSnapshot(@JsonProperty("messageId") UUID messageId,
+													 @JsonProperty("epoch") String epoch,
+													 @JsonProperty("position") long position,
+													 @JsonProperty("factories") List<FactoryDTO> factories
+													) {
+		super(messageId);
+		this.epoch = epoch;
+		this.position = position;
+		this.factories = factories == null ? new ArrayList<>() : factories;
+	}
+
+	public FactoriesSnapshot(String epoch, long position, List<FactoryDTO> factories) {
+		this(UUID.randomUUID(), epoch, position, factories);
+	}
+
+	public String getEpoch() {
+		return epoch;
+	}
+
+	public long getPosition() {
+		return position;
+	}
+
+	public List<FactoryDTO> getFactories() {
+		return factories;
+	}
+
+	@Override
+	public String getType() {
+		return ServerMessageType.FACTORIES_SNAPSHOT.name();
+	}
+
+	@Override
+	public String toString() {
+		return "FactoriesSnapshot{" + "epoch='" + epoch + '\'' + ", position=" + position + ", factories=" + factories.size() + '}';
+	}
+}
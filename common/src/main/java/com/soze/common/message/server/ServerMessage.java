@@ -17,6 +17,7 @@ import java.util.UUID;
 	@JsonSubTypes.Type(value = StorageContentChanged.class, name = "STORAGE_CONTENT_CHANGED"),
 	@JsonSubTypes.Type(value = StorageCapacityChanged.class, name = "STORAGE_CAPACITY_CHANGED"),
 	@JsonSubTypes.Type(value = TruckArrived.class, name = "TRUCK_ARRIVED"),
+	@JsonSubTypes.Type(value = FactoriesSnapshot.class, name = "FACTORIES_SNAPSHOT"),
 })
 @JsonIgnoreProperties(ignoreUnknown = true)
 public abstract class ServerMessage {
@@ -35,6 +36,6 @@ public abstract class ServerMessage {
 
 	public enum ServerMessageType {
 		RESOURCE_PRODUCED, RESOURCE_PRODUCTION_STARTED, FACTORY_ADDED, TRUCK_ADDED, TRUCK_TRAVEL_STARTED, TRUCK_ARRIVED,
-		STORAGE_CONTENT_CHANGED, STORAGE_CAPACITY_CHANGED
+		STORAGE_CONTENT_CHANGED, STORAGE_CAPACITY_CHANGED, FACTORIES_SNAPSHOT
 	}
 }
@@ -0,0 +1,39 @@
+package com.soze.common.websocket;
+
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Handshake handler with a switch for permessage-deflate. It accepts the extensions supported by the container,
+ * which include permessage-deflate on Tomcat. When deflate is disabled, permessage-deflate is declined,
+ * so frames are sent uncompressed even to clients which offer it.
+ */
+public class DeflateToggleHandshakeHandler extends DefaultHandshakeHandler {
+
+	static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+	private final boolean deflateEnabled;
+
+	public DeflateToggleHandshakeHandler(boolean deflateEnabled) {
+		this.deflateEnabled = deflateEnabled;
+	}
+
+	@Override
+	protected List<WebSocketExtension> filterRequestedExtensions(ServerHttpRequest request,
+																															 List<WebSocketExtension> requestedExtensions,
+																															 List<WebSocketExtension> supportedExtensions
+																															) {
+		List<WebSocketExtension> accepted = super.filterRequestedExtensions(request, requestedExtensions, supportedExtensions);
+		if (deflateEnabled) {
+			return accepted;
+		}
+		return accepted.stream()
+									 .filter(extension -> !PERMESSAGE_DEFLATE.equals(extension.getName()))
+									 .collect(Collectors.toList());
+	}
+
+}
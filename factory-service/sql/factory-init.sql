@@ -4,8 +4,28 @@ CREATE SCHEMA factory;
 
 CREATE TABLE factory.factory_event
 (
-    ID    UUID PRIMARY KEY,
-    EVENT JSONB NOT NULL
+    ID        UUID PRIMARY KEY,
+    POSITION  BIGSERIAL NOT NULL,
+    ENTITY_ID UUID   NOT NULL,
+    SEQUENCE  BIGINT NOT NULL,
+    EVENT     JSONB,
+    PAYLOAD   BYTEA,
+    CHECK (EVENT IS NOT NULL OR PAYLOAD IS NOT NULL)
+);
+
+CREATE UNIQUE INDEX factory_event_entity_id_sequence_idx ON factory.factory_event (ENTITY_ID, SEQUENCE);
+CREATE UNIQUE INDEX factory_event_position_idx ON factory.factory_event (POSITION);
+
+CREATE TABLE factory.factory_snapshot
+(
+    ENTITY_ID UUID PRIMARY KEY,
+    VERSION   BIGINT NOT NULL,
+    SNAPSHOT  JSONB  NOT NULL
+);
+
+CREATE TABLE factory.factory_registry
+(
+    ENTITY_ID UUID PRIMARY KEY
 );
 
 GRANT ALL PRIVILEGES ON SCHEMA factory to "factory-user";
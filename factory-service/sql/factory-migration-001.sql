@@ -0,0 +1,32 @@
+-- Adds entity_id and per entity sequence columns to factory_event and backfills them from the jsonb payload.
+-- Events of an entity are numbered in the order of their timestamps, starting from 1.
+
+ALTER TABLE factory.factory_event ADD COLUMN ENTITY_ID UUID;
+ALTER TABLE factory.factory_event ADD COLUMN SEQUENCE BIGINT;
+
+UPDATE factory.factory_event e
+SET ENTITY_ID = numbered.ENTITY_ID,
+    SEQUENCE  = numbered.SEQUENCE
+FROM (
+         SELECT ID,
+                (EVENT ->> 'entityId')::UUID AS ENTITY_ID,
+                ROW_NUMBER() OVER (
+                    PARTITION BY EVENT ->> 'entityId'
+                    ORDER BY make_timestamp(
+                                     (EVENT -> 'timestamp' ->> 0)::INT,
+                                     (EVENT -> 'timestamp' ->> 1)::INT,
+                                     (EVENT -> 'timestamp' ->> 2)::INT,
+                                     COALESCE((EVENT -> 'timestamp' ->> 3)::INT, 0),
+                                     COALESCE((EVENT -> 'timestamp' ->> 4)::INT, 0),
+                                     COALESCE((EVENT -> 'timestamp' ->> 5)::DOUBLE PRECISION, 0) +
+                                     COALESCE((EVENT -> 'timestamp' ->> 6)::DOUBLE PRECISION, 0) / 1000000000
+                                 ), ID
+                    )                        AS SEQUENCE
+         FROM factory.factory_event
+     ) numbered
+WHERE e.ID = numbered.ID;
+
+ALTER TABLE factory.factory_event ALTER COLUMN ENTITY_ID SET NOT NULL;
+ALTER TABLE factory.factory_event ALTER COLUMN SEQUENCE SET NOT NULL;
+
+CREATE UNIQUE INDEX factory_event_entity_id_sequence_idx ON factory.factory_event (ENTITY_ID, SEQUENCE);
@@ -0,0 +1,14 @@
+-- Adds a registry of factory ids, so that factories can be listed and counted without scanning factory_event.
+-- New factories are registered together with their first event.
+
+CREATE TABLE factory.factory_registry
+(
+    ENTITY_ID UUID PRIMARY KEY
+);
+
+INSERT INTO factory.factory_registry (ENTITY_ID)
+SELECT DISTINCT ENTITY_ID
+FROM factory.factory_event
+ON CONFLICT DO NOTHING;
+
+GRANT ALL PRIVILEGES ON ALL TABLES IN SCHEMA factory TO "factory-user";
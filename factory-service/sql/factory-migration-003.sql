@@ -0,0 +1,6 @@
+-- Adds a bytea column for events written in the binary format (factory.db-store.format=BINARY).
+-- Every row keeps its event either in EVENT (json) or in PAYLOAD (binary), existing rows stay json.
+
+ALTER TABLE factory.factory_event ADD COLUMN PAYLOAD BYTEA;
+ALTER TABLE factory.factory_event ALTER COLUMN EVENT DROP NOT NULL;
+ALTER TABLE factory.factory_event ADD CONSTRAINT factory_event_payload_check CHECK (EVENT IS NOT NULL OR PAYLOAD IS NOT NULL);
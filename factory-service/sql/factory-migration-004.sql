@@ -0,0 +1,24 @@
+-- Adds a global position to factory_event, so all events can be read in append order with a cursor.
+-- Existing rows get positions in the order of their entity and sequence, which keeps the order within each entity.
+
+CREATE SEQUENCE factory.factory_event_position_seq;
+
+ALTER TABLE factory.factory_event ADD COLUMN POSITION BIGINT;
+
+UPDATE factory.factory_event e
+SET POSITION = numbered.POSITION
+FROM (
+         SELECT ID, ROW_NUMBER() OVER (ORDER BY ENTITY_ID, SEQUENCE) AS POSITION
+         FROM factory.factory_event
+     ) numbered
+WHERE e.ID = numbered.ID;
+
+SELECT setval('factory.factory_event_position_seq', COALESCE((SELECT MAX(POSITION) FROM factory.factory_event), 0) + 1, false);
+
+ALTER TABLE factory.factory_event ALTER COLUMN POSITION SET DEFAULT nextval('factory.factory_event_position_seq');
+ALTER TABLE factory.factory_event ALTER COLUMN POSITION SET NOT NULL;
+ALTER SEQUENCE factory.factory_event_position_seq OWNED BY factory.factory_event.POSITION;
+
+CREATE UNIQUE INDEX factory_event_position_idx ON factory.factory_event (POSITION);
+
+GRANT ALL PRIVILEGES ON ALL SEQUENCES IN SCHEMA factory TO "factory-user";
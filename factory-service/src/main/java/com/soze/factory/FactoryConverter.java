@@ -19,6 +19,7 @@ public class FactoryConverter {
 		factoryDTO.setName(factory.getName());
 		factoryDTO.setTexture(factory.getTexture());
 		factoryDTO.setCityId(factory.getCityId());
+		factoryDTO.setVersion(factory.getVersion());
 
 		FactoryStorage factoryStorage = factory.getStorage();
 		Map<Resource, StorageSlotDTO> resourceDTOs = new HashMap<>();
@@ -1,7 +1,9 @@
 package com.soze.factory;
 
+import com.soze.common.websocket.DeflateToggleHandshakeHandler;
 import com.soze.factory.controller.FactoryWebSocketController;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
@@ -13,14 +15,24 @@ public class WebSocketConfiguration implements WebSocketConfigurer {
 
 	private final FactoryWebSocketController factoryWebSocketController;
 
+	/**
+	 * If true, frames are compressed for clients which offer permessage-deflate, otherwise the extension is declined.
+	 */
+	private final boolean compression;
+
 	@Autowired
-	public WebSocketConfiguration(FactoryWebSocketController factoryWebSocketController) {
+	public WebSocketConfiguration(FactoryWebSocketController factoryWebSocketController,
+																@Value("${factory.websocket.compression:true}") boolean compression
+															 ) {
 		this.factoryWebSocketController = factoryWebSocketController;
+		this.compression = compression;
 	}
 
 	@Override
 	public void registerWebSocketHandlers(WebSocketHandlerRegistry webSocketHandlerRegistry) {
-		webSocketHandlerRegistry.addHandler(factoryWebSocketController, "/websocket").setAllowedOrigins("*");
+		webSocketHandlerRegistry.addHandler(factoryWebSocketController, "/websocket")
+														.setHandshakeHandler(new DeflateToggleHandshakeHandler(compression))
+														.setAllowedOrigins("*");
 	}
 
 }
@@ -6,6 +6,7 @@ import com.soze.factory.event.*;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Aggregate root for the factory.
@@ -20,12 +21,94 @@ public class Factory implements EventVisitor, CommandVisitor {
 	private FactoryStorage storage = new FactoryStorage(new HashMap<>());
 	private Producer producer = new Producer();
 
+	/**
+	 * Prices as of the latest price event. Price events only carry the difference between these and the storage prices.
+	 */
+	private final Map<Resource, Integer> announcedPrices = new EnumMap<>(Resource.class);
+
+	/**
+	 * Number of events applied to this aggregate.
+	 */
+	private long version;
+
 	public Factory() {
 
 	}
 
 	public Factory(FactoryCreated factoryCreated) {
-		visit(factoryCreated);
+		apply(factoryCreated);
+	}
+
+	public Factory(FactorySnapshot snapshot) {
+		this.id = UUID.fromString(snapshot.id);
+		this.name = snapshot.name;
+		this.texture = snapshot.texture;
+		this.cityId = snapshot.cityId;
+		Map<Resource, StorageSlot> resources = new HashMap<>();
+		snapshot.storage.forEach((resource, slot) -> resources.put(resource, new StorageSlot(slot)));
+		this.storage = new FactoryStorage(resources);
+		this.producer.getInput().putAll(snapshot.input);
+		this.producer.getOutput().putAll(snapshot.output);
+		this.producer.setTime(snapshot.time);
+		if (snapshot.producing) {
+			this.producer.startProduction(snapshot.productionStartTime);
+		}
+		this.announcedPrices.putAll(snapshot.announcedPrices);
+		this.version = snapshot.version;
+	}
+
+	/**
+	 * Applies an already stored event to this aggregate.
+	 */
+	public void apply(Event event) {
+		event.accept(this);
+		version++;
+	}
+
+	public FactorySnapshot toSnapshot() {
+		FactorySnapshot snapshot = new FactorySnapshot();
+		snapshot.version = version;
+		snapshot.id = id.toString();
+		snapshot.name = name;
+		snapshot.texture = texture;
+		snapshot.cityId = cityId;
+		storage.getResources().forEach((resource, slot) -> snapshot.storage.put(resource, new StorageSlot(slot)));
+		snapshot.announcedPrices.putAll(announcedPrices);
+		snapshot.input.putAll(producer.getInput());
+		snapshot.output.putAll(producer.getOutput());
+		snapshot.time = producer.getTime();
+		snapshot.producing = producer.isProducing();
+		snapshot.productionStartTime = producer.getProductionStartTime();
+		return snapshot;
+	}
+
+	/**
+	 * Deep copy of this aggregate, which can be changed without affecting this one.
+	 */
+	public Factory copy() {
+		return new Factory(toSnapshot());
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Version of the n-th event (counting from 1) emitted by a command handled at the current version.
+	 */
+	private int nextVersion(int n) {
+		return (int) (version + n);
+	}
+
+	/**
+	 * Returns the given event, followed by a price event if there are any price changes.
+	 */
+	private List<Event> withPriceChanges(Event event, Map<Resource, Integer> priceChanges) {
+		if (priceChanges.isEmpty()) {
+			return Collections.singletonList(event);
+		}
+		return Arrays.asList(
+			event, new ResourcePriceChanged2(getId().toString(), LocalDateTime.now(), nextVersion(2), priceChanges));
 	}
 
 	public UUID getId() {
@@ -55,54 +138,137 @@ public class Factory implements EventVisitor, CommandVisitor {
 	@Override
 	public List<Event> visit(CreateFactory createFactory) {
 		return Collections.singletonList(
-			new FactoryCreated(createFactory.getFactoryId().toString(), LocalDateTime.now(), 1, createFactory.getName(),
+			new FactoryCreated(createFactory.getFactoryId().toString(), LocalDateTime.now(), nextVersion(1), createFactory.getName(),
 												 createFactory.getTexture(), createFactory.getCityId()
 			));
 	}
 
-	@Override
-	public List<Event> visit(StartProduction startProduction) {
+	/**
+	 * Whether a {@link StartProduction} command would start production now.
+	 */
+	public boolean canStartProduction() {
 		Producer producer = getProducer();
 		if (producer.isProducing()) {
-			return Collections.emptyList();
+			return false;
 		}
 
 		if (producer.getInput().isEmpty() && producer.getOutput().isEmpty()) {
-			return Collections.emptyList();
+			return false;
 		}
 
 		FactoryStorage storage = getStorage();
 		Map<Resource, Integer> input = producer.getInput();
 		if (!storage.hasResources(input)) {
-			return Collections.emptyList();
+			return false;
 		}
 
 		Map<Resource, Integer> output = producer.getOutput();
-		if (!storage.canFit(output)) {
+		return storage.canFit(output);
+	}
+
+	@Override
+	public List<Event> visit(StartProduction startProduction) {
+		if (!canStartProduction()) {
 			return Collections.emptyList();
 		}
 
 		return Collections.singletonList(
-			new ProductionStarted2(startProduction.getFactoryId().toString(), LocalDateTime.now(), 1,
+			new ProductionStarted2(startProduction.getFactoryId().toString(), LocalDateTime.now(), nextVersion(1),
 														startProduction.getCurrentGameTime()
 			));
 	}
 
 	@Override
 	public List<Event> visit(FinishProduction finishProduction) {
-		ProductionFinished productionFinished = new ProductionFinished(getId().toString(), LocalDateTime.now());
-		FactoryStorage storage = getStorage().copy();
+		ProductionFinished productionFinished = new ProductionFinished(getId().toString(), LocalDateTime.now(), nextVersion(1));
+		FactoryStorage storage = getStorage();
+		Map<Resource, Integer> output = getProducer().getOutput();
+		Map<Resource, Integer> priceChanges = storage.canFit(output)
+			? storage.getPriceChangesAfter(output, announcedPrices)
+			: storage.getPriceChanges(announcedPrices);
+		return withPriceChanges(productionFinished, priceChanges);
+	}
+
+	/**
+	 * Finishes all cycles which fit until the current game time in one event. Every next cycle starts right when
+	 * the previous one finished, as long as there is enough input and the output fits, just like when
+	 * the cycles are started and finished one by one. A single finished cycle is still a {@link ProductionFinished}.
+	 */
+	@Override
+	public List<Event> visit(CatchUpProduction catchUpProduction) {
 		Producer producer = getProducer();
-		storage.addResources(producer.getOutput());
-		ResourcePriceChanged resourcePriceChanged = new ResourcePriceChanged(
-			getId().toString(), LocalDateTime.now(), storage.getPrices());
-		return Arrays.asList(productionFinished, resourcePriceChanged);
+		if (!producer.isProducing()) {
+			return Collections.emptyList();
+		}
+		long cycleTime = TimeUnit.MINUTES.toMillis(producer.getTime());
+		long finishedCycles = cycleTime > 0
+			? (catchUpProduction.getCurrentGameTime() - producer.getProductionStartTime()) / cycleTime
+			: 1;
+		if (finishedCycles < 1) {
+			return Collections.emptyList();
+		}
+		if (finishedCycles == 1) {
+			return visit(new FinishProduction(catchUpProduction.getFactoryId()));
+		}
+
+		Map<Resource, Integer> input = producer.getInput();
+		Map<Resource, Integer> output = producer.getOutput();
+		Map<Resource, Integer> consumed = new EnumMap<>(Resource.class);
+		Map<Resource, Integer> produced = new EnumMap<>(Resource.class);
+		Map<Resource, Integer> countChanges = new EnumMap<>(Resource.class);
+		if (canFitAfter(output, countChanges)) {
+			add(output, produced, countChanges, 1);
+		}
+		int cycles = 1;
+		while (cycles < finishedCycles && hasResourcesAfter(input, countChanges) && canFitAfter(output, countChanges)) {
+			add(input, consumed, countChanges, -1);
+			add(output, produced, countChanges, 1);
+			cycles++;
+		}
+		long productionStartTime = -1;
+		if (cycles == finishedCycles && hasResourcesAfter(input, countChanges) && canFitAfter(output, countChanges)) {
+			add(input, consumed, countChanges, -1);
+			productionStartTime = producer.getProductionStartTime() + cycles * cycleTime;
+		}
+
+		ProductionCyclesCompleted productionCyclesCompleted = new ProductionCyclesCompleted(
+			getId().toString(), LocalDateTime.now(), nextVersion(1), cycles, consumed, produced, productionStartTime);
+		return withPriceChanges(productionCyclesCompleted, getStorage().getPriceChangesAfter(countChanges, announcedPrices));
+	}
+
+	private boolean hasResourcesAfter(Map<Resource, Integer> resources, Map<Resource, Integer> countChanges) {
+		for (Map.Entry<Resource, Integer> resource : resources.entrySet()) {
+			int change = countChanges.getOrDefault(resource.getKey(), 0);
+			if (!getStorage().hasResource(resource.getKey(), resource.getValue() - change)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean canFitAfter(Map<Resource, Integer> resources, Map<Resource, Integer> countChanges) {
+		for (Map.Entry<Resource, Integer> resource : resources.entrySet()) {
+			int change = countChanges.getOrDefault(resource.getKey(), 0);
+			if (!getStorage().canFit(resource.getKey(), resource.getValue() + change)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void add(Map<Resource, Integer> resources, Map<Resource, Integer> total,
+													Map<Resource, Integer> countChanges, int sign
+												 ) {
+		resources.forEach((resource, count) -> {
+			total.merge(resource, count, Integer::sum);
+			countChanges.merge(resource, sign * count, Integer::sum);
+		});
 	}
 
 	@Override
 	public List<Event> visit(ChangeStorageCapacity changeStorageCapacity) {
 		return Collections.singletonList(
-			new StorageCapacityChanged(changeStorageCapacity.getFactoryId().toString(), LocalDateTime.now(), 1,
+			new StorageCapacityChanged(changeStorageCapacity.getFactoryId().toString(), LocalDateTime.now(), nextVersion(1),
 																 changeStorageCapacity.getChange()
 			));
 	}
@@ -110,14 +276,14 @@ public class Factory implements EventVisitor, CommandVisitor {
 	@Override
 	public List<Event> visit(AddProductionLine addProductionLine) {
 		return Collections.singletonList(
-			new ProductionLineAdded2(getId().toString(), LocalDateTime.now(), 1, addProductionLine.getInput(),
+			new ProductionLineAdded2(getId().toString(), LocalDateTime.now(), nextVersion(1), addProductionLine.getInput(),
 															addProductionLine.getOutput(), addProductionLine.getTime()
 			));
 	}
 
 	@Override
 	public List<Event> visit(SellResource sellResource) {
-		FactoryStorage storage = getStorage().copy();
+		FactoryStorage storage = getStorage();
 		if (!storage.hasResource(sellResource.getResource(), sellResource.getCount())) {
 			return new ArrayList<>();
 		}
@@ -127,36 +293,31 @@ public class Factory implements EventVisitor, CommandVisitor {
 			return new ArrayList<>();
 		}
 
-		storage.removeResource(sellResource.getResource(), sellResource.getCount());
-
-		ResourceSold resourceSold = new ResourceSold(getId().toString(), LocalDateTime.now(), 1,
+		ResourceSold resourceSold = new ResourceSold(getId().toString(), LocalDateTime.now(), nextVersion(1),
 																								 sellResource.getResource().name(), sellResource.getCount()
 		);
-		ResourcePriceChanged resourcePriceChanged = new ResourcePriceChanged(getId().toString(), LocalDateTime.now(), storage.getPrices());
-
-		return Arrays.asList(resourceSold, resourcePriceChanged);
+		return withPriceChanges(resourceSold, storage.getPriceChangesAfter(
+			sellResource.getResource(), -sellResource.getCount(), announcedPrices));
 	}
 
 	@Override
 	public List<Event> visit(BuyResource buyResource) {
-		FactoryStorage storage = getStorage().copy();
+		FactoryStorage storage = getStorage();
 		if (!storage.canFit(buyResource.getResource(), buyResource.getCount())) {
 			return new ArrayList<>();
 		}
-		storage.addResource(buyResource.getResource(), buyResource.getCount());
 
-		ResourceBought resourceBought = new ResourceBought(getId().toString(), LocalDateTime.now(), 1,
+		ResourceBought resourceBought = new ResourceBought(getId().toString(), LocalDateTime.now(), nextVersion(1),
 																								 buyResource.getResource().name(), buyResource.getCount()
 		);
 
-		ResourcePriceChanged resourcePriceChanged = new ResourcePriceChanged(getId().toString(), LocalDateTime.now(), storage.getPrices());
-
-		return Arrays.asList(resourceBought, resourcePriceChanged);
+		return withPriceChanges(resourceBought, storage.getPriceChangesAfter(
+			buyResource.getResource(), buyResource.getCount(), announcedPrices));
 	}
 
 	@Override
 	public List<Event> visit(ChangeResourceStorageCapacity changeResourceStorageCapacity) {
-		return Collections.singletonList(new ResourceStorageCapacityChanged(getId().toString(), LocalDateTime.now(), 1,
+		return Collections.singletonList(new ResourceStorageCapacityChanged(getId().toString(), LocalDateTime.now(), nextVersion(1),
 																																				changeResourceStorageCapacity.getCapacityChanges()
 		));
 	}
@@ -215,6 +376,29 @@ public class Factory implements EventVisitor, CommandVisitor {
 		getProducer().stopProduction();
 	}
 
+	/**
+	 * Applied per resource as a net change, the counts in between the cycles are not needed.
+	 */
+	@Override
+	public void visit(ProductionCyclesCompleted productionCyclesCompleted) {
+		FactoryStorage storage = getStorage();
+		Map<Resource, Integer> countChanges = new EnumMap<>(Resource.class);
+		countChanges.putAll(productionCyclesCompleted.produced);
+		productionCyclesCompleted.consumed.forEach((resource, count) -> countChanges.merge(resource, -count, Integer::sum));
+		countChanges.forEach((resource, change) -> {
+			if (change > 0) {
+				storage.addResource(resource, change);
+			} else if (change < 0) {
+				storage.removeResource(resource, -change);
+			}
+		});
+		Producer producer = getProducer();
+		producer.stopProduction();
+		if (productionCyclesCompleted.productionStartTime >= 0) {
+			producer.startProduction(productionCyclesCompleted.productionStartTime);
+		}
+	}
+
 	@Override
 	public void visit(ResourceSold resourceSold) {
 		FactoryStorage storage = getStorage();
@@ -229,7 +413,12 @@ public class Factory implements EventVisitor, CommandVisitor {
 
 	@Override
 	public void visit(ResourcePriceChanged resourcePriceChanged) {
+		//do nothing, this even will be upcast
+	}
 
+	@Override
+	public void visit(ResourcePriceChanged2 resourcePriceChanged2) {
+		announcedPrices.putAll(resourcePriceChanged2.prices);
 	}
 
 }
@@ -0,0 +1,59 @@
+package com.soze.factory.aggregate;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.soze.common.dto.Resource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Serialized state of a {@link Factory} after a number of events were applied to it.
+ * Snapshots only speed up rehydration, events are still the source of truth.
+ */
+public class FactorySnapshot {
+
+	/**
+	 * Has to be bumped every time the shape or the meaning of aggregate state changes.
+	 * Snapshots with a different format version are ignored and rebuilt from events.
+	 */
+	public static final int FORMAT_VERSION = 2;
+
+	public int formatVersion = FORMAT_VERSION;
+
+	/**
+	 * Number of events folded into this snapshot.
+	 */
+	public long version;
+
+	public String id;
+	public String name;
+	public String texture;
+	public String cityId;
+
+	public Map<Resource, StorageSlot> storage = new HashMap<>();
+
+	/**
+	 * Prices last published in price events, not necessarily the current prices of the storage.
+	 */
+	public Map<Resource, Integer> announcedPrices = new HashMap<>();
+
+	public Map<Resource, Integer> input = new HashMap<>();
+	public Map<Resource, Integer> output = new HashMap<>();
+	public long time;
+	public boolean producing;
+	public long productionStartTime = -1L;
+
+	public FactorySnapshot() {
+
+	}
+
+	@JsonIgnore
+	public boolean isCurrentFormat() {
+		return formatVersion == FORMAT_VERSION;
+	}
+
+	@Override
+	public String toString() {
+		return "FactorySnapshot{" + "formatVersion=" + formatVersion + ", version=" + version + ", id='" + id + '\'' + ", name='" + name + '\'' + ", producing=" + producing + '}';
+	}
+}
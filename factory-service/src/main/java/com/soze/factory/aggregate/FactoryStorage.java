@@ -2,18 +2,43 @@ package com.soze.factory.aggregate;
 
 import com.soze.common.dto.Resource;
 
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.Objects;
 
+/**
+ * Storage of a factory. State of each resource lives in plain arrays indexed by {@link Resource#ordinal()},
+ * so queries do not allocate and updates only touch the changed resource.
+ * A resource is stored only while its capacity is above zero, otherwise its count, capacity and price are all zero.
+ */
 public class FactoryStorage {
 
-	private final Map<Resource, StorageSlot> resources;
+	private static final Resource[] RESOURCES = Resource.values();
+
+	private final int[] counts;
+	private final int[] capacities;
+	private final int[] prices;
 
 	public FactoryStorage(Map<Resource, StorageSlot> resources) {
-		Objects.requireNonNull(this.resources = resources);
-		validateSlots(this.resources);
-		calculatePrices();
+		Objects.requireNonNull(resources);
+		validateSlots(resources);
+		this.counts = new int[RESOURCES.length];
+		this.capacities = new int[RESOURCES.length];
+		this.prices = new int[RESOURCES.length];
+		resources.forEach((resource, slot) -> {
+			int index = resource.ordinal();
+			counts[index] = slot.getCount();
+			capacities[index] = slot.getCapacity();
+			prices[index] = slot.getPrice();
+			update(index);
+		});
+	}
+
+	private FactoryStorage(FactoryStorage storage) {
+		this.counts = storage.counts.clone();
+		this.capacities = storage.capacities.clone();
+		this.prices = storage.prices.clone();
 	}
 
 	public void addResource(Resource resource) {
@@ -24,9 +49,9 @@ public class FactoryStorage {
 		if (!canFit(resource, count)) {
 			return;
 		}
-		StorageSlot slot = getSlot(resource);
-		slot.setCount(slot.getCount() + count);
-		calculatePrices();
+		int index = resource.ordinal();
+		counts[index] += count;
+		update(index);
 	}
 
 	public void addResources(Map<Resource, Integer> resourceCounts) {
@@ -34,7 +59,6 @@ public class FactoryStorage {
 			return;
 		}
 		resourceCounts.forEach(this::addResource);
-		calculatePrices();
 	}
 
 	public boolean canFit(Resource resource) {
@@ -62,10 +86,9 @@ public class FactoryStorage {
 		if (!hasResource(resource, count)) {
 			return;
 		}
-
-		StorageSlot slot = getSlot(resource);
-		slot.setCount(slot.getCount() - count);
-		calculatePrices();
+		int index = resource.ordinal();
+		counts[index] -= count;
+		update(index);
 	}
 
 	public void removeResources(Map<Resource, Integer> resourceCounts) {
@@ -73,7 +96,6 @@ public class FactoryStorage {
 			return;
 		}
 		resourceCounts.forEach(this::removeResource);
-		calculatePrices();
 	}
 
 	public boolean hasResource(Resource resource) {
@@ -81,8 +103,8 @@ public class FactoryStorage {
 	}
 
 	public boolean hasResource(Resource resource, int count) {
-		StorageSlot slot = resources.get(resource);
-		return slot != null && slot.getCount() >= count;
+		int index = resource.ordinal();
+		return isStored(index) && counts[index] >= count;
 	}
 
 	public boolean hasResources(Map<Resource, Integer> resourceCounts) {
@@ -95,25 +117,28 @@ public class FactoryStorage {
 	}
 
 	public int getRemainingCapacity(Resource resource) {
-		int capacityTaken = getCapacityTaken(resource);
-		int capacity = getCapacity(resource);
-		return capacity - capacityTaken;
+		return getCapacity(resource) - getCapacityTaken(resource);
 	}
 
 	public int getCapacityTaken(Resource resource) {
-		return getSlot(resource).getCount();
+		return counts[resource.ordinal()];
 	}
 
 	public int getCapacity(Resource resource) {
-		return getSlot(resource).getCapacity();
+		return capacities[resource.ordinal()];
+	}
+
+	public int getPrice(Resource resource) {
+		return prices[resource.ordinal()];
 	}
 
 	void transferFrom(FactoryStorage otherStorage) {
-		otherStorage.getResources().forEach((resource, slot) -> {
-			int transferCount = Math.min(slot.getCount(), getRemainingCapacity(resource));
-			addResource(resource, transferCount);
-		});
-		calculatePrices();
+		for (int i = 0; i < RESOURCES.length; i++) {
+			if (otherStorage.isStored(i)) {
+				Resource resource = RESOURCES[i];
+				addResource(resource, Math.min(otherStorage.counts[i], getRemainingCapacity(resource)));
+			}
+		}
 	}
 
 	/**
@@ -133,87 +158,135 @@ public class FactoryStorage {
 		});
 	}
 
-	/**
-	 * This method does not remove any resources. It simply removes resources that have 0 capacity or less.
-	 */
-	public void clean() {
-		Map<Resource, StorageSlot> newResources = new HashMap<>();
-		this.resources.forEach((resource, slot) -> {
-			if (slot.getCapacity() > 0) {
-				newResources.put(resource, slot);
-			}
-		});
-		this.resources.clear();
-		this.resources.putAll(newResources);
-	}
-
 	public FactoryStorage copy() {
-		Map<Resource, StorageSlot> newResources = new HashMap<>();
-		resources.forEach((resource, slot) -> {
-			newResources.put(resource, new StorageSlot(slot));
-		});
-		return new FactoryStorage(newResources);
+		return new FactoryStorage(this);
 	}
 
 	public void setCapacity(Resource resource, int capacity) {
-		getSlot(resource).setCapacity(capacity);
-		calculatePrices();
+		int index = resource.ordinal();
+		capacities[index] = capacity;
+		update(index);
 	}
 
 	public void changeCapacities(Map<Resource, Integer> capacityChanges) {
 		capacityChanges.forEach((resource, change) -> {
-			StorageSlot slot = getSlot(resource);
-			slot.setCapacity(slot.getCapacity() + change);
+			int index = resource.ordinal();
+			capacities[index] += change;
+			update(index);
 		});
-		calculatePrices();
 	}
 
+	/**
+	 * Copies of the slots of stored resources.
+	 */
 	public Map<Resource, StorageSlot> getResources() {
+		Map<Resource, StorageSlot> resources = new EnumMap<>(Resource.class);
+		for (int i = 0; i < RESOURCES.length; i++) {
+			if (isStored(i)) {
+				resources.put(RESOURCES[i], new StorageSlot(counts[i], capacities[i], prices[i]));
+			}
+		}
 		return resources;
 	}
 
 	public Map<Resource, Integer> getPrices() {
-		Map<Resource, Integer> prices = new HashMap<>();
-		resources.forEach((resource, slot) -> {
-			prices.put(resource, slot.getPrice());
-		});
-		return prices;
+		return toMap(prices);
 	}
 
-	public Map<Resource, Integer> getCapacities() {
-		Map<Resource, Integer> capacities = new HashMap<>();
-		resources.forEach((resource, slot) -> {
-			capacities.put(resource, slot.getCapacity());
-		});
-		return capacities;
+	/**
+	 * Prices of stored resources which are missing from {@code knownPrices} or differ from them.
+	 */
+	public Map<Resource, Integer> getPriceChanges(Map<Resource, Integer> knownPrices) {
+		return getPriceChanges(knownPrices, null, 0, null);
 	}
 
-	private StorageSlot getSlot(Resource resource) {
-		return resources.compute(resource, (r, slot) -> {
-			if (slot == null) {
-				return new StorageSlot(0, 0, 0);
+	/**
+	 * Same as {@link #getPriceChanges(Map)}, but as if {@code countChange} of the resource was added (or removed when negative).
+	 * The storage itself is not changed, so callers can evaluate a command without copying the storage.
+	 */
+	public Map<Resource, Integer> getPriceChangesAfter(Resource resource, int countChange, Map<Resource, Integer> knownPrices) {
+		return getPriceChanges(knownPrices, resource, countChange, null);
+	}
+
+	/**
+	 * Same as {@link #getPriceChanges(Map)}, but as if given counts of resources were added (or removed when negative).
+	 */
+	public Map<Resource, Integer> getPriceChangesAfter(Map<Resource, Integer> countChanges, Map<Resource, Integer> knownPrices) {
+		return getPriceChanges(knownPrices, null, 0, countChanges);
+	}
+
+	/**
+	 * Only allocates a map if some price differs.
+	 */
+	private Map<Resource, Integer> getPriceChanges(Map<Resource, Integer> knownPrices, Resource changedResource,
+																								 int countChange, Map<Resource, Integer> countChanges
+																								) {
+		Map<Resource, Integer> changes = null;
+		for (int i = 0; i < RESOURCES.length; i++) {
+			if (!isStored(i)) {
+				continue;
 			}
-			return slot;
-		});
+			Resource resource = RESOURCES[i];
+			int count = counts[i];
+			if (resource == changedResource) {
+				count += countChange;
+			}
+			if (countChanges != null) {
+				count += countChanges.getOrDefault(resource, 0);
+			}
+			int price = count == counts[i] ? prices[i] : price(resource, count, capacities[i]);
+			Integer knownPrice = knownPrices.get(resource);
+			if (knownPrice == null || knownPrice != price) {
+				if (changes == null) {
+					changes = new EnumMap<>(Resource.class);
+				}
+				changes.put(resource, price);
+			}
+		}
+		return changes == null ? Collections.emptyMap() : changes;
 	}
 
-	private void calculatePrices() {
-		getResources().forEach((resource, slot) -> {
-			if (slot.getCapacity() == 0) {
-				return;
+	public Map<Resource, Integer> getCapacities() {
+		return toMap(capacities);
+	}
+
+	private Map<Resource, Integer> toMap(int[] values) {
+		Map<Resource, Integer> map = new EnumMap<>(Resource.class);
+		for (int i = 0; i < RESOURCES.length; i++) {
+			if (isStored(i)) {
+				map.put(RESOURCES[i], values[i]);
 			}
+		}
+		return map;
+	}
 
-			float percentTaken = slot.getCount() / (float) slot.getCapacity();
-			float percentFree = 1f - percentTaken;
-			float priceRange = resource.getMaxPrice() - resource.getMinPrice();
-			float price = (float) resource.getMinPrice() + (priceRange * percentFree);
-			slot.setPrice(Math.round(price));
-		});
-		clean();
+	private boolean isStored(int index) {
+		return capacities[index] > 0;
+	}
+
+	/**
+	 * Drops a resource whose capacity fell to zero or below, or recalculates its price.
+	 */
+	private void update(int index) {
+		if (!isStored(index)) {
+			counts[index] = 0;
+			capacities[index] = 0;
+			prices[index] = 0;
+			return;
+		}
+		prices[index] = price(RESOURCES[index], counts[index], capacities[index]);
+	}
+
+	private static int price(Resource resource, int count, int capacity) {
+		float percentTaken = count / (float) capacity;
+		float percentFree = 1f - percentTaken;
+		float priceRange = resource.getMaxPrice() - resource.getMinPrice();
+		float price = (float) resource.getMinPrice() + (priceRange * percentFree);
+		return Math.round(price);
 	}
 
 	@Override
 	public String toString() {
-		return "FactoryStorage{" + "resources=" + resources + '}';
+		return "FactoryStorage{" + "resources=" + getResources() + '}';
 	}
 }
@@ -0,0 +1,79 @@
+package com.soze.factory.cluster;
+
+import com.soze.factory.event.Event;
+import com.soze.factory.service.FactoryService;
+import com.soze.factory.store.EventStore;
+import com.soze.factory.store.PositionedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Sends changes of factories owned by other instances to the WebSocket sessions of this instance.
+ * Events are only published within the instance which appended them, so this tails the event store shared
+ * by all instances and hands events of factories owned elsewhere to {@link FactoryService}.
+ * Needs a store with a global log, like the database store, events appended before the start are not relayed.
+ * <p>
+ * While owners change, an instance can still append events of a factory it no longer owns, its sessions get those
+ * events twice. Clients skip events with a version they already applied. The other way round, events the previous owner
+ * appends after this instance took a factory over are not relayed, sessions get them with the next snapshot.
+ */
+@Service
+@Profile("clustered")
+public class ClusterEventRelay {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ClusterEventRelay.class);
+
+	private final EventStore eventStore;
+	private final FactoryOwnership ownership;
+	private final FactoryService factoryService;
+	private final int batchSize;
+
+	/**
+	 * Position of the next event to relay. Only used by the thread relaying events.
+	 */
+	private long nextPosition;
+
+	@Autowired
+	public ClusterEventRelay(EventStore eventStore, FactoryOwnership ownership, FactoryService factoryService,
+													 @Value("${factory.cluster.relay-batch-size:1000}") int batchSize
+													) {
+		this.eventStore = eventStore;
+		this.ownership = ownership;
+		this.factoryService = factoryService;
+		this.batchSize = batchSize;
+	}
+
+	@PostConstruct
+	public void start() {
+		nextPosition = eventStore.getLastPosition() + 1;
+		LOG.info("Relaying events of factories owned by other instances from position {}", nextPosition);
+	}
+
+	/**
+	 * Relays at most one batch of events appended since the last call.
+	 */
+	@Scheduled(fixedDelayString = "${factory.cluster.relay-interval:200}")
+	public void relay() {
+		try (Stream<PositionedEvent> events = eventStore.streamAll(nextPosition)) {
+			events.limit(batchSize).forEach(positioned -> {
+				nextPosition = positioned.getPosition() + 1;
+				Event event = positioned.getEvent();
+				if (!ownership.isOwner(UUID.fromString(event.entityId))) {
+					factoryService.relay(event);
+				}
+			});
+		} catch (Exception e) {
+			LOG.error("Exception when relaying events from position {}", nextPosition, e);
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.soze.factory.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Assigns factories to instances. Every instance is placed on a hash ring many times (virtual nodes) and a factory
+ * belongs to the first instance following the hash of its id. When an instance joins or leaves, only the factories
+ * between its virtual nodes and their predecessors change owner, which is about 1/N of all factories.
+ */
+public final class ConsistentHashRing {
+
+	private final NavigableMap<Long, String> ring = new TreeMap<>();
+	private final Set<String> instances;
+
+	public ConsistentHashRing(Collection<String> instances, int virtualNodes) {
+		this.instances = Collections.unmodifiableSet(new TreeSet<>(instances));
+		for (String instance : this.instances) {
+			for (int i = 0; i < virtualNodes; i++) {
+				ring.put(hash(instance + "#" + i), instance);
+			}
+		}
+	}
+
+	/**
+	 * Id of the instance owning the factory, null if there are no instances.
+	 */
+	public String owner(UUID factoryId) {
+		if (ring.isEmpty()) {
+			return null;
+		}
+		Map.Entry<Long, String> entry = ring.ceilingEntry(hash(factoryId));
+		return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+	}
+
+	public Set<String> getInstances() {
+		return instances;
+	}
+
+	private static long hash(UUID id) {
+		return mix(id.getMostSignificantBits() ^ Long.rotateLeft(id.getLeastSignificantBits(), 32));
+	}
+
+	/**
+	 * 64 bit FNV-1a of the UTF-8 bytes.
+	 */
+	private static long hash(String value) {
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * Finalizer of MurmurHash3, spreads similar inputs over the whole ring.
+	 */
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return "ConsistentHashRing{" + "instances=" + instances + '}';
+	}
+}
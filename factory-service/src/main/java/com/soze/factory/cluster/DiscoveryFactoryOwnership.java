@@ -0,0 +1,113 @@
+package com.soze.factory.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.client.serviceregistry.Registration;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.net.URI;
+import java.util.*;
+
+/**
+ * Partitions factories between the instances of this service registered in service discovery.
+ * The first ring is built on start, before any bean can ask for owners. Membership is refreshed periodically after,
+ * when it changes a {@link FactoryOwnershipChanged} is published.
+ * This instance is always part of the ring, even before it shows up in discovery.
+ * <p>
+ * Sessions of every instance get changes of all factories, those owned elsewhere through {@link ClusterEventRelay}.
+ */
+@Service
+@Profile("clustered")
+public class DiscoveryFactoryOwnership implements FactoryOwnership {
+
+	private static final Logger LOG = LoggerFactory.getLogger(DiscoveryFactoryOwnership.class);
+
+	private final DiscoveryClient discoveryClient;
+	private final ApplicationEventPublisher eventPublisher;
+	private final String serviceId;
+	private final String instanceId;
+	private final int virtualNodes;
+
+	private volatile ConsistentHashRing ring;
+	private volatile Map<String, URI> instanceUris = Collections.emptyMap();
+
+	@Autowired
+	public DiscoveryFactoryOwnership(DiscoveryClient discoveryClient, Registration registration,
+																	 ApplicationEventPublisher eventPublisher,
+																	 @Value("${spring.application.name}") String serviceId,
+																	 @Value("${factory.cluster.virtual-nodes:128}") int virtualNodes
+																	) {
+		this.discoveryClient = discoveryClient;
+		this.eventPublisher = eventPublisher;
+		this.serviceId = serviceId;
+		this.instanceId = instanceId(registration);
+		this.virtualNodes = virtualNodes;
+		this.ring = new ConsistentHashRing(Collections.singleton(instanceId), virtualNodes);
+	}
+
+	@PostConstruct
+	public void start() {
+		update();
+		LOG.info("Factory owners are {}", ring.getInstances());
+	}
+
+	@Scheduled(fixedDelayString = "${factory.cluster.refresh-interval:10000}")
+	public void refresh() {
+		ConsistentHashRing previous = ring;
+		if (update()) {
+			LOG.info("Factory owners changed from {} to {}", previous.getInstances(), ring.getInstances());
+			eventPublisher.publishEvent(new FactoryOwnershipChanged(instanceId, previous, ring));
+		}
+	}
+
+	/**
+	 * Reads instances from discovery and builds a new ring if they changed.
+	 *
+	 * @return true if the ring changed
+	 */
+	private boolean update() {
+		Map<String, URI> uris = new HashMap<>();
+		for (ServiceInstance instance : discoveryClient.getInstances(serviceId)) {
+			uris.put(instanceId(instance), instance.getUri());
+		}
+		Set<String> instances = new HashSet<>(uris.keySet());
+		instances.add(instanceId);
+		instanceUris = uris;
+		if (instances.equals(ring.getInstances())) {
+			return false;
+		}
+		ring = new ConsistentHashRing(instances, virtualNodes);
+		return true;
+	}
+
+	@Override
+	public boolean isOwner(UUID factoryId) {
+		return instanceId.equals(ring.owner(factoryId));
+	}
+
+	@Override
+	public Optional<URI> getOwnerUri(UUID factoryId) {
+		String owner = ring.owner(factoryId);
+		if (instanceId.equals(owner)) {
+			return Optional.empty();
+		}
+		URI uri = instanceUris.get(owner);
+		if (uri == null) {
+			LOG.warn("No uri of instance {} owning factory {}, handling it locally", owner, factoryId);
+		}
+		return Optional.ofNullable(uri);
+	}
+
+	private static String instanceId(ServiceInstance instance) {
+		return instance.getInstanceId() != null ? instance.getInstanceId() : instance.getHost() + ":" + instance.getPort();
+	}
+
+}
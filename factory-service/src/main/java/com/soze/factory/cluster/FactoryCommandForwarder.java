@@ -0,0 +1,67 @@
+package com.soze.factory.cluster;
+
+import com.soze.common.dto.BuyResultDTO;
+import com.soze.common.dto.SellResultDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.net.URI;
+import java.time.Duration;
+
+/**
+ * Sends commands of factories owned by another instance to that instance.
+ * Forwarded requests are marked, so an instance with an outdated view of the owners handles them
+ * instead of forwarding them again.
+ * Calls are bounded by connect and read timeouts, so an unreachable owner fails the request instead of
+ * holding its thread.
+ */
+@Service
+public class FactoryCommandForwarder {
+
+	private static final Logger LOG = LoggerFactory.getLogger(FactoryCommandForwarder.class);
+
+	public static final String FORWARDED_HEADER = "X-Factory-Forwarded";
+
+	private final RestTemplate restTemplate;
+
+	@Autowired
+	public FactoryCommandForwarder(RestTemplateBuilder restTemplateBuilder,
+																 @Value("${factory.cluster.forward.connect-timeout-millis:1000}") long connectTimeoutMillis,
+																 @Value("${factory.cluster.forward.read-timeout-millis:5000}") long readTimeoutMillis
+																) {
+		this.restTemplate = restTemplateBuilder.setConnectTimeout(Duration.ofMillis(connectTimeoutMillis))
+																					 .setReadTimeout(Duration.ofMillis(readTimeoutMillis))
+																					 .build();
+	}
+
+	public SellResultDTO sell(URI owner, String factoryId, String resource, Integer count) {
+		return post(owner, "/factory/sell", factoryId, resource, count, SellResultDTO.class);
+	}
+
+	public BuyResultDTO buy(URI owner, String factoryId, String resource, Integer count) {
+		return post(owner, "/factory/buy", factoryId, resource, count, BuyResultDTO.class);
+	}
+
+	private <T> T post(URI owner, String path, String factoryId, String resource, Integer count, Class<T> resultType) {
+		URI uri = UriComponentsBuilder.fromUri(owner)
+																	.path(path)
+																	.queryParam("factoryId", factoryId)
+																	.queryParam("resource", resource)
+																	.queryParam("count", count)
+																	.build()
+																	.toUri();
+		LOG.debug("Forwarding to {}", uri);
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(FORWARDED_HEADER, "true");
+		return restTemplate.postForObject(uri, new HttpEntity<>(headers), resultType);
+	}
+
+}
@@ -0,0 +1,31 @@
+package com.soze.factory.cluster;
+
+import java.net.URI;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Decides which factory-service instance is responsible for a factory. Only the owner schedules production
+ * of a factory, caches it and handles its commands, other instances forward commands to the owner.
+ */
+public interface FactoryOwnership {
+
+	boolean isOwner(UUID factoryId);
+
+	/**
+	 * Base uri of the instance owning the factory, empty if it is this instance.
+	 */
+	Optional<URI> getOwnerUri(UUID factoryId);
+
+	/**
+	 * Id for a new factory which will be owned by this instance.
+	 */
+	default UUID newFactoryId() {
+		UUID factoryId = UUID.randomUUID();
+		while (!isOwner(factoryId)) {
+			factoryId = UUID.randomUUID();
+		}
+		return factoryId;
+	}
+
+}
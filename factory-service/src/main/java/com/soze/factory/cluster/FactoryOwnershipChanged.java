@@ -0,0 +1,38 @@
+package com.soze.factory.cluster;
+
+import java.util.UUID;
+
+/**
+ * Published when instances joined or left the cluster, so some factories changed owner.
+ */
+public class FactoryOwnershipChanged {
+
+	private final String instanceId;
+	private final ConsistentHashRing previous;
+	private final ConsistentHashRing current;
+
+	public FactoryOwnershipChanged(String instanceId, ConsistentHashRing previous, ConsistentHashRing current) {
+		this.instanceId = instanceId;
+		this.previous = previous;
+		this.current = current;
+	}
+
+	/**
+	 * Whether this instance became the owner of the factory.
+	 */
+	public boolean gained(UUID factoryId) {
+		return !instanceId.equals(previous.owner(factoryId)) && instanceId.equals(current.owner(factoryId));
+	}
+
+	/**
+	 * Whether this instance is no longer the owner of the factory.
+	 */
+	public boolean lost(UUID factoryId) {
+		return instanceId.equals(previous.owner(factoryId)) && !instanceId.equals(current.owner(factoryId));
+	}
+
+	@Override
+	public String toString() {
+		return "FactoryOwnershipChanged{" + "previous=" + previous + ", current=" + current + '}';
+	}
+}
@@ -0,0 +1,27 @@
+package com.soze.factory.cluster;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * This instance owns all factories.
+ */
+@Service
+@Profile("!clustered")
+public class SingleInstanceOwnership implements FactoryOwnership {
+
+	@Override
+	public boolean isOwner(UUID factoryId) {
+		return true;
+	}
+
+	@Override
+	public Optional<URI> getOwnerUri(UUID factoryId) {
+		return Optional.empty();
+	}
+
+}
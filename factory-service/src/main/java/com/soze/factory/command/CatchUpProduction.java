@@ -0,0 +1,44 @@
+package com.soze.factory.command;
+
+import com.soze.factory.event.Event;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Finishes every production cycle which fit between the start of the running production and the current game time,
+ * for example after the service was down or the scheduler fell behind.
+ */
+public class CatchUpProduction implements Command {
+
+	private final UUID factoryId;
+	private final long currentGameTime;
+
+	public CatchUpProduction(UUID factoryId, long currentGameTime) {
+		this.factoryId = factoryId;
+		this.currentGameTime = currentGameTime;
+	}
+
+	public UUID getFactoryId() {
+		return factoryId;
+	}
+
+	public long getCurrentGameTime() {
+		return currentGameTime;
+	}
+
+	@Override
+	public UUID getEntityId() {
+		return getFactoryId();
+	}
+
+	@Override
+	public List<Event> accept(CommandVisitor commandVisitor) {
+		return commandVisitor.visit(this);
+	}
+
+	@Override
+	public String toString() {
+		return "CatchUpProduction{" + "factoryId='" + factoryId + '\'' + ", currentGameTime=" + currentGameTime + '}';
+	}
+}
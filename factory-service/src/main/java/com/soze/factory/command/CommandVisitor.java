@@ -15,5 +15,6 @@ public interface CommandVisitor {
 	List<Event> visit(SellResource sellResource);
 	List<Event> visit(ChangeResourceStorageCapacity changeResourceStorageCapacity);
 	List<Event> visit(BuyResource buyResource);
+	List<Event> visit(CatchUpProduction catchUpProduction);
 
 }
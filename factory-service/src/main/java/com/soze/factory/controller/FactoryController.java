@@ -2,11 +2,16 @@ package com.soze.factory.controller;
 
 import com.soze.common.client.FactoryServiceClient;
 import com.soze.common.dto.BuyResultDTO;
+import com.soze.common.dto.ConstructFactoryDTO;
+import com.soze.common.dto.ConstructResultDTO;
 import com.soze.common.dto.FactoryDTO;
 import com.soze.common.dto.Resource;
 import com.soze.common.dto.SellResultDTO;
+import com.soze.common.json.JsonUtils;
 import com.soze.factory.FactoryConverter;
 import com.soze.factory.aggregate.Factory;
+import com.soze.factory.cluster.FactoryCommandForwarder;
+import com.soze.factory.cluster.FactoryOwnership;
 import com.soze.factory.command.BuyResource;
 import com.soze.factory.command.Command;
 import com.soze.factory.command.SellResource;
@@ -20,19 +25,31 @@ import io.swagger.annotations.Api;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @RestController
 @Api(value = "Factory")
@@ -40,26 +57,50 @@ public class FactoryController implements FactoryServiceClient {
 
 	private static final Logger LOG = LoggerFactory.getLogger(FactoryController.class);
 
+	private static final String NDJSON = "application/x-ndjson";
+	private static final String NEXT_SEQUENCE_HEADER = "X-Next-Sequence";
+
 	private final FactoryService factoryService;
 	private final FactoryCommandService factoryCommandService;
 	private final FactoryTemplateLoader factoryTemplateLoader;
 	private final FactoryConverter factoryConverter;
 	private final FactoryRepository factoryRepository;
+	private final HttpServletRequest request;
 	private final HttpServletResponse response;
 	private final EventStore eventStore;
+	private final FactoryOwnership ownership;
+	private final FactoryCommandForwarder forwarder;
+
+	/**
+	 * Upper bound of events returned by a single call to {@link #getEvents}.
+	 */
+	private final int maxPageSize;
+
+	/**
+	 * Upper bound of factories constructed by a single call to {@link #constructFactories}.
+	 */
+	private final int maxConstructBatchSize;
 
 	@Autowired
 	public FactoryController(FactoryService factoryService, FactoryCommandService factoryCommandService,
 													 FactoryTemplateLoader factoryTemplateLoader, FactoryConverter factoryConverter,
-													 FactoryRepository factoryRepository, HttpServletResponse response, EventStore eventStore
+													 FactoryRepository factoryRepository, HttpServletRequest request, HttpServletResponse response,
+													 EventStore eventStore, FactoryOwnership ownership, FactoryCommandForwarder forwarder,
+													 @Value("${factory.events.max-page-size:1000}") int maxPageSize,
+													 @Value("${factory.construct.max-batch-size:100}") int maxConstructBatchSize
 													) {
 		this.factoryService = factoryService;
 		this.factoryCommandService = factoryCommandService;
 		this.factoryTemplateLoader = factoryTemplateLoader;
 		this.factoryConverter = factoryConverter;
 		this.factoryRepository = factoryRepository;
+		this.request = request;
 		this.response = response;
 		this.eventStore = eventStore;
+		this.ownership = ownership;
+		this.forwarder = forwarder;
+		this.maxPageSize = maxPageSize;
+		this.maxConstructBatchSize = maxConstructBatchSize;
 	}
 
 	@GetMapping(value = "/")
@@ -91,6 +132,10 @@ public class FactoryController implements FactoryServiceClient {
 
 	public SellResultDTO sell(String factoryId, String resourceStr, Integer count) {
 		LOG.info("Called /sell endpoint, factoryId = {}, resource = {}, count = {}", factoryId, resourceStr, count);
+		Optional<URI> owner = getOwnerUri(factoryId);
+		if (owner.isPresent()) {
+			return forwarder.sell(owner.get(), factoryId, resourceStr, count);
+		}
 		Resource resource = Resource.valueOf(resourceStr);
 		try {
 			factoryCommandService.visit(new SellResource(UUID.fromString(factoryId), resource, count));
@@ -104,6 +149,10 @@ public class FactoryController implements FactoryServiceClient {
 	@Override
 	public BuyResultDTO buy(String factoryId, String resourceStr, Integer count) {
 		LOG.info("Called /buy endpoint, factoryId = {}, resource = {}, count = {}", factoryId, resourceStr, count);
+		Optional<URI> owner = getOwnerUri(factoryId);
+		if (owner.isPresent()) {
+			return forwarder.buy(owner.get(), factoryId, resourceStr, count);
+		}
 		Resource resource = Resource.valueOf(resourceStr);
 		try {
 			factoryCommandService.visit(new BuyResource(UUID.fromString(factoryId), resource, count));
@@ -114,21 +163,135 @@ public class FactoryController implements FactoryServiceClient {
 		}
 	}
 
+	/**
+	 * Commands of a factory owned by another instance are forwarded there, unless they were already forwarded.
+	 */
+	private Optional<URI> getOwnerUri(String factoryId) {
+		if (request.getHeader(FactoryCommandForwarder.FORWARDED_HEADER) != null) {
+			return Optional.empty();
+		}
+		return ownership.getOwnerUri(UUID.fromString(factoryId));
+	}
+
+	/**
+	 * Returns a page of events of one factory, starting with the event at sequence {@code from}.
+	 * If there are more events, the sequence of the next page is returned in the {@code X-Next-Sequence} header.
+	 */
 	@GetMapping("/events")
-	public List<Event> getEvents(@RequestParam("id") String id) {
-		LOG.info("Called getEvents, id = {}", id);
-		return eventStore.getEventsForEntity(UUID.fromString(id));
+	public List<Event> getEvents(@RequestParam("id") String id, @RequestParam(value = "from", defaultValue = "1") long from,
+															 @RequestParam(value = "limit", required = false) Integer limit
+															) {
+		LOG.info("Called getEvents, id = {}, from = {}, limit = {}", id, from, limit);
+		int pageSize = limit == null ? maxPageSize : Math.min(limit, maxPageSize);
+		try (Stream<Event> events = eventStore.streamEventsForEntity(UUID.fromString(id), from)) {
+			List<Event> page = events.limit(pageSize + 1).collect(Collectors.toList());
+			if (page.size() <= pageSize) {
+				return page;
+			}
+			response.setHeader(NEXT_SEQUENCE_HEADER, String.valueOf(Math.max(from, 1) + pageSize));
+			return page.subList(0, pageSize);
+		}
+	}
+
+	/**
+	 * Streams the whole history of one factory as newline delimited json, without holding it in memory.
+	 */
+	@GetMapping(value = "/events/stream", produces = NDJSON)
+	public StreamingResponseBody streamEvents(@RequestParam("id") String id,
+																						@RequestParam(value = "from", defaultValue = "1") long from
+																					 ) {
+		LOG.info("Called streamEvents, id = {}, from = {}", id, from);
+		UUID factoryId = UUID.fromString(id);
+		return outputStream -> writeNdjson(eventStore.streamEventsForEntity(factoryId, from), outputStream);
+	}
+
+	/**
+	 * Streams events of all factories in the global order of the store as newline delimited json.
+	 * Every line carries the position of its event, a reader can continue from the last position + 1.
+	 */
+	@GetMapping(value = "/events/all", produces = NDJSON)
+	public StreamingResponseBody streamAllEvents(@RequestParam(value = "from", defaultValue = "0") long from) {
+		LOG.info("Called streamAllEvents, from = {}", from);
+		return outputStream -> writeNdjson(eventStore.streamAll(from), outputStream);
+	}
+
+	private void writeNdjson(Stream<?> stream, OutputStream outputStream) throws IOException {
+		try (Stream<?> lines = stream) {
+			Iterator<?> iterator = lines.iterator();
+			while (iterator.hasNext()) {
+				outputStream.write(JsonUtils.serializeToBytes(iterator.next()));
+				outputStream.write('\n');
+			}
+		}
+		outputStream.flush();
 	}
 
 	@PostMapping(path = "/construct")
 	public FactoryDTO constructFactory(@RequestParam("templateId") String templateId, @RequestParam("cityId") String cityId) {
-		UUID factoryId = UUID.randomUUID();
+		UUID factoryId = ownership.newFactoryId();
 		LOG.info("Called constructFactory, templateId = {}, cityId = {}", templateId, cityId);
 		List<Command> commands = factoryTemplateLoader.getFactoryCommandsByTemplateId(factoryId, templateId, cityId);
-		commands.forEach(command -> command.accept(factoryCommandService));
+		factoryCommandService.visitAll(commands);
 
 		Optional<Factory> factory = factoryRepository.findById(factoryId);
 		return factoryConverter.convert(factory.get());
 	}
 
+	/**
+	 * Constructs many factories in one request, each one with a single append. Factories are constructed in parallel,
+	 * the result holds the outcome of every construction, in the order of the request.
+	 * Requests with more than {@code factory.construct.max-batch-size} constructions are rejected as a whole.
+	 */
+	@PostMapping(path = "/construct/batch")
+	public List<ConstructResultDTO> constructFactories(@RequestBody List<ConstructFactoryDTO> constructions) {
+		LOG.info("Called constructFactories, {} factories", constructions.size());
+		if (constructions.size() > maxConstructBatchSize) {
+			LOG.warn("Rejected construction of {} factories, at most {} are allowed", constructions.size(),
+							 maxConstructBatchSize
+			);
+			response.setStatus(HttpStatus.PAYLOAD_TOO_LARGE.value());
+			return null;
+		}
+		List<UUID> factoryIds = new ArrayList<>();
+		List<CompletableFuture<List<Event>>> results = new ArrayList<>();
+		for (ConstructFactoryDTO construction : constructions) {
+			UUID factoryId = ownership.newFactoryId();
+			factoryIds.add(factoryId);
+			results.add(submitConstruction(factoryId, construction));
+		}
+		List<ConstructResultDTO> constructed = new ArrayList<>();
+		for (int i = 0; i < constructions.size(); i++) {
+			constructed.add(awaitConstruction(factoryIds.get(i), constructions.get(i), results.get(i)));
+		}
+		return constructed;
+	}
+
+	private CompletableFuture<List<Event>> submitConstruction(UUID factoryId, ConstructFactoryDTO construction) {
+		try {
+			List<Command> commands = factoryTemplateLoader.getFactoryCommandsByTemplateId(
+				factoryId, construction.getTemplateId(), construction.getCityId());
+			return factoryCommandService.submitBatch(commands);
+		} catch (RuntimeException e) {
+			CompletableFuture<List<Event>> result = new CompletableFuture<>();
+			result.completeExceptionally(e);
+			return result;
+		}
+	}
+
+	private ConstructResultDTO awaitConstruction(UUID factoryId, ConstructFactoryDTO construction,
+																							 CompletableFuture<List<Event>> result
+																							) {
+		try {
+			result.join();
+			FactoryDTO factory = factoryConverter.convert(factoryRepository.findById(factoryId).get());
+			return new ConstructResultDTO(construction.getTemplateId(), construction.getCityId(), true, factory, null);
+		} catch (Exception e) {
+			Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+			LOG.warn("Exception when constructing factory {}", factoryId, cause);
+			return new ConstructResultDTO(construction.getTemplateId(), construction.getCityId(), false, null,
+																		String.valueOf(cause.getMessage())
+			);
+		}
+	}
+
 }
@@ -2,8 +2,8 @@ package com.soze.factory.controller;
 
 import com.soze.common.json.JsonUtils;
 import com.soze.common.message.client.ClientMessage;
+import com.soze.common.message.client.SubscriptionRequest;
 import com.soze.factory.service.FactoryService;
-import com.soze.factory.service.SocketSessionContainer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,13 +18,10 @@ public class FactoryWebSocketController extends TextWebSocketHandler {
 
 	private static final Logger LOG = LoggerFactory.getLogger(FactoryWebSocketController.class);
 
-	private final SocketSessionContainer socketSessionContainer;
 	private final FactoryService factoryService;
 
 	@Autowired
-	public FactoryWebSocketController(SocketSessionContainer socketSessionContainer, FactoryService factoryService
-																	 ) {
-		this.socketSessionContainer = socketSessionContainer;
+	public FactoryWebSocketController(FactoryService factoryService) {
 		this.factoryService = factoryService;
 	}
 
@@ -32,7 +29,6 @@ public class FactoryWebSocketController extends TextWebSocketHandler {
 	public void afterConnectionEstablished(WebSocketSession session
 																				) throws Exception {
 		LOG.info("{} connected", session.getId());
-		socketSessionContainer.addSession(session);
 		factoryService.handleNewSession(session);
 	}
 
@@ -40,14 +36,22 @@ public class FactoryWebSocketController extends TextWebSocketHandler {
 	public void afterConnectionClosed(WebSocketSession session, CloseStatus status
 																	 ) throws Exception {
 		LOG.info("{} disconnected", session.getId());
-		socketSessionContainer.removeSession(session.getId());
+		factoryService.handleClosedSession(session.getId());
 	}
 
 	@Override
 	protected void handleTextMessage(WebSocketSession session, TextMessage message
 																	) throws Exception {
-		LOG.trace("Received message from client id {}", session.getId());
-		ClientMessage clientMessage = JsonUtils.parse(message.getPayload(), ClientMessage.class);
-		LOG.trace("Client message type from client id{}", clientMessage.getType());
+		try {
+			LOG.trace("Received message from client id {}", session.getId());
+			ClientMessage clientMessage = JsonUtils.parse(message.getPayload(), ClientMessage.class);
+			LOG.trace("Client message type = {} from client id = {}", clientMessage.getType(), session.getId());
+
+			if (clientMessage.getType() == ClientMessage.ClientMessageType.SUBSCRIPTION_REQUEST) {
+				factoryService.handleSubscription(session.getId(), (SubscriptionRequest) clientMessage);
+			}
+		} catch (Exception e) {
+			LOG.info("Exception during message handling", e);
+		}
 	}
 }
@@ -20,6 +20,8 @@ import java.time.LocalDateTime;
 	@JsonSubTypes.Type(value = ResourceBought.class, name = "RESOURCE_BOUGHT"),
 	@JsonSubTypes.Type(value = ResourceStorageCapacityChanged.class, name = "RESOURCE_STORAGE_CAPACITY_CHANGED"),
 	@JsonSubTypes.Type(value = ResourcePriceChanged.class, name = "RESOURCE_PRICE_CHANGED"),
+	@JsonSubTypes.Type(value = ResourcePriceChanged2.class, name = "RESOURCE_PRICE_CHANGED2"),
+	@JsonSubTypes.Type(value = ProductionCyclesCompleted.class, name = "PRODUCTION_CYCLES_COMPLETED"),
 })
 @JsonIgnoreProperties(ignoreUnknown = true)
 public abstract class Event implements Serializable {
@@ -49,6 +51,7 @@ public abstract class Event implements Serializable {
 
 	public enum EventType {
 		FACTORY_CREATED, PRODUCTION_STARTED, STORAGE_CAPACITY_CHANGED, PRODUCTION_LINE_ADDED, PRODUCTION_FINISHED, RESOURCE_SOLD,
-		RESOURCE_STORAGE_CAPACITY_CHANGED, RESOURCE_PRICE_CHANGED, PRODUCTION_STARTED2, PRODUCTION_LINE_ADDED2, RESOURCE_BOUGHT;
+		RESOURCE_STORAGE_CAPACITY_CHANGED, RESOURCE_PRICE_CHANGED, PRODUCTION_STARTED2, PRODUCTION_LINE_ADDED2, RESOURCE_BOUGHT,
+		RESOURCE_PRICE_CHANGED2, PRODUCTION_CYCLES_COMPLETED;
 	}
 }
@@ -1,36 +1,97 @@
 package com.soze.factory.event;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Delivers stored events to projections and to the web socket broadcast.
+ * In async mode publishing only puts events in a ring buffer and listeners run on the ring's lane threads,
+ * so a command waits for its durable append, not for the listeners.
+ * Events of a single factory are still delivered in order.
+ */
 @Service
 public class EventBus {
 
+	private static final Logger LOG = LoggerFactory.getLogger(EventBus.class);
+
 	private final ApplicationEventPublisher eventPublisher;
 	private final EventUpcastService upcastService;
+	private final EventRing ring;
 
-	@Autowired
 	public EventBus(ApplicationEventPublisher eventPublisher, EventUpcastService upcastService) {
 		this.eventPublisher = eventPublisher;
 		this.upcastService = upcastService;
+		this.ring = null;
+	}
+
+	@Autowired
+	public EventBus(ApplicationEventPublisher eventPublisher, EventUpcastService upcastService,
+									MeterRegistry meterRegistry, @Value("${factory.event-bus.async:false}") boolean async,
+									@Value("${factory.event-bus.ring-size:4096}") int ringSize,
+									@Value("${factory.event-bus.lanes:4}") int lanes
+								 ) {
+		this.eventPublisher = eventPublisher;
+		this.upcastService = upcastService;
+		this.ring = async ? new EventRing(ringSize, lanes, eventPublisher::publishEvent) : null;
+		if (ring != null) {
+			Gauge.builder("factory.event-bus.backlog", ring, EventRing::backlog)
+					 .description("Number of published events not yet read by every lane")
+					 .register(meterRegistry);
+		}
+	}
+
+	@PostConstruct
+	public void start() {
+		if (ring != null) {
+			LOG.info("Starting async event bus");
+			ring.start();
+		}
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		if (ring != null) {
+			ring.stop(5000);
+		}
 	}
 
 	public void publish(Object event) {
-		eventPublisher.publishEvent(event);
+		if (ring != null) {
+			ring.publish(event);
+		} else {
+			eventPublisher.publishEvent(event);
+		}
 	}
 
-	public List<Event> publish(List<Event> events) {
-		List<Event> upcastEvents = new ArrayList<>();
+	/**
+	 * Brings freshly created events to their latest version, which is the version they are stored in.
+	 */
+	public List<Event> upcast(List<Event> events) {
+		List<Event> upcastEvents = new ArrayList<>(events.size());
 		for (Event event : events) {
 			upcastEvents.add(upcastService.upcast(event));
 		}
-		for (Event event : upcastEvents) {
+		return upcastEvents;
+	}
+
+	/**
+	 * Publishes already stored events to projections.
+	 */
+	public List<Event> publish(List<Event> events) {
+		for (Event event : events) {
 			publish(event);
 		}
-		return upcastEvents;
+		return events;
 	}
 }
@@ -0,0 +1,270 @@
+package com.soze.factory.event;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Preallocated ring of published events, read by a fixed number of lanes. Every lane reads every slot,
+ * but only delivers events of the aggregates hashed to it, so events of one aggregate are delivered
+ * in publishing order by a single thread, while different aggregates are delivered in parallel.
+ * Producers claim slots with a CAS on the cursor and wait when the slowest lane is a whole ring behind.
+ * Waiting threads spin briefly, then block until they are signalled. Publishing and reading only touch the lock
+ * when some thread is actually blocked, so a busy ring never takes it.
+ */
+final class EventRing {
+
+	private static final Logger LOG = LoggerFactory.getLogger(EventRing.class);
+
+	private static final int SPIN_TRIES = 100;
+
+	private final Object[] entries;
+
+	/**
+	 * Sequence last written to each slot, a slot can be read once it holds the expected sequence.
+	 */
+	private final AtomicLongArray available;
+	private final int mask;
+
+	/**
+	 * Last claimed sequence.
+	 */
+	private final AtomicLong cursor = new AtomicLong(-1);
+	private final Lane[] lanes;
+	private final Consumer<Object> delivery;
+
+	private volatile boolean running = true;
+
+	private final Lock lock = new ReentrantLock();
+
+	/**
+	 * Signalled when an event is published, for lanes waiting for one.
+	 */
+	private final Condition published = lock.newCondition();
+
+	/**
+	 * Signalled when a lane moves on, for producers waiting for a free slot.
+	 */
+	private final Condition consumed = lock.newCondition();
+
+	/**
+	 * Number of threads blocked on each condition, or about to block. Every thread increments it before checking
+	 * its condition for the last time, and the other side reads it after making its change, so a signal is never
+	 * skipped while a thread waits.
+	 */
+	private final AtomicInteger waitingLanes = new AtomicInteger();
+	private final AtomicInteger waitingProducers = new AtomicInteger();
+
+	EventRing(int size, int laneCount, Consumer<Object> delivery) {
+		if (Integer.bitCount(size) != 1) {
+			throw new IllegalArgumentException("Ring size has to be a power of two, was " + size);
+		}
+		this.entries = new Object[size];
+		this.available = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			available.set(i, -1);
+		}
+		this.mask = size - 1;
+		this.delivery = delivery;
+		this.lanes = new Lane[laneCount];
+		for (int i = 0; i < laneCount; i++) {
+			lanes[i] = new Lane(i);
+		}
+	}
+
+	void start() {
+		for (Lane lane : lanes) {
+			lane.thread.start();
+		}
+	}
+
+	/**
+	 * Lets the lanes deliver what was already published, for at most the given time.
+	 */
+	void stop(long timeoutMillis) throws InterruptedException {
+		running = false;
+		signalAll(published);
+		signalAll(consumed);
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		for (Lane lane : lanes) {
+			lane.thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+		}
+	}
+
+	/**
+	 * Publishes an event to the lanes. When the ring is full, the caller waits for the lanes to catch up.
+	 * A lane thread cannot wait for itself, so an event it publishes into a full ring is delivered right away
+	 * on that thread instead, which is the only case in which per-aggregate order is not kept.
+	 * After a stop, events are delivered on the calling thread.
+	 */
+	void publish(Object event) {
+		if (!running) {
+			delivery.accept(event);
+			return;
+		}
+		long sequence = claim();
+		if (sequence < 0) {
+			LOG.warn("Event ring is full or stopped, delivering {} on calling thread", event);
+			delivery.accept(event);
+			return;
+		}
+		int index = (int) (sequence & mask);
+		entries[index] = event;
+		available.set(index, sequence);
+		if (waitingLanes.get() > 0) {
+			signalAll(published);
+		}
+	}
+
+	/**
+	 * Claims the next sequence, or returns -1 if the ring is full and the caller cannot wait for it.
+	 */
+	private long claim() {
+		boolean laneThread = Thread.currentThread() instanceof LaneThread;
+		int tries = 0;
+		while (true) {
+			long current = cursor.get();
+			long next = current + 1;
+			if (next - entries.length > minimumLaneSequence()) {
+				if (laneThread || !running) {
+					return -1;
+				}
+				if (tries++ < SPIN_TRIES) {
+					Thread.yield();
+				} else {
+					awaitFreeSlot(next);
+				}
+				continue;
+			}
+			if (cursor.compareAndSet(current, next)) {
+				return next;
+			}
+		}
+	}
+
+	private void awaitFreeSlot(long sequence) {
+		waitingProducers.incrementAndGet();
+		lock.lock();
+		try {
+			while (running && sequence - entries.length > minimumLaneSequence()) {
+				consumed.awaitUninterruptibly();
+			}
+		} finally {
+			lock.unlock();
+			waitingProducers.decrementAndGet();
+		}
+	}
+
+	private void signalAll(Condition condition) {
+		lock.lock();
+		try {
+			condition.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private long minimumLaneSequence() {
+		long minimum = Long.MAX_VALUE;
+		for (Lane lane : lanes) {
+			minimum = Math.min(minimum, lane.sequence);
+		}
+		return minimum;
+	}
+
+	/**
+	 * Number of published events which were not yet read by all lanes.
+	 */
+	long backlog() {
+		return cursor.get() - minimumLaneSequence();
+	}
+
+	private int laneOf(Object event) {
+		if (!(event instanceof Event) || ((Event) event).entityId == null) {
+			return 0;
+		}
+		return (((Event) event).entityId.hashCode() & Integer.MAX_VALUE) % lanes.length;
+	}
+
+	private final class Lane implements Runnable {
+
+		private final int index;
+		private final Thread thread;
+
+		/**
+		 * Last sequence read by this lane.
+		 */
+		private volatile long sequence = -1;
+
+		private Lane(int index) {
+			this.index = index;
+			this.thread = new LaneThread(this, "event-bus-" + index);
+		}
+
+		@Override
+		public void run() {
+			long next = sequence + 1;
+			int tries = 0;
+			while (running || next <= cursor.get()) {
+				int slot = (int) (next & mask);
+				if (available.get(slot) != next) {
+					if (!running && tries > SPIN_TRIES) {
+						// claimed, but the producer did not finish writing before the stop
+						return;
+					}
+					if (tries++ < SPIN_TRIES || !running) {
+						Thread.yield();
+					} else {
+						awaitPublished(slot, next);
+					}
+					continue;
+				}
+				tries = 0;
+				Object event = entries[slot];
+				if (laneOf(event) == index) {
+					deliver(event);
+				}
+				sequence = next++;
+				if (waitingProducers.get() > 0) {
+					signalAll(consumed);
+				}
+			}
+		}
+
+		private void awaitPublished(int slot, long next) {
+			waitingLanes.incrementAndGet();
+			lock.lock();
+			try {
+				while (running && available.get(slot) != next) {
+					published.awaitUninterruptibly();
+				}
+			} finally {
+				lock.unlock();
+				waitingLanes.decrementAndGet();
+			}
+		}
+
+		private void deliver(Object event) {
+			try {
+				delivery.accept(event);
+			} catch (Exception e) {
+				LOG.error("Exception when delivering {}", event, e);
+			}
+		}
+	}
+
+	private static final class LaneThread extends Thread {
+
+		private LaneThread(Runnable lane, String name) {
+			super(lane, name);
+			setDaemon(true);
+		}
+	}
+}
@@ -6,25 +6,31 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 import java.util.function.Function;
 
 /**
  * Takes care of upgrading events from one version to another.
+ * Single upcast steps are registered first and then compiled into one function per event type,
+ * which takes an event straight to its latest version.
  */
 @Service
 public class EventUpcastService {
 
 	private static final Logger LOG = LoggerFactory.getLogger(EventUpcastService.class);
 
-	private final Map<Event.EventType, Function<Event, Event>> upcasts = new HashMap<>();
+	private final Map<Event.EventType, Upcast> upcasts = new EnumMap<>(Event.EventType.class);
+
+	/**
+	 * Complete upcast chain per event type. Types which are already current have no entry.
+	 */
+	private final Map<Event.EventType, Function<Event, Event>> chains = new EnumMap<>(Event.EventType.class);
 
 	@PostConstruct
 	public void setup() {
 		LOG.info("EventUpcastService init...");
 
-		upcasts.put(Event.EventType.STORAGE_CAPACITY_CHANGED, event -> {
+		register(Event.EventType.STORAGE_CAPACITY_CHANGED, Event.EventType.RESOURCE_STORAGE_CAPACITY_CHANGED, event -> {
 			StorageCapacityChanged storageCapacityChanged = (StorageCapacityChanged) event;
 			ResourceStorageCapacityChanged resourceStorageCapacityChanged = new ResourceStorageCapacityChanged();
 			resourceStorageCapacityChanged.entityId = storageCapacityChanged.entityId;
@@ -38,7 +44,7 @@ public class EventUpcastService {
 			return resourceStorageCapacityChanged;
 		});
 
-		upcasts.put(Event.EventType.PRODUCTION_STARTED, event -> {
+		register(Event.EventType.PRODUCTION_STARTED, Event.EventType.PRODUCTION_STARTED2, event -> {
 			ProductionStarted productionStarted = (ProductionStarted) event;
 			return new ProductionStarted2(
 				productionStarted.entityId, productionStarted.timestamp, productionStarted.version,
@@ -46,7 +52,7 @@ public class EventUpcastService {
 			);
 		});
 
-		upcasts.put(Event.EventType.PRODUCTION_LINE_ADDED, event -> {
+		register(Event.EventType.PRODUCTION_LINE_ADDED, Event.EventType.PRODUCTION_LINE_ADDED2, event -> {
 			ProductionLineAdded productionLineAdded = (ProductionLineAdded) event;
 			ProductionLineAdded2 productionLineAdded2 = new ProductionLineAdded2();
 			productionLineAdded2.entityId = productionLineAdded.entityId;
@@ -61,17 +67,73 @@ public class EventUpcastService {
 			return productionLineAdded2;
 		});
 
+		// a full price map is a delta which changes every price
+		register(Event.EventType.RESOURCE_PRICE_CHANGED, Event.EventType.RESOURCE_PRICE_CHANGED2, event -> {
+			ResourcePriceChanged resourcePriceChanged = (ResourcePriceChanged) event;
+			return new ResourcePriceChanged2(
+				resourcePriceChanged.entityId, resourcePriceChanged.timestamp, resourcePriceChanged.version,
+				resourcePriceChanged.prices
+			);
+		});
+
+		compile();
 		LOG.info("Registered {} upcast functions", upcasts.size());
 	}
 
+	private void register(Event.EventType from, Event.EventType to, Function<Event, Event> function) {
+		upcasts.put(from, new Upcast(to, function));
+	}
+
+	private void compile() {
+		chains.clear();
+		for (Event.EventType type : upcasts.keySet()) {
+			Set<Event.EventType> visited = EnumSet.of(type);
+			Upcast upcast = upcasts.get(type);
+			Function<Event, Event> chain = upcast.function;
+			while (upcasts.containsKey(upcast.to)) {
+				if (!visited.add(upcast.to)) {
+					throw new IllegalStateException("Upcast cycle for event type " + type);
+				}
+				upcast = upcasts.get(upcast.to);
+				chain = chain.andThen(upcast.function);
+			}
+			LOG.debug("Compiled upcast chain {} -> {}", type, upcast.to);
+			chains.put(type, chain);
+		}
+	}
+
 	public Event upcast(Event event) {
-		Event result = event;
-		while (upcasts.containsKey(result.getType())) {
-			Function<Event, Event> upcast = upcasts.get(result.getType());
-			LOG.trace("Upcasting {}", result);
-			result = upcast.apply(result);
+		Function<Event, Event> chain = chains.get(event.getType());
+		if (chain == null) {
+			return event;
+		}
+		LOG.trace("Upcasting {}", event);
+		return chain.apply(event);
+	}
+
+	/**
+	 * @return true if events of this type are in their latest version and never need upcasting
+	 */
+	public boolean isCurrent(Event.EventType type) {
+		return !chains.containsKey(type);
+	}
+
+	/**
+	 * @return all event types which are upcast to something else
+	 */
+	public Set<Event.EventType> getLegacyTypes() {
+		return Collections.unmodifiableSet(chains.keySet());
+	}
+
+	private static class Upcast {
+
+		private final Event.EventType to;
+		private final Function<Event, Event> function;
+
+		private Upcast(Event.EventType to, Function<Event, Event> function) {
+			this.to = to;
+			this.function = function;
 		}
-		return result;
 	}
 
 
@@ -13,5 +13,7 @@ public interface EventVisitor {
   void visit(ProductionStarted2 productionStarted2);
 	void visit(ProductionLineAdded2 productionLineAdded2);
 	void visit(ResourceBought resourceBought);
+	void visit(ResourcePriceChanged2 resourcePriceChanged2);
+	void visit(ProductionCyclesCompleted productionCyclesCompleted);
 
 }
@@ -0,0 +1,49 @@
+package com.soze.factory.event;
+
+import com.soze.common.dto.Resource;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Several production cycles finished at once. Contains the total input consumed by the cycles started after the first one
+ * (including the one still running), the total output produced and the start time of the production still running,
+ * or -1 if the factory stopped producing.
+ */
+public class ProductionCyclesCompleted extends Event {
+
+	public int cycles;
+	public Map<Resource, Integer> consumed = new HashMap<>();
+	public Map<Resource, Integer> produced = new HashMap<>();
+	public long productionStartTime;
+
+	public ProductionCyclesCompleted() {
+
+	}
+
+	public ProductionCyclesCompleted(String entityId, LocalDateTime timestamp, int version, int cycles,
+																	 Map<Resource, Integer> consumed, Map<Resource, Integer> produced, long productionStartTime
+																	) {
+		super(entityId, timestamp, version);
+		this.cycles = cycles;
+		this.consumed = consumed;
+		this.produced = produced;
+		this.productionStartTime = productionStartTime;
+	}
+
+	@Override
+	public EventType getType() {
+		return EventType.PRODUCTION_CYCLES_COMPLETED;
+	}
+
+	@Override
+	public void accept(EventVisitor visitor) {
+		visitor.visit(this);
+	}
+
+	@Override
+	public String toString() {
+		return "ProductionCyclesCompleted{" + "cycles=" + cycles + ", consumed=" + consumed + ", produced=" + produced + ", productionStartTime=" + productionStartTime + ", entityId='" + entityId + '\'' + ", timestamp=" + timestamp + ", version=" + version + '}';
+	}
+}
@@ -8,9 +8,8 @@ public class ProductionFinished extends Event {
 
 	}
 
-	public ProductionFinished(String entityId,
-														LocalDateTime timestamp) {
-		super(entityId, timestamp, 1);
+	public ProductionFinished(String entityId, LocalDateTime timestamp, int version) {
+		super(entityId, timestamp, version);
 	}
 
 	@Override
@@ -14,9 +14,9 @@ public class ResourcePriceChanged extends Event {
 
 	}
 
-	public ResourcePriceChanged(String entityId, LocalDateTime timestamp, Map<Resource, Integer> prices
+	public ResourcePriceChanged(String entityId, LocalDateTime timestamp, int version, Map<Resource, Integer> prices
 														 ) {
-		super(entityId, timestamp, 1);
+		super(entityId, timestamp, version);
 		this.prices = prices;
 	}
 
@@ -0,0 +1,40 @@
+package com.soze.factory.event;
+
+import com.soze.common.dto.Resource;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * New prices of the resources whose price changed since the previous price event of the factory.
+ * Resources which are not in the map keep their previous price.
+ */
+public class ResourcePriceChanged2 extends Event {
+
+	public Map<Resource, Integer> prices = new HashMap<>();
+
+	public ResourcePriceChanged2() {
+
+	}
+
+	public ResourcePriceChanged2(String entityId, LocalDateTime timestamp, int version, Map<Resource, Integer> prices) {
+		super(entityId, timestamp, version);
+		this.prices = prices;
+	}
+
+	@Override
+	public EventType getType() {
+		return EventType.RESOURCE_PRICE_CHANGED2;
+	}
+
+	@Override
+	public void accept(EventVisitor visitor) {
+		visitor.visit(this);
+	}
+
+	@Override
+	public String toString() {
+		return "ResourcePriceChanged2{" + "prices=" + prices + ", entityId='" + entityId + '\'' + ", timestamp=" + timestamp + ", version=" + version + '}';
+	}
+}
@@ -11,7 +11,11 @@ import java.util.UUID;
 @Repository
 public interface EventCrudRepository extends CrudRepository<EventEntity, UUID> {
 
-	@Query(value = "SELECT * FROM factory.factory_event WHERE event ->> 'entityId' = ?1", nativeQuery = true)
-	List<EventEntity> getByEntityId(String entityId);
+	List<EventEntity> findByEntityIdOrderBySequence(UUID entityId);
+
+	List<EventEntity> findByEntityIdAndSequenceGreaterThanOrderBySequence(UUID entityId, long sequence);
+
+	@Query(value = "SELECT COALESCE(MAX(position), -1) FROM factory.factory_event", nativeQuery = true)
+	long findLastPosition();
 
 }
@@ -0,0 +1,21 @@
+package com.soze.factory.repository;
+
+import com.soze.factory.store.FactoryRegistryEntity;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface FactoryRegistryCrudRepository extends CrudRepository<FactoryRegistryEntity, UUID> {
+
+	@Query("SELECT r.entityId FROM FactoryRegistryEntity r")
+	List<UUID> findAllIds();
+
+	@Query("SELECT r.entityId FROM FactoryRegistryEntity r WHERE r.entityId > ?1 ORDER BY r.entityId")
+	List<UUID> findIdsAfter(UUID after, Pageable pageable);
+
+}
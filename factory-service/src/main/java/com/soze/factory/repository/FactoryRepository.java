@@ -1,51 +1,267 @@
 package com.soze.factory.repository;
 
 import com.soze.factory.aggregate.Factory;
+import com.soze.factory.aggregate.FactorySnapshot;
+import com.soze.factory.cluster.FactoryOwnership;
+import com.soze.factory.cluster.FactoryOwnershipChanged;
+import com.soze.factory.cluster.SingleInstanceOwnership;
 import com.soze.factory.event.Event;
 import com.soze.factory.event.FactoryCreated;
 import com.soze.factory.store.EventStore;
+import com.soze.factory.store.SnapshotStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * Loads factory aggregates. Loaded aggregates are kept in a bounded, least recently used cache, which is
+ * updated in place of a replay whenever events are appended through {@link #applyAppended(UUID, long, List)}.
+ * Cached aggregates are shared between threads and are never changed once cached, every update caches
+ * a changed copy instead. Callers get their own copy, which they are free to change.
+ * Only factories owned by this instance are cached, others could be changed by their owner at any time.
+ * Snapshots are saved every {@code snapshotFrequency} events, whether the events were replayed or applied to the cache.
+ */
 @Service
 public class FactoryRepository {
 
 	private static final Logger LOG = LoggerFactory.getLogger(FactoryRepository.class);
 
 	private final EventStore eventStore;
+	private final SnapshotStore snapshotStore;
+	private final FactoryOwnership ownership;
+
+	/**
+	 * A new snapshot is saved once this many events were replayed on top of the latest one.
+	 */
+	private final int snapshotFrequency;
+
+	/**
+	 * How many factory ids are fetched from the store at once when streaming all factories.
+	 */
+	private final int pageSize;
+
+	/**
+	 * Live aggregates in access order. Guarded by its own monitor.
+	 */
+	private final Map<UUID, CachedFactory> cache;
+
+	/**
+	 * Counts cache entries dropped without being replaced by a newer version. A load which started
+	 * before a drop might have read events older than the dropped entry, so it is not cached.
+	 */
+	private long invalidations;
+
+	public FactoryRepository(EventStore eventStore, SnapshotStore snapshotStore, int snapshotFrequency, int pageSize,
+													 int cacheSize
+													) {
+		this(eventStore, snapshotStore, snapshotFrequency, pageSize, cacheSize, new SingleInstanceOwnership());
+	}
 
 	@Autowired
-	public FactoryRepository(EventStore eventStore) {
+	public FactoryRepository(EventStore eventStore, SnapshotStore snapshotStore,
+													 @Value("${factory.snapshot.frequency:50}") int snapshotFrequency,
+													 @Value("${factory.repository.page-size:500}") int pageSize,
+													 @Value("${factory.repository.cache-size:10000}") int cacheSize, FactoryOwnership ownership
+													) {
 		this.eventStore = eventStore;
+		this.snapshotStore = snapshotStore;
+		this.ownership = ownership;
+		this.snapshotFrequency = snapshotFrequency;
+		this.pageSize = pageSize;
+		this.cache = new LinkedHashMap<UUID, CachedFactory>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<UUID, CachedFactory> eldest) {
+				if (size() > cacheSize) {
+					invalidations++;
+					return true;
+				}
+				return false;
+			}
+		};
 	}
 
 	public Optional<Factory> findById(UUID factoryId) {
+		long invalidationsBeforeLoad;
+		synchronized (cache) {
+			CachedFactory cached = cache.get(factoryId);
+			if (cached != null) {
+				return Optional.of(cached.factory.copy());
+			}
+			invalidationsBeforeLoad = invalidations;
+		}
+		Optional<CachedFactory> loaded = load(factoryId);
+		if (!loaded.isPresent()) {
+			return Optional.empty();
+		}
+		if (!ownership.isOwner(factoryId)) {
+			return Optional.of(loaded.get().factory);
+		}
+		synchronized (cache) {
+			CachedFactory cached = cache.get(factoryId);
+			if (cached != null && cached.factory.getVersion() >= loaded.get().factory.getVersion()) {
+				return Optional.of(cached.factory.copy());
+			}
+			if (cached != null || invalidations == invalidationsBeforeLoad) {
+				cache.put(factoryId, loaded.get());
+			}
+		}
+		return Optional.of(loaded.get().factory.copy());
+	}
+
+	/**
+	 * Brings the cached factory up to date with events appended at {@code expectedVersion}, without reading the store.
+	 * If the cached factory is at a different version, it is dropped and loaded again on the next read.
+	 * Saves a snapshot once enough events were applied since the last one.
+	 */
+	public void applyAppended(UUID factoryId, long expectedVersion, List<Event> events) {
+		CachedFactory updated;
+		boolean snapshot;
+		synchronized (cache) {
+			CachedFactory cached = cache.get(factoryId);
+			if (expectedVersion == 0) {
+				updated = new CachedFactory(new Factory(), 0);
+			} else if (cached != null && cached.factory.getVersion() == expectedVersion) {
+				updated = new CachedFactory(cached.factory.copy(), cached.snapshotVersion);
+			} else {
+				updated = null;
+			}
+			if (updated == null || !ownership.isOwner(factoryId)) {
+				evict(factoryId);
+				return;
+			}
+			applyAll(updated.factory, events);
+			snapshot = needsSnapshot(updated.factory, updated.snapshotVersion);
+			if (snapshot) {
+				updated = new CachedFactory(updated.factory, updated.factory.getVersion());
+			}
+			cache.put(factoryId, updated);
+		}
+		if (!snapshot) {
+			return;
+		}
+		// the events are already stored, a snapshot which cannot be saved only makes the next replay longer
+		try {
+			saveSnapshot(updated.factory);
+		} catch (RuntimeException e) {
+			LOG.warn("Cannot save snapshot of {} at version {}", factoryId, updated.factory.getVersion(), e);
+		}
+	}
+
+	/**
+	 * Drops the cached factory, for example after it turned out to be stale.
+	 */
+	public void evict(UUID factoryId) {
+		synchronized (cache) {
+			cache.remove(factoryId);
+			invalidations++;
+		}
+	}
+
+	/**
+	 * Drops factories which are now owned by another instance.
+	 */
+	@EventListener
+	public void handleOwnershipChanged(FactoryOwnershipChanged ownershipChanged) {
+		synchronized (cache) {
+			cache.keySet().removeIf(ownershipChanged::lost);
+			invalidations++;
+		}
+	}
+
+	private Optional<CachedFactory> load(UUID factoryId) {
 		LOG.trace("Searching for {}", factoryId);
+		Optional<FactorySnapshot> snapshot = snapshotStore.findLatest(factoryId).filter(FactorySnapshot::isCurrentFormat);
+		if (!snapshot.isPresent()) {
+			return replay(factoryId);
+		}
+
+		LOG.trace("Found snapshot = {}", snapshot.get());
+		Factory factory = new Factory(snapshot.get());
+		List<Event> events = eventStore.getEventsForEntity(factoryId, snapshot.get().version);
+		applyAll(factory, events);
+		return Optional.of(saveSnapshotIfNeeded(factory, snapshot.get().version));
+	}
+
+	/**
+	 * Replays all events of the factory, ignoring any snapshot and replacing it with a fresh one.
+	 * Used when aggregate code changes and stored snapshots no longer reflect what events would produce.
+	 */
+	public Optional<Factory> rebuildSnapshot(UUID factoryId) {
+		LOG.trace("Rebuilding snapshot for {}", factoryId);
+		Optional<Factory> factory = replay(factoryId).map(cached -> cached.factory);
+		factory.ifPresent(f -> snapshotStore.save(f.toSnapshot()));
+		return factory;
+	}
+
+	private Optional<CachedFactory> replay(UUID factoryId) {
 		List<Event> events = eventStore.getEventsForEntity(factoryId);
 		if (events.isEmpty()) {
 			return Optional.empty();
 		}
 		FactoryCreated factoryCreated = (FactoryCreated) events.get(0);
 		Factory factory = new Factory(factoryCreated);
+		applyAll(factory, events.subList(1, events.size()));
+		return Optional.of(saveSnapshotIfNeeded(factory, 0));
+	}
 
-		for (int i = 1; i < events.size(); i++) {
-			Event event = events.get(i);
+	private void applyAll(Factory factory, List<Event> events) {
+		for (Event event : events) {
 			LOG.trace("Applying event = {}", event);
-			event.accept(factory);
+			factory.apply(event);
+		}
+	}
+
+	/**
+	 * @return the factory with the version of its latest snapshot
+	 */
+	private CachedFactory saveSnapshotIfNeeded(Factory factory, long snapshotVersion) {
+		if (!needsSnapshot(factory, snapshotVersion)) {
+			return new CachedFactory(factory, snapshotVersion);
 		}
+		saveSnapshot(factory);
+		return new CachedFactory(factory, factory.getVersion());
+	}
+
+	private boolean needsSnapshot(Factory factory, long snapshotVersion) {
+		return factory.getVersion() - snapshotVersion >= snapshotFrequency;
+	}
 
-		return Optional.of(factory);
+	private void saveSnapshot(Factory factory) {
+		LOG.trace("Saving snapshot of {} at version {}", factory.getId(), factory.getVersion());
+		snapshotStore.save(factory.toSnapshot());
 	}
 
 	public int factoryCount() {
 		return eventStore.count();
 	}
 
+	public List<UUID> getAllIds() {
+		return eventStore.getAllIds();
+	}
+
+	/**
+	 * Lazily loads factories page by page, so that only a single page of ids is held in memory.
+	 */
+	public Stream<UUID> streamAllIds() {
+		return eventStore.streamAllIds(pageSize);
+	}
+
+	/**
+	 * Lazily loads factories one by one while the stream is consumed.
+	 */
+	public Stream<Factory> streamAll() {
+		return streamAllIds().map(this::findById)
+												 .filter(Optional::isPresent)
+												 .map(Optional::get);
+	}
+
 	public List<Factory> getAll() {
 		return eventStore.getAllIds()
 										 .stream()
@@ -54,4 +270,18 @@ public class FactoryRepository {
 										 .map(Optional::get)
 										 .collect(Collectors.toList());
 	}
+
+	/**
+	 * Cached factory, along with the version of its latest snapshot.
+	 */
+	private static final class CachedFactory {
+
+		private final Factory factory;
+		private final long snapshotVersion;
+
+		private CachedFactory(Factory factory, long snapshotVersion) {
+			this.factory = factory;
+			this.snapshotVersion = snapshotVersion;
+		}
+	}
 }
@@ -0,0 +1,12 @@
+package com.soze.factory.repository;
+
+import com.soze.factory.store.SnapshotEntity;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.UUID;
+
+@Repository
+public interface SnapshotCrudRepository extends CrudRepository<SnapshotEntity, UUID> {
+
+}
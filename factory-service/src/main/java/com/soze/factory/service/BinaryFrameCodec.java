@@ -0,0 +1,92 @@
+package com.soze.factory.service;
+
+import com.soze.factory.store.BinaryEventCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary WebSocket frame of broadcast messages. A frame is laid out as:
+ * <pre>
+ * byte format | varint count | count * (varint position | varint length | payload)
+ * </pre>
+ * A payload is an event in the {@link BinaryEventCodec} format, or the json of any other message. They are told apart
+ * by their first byte, the format byte of an event never collides with the first byte of json ('{').
+ * Varints here are unsigned, positions and lengths are never negative.
+ */
+public final class BinaryFrameCodec {
+
+	/**
+	 * Format byte of the current layout, different from the format byte of event records.
+	 */
+	public static final byte FORMAT_VERSION = 2;
+
+	private BinaryFrameCodec() {
+
+	}
+
+	public static byte[] encode(List<WireMessage> messages) {
+		ByteArrayOutputStream frame = new ByteArrayOutputStream(16 + messages.size() * 48);
+		frame.write(FORMAT_VERSION);
+		writeVarLong(frame, messages.size());
+		for (WireMessage message : messages) {
+			byte[] payload = message.getBinary();
+			writeVarLong(frame, message.getPosition());
+			writeVarLong(frame, payload.length);
+			frame.write(payload, 0, payload.length);
+		}
+		return frame.toByteArray();
+	}
+
+	/**
+	 * Decodes a frame, events are decoded to {@link com.soze.factory.event.Event}s, other messages are kept as json.
+	 */
+	public static List<WireMessage> decode(byte[] frame) {
+		int[] offset = {0};
+		if (frame.length == 0 || frame[offset[0]++] != FORMAT_VERSION) {
+			throw new IllegalArgumentException("Unsupported frame format " + (frame.length == 0 ? "(empty)" : frame[0]));
+		}
+		int count = (int) readVarLong(frame, offset);
+		List<WireMessage> messages = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			long position = readVarLong(frame, offset);
+			int length = (int) readVarLong(frame, offset);
+			if (length <= 0 || offset[0] + length > frame.length) {
+				throw new IllegalArgumentException("Malformed message at " + offset[0]);
+			}
+			byte[] payload = Arrays.copyOfRange(frame, offset[0], offset[0] + length);
+			offset[0] += length;
+			Object message = BinaryEventCodec.isBinary(payload) ? BinaryEventCodec.decode(payload) :
+				new String(payload, StandardCharsets.UTF_8);
+			messages.add(new WireMessage(position, message));
+		}
+		return messages;
+	}
+
+	private static void writeVarLong(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	private static long readVarLong(byte[] frame, int[] offset) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (offset[0] >= frame.length) {
+				throw new IllegalArgumentException("Unexpected end of frame at " + offset[0]);
+			}
+			byte b = frame[offset[0]++];
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint at " + offset[0]);
+	}
+
+}
@@ -0,0 +1,146 @@
+package com.soze.factory.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Striped pool of single threaded workers, each with a bounded mailbox. Tasks with the same key always go
+ * to the same worker, so they run one at a time in submission order, while tasks of other keys run in parallel.
+ * A task submitted to a full mailbox is rejected right away instead of blocking the caller.
+ * A task submitted by a running task of the same key runs immediately, since the worker cannot wait for itself,
+ * and the task it would queue behind belongs to the same key anyway. A running task which submits a task of another key
+ * queues it behind the tasks already waiting for that worker, it must not wait for its result.
+ * After a stop, tasks run on the calling thread.
+ */
+final class CommandMailboxes {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CommandMailboxes.class);
+
+	private static final long POLL_MILLIS = 100;
+
+	private final Worker[] workers;
+	private final Runnable onRejected;
+
+	private volatile boolean running = true;
+
+	CommandMailboxes(int workerCount, int mailboxSize, Runnable onRejected) {
+		if (workerCount <= 0 || mailboxSize <= 0) {
+			throw new IllegalArgumentException("Workers and mailbox size have to be positive, were " + workerCount + ", " + mailboxSize);
+		}
+		this.workers = new Worker[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			workers[i] = new Worker(i, mailboxSize);
+		}
+		this.onRejected = onRejected;
+	}
+
+	void start() {
+		for (Worker worker : workers) {
+			worker.thread.start();
+		}
+	}
+
+	/**
+	 * Lets the workers finish tasks already in their mailboxes, for at most the given time.
+	 */
+	void stop(long timeoutMillis) throws InterruptedException {
+		running = false;
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		for (Worker worker : workers) {
+			worker.thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+		}
+	}
+
+	<T> CompletableFuture<T> submit(Object key, Supplier<T> task) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		Runnable job = () -> {
+			try {
+				result.complete(task.get());
+			} catch (Throwable e) {
+				result.completeExceptionally(e);
+			}
+		};
+		Worker worker = workerOf(key);
+		if (!running || (Thread.currentThread() == worker.thread && key.equals(worker.currentKey))) {
+			job.run();
+			return result;
+		}
+		if (!worker.mailbox.offer(new Task(key, job))) {
+			onRejected.run();
+			result.completeExceptionally(new RejectedExecutionException("Mailbox of " + key + " is full"));
+		}
+		return result;
+	}
+
+	/**
+	 * Number of tasks waiting in all mailboxes.
+	 */
+	int size() {
+		int size = 0;
+		for (Worker worker : workers) {
+			size += worker.mailbox.size();
+		}
+		return size;
+	}
+
+	private Worker workerOf(Object key) {
+		int hash = key.hashCode();
+		hash ^= hash >>> 16;
+		return workers[(hash & Integer.MAX_VALUE) % workers.length];
+	}
+
+	private final class Worker implements Runnable {
+
+		private final BlockingQueue<Task> mailbox;
+		private final Thread thread;
+
+		/**
+		 * Key of the task this worker runs, null between tasks. Only used by the worker thread.
+		 */
+		private Object currentKey;
+
+		private Worker(int index, int mailboxSize) {
+			this.mailbox = new ArrayBlockingQueue<>(mailboxSize);
+			this.thread = new Thread(this, "command-worker-" + index);
+			this.thread.setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (running || !mailbox.isEmpty()) {
+				try {
+					Task task = mailbox.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+					if (task != null) {
+						currentKey = task.key;
+						try {
+							task.job.run();
+						} finally {
+							currentKey = null;
+						}
+					}
+				} catch (InterruptedException e) {
+					LOG.warn("Command worker interrupted, {} commands left in its mailbox", mailbox.size());
+					return;
+				}
+			}
+		}
+	}
+
+	private static final class Task {
+
+		private final Object key;
+		private final Runnable job;
+
+		private Task(Object key, Runnable job) {
+			this.key = key;
+			this.job = job;
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package com.soze.factory.service;
+
+import com.soze.factory.store.EventStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+/**
+ * Runs once on startup and rewrites all stored legacy events to their latest version.
+ * Can run next to normal traffic, new events are always stored in their latest version anyway.
+ */
+@Service
+@Profile("event-migration")
+public class EventMigrationService {
+
+	private static final Logger LOG = LoggerFactory.getLogger(EventMigrationService.class);
+
+	private final EventStore eventStore;
+	private final int batchSize;
+
+	@Autowired
+	public EventMigrationService(EventStore eventStore, @Value("${factory.event-migration.batch-size:1000}") int batchSize
+															) {
+		this.eventStore = eventStore;
+		this.batchSize = batchSize;
+	}
+
+	@EventListener
+	public void handleApplicationStart(ApplicationReadyEvent e) {
+		LOG.info(this.getClass().getSimpleName() + " init...");
+		long migrated = eventStore.upcastStoredEvents(batchSize);
+		LOG.info("Upcast {} stored events", migrated);
+	}
+}
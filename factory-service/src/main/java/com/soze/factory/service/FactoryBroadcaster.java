@@ -0,0 +1,363 @@
+package com.soze.factory.service;
+
+import com.soze.common.dto.Resource;
+import com.soze.factory.event.ResourcePriceChanged2;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Broadcasts updates of factories to the WebSocket sessions interested in them. A session gets updates of the cities
+ * and factories it subscribed to, or of everything if it never subscribed.
+ * Messages are buffered for a tick and sent as one json array frame per session, superseded messages are collapsed
+ * within the tick: price changes of a factory are merged, with the latest price of every resource winning.
+ * Every message is serialized once per {@link WireFormat}, sessions interested in everything share one frame.
+ * If the tick is 0, every message is sent right away as its own frame. Under {@link OverflowPolicy#COALESCE}, ticks of
+ * a session which cannot keep up are merged into the last frame queued for it instead of disconnecting it.
+ * <p>
+ * Every message gets the next position of this broadcaster, the latest of them are kept, so a session which
+ * reconnects with the epoch of this broadcaster and the last position it saw gets only what it missed.
+ * Positions are not persisted, a new epoch starts with every start of the service.
+ */
+@Service
+public class FactoryBroadcaster {
+
+	private static final Logger LOG = LoggerFactory.getLogger(FactoryBroadcaster.class);
+
+	private final SocketSessionContainer socketSessionContainer;
+	private final InterestIndex interestIndex = new InterestIndex();
+	private final long tickMillis;
+	private final Counter frames;
+	private final Counter messages;
+	private final Counter resumed;
+	private final Counter snapshots;
+
+	/**
+	 * Null if messages are not buffered.
+	 */
+	private final ScheduledExecutorService ticker;
+
+	/**
+	 * Messages of the current tick, in the order they are sent. Messages which can be collapsed are keyed
+	 * by what they supersede, the rest by themselves.
+	 */
+	private Map<Object, Outgoing> pending = new LinkedHashMap<>();
+	private final Object pendingLock = new Object();
+
+	/**
+	 * Held while a tick is sent, so ticks reach sessions in order.
+	 */
+	private final Object flushLock = new Object();
+
+	private final String epoch = UUID.randomUUID().toString();
+
+	/**
+	 * Position of the latest sent message. Guarded by flushLock.
+	 */
+	private long position;
+
+	/**
+	 * Latest sent messages, oldest first, kept for sessions which resume. Guarded by flushLock.
+	 */
+	private final Deque<WireMessage> recent = new ArrayDeque<>();
+	private final int resumeBuffer;
+
+	public FactoryBroadcaster(SocketSessionContainer socketSessionContainer, MeterRegistry meterRegistry, long tickMillis) {
+		this(socketSessionContainer, meterRegistry, tickMillis, 10000);
+	}
+
+	@Autowired
+	public FactoryBroadcaster(SocketSessionContainer socketSessionContainer, MeterRegistry meterRegistry,
+														@Value("${factory.websocket.tick-millis:0}") long tickMillis,
+														@Value("${factory.websocket.resume-buffer:10000}") int resumeBuffer
+													 ) {
+		this.socketSessionContainer = socketSessionContainer;
+		this.tickMillis = tickMillis;
+		this.resumeBuffer = resumeBuffer;
+		this.frames = Counter.builder("factory.websocket.frames")
+												 .description("Frames sent to sessions, a frame shared by many sessions counts once")
+												 .register(meterRegistry);
+		this.messages = Counter.builder("factory.websocket.messages")
+													 .description("Messages broadcast to all sessions, possibly many in one frame")
+													 .register(meterRegistry);
+		this.resumed = Counter.builder("factory.websocket.connects")
+													.description("Sessions which connected, by whether they resumed or got the whole state")
+													.tag("kind", "resume")
+													.register(meterRegistry);
+		this.snapshots = Counter.builder("factory.websocket.connects")
+														.description("Sessions which connected, by whether they resumed or got the whole state")
+														.tag("kind", "snapshot")
+														.register(meterRegistry);
+		this.ticker = tickMillis > 0 ? Executors.newSingleThreadScheduledExecutor() : null;
+	}
+
+	@PostConstruct
+	public void start() {
+		if (ticker != null) {
+			LOG.info("Broadcasting every {} ms", tickMillis);
+			ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		if (ticker != null) {
+			ticker.shutdown();
+			ticker.awaitTermination(tickMillis * 10, TimeUnit.MILLISECONDS);
+			flush();
+		}
+	}
+
+	/**
+	 * @param cityId city of the factory, null if not known
+	 */
+	public void broadcast(String factoryId, String cityId, Object message) {
+		if (ticker == null) {
+			sendNow(factoryId, cityId, message, null);
+			return;
+		}
+		synchronized (pendingLock) {
+			pending.put(new Object(), new Outgoing(factoryId, cityId, message));
+		}
+	}
+
+	/**
+	 * @param cityId city of the factory, null if not known
+	 */
+	public void broadcast(String cityId, ResourcePriceChanged2 priceChanged) {
+		if (ticker == null) {
+			sendNow(priceChanged.entityId, cityId, priceChanged, priceKey(priceChanged));
+			return;
+		}
+		String key = "RESOURCE_PRICE_CHANGED2:" + priceChanged.entityId;
+		synchronized (pendingLock) {
+			Outgoing previous = pending.remove(key);
+			ResourcePriceChanged2 merged = previous == null ? priceChanged : merge((ResourcePriceChanged2) previous.message, priceChanged);
+			pending.put(key, new Outgoing(priceChanged.entityId, cityId, merged));
+		}
+	}
+
+	/**
+	 * Sends the messages buffered before the session connected to the other sessions, then adds it.
+	 * The session does not get changes made before it connected, those are in the state it gets on connect.
+	 */
+	public void addSession(WebSocketSession session) {
+		addSession(session, WireFormat.JSON);
+	}
+
+	public void addSession(WebSocketSession session, WireFormat format) {
+		synchronized (flushLock) {
+			flush();
+			socketSessionContainer.addSession(session, format);
+		}
+	}
+
+	/**
+	 * Adds the session and queues what it needs to catch up: the messages sent after {@code lastPosition},
+	 * if the session saw messages of this epoch and they are still kept, otherwise the whole state.
+	 * The state is made without holding up broadcasting, the session is added once it is queued,
+	 * followed by the messages sent while it was made. A session closed meanwhile is not added.
+	 *
+	 * @param lastEpoch    epoch the session saw before it reconnected, null if it did not
+	 * @param lastPosition position of the last message the session saw, ignored without an epoch
+	 * @param snapshot     serializes the whole state, given the epoch and the position of the latest sent message.
+	 *                     The state must not be older than that message, it can be newer.
+	 */
+	public void connect(WebSocketSession session, WireFormat format, String lastEpoch, long lastPosition,
+											BiFunction<String, Long, String> snapshot
+										 ) {
+		long from;
+		synchronized (flushLock) {
+			flush();
+			List<WireMessage> missed = missedSince(lastEpoch, lastPosition);
+			if (missed != null) {
+				LOG.debug("Session {} resumed after position {}, missed {} messages", session.getId(), lastPosition, missed.size());
+				resumed.increment();
+				socketSessionContainer.addSession(session, format);
+				if (!missed.isEmpty()) {
+					socketSessionContainer.sendAll(session.getId(), new WireFrame(missed, true));
+				}
+				return;
+			}
+			from = position;
+		}
+		snapshots.increment();
+		while (true) {
+			String state = snapshot.apply(epoch, from);
+			synchronized (flushLock) {
+				flush();
+				List<WireMessage> missed = missedSince(epoch, from);
+				if (missed != null) {
+					if (!session.isOpen()) {
+						LOG.debug("Session {} closed before it got the state", session.getId());
+						return;
+					}
+					socketSessionContainer.addSession(session, format);
+					socketSessionContainer.sendAll(session.getId(), Collections.singletonList(new TextMessage(state)));
+					if (!missed.isEmpty()) {
+						socketSessionContainer.sendAll(session.getId(), new WireFrame(missed, true));
+					}
+					return;
+				}
+				from = position;
+			}
+		}
+	}
+
+	/**
+	 * Messages sent after the position, null if some of them are no longer kept.
+	 */
+	private List<WireMessage> missedSince(String lastEpoch, long lastPosition) {
+		if (!epoch.equals(lastEpoch) || lastPosition < 0 || lastPosition > position) {
+			return null;
+		}
+		if (lastPosition == position) {
+			return Collections.emptyList();
+		}
+		WireMessage oldest = recent.peekFirst();
+		if (oldest == null || oldest.getPosition() > lastPosition + 1) {
+			return null;
+		}
+		List<WireMessage> missed = new ArrayList<>();
+		for (WireMessage sent : recent) {
+			if (sent.getPosition() > lastPosition) {
+				missed.add(sent);
+			}
+		}
+		return missed;
+	}
+
+	public void removeSession(String sessionId) {
+		synchronized (flushLock) {
+			interestIndex.remove(sessionId);
+			socketSessionContainer.removeSession(sessionId);
+		}
+	}
+
+	/**
+	 * Replaces the interest of the session. Messages buffered before are sent according to the previous interest,
+	 * then the messages made from the previous interest are queued for the session, so it can catch up on what
+	 * it was not interested in before.
+	 */
+	void subscribe(String sessionId, Interest interest, Function<Interest, List<TextMessage>> catchUp) {
+		synchronized (flushLock) {
+			flush();
+			Interest previous = interestIndex.subscribe(sessionId, interest);
+			LOG.debug("Session {} subscribed to {}, was {}", sessionId, interest, previous);
+			socketSessionContainer.sendAll(sessionId, catchUp.apply(previous));
+		}
+	}
+
+	/**
+	 * Sends all buffered messages, as one frame per session.
+	 */
+	public void flush() {
+		synchronized (flushLock) {
+			List<Outgoing> tick;
+			synchronized (pendingLock) {
+				if (pending.isEmpty()) {
+					return;
+				}
+				tick = new ArrayList<>(pending.values());
+				pending = new LinkedHashMap<>();
+			}
+			List<WireMessage> everything = new ArrayList<>(tick.size());
+			Map<String, List<WireMessage>> subscribed = new HashMap<>();
+			for (Outgoing outgoing : tick) {
+				WireMessage message = positioned(outgoing.message);
+				everything.add(message);
+				for (String sessionId : interestIndex.getSubscribers(outgoing.factoryId, outgoing.cityId)) {
+					subscribed.computeIfAbsent(sessionId, id -> new ArrayList<>()).add(message);
+				}
+			}
+			socketSessionContainer.sendToAllExcept(new WireFrame(everything, true), null, interestIndex::isSubscribed);
+			subscribed.forEach((sessionId, frame) -> socketSessionContainer.send(sessionId, new WireFrame(frame, true), null));
+			frames.increment(1 + subscribed.size());
+			messages.increment(tick.size());
+		}
+	}
+
+	private void tick() {
+		try {
+			flush();
+		} catch (Exception e) {
+			LOG.error("Exception when broadcasting a tick", e);
+		}
+	}
+
+	private void sendNow(String factoryId, String cityId, Object message, String coalescingKey) {
+		synchronized (flushLock) {
+			WireFrame frame = new WireFrame(Collections.singletonList(positioned(message)), false);
+			socketSessionContainer.sendToAllExcept(frame, coalescingKey, interestIndex::isSubscribed);
+			for (String sessionId : interestIndex.getSubscribers(factoryId, cityId)) {
+				socketSessionContainer.send(sessionId, frame, coalescingKey);
+			}
+			frames.increment();
+			messages.increment();
+		}
+	}
+
+	/**
+	 * Gives the message the next position and keeps it for sessions which resume.
+	 */
+	private WireMessage positioned(Object message) {
+		WireMessage positioned = new WireMessage(++position, message);
+		recent.addLast(positioned);
+		if (recent.size() > resumeBuffer) {
+			recent.removeFirst();
+		}
+		return positioned;
+	}
+
+	private static ResourcePriceChanged2 merge(ResourcePriceChanged2 previous, ResourcePriceChanged2 next) {
+		Map<Resource, Integer> prices = new HashMap<>(previous.prices);
+		prices.putAll(next.prices);
+		return new ResourcePriceChanged2(next.entityId, next.timestamp, next.version, prices);
+	}
+
+	/**
+	 * A price event carries the current prices of its resources, so it supersedes an earlier event of the same factory
+	 * with the same resources.
+	 */
+	private static String priceKey(ResourcePriceChanged2 priceChanged) {
+		return "RESOURCE_PRICE_CHANGED2:" + priceChanged.entityId + ":" + new TreeSet<>(priceChanged.prices.keySet());
+	}
+
+	private static final class Outgoing {
+
+		private final String factoryId;
+		private final String cityId;
+		private final Object message;
+
+		private Outgoing(String factoryId, String cityId, Object message) {
+			this.factoryId = factoryId;
+			this.cityId = cityId;
+			this.message = message;
+		}
+	}
+
+}
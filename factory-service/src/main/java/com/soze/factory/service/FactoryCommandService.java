@@ -6,18 +6,33 @@ import com.soze.factory.command.*;
 import com.soze.factory.event.Event;
 import com.soze.factory.event.EventBus;
 import com.soze.factory.repository.FactoryRepository;
+import com.soze.factory.store.ConcurrentAppendException;
+import com.soze.factory.store.EventStore;
 import com.soze.factory.world.RemoteWorldService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 
 /**
- * Service that can handle Command objects.
+ * Service that can handle Command objects. Commands of a single factory are handled by a single writer,
+ * different factories in parallel.
  */
 @Service
 public class FactoryCommandService implements CommandVisitor {
@@ -27,28 +42,155 @@ public class FactoryCommandService implements CommandVisitor {
 	private final FactoryRepository repository;
 	private final RemoteWorldService worldService;
 	private final EventBus eventBus;
+	private final EventStore eventStore;
+
+	/**
+	 * How many times a command is handled before a conflicting append is reported to the caller.
+	 */
+	private final int maxAttempts;
+
+	/**
+	 * Null if commands are handled on the calling thread.
+	 */
+	private final CommandMailboxes mailboxes;
+
+	public FactoryCommandService(FactoryRepository repository, RemoteWorldService worldService, EventBus eventBus,
+															 EventStore eventStore, int maxAttempts
+															) {
+		this.repository = repository;
+		this.worldService = worldService;
+		this.eventBus = eventBus;
+		this.eventStore = eventStore;
+		this.maxAttempts = maxAttempts;
+		this.mailboxes = null;
+	}
 
 	@Autowired
-	public FactoryCommandService(FactoryRepository repository, RemoteWorldService worldService, EventBus eventBus
+	public FactoryCommandService(FactoryRepository repository, RemoteWorldService worldService, EventBus eventBus,
+															 EventStore eventStore, @Value("${factory.command.max-attempts:5}") int maxAttempts,
+															 MeterRegistry meterRegistry, @Value("${factory.command.workers:0}") int workers,
+															 @Value("${factory.command.mailbox-size:1024}") int mailboxSize
 															) {
 		this.repository = repository;
 		this.worldService = worldService;
 		this.eventBus = eventBus;
+		this.eventStore = eventStore;
+		this.maxAttempts = maxAttempts;
+		Counter rejected = Counter.builder("factory.command.rejected")
+															.description("Commands rejected because the mailbox of their factory was full")
+															.register(meterRegistry);
+		this.mailboxes = new CommandMailboxes(workers > 0 ? workers : Runtime.getRuntime().availableProcessors(),
+																					mailboxSize, rejected::increment
+		);
+		Gauge.builder("factory.command.mailbox.size", mailboxes, CommandMailboxes::size)
+				 .description("Number of commands waiting in the mailboxes")
+				 .register(meterRegistry);
+	}
+
+	@PostConstruct
+	public void start() {
+		if (mailboxes != null) {
+			mailboxes.start();
+		}
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		if (mailboxes != null) {
+			mailboxes.stop(5000);
+		}
+	}
+
+	/**
+	 * Queues the command in the mailbox of its factory. Commands of one factory are handled one at a time,
+	 * in the order they were submitted, commands of different factories in parallel.
+	 * The result fails with a {@link RejectedExecutionException} if the mailbox is full.
+	 */
+	public CompletableFuture<List<Event>> submit(Command command) {
+		return dispatch(command, () -> handle(command));
 	}
 
 	@Override
 	public List<Event> visit(CreateFactory createFactory) {
+		return visit((Command) createFactory);
+	}
+
+	private List<Event> create(CreateFactory createFactory) {
 		LOG.info("{}", createFactory);
+		Factory factory = newFactory(createFactory);
+		try {
+			return commit(createFactory.getFactoryId(), factory.getVersion(), factory.visit(createFactory));
+		} catch (ConcurrentAppendException e) {
+			throw new IllegalStateException("Factory with id = " + createFactory.getFactoryId() + " already exists", e);
+		}
+	}
+
+	private Factory newFactory(CreateFactory createFactory) {
 		if (repository.findById(createFactory.getFactoryId()).isPresent()) {
 			throw new IllegalStateException("Factory with id = " + createFactory.getFactoryId() + " already exists");
 		}
+		return new Factory();
+	}
 
+	/**
+	 * Asks the world service for the city of the factory. It is a remote call, so it is made on the calling thread
+	 * before the command is queued, not in the mailbox, where it would hold up every factory sharing the worker.
+	 */
+	private void requireCity(CreateFactory createFactory) {
 		CityDTO city = worldService.getCityById(createFactory.getCityId());
 		if (city == null) {
 			throw new IllegalArgumentException("City with id = " + createFactory.getCityId() + " does not exist");
 		}
-		Factory factory = new Factory();
-		return eventBus.publish(factory.visit(createFactory));
+	}
+
+	/**
+	 * Handles commands of one factory as a single unit, in the mailbox of that factory.
+	 * The factory is loaded once and every command sees the events of the commands before it.
+	 * Events of all commands are appended in one write and published together, if any command fails, nothing is appended.
+	 * Only the first command can be a {@link CreateFactory}, which creates the factory the rest of the batch works on.
+	 */
+	public CompletableFuture<List<Event>> submitBatch(List<? extends Command> commands) {
+		if (commands.isEmpty()) {
+			return CompletableFuture.completedFuture(Collections.emptyList());
+		}
+		UUID factoryId = commands.get(0).getEntityId();
+		for (int i = 0; i < commands.size(); i++) {
+			Command command = commands.get(i);
+			if (!factoryId.equals(command.getEntityId())) {
+				throw new IllegalArgumentException("All commands of a batch have to target factory " + factoryId + ", was " + command);
+			}
+			if (i > 0 && command instanceof CreateFactory) {
+				throw new IllegalArgumentException("Only the first command of a batch can create the factory, was " + command);
+			}
+		}
+		return dispatch(commands.get(0), () -> handleBatch(factoryId, commands));
+	}
+
+	/**
+	 * Queues the handler in the mailbox of the factory of the first command, after checking the city
+	 * if that command creates the factory.
+	 */
+	private CompletableFuture<List<Event>> dispatch(Command first, Supplier<List<Event>> handler) {
+		CompletableFuture<List<Event>> result = new CompletableFuture<>();
+		try {
+			if (first instanceof CreateFactory) {
+				requireCity((CreateFactory) first);
+			}
+			if (mailboxes != null) {
+				return mailboxes.submit(first.getEntityId(), handler);
+			}
+			result.complete(handler.get());
+		} catch (RuntimeException e) {
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+
+	/**
+	 * Handles the batch and waits for the result.
+	 */
+	public List<Event> visitAll(List<? extends Command> commands) {
+		return join(submitBatch(commands));
 	}
 
 	@Override
@@ -86,10 +228,97 @@ public class FactoryCommandService implements CommandVisitor {
 		return visit((Command) buyResource);
 	}
 
+	@Override
+	public List<Event> visit(CatchUpProduction catchUpProduction) {
+		return visit((Command) catchUpProduction);
+	}
+
+	/**
+	 * Handles the command in its mailbox and waits for the result.
+	 */
 	private List<Event> visit(Command command) {
+		return join(submit(command));
+	}
+
+	private List<Event> join(CompletableFuture<List<Event>> result) {
+		try {
+			return result.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private List<Event> handle(Command command) {
+		if (command instanceof CreateFactory) {
+			return create((CreateFactory) command);
+		}
+		return handleOnLatestVersion(command);
+	}
+
+	/**
+	 * Handles the command on the latest version of the factory. If another command appended to the same factory
+	 * in the meantime, the factory is loaded again and the command handled again, so no lock is needed.
+	 * Within this instance the mailboxes already prevent that, it only happens when another instance
+	 * appended to the factory.
+	 */
+	private List<Event> handleOnLatestVersion(Command command) {
 		LOG.info("{}", command);
-		Factory factory = getFactory(command.getEntityId());
-		return eventBus.publish(command.accept(factory));
+		for (int attempt = 1; ; attempt++) {
+			Factory factory = getFactory(command.getEntityId());
+			try {
+				return commit(factory.getId(), factory.getVersion(), command.accept(factory));
+			} catch (ConcurrentAppendException e) {
+				repository.evict(factory.getId());
+				if (attempt >= maxAttempts) {
+					throw e;
+				}
+				LOG.debug("Conflict when handling {}, attempt {}", command, attempt);
+			}
+		}
+	}
+
+	private List<Event> handleBatch(UUID factoryId, List<? extends Command> commands) {
+		LOG.info("Batch of {} commands for factory {}", commands.size(), factoryId);
+		boolean creating = commands.get(0) instanceof CreateFactory;
+		for (int attempt = 1; ; attempt++) {
+			Factory factory = creating ? newFactory((CreateFactory) commands.get(0)) : getFactory(factoryId);
+			long expectedVersion = factory.getVersion();
+			List<Event> events = new ArrayList<>();
+			for (Command command : commands) {
+				List<Event> commandEvents = eventBus.upcast(command.accept(factory));
+				commandEvents.forEach(factory::apply);
+				events.addAll(commandEvents);
+			}
+			try {
+				return commit(factoryId, expectedVersion, events);
+			} catch (ConcurrentAppendException e) {
+				if (creating) {
+					throw new IllegalStateException("Factory with id = " + factoryId + " already exists", e);
+				}
+				repository.evict(factoryId);
+				if (attempt >= maxAttempts) {
+					throw e;
+				}
+				LOG.debug("Conflict when handling batch for factory {}, attempt {}", factoryId, attempt);
+			}
+		}
+	}
+
+	/**
+	 * Stores events at the version the aggregate was read at, updates the cached aggregate and only then publishes them,
+	 * so listeners read the factory with the events applied.
+	 */
+	private List<Event> commit(UUID factoryId, long expectedVersion, List<Event> events) {
+		if (events.isEmpty()) {
+			return events;
+		}
+		List<Event> upcastEvents = eventBus.upcast(events);
+		eventStore.append(factoryId, expectedVersion, upcastEvents);
+		repository.applyAppended(factoryId, expectedVersion, upcastEvents);
+		return eventBus.publish(upcastEvents);
 	}
 
 	private Factory getFactory(String id) {
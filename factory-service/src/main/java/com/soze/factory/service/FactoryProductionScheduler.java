@@ -3,26 +3,39 @@ package com.soze.factory.service;
 import com.soze.common.dto.Clock;
 import com.soze.factory.aggregate.Factory;
 import com.soze.factory.aggregate.Producer;
-import com.soze.factory.aggregate.FactoryStorage;
-import com.soze.factory.command.FinishProduction;
+import com.soze.factory.cluster.FactoryOwnership;
+import com.soze.factory.cluster.FactoryOwnershipChanged;
+import com.soze.factory.command.CatchUpProduction;
 import com.soze.factory.command.StartProduction;
-import com.soze.factory.event.ProductionStarted;
+import com.soze.factory.event.*;
 import com.soze.factory.repository.FactoryRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.context.event.EventListener;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 /**
- * Starts timers that are supposed to trigger some actions when production ends.
+ * Starts idle factories and finishes production when it ends. Completion deadlines are kept in a timer wheel,
+ * filled from all producing factories on startup and from production events afterwards.
+ * Idle factories are started as soon as an event of theirs makes the start possible, without scanning all factories.
+ * With several instances, each one schedules only the factories it owns.
  */
 @Service
 @Profile("!test")
@@ -30,71 +43,309 @@ public class FactoryProductionScheduler {
 
 	private static final Logger LOG = LoggerFactory.getLogger(FactoryProductionScheduler.class);
 
-	private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
-
 	private final FactoryCommandService commandService;
 	private final FactoryRepository repository;
 	private final Clock clock;
+	private final FactoryOwnership ownership;
+	private final TimerWheel<ProductionDeadline> timerWheel;
+
+	/**
+	 * Delay before a command rejected by a full mailbox is sent again. A command which failed is retried with
+	 * exponential backoff, starting from this delay.
+	 */
+	private final long retryMillis;
+
+	/**
+	 * Upper bound of the backoff between retries of a failed command.
+	 */
+	private final long maxRetryMillis;
+	private final ScheduledExecutorService starterExecutor = Executors.newSingleThreadScheduledExecutor();
+	private final StartableFactoryIndex startableIndex = new StartableFactoryIndex(starterExecutor, this::startProduction);
+
+	/**
+	 * Latest deadline of every factory. A factory is scheduled again whenever its production (re)starts, a deadline
+	 * which is no longer the latest of its factory is skipped when it expires.
+	 */
+	private final Map<UUID, ProductionDeadline> deadlines = new ConcurrentHashMap<>();
+
+	/**
+	 * How many times in a row starting each factory failed, for the backoff of its next attempt.
+	 */
+	private final Map<UUID, Integer> startFailures = new ConcurrentHashMap<>();
 
 	@Autowired
-	public FactoryProductionScheduler(FactoryCommandService commandService, FactoryRepository repository, Clock clock
+	public FactoryProductionScheduler(FactoryCommandService commandService, FactoryRepository repository, Clock clock,
+																		FactoryOwnership ownership,
+																		@Value("${factory.production-scheduler.tick-millis:100}") long tickMillis,
+																		@Value("${factory.production-scheduler.wheel-size:512}") int wheelSize,
+																		@Value("${factory.production-scheduler.max-retry-millis:60000}") long maxRetryMillis
 																	 ) {
 		this.commandService = commandService;
 		this.repository = repository;
 		this.clock = clock;
+		this.ownership = ownership;
+		this.timerWheel = new TimerWheel<>(tickMillis, wheelSize, System.currentTimeMillis(), this::finishProduction);
+		this.retryMillis = tickMillis;
+		this.maxRetryMillis = maxRetryMillis;
 	}
 
 	/**
-	 * Every X seconds checks all factories if they are producing. If not
-	 * sends a {@link com.soze.factory.command.StartProduction} command.
+	 * Schedules completion of every owned factory which is producing and starts the ones which can produce.
+	 * Deadlines which passed while the service was down expire right away and catch up on all missed cycles.
 	 */
-	@Scheduled(fixedDelay = 5000)
-	public void checkFactories() {
-		LOG.debug("Checking for idle factories");
-		repository.getAll().forEach(factory -> {
-			Producer producer = factory.getProducer();
-			if (producer.isProducing()) {
-				LOG.trace("Factory {} already producing", factory.getId());
-				return;
-			}
-			FactoryStorage storage = factory.getStorage();
-			if (!storage.canFit(producer.getOutput())) {
-				LOG.trace("Factory {} cannot fit output of producer", factory.getId());
-				return;
-			}
-			commandService.visit(new StartProduction(factory.getId(), clock.getCurrentGameTime()));
-		});
+	@PostConstruct
+	public void scheduleFactories() {
+		LOG.info("Scheduling production completions");
+		schedule(ownership::isOwner);
+		LOG.info("Scheduled {} production completions, {} factories to start", timerWheel.size(), startableIndex.size());
+		timerWheel.start();
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		timerWheel.stop();
+		starterExecutor.shutdown();
+	}
+
+	/**
+	 * Takes over factories which this instance became the owner of. Factories which another instance now owns
+	 * are left to expire from the wheel and the index, they are not handled once their time comes.
+	 */
+	@EventListener
+	public void handleOwnershipChanged(FactoryOwnershipChanged ownershipChanged) {
+		LOG.info("{}", ownershipChanged);
+		schedule(ownershipChanged::gained);
+	}
+
+	private void schedule(Predicate<UUID> factoryIds) {
+		repository.streamAllIds()
+							.filter(factoryIds)
+							.map(repository::findById)
+							.filter(Optional::isPresent)
+							.map(Optional::get)
+							.forEach(factory -> {
+								scheduleCompletion(factory);
+								startableIndex.update(factory);
+							});
+	}
+
+	@EventListener
+	public void handleProductionStarted(ProductionStarted2 productionStarted) {
+		findOwned(productionStarted).ifPresent(this::scheduleCompletion);
+	}
+
+	@EventListener
+	public void handleProductionCyclesCompleted(ProductionCyclesCompleted productionCyclesCompleted) {
+		Optional<Factory> factory = findOwned(productionCyclesCompleted);
+		if (productionCyclesCompleted.productionStartTime >= 0) {
+			factory.ifPresent(this::scheduleCompletion);
+		} else {
+			factory.ifPresent(startableIndex::update);
+		}
+	}
+
+	@EventListener
+	public void handleProductionFinished(ProductionFinished productionFinished) {
+		updateStartable(productionFinished);
+	}
+
+	@EventListener
+	public void handleResourceSold(ResourceSold resourceSold) {
+		updateStartable(resourceSold);
+	}
+
+	@EventListener
+	public void handleResourceBought(ResourceBought resourceBought) {
+		updateStartable(resourceBought);
+	}
+
+	@EventListener
+	public void handleResourceStorageCapacityChanged(ResourceStorageCapacityChanged resourceStorageCapacityChanged) {
+		updateStartable(resourceStorageCapacityChanged);
+	}
+
+	@EventListener
+	public void handleProductionLineAdded(ProductionLineAdded2 productionLineAdded2) {
+		updateStartable(productionLineAdded2);
 	}
 
 	/**
-	 * Checks if factory finished producing.
+	 * Re-evaluates only the factory of an event which could have unblocked its production.
 	 */
-	@Scheduled(fixedDelay = 5000)
-	public void checkFactoriesFinished() {
-		LOG.debug("Checking for factories which finished production");
-		repository.getAll().forEach(factory -> {
-			Producer producer = factory.getProducer();
-			if (!producer.isProducing()) {
-				LOG.trace("Factory {} is not producing", factory.getId());
-				return;
+	private void updateStartable(Event event) {
+		findOwned(event).ifPresent(startableIndex::update);
+	}
+
+	private Optional<Factory> findOwned(Event event) {
+		return findOwned(UUID.fromString(event.entityId));
+	}
+
+	private Optional<Factory> findOwned(UUID factoryId) {
+		return ownership.isOwner(factoryId) ? repository.findById(factoryId) : Optional.empty();
+	}
+
+	/**
+	 * Waits for the start to be handled, so the single starter thread never has more than one start in a mailbox.
+	 * The index no longer holds a factory once its start begins, so a start which did not go through is
+	 * re-evaluated later, which puts the factory back into the index if it can still start. A start rejected
+	 * by a full mailbox is re-evaluated a bit later, one which failed for any other reason after a growing backoff.
+	 * A start which changed nothing found the factory already producing, so its completion is scheduled instead.
+	 */
+	private void startProduction(UUID factoryId) {
+		if (!ownership.isOwner(factoryId)) {
+			startFailures.remove(factoryId);
+			return;
+		}
+		try {
+			List<Event> events = commandService.visit(new StartProduction(factoryId, clock.getCurrentGameTime()));
+			startFailures.remove(factoryId);
+			if (events.isEmpty()) {
+				findOwned(factoryId).ifPresent(this::scheduleCompletion);
 			}
-			if (!producer.isFinished(clock)) {
-				LOG.trace("Factory {} still producing", factory.getId());
-				return;
+		} catch (RejectedExecutionException e) {
+			LOG.warn("Could not start production of {}, retrying in {} ms", factoryId, retryMillis);
+			reevaluateLater(factoryId, retryMillis);
+		} catch (RuntimeException e) {
+			retryStart(factoryId, e);
+		}
+	}
+
+	private void retryStart(UUID factoryId, RuntimeException e) {
+		int failures = startFailures.merge(factoryId, 1, Integer::sum);
+		long backoff = backoffMillis(failures - 1);
+		LOG.error("Exception when starting production of {}, retrying in {} ms", factoryId, backoff, e);
+		reevaluateLater(factoryId, backoff);
+	}
+
+	private void reevaluateLater(UUID factoryId, long delayMillis) {
+		starterExecutor.schedule(() -> {
+			try {
+				Optional<Factory> factory = findOwned(factoryId);
+				if (!factory.isPresent() || !factory.get().canStartProduction()) {
+					startFailures.remove(factoryId);
+				}
+				factory.ifPresent(startableIndex::update);
+			} catch (RuntimeException e) {
+				retryStart(factoryId, e);
 			}
-			commandService.visit(new FinishProduction(factory.getId()));
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void scheduleCompletion(Factory factory) {
+		Producer producer = factory.getProducer();
+		if (!producer.isProducing()) {
+			return;
+		}
+		long deadline = producer.getProductionStartTime() + TimeUnit.MINUTES.toMillis(producer.getTime());
+		long gameTimeRemaining = Math.max(0, deadline - clock.getCurrentGameTime());
+		long timeRemaining = (gameTimeRemaining + clock.getMultiplier() - 1) / clock.getMultiplier();
+		ProductionDeadline productionDeadline = new ProductionDeadline(factory.getId(), deadline);
+		deadlines.put(factory.getId(), productionDeadline);
+		timerWheel.schedule(productionDeadline, System.currentTimeMillis() + timeRemaining);
+	}
+
+	/**
+	 * Catching up is a finish of the single running cycle when dispatched on time. It also does nothing
+	 * when the factory is no longer producing or its production was restarted, so stale deadlines are harmless.
+	 * The wheel thread does not wait for the command. A deadline rejected by a full mailbox expires again later,
+	 * one which failed for any other reason expires again after a growing backoff, so no factory is left producing.
+	 * A catch up which changed nothing resyncs the factory, in case its production was restarted elsewhere.
+	 * A deadline replaced by a later one of the same factory is skipped.
+	 */
+	private void finishProduction(ProductionDeadline deadline) {
+		if (deadlines.get(deadline.factoryId) != deadline) {
+			return;
+		}
+		if (!ownership.isOwner(deadline.factoryId)) {
+			deadlines.remove(deadline.factoryId, deadline);
+			return;
+		}
+		long currentGameTime = Math.max(deadline.gameTime, clock.getCurrentGameTime());
+		try {
+			commandService.submit(new CatchUpProduction(deadline.factoryId, currentGameTime))
+										.whenComplete((events, e) -> {
+											if (e != null) {
+												retryFinish(deadline, e);
+												return;
+											}
+											deadlines.remove(deadline.factoryId, deadline);
+											if (events.isEmpty()) {
+												resync(deadline.factoryId);
+											}
+										});
+		} catch (RuntimeException e) {
+			retryFinish(deadline, e);
+		}
+	}
+
+	/**
+	 * Schedules a factory from its current state after a command which changed nothing. The deadline or start
+	 * was stale, because another instance drove the factory while both considered themselves its owner,
+	 * and events of that instance never reach this scheduler.
+	 */
+	private void resync(UUID factoryId) {
+		findOwned(factoryId).ifPresent(factory -> {
+			scheduleCompletion(factory);
+			startableIndex.update(factory);
 		});
 	}
 
-	@EventListener
-	public void handleProductionStarted(ProductionStarted productionStarted) {
-		LOG.info("{}", productionStarted);
-		Factory factory = repository.findById(UUID.fromString(productionStarted.entityId)).get();
-		long minutes = factory.getProducer().getTime();
-		long timeRemaining = TimeUnit.MINUTES.toMillis(minutes) / clock.getMultiplier();
-		executorService.schedule(() -> {
-			commandService.visit(new FinishProduction(UUID.fromString(productionStarted.entityId)));
-		}, timeRemaining, TimeUnit.MILLISECONDS);
+	private void retryFinish(ProductionDeadline deadline, Throwable e) {
+		Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+		if (cause instanceof RejectedExecutionException) {
+			LOG.warn("Could not finish production of {}, retrying in {} ms", deadline.factoryId, retryMillis);
+			timerWheel.schedule(deadline, System.currentTimeMillis() + retryMillis);
+			return;
+		}
+		ProductionDeadline failed = deadline.failed();
+		if (!deadlines.replace(deadline.factoryId, deadline, failed)) {
+			return;
+		}
+		long backoff = backoffMillis(deadline.failures);
+		LOG.error("Exception when finishing production of {}, retrying in {} ms", deadline.factoryId, backoff, cause);
+		timerWheel.schedule(failed, System.currentTimeMillis() + backoff);
+	}
+
+	/**
+	 * Delay before the next retry of a command which already failed the given number of times.
+	 */
+	private long backoffMillis(int failures) {
+		return Math.min(maxRetryMillis, retryMillis << Math.min(failures, 20));
+	}
+
+	private static final class ProductionDeadline {
+
+		private final UUID factoryId;
+
+		/**
+		 * Game time at which the production finishes.
+		 */
+		private final long gameTime;
+
+		/**
+		 * How many times finishing this production failed.
+		 */
+		private final int failures;
+
+		private ProductionDeadline(UUID factoryId, long gameTime) {
+			this(factoryId, gameTime, 0);
+		}
+
+		private ProductionDeadline(UUID factoryId, long gameTime, int failures) {
+			this.factoryId = factoryId;
+			this.gameTime = gameTime;
+			this.failures = failures;
+		}
+
+		private ProductionDeadline failed() {
+			return new ProductionDeadline(factoryId, gameTime, failures + 1);
+		}
+
+		@Override
+		public String toString() {
+			return "ProductionDeadline{" + "factoryId=" + factoryId + ", gameTime=" + gameTime + ", failures=" + failures +
+						 '}';
+		}
 	}
 
 }
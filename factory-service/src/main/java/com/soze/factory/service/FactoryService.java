@@ -1,10 +1,12 @@
 package com.soze.factory.service;
 
+import com.soze.common.dto.FactoryDTO;
 import com.soze.common.json.JsonUtils;
+import com.soze.common.message.client.SubscriptionRequest;
 import com.soze.common.message.server.FactoryAdded;
-import com.soze.common.message.server.ServerMessage;
 import com.soze.factory.FactoryConverter;
 import com.soze.factory.aggregate.Factory;
+import com.soze.factory.cluster.FactoryOwnershipChanged;
 import com.soze.factory.event.*;
 import com.soze.factory.repository.FactoryRepository;
 import org.slf4j.Logger;
@@ -15,9 +17,12 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
-import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class FactoryService implements EventVisitor {
@@ -26,53 +31,104 @@ public class FactoryService implements EventVisitor {
 
 	private final FactoryConverter factoryConverter;
 	private final FactoryRepository repository;
-	private final SocketSessionContainer socketSessionContainer;
+	private final FactoryBroadcaster broadcaster;
+	private final WorldSnapshot worldSnapshot;
+
+	/**
+	 * Cities of factories, a factory never moves to another city.
+	 */
+	private final Map<String, String> cityIds = new ConcurrentHashMap<>();
 
 	@Autowired
-	public FactoryService(FactoryConverter factoryConverter, FactoryRepository repository,
-												SocketSessionContainer socketSessionContainer
-											 ) {
+	public FactoryService(FactoryConverter factoryConverter, FactoryRepository repository, FactoryBroadcaster broadcaster) {
 		this.factoryConverter = factoryConverter;
 		this.repository = repository;
-		this.socketSessionContainer = socketSessionContainer;
+		this.broadcaster = broadcaster;
+		this.worldSnapshot = new WorldSnapshot(repository, factoryConverter);
 	}
 
+	/**
+	 * Adds the session and queues what it needs before any later change. A session which reconnects with
+	 * {@code epoch} and {@code position} query parameters gets only the messages it missed, if they are still kept,
+	 * otherwise it gets a snapshot of all factories. Updates are sent in the {@link WireFormat} named by
+	 * the {@code format} query parameter, json by default.
+	 */
 	public void handleNewSession(WebSocketSession session) {
-
-		//send back all factories to the session
-		List<Factory> factories = repository.getAll();
-		LOG.info("Sending FactoryAdded message for {} factories", factories.size());
-		for (Factory factory : factories) {
-			FactoryAdded factoryAdded = new FactoryAdded(factoryConverter.convert(factory));
-			sendTo(factoryAdded, session);
+		URI uri = session.getUri();
+		String epoch = getQueryParameter(uri, "epoch");
+		String position = getQueryParameter(uri, "position");
+		long lastPosition = -1;
+		if (position != null) {
+			try {
+				lastPosition = Long.parseLong(position);
+			} catch (NumberFormatException e) {
+				LOG.info("Invalid position {} of session {}", position, session.getId());
+			}
 		}
+		WireFormat format = WireFormat.of(getQueryParameter(uri, "format"));
+		broadcaster.connect(session, format, epoch, lastPosition, worldSnapshot::toJson);
 	}
 
-	private void sendTo(ServerMessage serverMessage, WebSocketSession session) {
-		TextMessage textMessage = new TextMessage(JsonUtils.serialize(serverMessage));
-		sendTo(textMessage, session);
+	public void handleClosedSession(String sessionId) {
+		broadcaster.removeSession(sessionId);
 	}
 
-	private void sendTo(TextMessage textMessage, WebSocketSession session) {
-		try {
-			session.sendMessage(textMessage);
-		} catch (IOException e) {
-			LOG.warn("Exception when sending a server message, to session {}", session.getId(), e);
-		}
+	@EventListener
+	public void handleOwnershipChanged(FactoryOwnershipChanged ownershipChanged) {
+		worldSnapshot.ownershipChanged(ownershipChanged);
 	}
 
-	private void sendToAll(ServerMessage serverMessage) {
-		TextMessage textMessage = new TextMessage(JsonUtils.serialize(serverMessage));
-		for (WebSocketSession session : socketSessionContainer.getAllSessions()) {
-			sendTo(textMessage, session);
-		}
+	/**
+	 * Routes later updates to the session according to the subscription. Factories which the session was not
+	 * interested in before are sent to it again, it missed their changes.
+	 */
+	public void handleSubscription(String sessionId, SubscriptionRequest subscriptionRequest) {
+		Interest interest = Interest.of(subscriptionRequest.getCityIds(), subscriptionRequest.getFactoryIds());
+		broadcaster.subscribe(sessionId, interest, previous -> {
+			List<TextMessage> messages = new ArrayList<>();
+			for (FactoryDTO factory : worldSnapshot.getNewlyCovered(interest, previous)) {
+				messages.add(new TextMessage(JsonUtils.serialize(new FactoryAdded(factory))));
+			}
+			return messages;
+		});
+	}
+
+	/**
+	 * Sends an event of a factory owned by another instance to the sessions of this instance,
+	 * the same way events published here are sent.
+	 */
+	public void relay(Event event) {
+		event.accept(this);
+	}
+
+	/**
+	 * Sends the event to the sessions interested in its factory.
+	 */
+	private void sendToInterested(Event event) {
+		sendToInterested(event.entityId, event);
+	}
+
+	private void sendToInterested(String factoryId, Object message) {
+		worldSnapshot.changed(factoryId);
+		broadcaster.broadcast(factoryId, getCityId(factoryId), message);
 	}
 
-	private void sendToAll(Object message) {
-		TextMessage textMessage = new TextMessage(JsonUtils.serialize(message));
-		for (WebSocketSession session : socketSessionContainer.getAllSessions()) {
-			sendTo(textMessage, session);
+	private static String getQueryParameter(URI uri, String name) {
+		if (uri == null || uri.getQuery() == null) {
+			return null;
 		}
+		for (String parameter : uri.getQuery().split("&")) {
+			int separator = parameter.indexOf('=');
+			if (separator > 0 && parameter.substring(0, separator).equals(name)) {
+				return parameter.substring(separator + 1);
+			}
+		}
+		return null;
+	}
+
+	private String getCityId(String factoryId) {
+		return cityIds.computeIfAbsent(
+			factoryId, id -> repository.findById(UUID.fromString(id)).map(Factory::getCityId).orElse(null));
 	}
 
 	@EventListener
@@ -80,78 +136,93 @@ public class FactoryService implements EventVisitor {
 	public void visit(FactoryCreated factoryCreated) {
 		LOG.info("{}", factoryCreated);
 		Factory factory = repository.findById(UUID.fromString(factoryCreated.entityId)).get();
-		sendToAll(new FactoryAdded(factoryConverter.convert(factory)));
+		worldSnapshot.changed(factoryCreated.entityId);
+		broadcaster.broadcast(factoryCreated.entityId, factory.getCityId(), new FactoryAdded(factoryConverter.convert(factory)));
 	}
 
 	@EventListener
 	@Override
 	public void visit(ProductionStarted productionStarted) {
 		LOG.info("{}", productionStarted);
-		sendToAll(productionStarted);
+		sendToInterested(productionStarted);
 	}
 
 	@Override
 	@EventListener
 	public void visit(StorageCapacityChanged storageCapacityChanged) {
 		LOG.info("{}", storageCapacityChanged);
-		sendToAll(new com.soze.common.message.server.StorageCapacityChanged(storageCapacityChanged.entityId,
-																																				storageCapacityChanged.change
-		));
+		sendToInterested(storageCapacityChanged.entityId, new com.soze.common.message.server.StorageCapacityChanged(
+			storageCapacityChanged.entityId, storageCapacityChanged.change));
 	}
 
 	@Override
 	@EventListener
 	public void visit(ProductionLineAdded productionLineAdded) {
 		LOG.info("{}", productionLineAdded);
-		sendToAll(productionLineAdded);
+		sendToInterested(productionLineAdded);
 	}
 
 	@Override
 	@EventListener
 	public void visit(ProductionFinished productionFinished) {
 		LOG.info("{}", productionFinished);
-		sendToAll(productionFinished);
+		sendToInterested(productionFinished);
 	}
 
 	@Override
 	@EventListener
 	public void visit(ResourceSold resourceSold) {
 		LOG.info("{}", resourceSold);
-		sendToAll(resourceSold);
+		sendToInterested(resourceSold);
 	}
 
 	@Override
 	@EventListener
 	public void visit(ResourceStorageCapacityChanged resourceStorageCapacityChanged) {
 		LOG.info("{}", resourceStorageCapacityChanged);
-		sendToAll(resourceStorageCapacityChanged);
+		sendToInterested(resourceStorageCapacityChanged);
 	}
 
 	@Override
 	@EventListener
 	public void visit(ResourcePriceChanged resourcePriceChanged) {
 		LOG.info("{}", resourcePriceChanged);
-		sendToAll(resourcePriceChanged);
+		sendToInterested(resourcePriceChanged);
 	}
 
 	@Override
 	@EventListener
 	public void visit(ProductionStarted2 productionStarted2) {
 		LOG.info("{}", productionStarted2);
-		sendToAll(productionStarted2);
+		sendToInterested(productionStarted2);
 	}
 
 	@Override
 	@EventListener
 	public void visit(ProductionLineAdded2 productionLineAdded2) {
 		LOG.info("{}", productionLineAdded2);
-		sendToAll(productionLineAdded2);
+		sendToInterested(productionLineAdded2);
 	}
 
 	@Override
 	@EventListener
 	public void visit(ResourceBought resourceBought) {
 		LOG.info("{}", resourceBought);
-		sendToAll(resourceBought);
+		sendToInterested(resourceBought);
+	}
+
+	@Override
+	@EventListener
+	public void visit(ResourcePriceChanged2 resourcePriceChanged2) {
+		LOG.info("{}", resourcePriceChanged2);
+		worldSnapshot.changed(resourcePriceChanged2.entityId);
+		broadcaster.broadcast(getCityId(resourcePriceChanged2.entityId), resourcePriceChanged2);
+	}
+
+	@Override
+	@EventListener
+	public void visit(ProductionCyclesCompleted productionCyclesCompleted) {
+		LOG.info("{}", productionCyclesCompleted);
+		sendToInterested(productionCyclesCompleted);
 	}
 }
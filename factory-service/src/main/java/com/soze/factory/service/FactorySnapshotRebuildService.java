@@ -0,0 +1,42 @@
+package com.soze.factory.service;
+
+import com.soze.factory.repository.FactoryRepository;
+import com.soze.factory.store.SnapshotStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.Optional;
+
+/**
+ * Runs once to drop all stored snapshots and build them again from events.
+ * Needs to be run after a change in aggregate code changes what replaying events produces.
+ */
+@Service
+@Profile("factory-snapshot-rebuild")
+public class FactorySnapshotRebuildService {
+
+	private static final Logger LOG = LoggerFactory.getLogger(FactorySnapshotRebuildService.class);
+
+	private final FactoryRepository repository;
+	private final SnapshotStore snapshotStore;
+
+	@Autowired
+	public FactorySnapshotRebuildService(FactoryRepository repository, SnapshotStore snapshotStore) {
+		this.repository = repository;
+		this.snapshotStore = snapshotStore;
+	}
+
+	@EventListener
+	public void handleApplicationStart(ApplicationReadyEvent e) {
+		LOG.info(this.getClass().getSimpleName() + " init...");
+		snapshotStore.deleteAll();
+		LOG.info("Rebuilding snapshots for {} factories", repository.factoryCount());
+		long rebuilt = repository.streamAllIds().map(repository::rebuildSnapshot).filter(Optional::isPresent).count();
+		LOG.info("Rebuilt snapshots for {} factories", rebuilt);
+	}
+}
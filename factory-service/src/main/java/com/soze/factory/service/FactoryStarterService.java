@@ -1,8 +1,10 @@
 package com.soze.factory.service;
 
 import com.soze.common.dto.CityDTO;
+import com.soze.factory.cluster.FactoryOwnership;
 import com.soze.factory.repository.FactoryRepository;
 import com.soze.factory.command.Command;
+import com.soze.factory.event.Event;
 import com.soze.factory.world.RemoteWorldService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,7 +17,7 @@ import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 @Profile("!test")
@@ -27,17 +29,24 @@ public class FactoryStarterService {
 	private final FactoryTemplateLoader templateLoader;
 	private final FactoryCommandService factoryCommandService;
 	private final FactoryRepository factoryRepository;
+	private final FactoryOwnership ownership;
 
 	@Autowired
 	public FactoryStarterService(RemoteWorldService remoteWorldService, FactoryTemplateLoader templateLoader,
-															 FactoryCommandService factoryCommandService, FactoryRepository factoryRepository
+															 FactoryCommandService factoryCommandService, FactoryRepository factoryRepository,
+															 FactoryOwnership ownership
 															) {
 		this.remoteWorldService = remoteWorldService;
 		this.templateLoader = templateLoader;
 		this.factoryCommandService = factoryCommandService;
 		this.factoryRepository = factoryRepository;
+		this.ownership = ownership;
 	}
 
+	/**
+	 * Creates the initial factories, all with ids owned by this instance, so they are created, cached
+	 * and scheduled by the same instance, like factories constructed through the controller.
+	 */
 	@EventListener
 	public void handleApplicationStart(ApplicationReadyEvent e) {
 		LOG.info("Factory start...");
@@ -49,16 +58,18 @@ public class FactoryStarterService {
 		CityDTO warsaw = remoteWorldService.getCityByName("Warsaw");
 		CityDTO opole = remoteWorldService.getCityByName("Opole");
 
-		List<Command> commands1 = templateLoader.getFactoryCommandsByTemplateId(UUID.randomUUID(),"FORESTER", wroclaw.id);
-		commands1.forEach(command -> command.accept(factoryCommandService));
-		List<Command> commands2 = templateLoader.getFactoryCommandsByTemplateId(UUID.randomUUID(),"FORESTER", wroclaw.id);
-		commands2.forEach(command -> command.accept(factoryCommandService));
-		List<Command> commands3 = templateLoader.getFactoryCommandsByTemplateId(UUID.randomUUID(),"FORESTER", warsaw.id);
-		commands3.forEach(command -> command.accept(factoryCommandService));
-		List<Command> commands4 = templateLoader.getFactoryCommandsByTemplateId(UUID.randomUUID(),"STONE_QUARRY", opole.id);
-		commands4.forEach(command -> command.accept(factoryCommandService));
-		List<Command> commands5 = templateLoader.getFactoryCommandsByTemplateId(UUID.randomUUID(),"SAW_MILL", opole.id);
-		commands5.forEach(command -> command.accept(factoryCommandService));
+		List<List<Command>> factories = new ArrayList<>();
+		factories.add(templateLoader.getFactoryCommandsByTemplateId(ownership.newFactoryId(), "FORESTER", wroclaw.id));
+		factories.add(templateLoader.getFactoryCommandsByTemplateId(ownership.newFactoryId(), "FORESTER", wroclaw.id));
+		factories.add(templateLoader.getFactoryCommandsByTemplateId(ownership.newFactoryId(), "FORESTER", warsaw.id));
+		factories.add(templateLoader.getFactoryCommandsByTemplateId(ownership.newFactoryId(), "STONE_QUARRY", opole.id));
+		factories.add(templateLoader.getFactoryCommandsByTemplateId(ownership.newFactoryId(), "SAW_MILL", opole.id));
+		List<CompletableFuture<List<Event>>> results = new ArrayList<>();
+		for (List<Command> commands : factories) {
+			results.add(factoryCommandService.submitBatch(commands));
+		}
+		CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).join();
+		LOG.info("Started {} factories", factories.size());
 	}
 
 }
@@ -0,0 +1,57 @@
+package com.soze.factory.service;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Cities and factories a WebSocket session wants updates of.
+ */
+final class Interest {
+
+	/**
+	 * Interest of a session which did not subscribe to anything in particular.
+	 */
+	static final Interest EVERYTHING = new Interest(null, null);
+
+	/**
+	 * Null if the session is interested in everything.
+	 */
+	private final Set<String> cityIds;
+	private final Set<String> factoryIds;
+
+	private Interest(Set<String> cityIds, Set<String> factoryIds) {
+		this.cityIds = cityIds;
+		this.factoryIds = factoryIds;
+	}
+
+	static Interest of(Set<String> cityIds, Set<String> factoryIds) {
+		return new Interest(Collections.unmodifiableSet(new HashSet<>(cityIds)),
+												Collections.unmodifiableSet(new HashSet<>(factoryIds))
+		);
+	}
+
+	boolean isEverything() {
+		return cityIds == null;
+	}
+
+	/**
+	 * @param cityId null if the city of the factory is not known
+	 */
+	boolean covers(String factoryId, String cityId) {
+		return isEverything() || factoryIds.contains(factoryId) || (cityId != null && cityIds.contains(cityId));
+	}
+
+	Set<String> getCityIds() {
+		return isEverything() ? Collections.emptySet() : cityIds;
+	}
+
+	Set<String> getFactoryIds() {
+		return isEverything() ? Collections.emptySet() : factoryIds;
+	}
+
+	@Override
+	public String toString() {
+		return isEverything() ? "Interest{everything}" : "Interest{" + "cityIds=" + cityIds + ", factoryIds=" + factoryIds + '}';
+	}
+}
@@ -0,0 +1,82 @@
+package com.soze.factory.service;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sessions which subscribed to particular cities or factories, indexed by city and factory id, so finding
+ * the sessions interested in an update costs only as much as there are such sessions.
+ * Sessions interested in everything are not in the index.
+ */
+final class InterestIndex {
+
+	private final Map<String, Interest> interests = new ConcurrentHashMap<>();
+	private final Map<String, Set<String>> byCity = new ConcurrentHashMap<>();
+	private final Map<String, Set<String>> byFactory = new ConcurrentHashMap<>();
+
+	/**
+	 * Replaces the interest of the session.
+	 *
+	 * @return interest of the session before
+	 */
+	synchronized Interest subscribe(String sessionId, Interest interest) {
+		Interest previous = remove(sessionId);
+		if (!interest.isEverything()) {
+			interests.put(sessionId, interest);
+			interest.getCityIds().forEach(cityId -> add(byCity, cityId, sessionId));
+			interest.getFactoryIds().forEach(factoryId -> add(byFactory, factoryId, sessionId));
+		}
+		return previous;
+	}
+
+	/**
+	 * @return interest the session had
+	 */
+	synchronized Interest remove(String sessionId) {
+		Interest previous = interests.remove(sessionId);
+		if (previous == null) {
+			return Interest.EVERYTHING;
+		}
+		previous.getCityIds().forEach(cityId -> remove(byCity, cityId, sessionId));
+		previous.getFactoryIds().forEach(factoryId -> remove(byFactory, factoryId, sessionId));
+		return previous;
+	}
+
+	boolean isSubscribed(String sessionId) {
+		return interests.containsKey(sessionId);
+	}
+
+	/**
+	 * Subscribed sessions interested in the factory or its city.
+	 *
+	 * @param cityId null if the city of the factory is not known
+	 */
+	Set<String> getSubscribers(String factoryId, String cityId) {
+		Set<String> factorySubscribers = byFactory.getOrDefault(factoryId, Collections.emptySet());
+		Set<String> citySubscribers = cityId == null ? Collections.emptySet() : byCity.getOrDefault(cityId, Collections.emptySet());
+		if (citySubscribers.isEmpty()) {
+			return factorySubscribers;
+		}
+		if (factorySubscribers.isEmpty()) {
+			return citySubscribers;
+		}
+		Set<String> subscribers = new HashSet<>(citySubscribers);
+		subscribers.addAll(factorySubscribers);
+		return subscribers;
+	}
+
+	private static void add(Map<String, Set<String>> index, String key, String sessionId) {
+		index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(sessionId);
+	}
+
+	private static void remove(Map<String, Set<String>> index, String key, String sessionId) {
+		index.computeIfPresent(key, (k, sessions) -> {
+			sessions.remove(sessionId);
+			return sessions.isEmpty() ? null : sessions;
+		});
+	}
+
+}
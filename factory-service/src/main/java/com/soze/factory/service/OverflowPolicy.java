@@ -0,0 +1,25 @@
+package com.soze.factory.service;
+
+/**
+ * What happens to a message for a WebSocket session whose outbound queue is full.
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * The oldest queued message is dropped to make room, the client misses it.
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * A queued message superseded by the new one (same coalescing key) is replaced by it.
+	 * A frame of a tick supersedes nothing, it is merged into the last queued frame of a tick.
+	 * If neither works, the session is disconnected.
+	 */
+	COALESCE,
+
+	/**
+	 * The session is disconnected, the client gets the whole state again when it reconnects.
+	 */
+	DISCONNECT
+
+}
@@ -0,0 +1,243 @@
+package com.soze.factory.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
+
+/**
+ * Bounded queue of messages waiting to be sent to one WebSocket session. Queueing never blocks, the messages are sent
+ * by the executor, at most one task per session at a time, so they arrive in order and a slow session only
+ * holds up itself. What happens when the queue is full is decided by the {@link OverflowPolicy}.
+ */
+final class SessionOutbox {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SessionOutbox.class);
+
+	/**
+	 * Messages sent by one task before the session gives up its sender thread to other sessions.
+	 */
+	private static final int MAX_BATCH = 64;
+
+	/**
+	 * Messages a merged frame can grow to. A session which falls further behind is cheaper to send the whole state
+	 * when it reconnects.
+	 */
+	private static final int MAX_MERGED_MESSAGES = 4096;
+
+	private final WebSocketSession session;
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final Executor executor;
+	private final LongConsumer sendLatency;
+	private final Runnable onDropped;
+
+	private final Deque<Outbound> queue = new ArrayDeque<>();
+	private final AtomicBoolean draining = new AtomicBoolean();
+	private boolean closed;
+
+	/**
+	 * @param sendLatency called with the nanos between queueing and sending of every message
+	 * @param onDropped   called for every message which was dropped or replaced
+	 */
+	SessionOutbox(WebSocketSession session, int capacity, OverflowPolicy policy, Executor executor,
+								LongConsumer sendLatency, Runnable onDropped
+							 ) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity has to be positive, was " + capacity);
+		}
+		this.session = session;
+		this.capacity = capacity;
+		this.policy = policy;
+		this.executor = executor;
+		this.sendLatency = sendLatency;
+		this.onDropped = onDropped;
+	}
+
+	/**
+	 * Queues the message. A message with a coalescing key supersedes queued messages with the same key.
+	 *
+	 * @param coalescingKey null if the message cannot be replaced by a later one
+	 */
+	void offer(WebSocketMessage<?> message, String coalescingKey) {
+		offer(new Outbound(message, null, null, coalescingKey, System.nanoTime()));
+	}
+
+	/**
+	 * Queues the frame encoded in the format. An array frame without a coalescing key supersedes nothing,
+	 * under {@link OverflowPolicy#COALESCE} it is merged into the last queued array frame instead, if that one
+	 * is not too large yet. Every message of the frame still reaches the session, in order.
+	 *
+	 * @param coalescingKey null if the frame cannot be replaced by a later one
+	 */
+	void offer(WireFrame frame, WireFormat format, String coalescingKey) {
+		offer(new Outbound(frame.encode(format), frame, format, coalescingKey, System.nanoTime()));
+	}
+
+	private void offer(Outbound outbound) {
+		boolean disconnect = false;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			if (queue.size() < capacity) {
+				queue.add(outbound);
+			} else if (policy == OverflowPolicy.DROP_OLDEST) {
+				queue.poll();
+				queue.add(outbound);
+				onDropped.run();
+			} else if (policy == OverflowPolicy.COALESCE && removeSuperseded(outbound.coalescingKey)) {
+				queue.add(outbound);
+				onDropped.run();
+			} else if (policy == OverflowPolicy.COALESCE && mergeIntoLast(outbound)) {
+				LOG.debug("Queue of session {} is full, merged a frame into the last queued one", session.getId());
+			} else {
+				closed = true;
+				queue.clear();
+				disconnect = true;
+			}
+		}
+		if (disconnect) {
+			LOG.warn("Session {} cannot keep up, disconnecting it", session.getId());
+			executor.execute(this::disconnect);
+			return;
+		}
+		schedule();
+	}
+
+	/**
+	 * Queues the messages regardless of the capacity. Meant for the state sent right after the session connects,
+	 * which has to arrive whole.
+	 */
+	void offerAll(List<? extends WebSocketMessage<?>> messages) {
+		long now = System.nanoTime();
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			for (WebSocketMessage<?> message : messages) {
+				queue.add(new Outbound(message, null, null, null, now));
+			}
+		}
+		schedule();
+	}
+
+	/**
+	 * Drops queued messages and stops queueing new ones.
+	 */
+	synchronized void close() {
+		closed = true;
+		queue.clear();
+	}
+
+	synchronized int size() {
+		return queue.size();
+	}
+
+	private boolean removeSuperseded(String coalescingKey) {
+		if (coalescingKey == null) {
+			return false;
+		}
+		Iterator<Outbound> iterator = queue.iterator();
+		while (iterator.hasNext()) {
+			if (coalescingKey.equals(iterator.next().coalescingKey)) {
+				iterator.remove();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Replaces the last queued frame by the frame merged with the new one, keeping the time the last one was queued.
+	 */
+	private boolean mergeIntoLast(Outbound outbound) {
+		Outbound last = queue.peekLast();
+		if (!outbound.isMergeable() || last == null || !last.isMergeable() || last.format != outbound.format ||
+				last.frame.size() + outbound.frame.size() > MAX_MERGED_MESSAGES) {
+			return false;
+		}
+		WireFrame merged = last.frame.merge(outbound.frame);
+		queue.pollLast();
+		queue.addLast(new Outbound(merged.encode(last.format), merged, last.format, null, last.queuedAt));
+		return true;
+	}
+
+	private void schedule() {
+		if (draining.compareAndSet(false, true)) {
+			executor.execute(this::drain);
+		}
+	}
+
+	private void drain() {
+		for (int sent = 0; sent < MAX_BATCH; sent++) {
+			Outbound next;
+			synchronized (this) {
+				next = queue.poll();
+				if (next == null) {
+					draining.set(false);
+					return;
+				}
+			}
+			send(next);
+		}
+		executor.execute(this::drain);
+	}
+
+	private void send(Outbound outbound) {
+		try {
+			session.sendMessage(outbound.message);
+			sendLatency.accept(System.nanoTime() - outbound.queuedAt);
+		} catch (IOException | RuntimeException e) {
+			LOG.warn("Exception when sending a server message, to session {}", session.getId(), e);
+		}
+	}
+
+	private void disconnect() {
+		try {
+			session.close(CloseStatus.SESSION_NOT_RELIABLE);
+		} catch (IOException e) {
+			LOG.warn("Exception when disconnecting session {}", session.getId(), e);
+		}
+	}
+
+	private static final class Outbound {
+
+		private final WebSocketMessage<?> message;
+
+		/**
+		 * Frame the message was encoded from and its format, null if it was queued as it is.
+		 */
+		private final WireFrame frame;
+		private final WireFormat format;
+
+		private final String coalescingKey;
+		private final long queuedAt;
+
+		private Outbound(WebSocketMessage<?> message, WireFrame frame, WireFormat format, String coalescingKey,
+										 long queuedAt
+										) {
+			this.message = Objects.requireNonNull(message);
+			this.frame = frame;
+			this.format = format;
+			this.coalescingKey = coalescingKey;
+			this.queuedAt = queuedAt;
+		}
+
+		private boolean isMergeable() {
+			return frame != null && frame.isArray() && coalescingKey == null;
+		}
+	}
+
+}
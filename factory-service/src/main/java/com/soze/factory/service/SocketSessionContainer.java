@@ -1,39 +1,197 @@
 package com.soze.factory.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
 
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
+/**
+ * Connected WebSocket sessions. Every session gets its own bounded outbound queue, drained by a pool of sender threads,
+ * so publishing a message never waits for a client. If async sending is off, the messages are sent
+ * on the publishing thread. Every session gets frames in the {@link WireFormat} it connected with.
+ * Meters cover all sessions together, so their number does not grow with the number of connections.
+ */
 @Service
 public class SocketSessionContainer {
 
 	private static final Logger LOG = LoggerFactory.getLogger(SocketSessionContainer.class);
 
-	private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+	private final Map<String, Entry> sessions = new ConcurrentHashMap<>();
+
+	private final int queueSize;
+	private final OverflowPolicy overflowPolicy;
+	private final Counter dropped;
+	private final Timer sendLatency;
+
+	/**
+	 * Null if messages are sent on the publishing thread.
+	 */
+	private final ExecutorService senders;
+
+	@Autowired
+	public SocketSessionContainer(MeterRegistry meterRegistry, @Value("${factory.websocket.async:false}") boolean async,
+																@Value("${factory.websocket.sender-threads:4}") int senderThreads,
+																@Value("${factory.websocket.queue-size:1024}") int queueSize,
+																@Value("${factory.websocket.overflow-policy:COALESCE}") OverflowPolicy overflowPolicy
+															 ) {
+		this.queueSize = queueSize;
+		this.overflowPolicy = overflowPolicy;
+		this.dropped = Counter.builder("factory.websocket.dropped")
+													.description("Messages dropped or replaced because the queue of their session was full")
+													.tag("policy", overflowPolicy.name())
+													.register(meterRegistry);
+		this.sendLatency = Timer.builder("factory.websocket.send.latency")
+														.description("Time between queueing a message and sending it to its session")
+														.tag("policy", overflowPolicy.name())
+														.register(meterRegistry);
+		Gauge.builder("factory.websocket.queue.depth", this, SocketSessionContainer::getQueuedMessages)
+				 .description("Messages waiting to be sent, over all sessions")
+				 .tag("policy", overflowPolicy.name())
+				 .register(meterRegistry);
+		Gauge.builder("factory.websocket.queue.depth.max", this, SocketSessionContainer::getMaxQueuedMessages)
+				 .description("Messages waiting to be sent to the session with the longest queue")
+				 .tag("policy", overflowPolicy.name())
+				 .register(meterRegistry);
+		this.senders = async ? Executors.newFixedThreadPool(senderThreads) : null;
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		if (senders != null) {
+			senders.shutdown();
+			senders.awaitTermination(5, TimeUnit.SECONDS);
+		}
+	}
 
 	public void addSession(WebSocketSession session) {
-		LOG.info("Adding session = {}", session.getId());
-		sessions.put(session.getId(), session);
+		addSession(session, WireFormat.JSON);
+	}
+
+	public void addSession(WebSocketSession session, WireFormat format) {
+		LOG.info("Adding session = {}, format = {}", session.getId(), format);
+		Executor executor = senders != null ? senders : Runnable::run;
+		SessionOutbox outbox = new SessionOutbox(session, queueSize, overflowPolicy, executor,
+																						 nanos -> sendLatency.record(nanos, TimeUnit.NANOSECONDS), dropped::increment
+		);
+		Entry previous = sessions.put(session.getId(), new Entry(session, format, outbox));
+		if (previous != null) {
+			previous.outbox.close();
+		}
 	}
 
 	public void removeSession(String id) {
 		LOG.info("Removing session = {}", id);
-		sessions.remove(id);
+		Entry entry = sessions.remove(id);
+		if (entry != null) {
+			entry.outbox.close();
+		}
 	}
 
 	public List<WebSocketSession> getAllSessions() {
-		return new ArrayList<>(sessions.values());
+		List<WebSocketSession> all = new ArrayList<>(sessions.size());
+		for (Entry entry : sessions.values()) {
+			all.add(entry.session);
+		}
+		return all;
 	}
 
 	public Optional<WebSocketSession> getSession(String id) {
-		return Optional.ofNullable(sessions.get(id));
+		return Optional.ofNullable(sessions.get(id)).map(entry -> entry.session);
+	}
+
+	/**
+	 * Queues the frame for every session, except the excluded ones.
+	 *
+	 * @param coalescingKey key of the state the frame carries, a later frame with the same key supersedes it.
+	 *                      Null if the frame cannot be superseded.
+	 */
+	void sendToAllExcept(WireFrame frame, String coalescingKey, Predicate<String> excluded) {
+		sessions.forEach((id, entry) -> {
+			if (!excluded.test(id)) {
+				entry.outbox.offer(frame, entry.format, coalescingKey);
+			}
+		});
+	}
+
+	/**
+	 * Queues the frame for one session, if it is still connected.
+	 */
+	void send(String id, WireFrame frame, String coalescingKey) {
+		Entry entry = sessions.get(id);
+		if (entry != null) {
+			entry.outbox.offer(frame, entry.format, coalescingKey);
+		}
+	}
+
+	/**
+	 * Queues a frame which has to reach the session, regardless of its queue size.
+	 */
+	void sendAll(String id, WireFrame frame) {
+		Entry entry = sessions.get(id);
+		if (entry != null) {
+			entry.outbox.offerAll(Collections.singletonList(frame.encode(entry.format)));
+		}
+	}
+
+	/**
+	 * Queues messages which have to reach the session whole, regardless of its queue size.
+	 * They are sent as they are, in every format.
+	 */
+	public void sendAll(String id, List<TextMessage> messages) {
+		Entry entry = sessions.get(id);
+		if (entry != null) {
+			entry.outbox.offerAll(messages);
+		}
+	}
+
+	private int getQueuedMessages() {
+		int queued = 0;
+		for (Entry entry : sessions.values()) {
+			queued += entry.outbox.size();
+		}
+		return queued;
+	}
+
+	private int getMaxQueuedMessages() {
+		int max = 0;
+		for (Entry entry : sessions.values()) {
+			max = Math.max(max, entry.outbox.size());
+		}
+		return max;
+	}
+
+	private static final class Entry {
+
+		private final WebSocketSession session;
+		private final WireFormat format;
+		private final SessionOutbox outbox;
+
+		private Entry(WebSocketSession session, WireFormat format, SessionOutbox outbox) {
+			this.session = session;
+			this.format = format;
+			this.outbox = outbox;
+		}
 	}
 
 }
@@ -0,0 +1,62 @@
+package com.soze.factory.service;
+
+import com.soze.factory.aggregate.Factory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Factories which are idle, but could start production. A factory is re-evaluated only when one of its events
+ * could change that, and production is started as soon as it becomes startable.
+ * A factory waiting for its start is in the index only once, no matter how many events re-evaluated it.
+ * A factory leaves the index when its start begins. If the start fails, the factory is added again by the next
+ * update, so the starter has to make sure that one happens, for example by re-evaluating the factory later.
+ */
+final class StartableFactoryIndex {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StartableFactoryIndex.class);
+
+	private final Set<UUID> startable = ConcurrentHashMap.newKeySet();
+	private final Executor executor;
+	private final Consumer<UUID> starter;
+
+	StartableFactoryIndex(Executor executor, Consumer<UUID> starter) {
+		this.executor = executor;
+		this.starter = starter;
+	}
+
+	void update(Factory factory) {
+		UUID id = factory.getId();
+		if (!factory.canStartProduction()) {
+			startable.remove(id);
+			return;
+		}
+		if (startable.add(id)) {
+			executor.execute(() -> {
+				if (startable.remove(id)) {
+					start(id);
+				}
+			});
+		}
+	}
+
+	private void start(UUID id) {
+		try {
+			starter.accept(id);
+		} catch (RuntimeException e) {
+			LOG.error("Exception when starting production of {}", id, e);
+		}
+	}
+
+	/**
+	 * Number of factories waiting for their start.
+	 */
+	int size() {
+		return startable.size();
+	}
+}
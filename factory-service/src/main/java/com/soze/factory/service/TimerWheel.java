@@ -0,0 +1,159 @@
+package com.soze.factory.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timer wheel. Scheduling only adds the timer to a queue, the wheel thread moves queued timers
+ * to the bucket of their deadline tick and every tick expires one bucket. Timers more than a whole wheel ahead
+ * stay in their bucket for as many rounds as needed, so inserting is O(1) regardless of the deadline.
+ * Timers expire on the wheel thread, at most one tick late.
+ */
+final class TimerWheel<T> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(TimerWheel.class);
+
+	private final long tickMillis;
+	private final List<List<Timer<T>>> buckets;
+	private final int mask;
+	private final Queue<Timer<T>> scheduled = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final Consumer<T> expiration;
+	private final long startTime;
+	private final Thread thread;
+
+	/**
+	 * Next tick to expire, only used by the wheel thread.
+	 */
+	private long tick;
+
+	private volatile boolean running = true;
+
+	TimerWheel(long tickMillis, int wheelSize, long startTime, Consumer<T> expiration) {
+		if (Integer.bitCount(wheelSize) != 1) {
+			throw new IllegalArgumentException("Wheel size has to be a power of two, was " + wheelSize);
+		}
+		if (tickMillis <= 0) {
+			throw new IllegalArgumentException("Tick has to be positive, was " + tickMillis);
+		}
+		this.tickMillis = tickMillis;
+		this.buckets = new ArrayList<>(wheelSize);
+		for (int i = 0; i < wheelSize; i++) {
+			buckets.add(new ArrayList<>());
+		}
+		this.mask = wheelSize - 1;
+		this.startTime = startTime;
+		this.expiration = expiration;
+		this.thread = new Thread(this::run, "timer-wheel");
+		this.thread.setDaemon(true);
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	void stop() throws InterruptedException {
+		running = false;
+		thread.interrupt();
+		thread.join(tickMillis * 10);
+	}
+
+	/**
+	 * Schedules the task to expire at the given time (in millis, same clock as the start time of the wheel).
+	 * Deadlines in the past expire on the next tick.
+	 */
+	void schedule(T task, long deadline) {
+		scheduled.add(new Timer<>(task, deadline));
+		size.incrementAndGet();
+	}
+
+	/**
+	 * Number of timers which did not expire yet.
+	 */
+	int size() {
+		return size.get();
+	}
+
+	/**
+	 * Expires all ticks up to the given time.
+	 */
+	void advance(long now) {
+		long lastTick = (now - startTime) / tickMillis;
+		while (tick <= lastTick) {
+			transferScheduled();
+			expire(buckets.get((int) (tick & mask)));
+			tick++;
+		}
+	}
+
+	private void transferScheduled() {
+		Timer<T> timer;
+		while ((timer = scheduled.poll()) != null) {
+			long deadlineTick = Math.max(tick, ceilDiv(timer.deadline - startTime, tickMillis));
+			timer.rounds = (deadlineTick - tick) >> Integer.numberOfTrailingZeros(buckets.size());
+			buckets.get((int) (deadlineTick & mask)).add(timer);
+		}
+	}
+
+	private void expire(List<Timer<T>> bucket) {
+		Iterator<Timer<T>> iterator = bucket.iterator();
+		while (iterator.hasNext()) {
+			Timer<T> timer = iterator.next();
+			if (timer.rounds > 0) {
+				timer.rounds--;
+				continue;
+			}
+			iterator.remove();
+			size.decrementAndGet();
+			try {
+				expiration.accept(timer.task);
+			} catch (Exception e) {
+				LOG.error("Exception when expiring {}", timer.task, e);
+			}
+		}
+	}
+
+	private void run() {
+		while (running) {
+			advance(System.currentTimeMillis());
+			long nextTick = startTime + tick * tickMillis;
+			long sleep = nextTick - System.currentTimeMillis();
+			if (sleep > 0) {
+				try {
+					TimeUnit.MILLISECONDS.sleep(sleep);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	private static long ceilDiv(long value, long divisor) {
+		return -Math.floorDiv(-value, divisor);
+	}
+
+	private static final class Timer<T> {
+
+		private final T task;
+		private final long deadline;
+
+		/**
+		 * Number of times the bucket of this timer has to come around before it expires.
+		 */
+		private long rounds;
+
+		private Timer(T task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package com.soze.factory.service;
+
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.util.List;
+
+/**
+ * How messages are sent to a WebSocket session. Sessions get json unless they ask for another format
+ * when they connect, so older clients keep working.
+ */
+public enum WireFormat {
+
+	/**
+	 * Json array of the messages in a text frame.
+	 */
+	JSON {
+		@Override
+		public WebSocketMessage<?> encode(List<WireMessage> messages) {
+			StringBuilder frame = new StringBuilder("[");
+			for (WireMessage message : messages) {
+				if (frame.length() > 1) {
+					frame.append(',');
+				}
+				frame.append(message.getJson());
+			}
+			return new TextMessage(frame.append(']'));
+		}
+	},
+
+	/**
+	 * Binary frame laid out by {@link BinaryFrameCodec}.
+	 */
+	BINARY {
+		@Override
+		public WebSocketMessage<?> encode(List<WireMessage> messages) {
+			return new BinaryMessage(BinaryFrameCodec.encode(messages));
+		}
+	};
+
+	public abstract WebSocketMessage<?> encode(List<WireMessage> messages);
+
+	/**
+	 * Format requested by a client, json if it did not ask for a known one.
+	 */
+	public static WireFormat of(String name) {
+		for (WireFormat format : values()) {
+			if (format.name().equalsIgnoreCase(name)) {
+				return format;
+			}
+		}
+		return JSON;
+	}
+}
@@ -0,0 +1,61 @@
+package com.soze.factory.service;
+
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Messages sent together to one or more sessions. The frame is encoded once for every format its sessions use.
+ */
+final class WireFrame {
+
+	private final List<WireMessage> messages;
+
+	/**
+	 * False if the frame holds a single message which is sent as a json object, not as an array.
+	 */
+	private final boolean array;
+
+	private final Map<WireFormat, WebSocketMessage<?>> encoded = new EnumMap<>(WireFormat.class);
+
+	WireFrame(List<WireMessage> messages, boolean array) {
+		if (!array && messages.size() != 1) {
+			throw new IllegalArgumentException("Only a single message can be sent without an array, got " + messages.size());
+		}
+		this.messages = messages;
+		this.array = array;
+	}
+
+	synchronized WebSocketMessage<?> encode(WireFormat format) {
+		return encoded.computeIfAbsent(format, this::doEncode);
+	}
+
+	int size() {
+		return messages.size();
+	}
+
+	boolean isArray() {
+		return array;
+	}
+
+	/**
+	 * Array frame with the messages of this frame followed by the messages of the next one.
+	 */
+	WireFrame merge(WireFrame next) {
+		List<WireMessage> merged = new ArrayList<>(messages.size() + next.messages.size());
+		merged.addAll(messages);
+		merged.addAll(next.messages);
+		return new WireFrame(merged, true);
+	}
+
+	private WebSocketMessage<?> doEncode(WireFormat format) {
+		if (!array && format == WireFormat.JSON) {
+			return new TextMessage(messages.get(0).getJson());
+		}
+		return format.encode(messages);
+	}
+}
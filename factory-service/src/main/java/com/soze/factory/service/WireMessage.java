@@ -0,0 +1,69 @@
+package com.soze.factory.service;
+
+import com.soze.common.json.JsonUtils;
+import com.soze.factory.event.Event;
+import com.soze.factory.store.BinaryEventCodec;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Message broadcast to WebSocket sessions, together with its position. It is encoded at most once per format,
+ * and only in the formats some session uses.
+ */
+public final class WireMessage {
+
+	private final long position;
+	private final Object message;
+
+	private String json;
+	private byte[] binary;
+
+	/**
+	 * @param message message to send, a String is taken as already serialized json which includes the position
+	 */
+	public WireMessage(long position, Object message) {
+		this.position = position;
+		this.message = message;
+	}
+
+	public long getPosition() {
+		return position;
+	}
+
+	public Object getMessage() {
+		return message;
+	}
+
+	/**
+	 * Json object of the message, with its position added as the first field.
+	 */
+	public synchronized String getJson() {
+		if (json == null) {
+			json = message instanceof String ? (String) message : withPosition(JsonUtils.serialize(message));
+		}
+		return json;
+	}
+
+	/**
+	 * Events in the {@link BinaryEventCodec} format, other messages as their json.
+	 */
+	public synchronized byte[] getBinary() {
+		if (binary == null) {
+			binary = message instanceof Event ? BinaryEventCodec.encode((Event) message) :
+				getJson().getBytes(StandardCharsets.UTF_8);
+		}
+		return binary;
+	}
+
+	private String withPosition(String serialized) {
+		if (!serialized.startsWith("{") || serialized.length() <= 2) {
+			return serialized;
+		}
+		return "{\"position\":" + position + "," + serialized.substring(1);
+	}
+
+	@Override
+	public String toString() {
+		return "WireMessage{" + "position=" + position + ", message=" + message + '}';
+	}
+}
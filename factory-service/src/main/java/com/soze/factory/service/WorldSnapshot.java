@@ -0,0 +1,224 @@
+package com.soze.factory.service;
+
+import com.soze.common.dto.FactoryDTO;
+import com.soze.common.json.JsonUtils;
+import com.soze.common.message.server.FactoriesSnapshot;
+import com.soze.factory.FactoryConverter;
+import com.soze.factory.cluster.FactoryOwnershipChanged;
+import com.soze.factory.repository.FactoryRepository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * State of all factories, which sessions get when they connect. All factories are loaded on the first read,
+ * after that only factories which changed are loaded again. Every factory is kept serialized too, the json
+ * of the whole state is put together from those and reused until a factory changes or the position moves.
+ * Changes of factories owned by other instances are relayed to this instance like its own, see
+ * {@link com.soze.factory.cluster.ClusterEventRelay}.
+ * The state can be ahead of messages broadcast so far, every factory carries its version so clients can skip
+ * events already applied to it.
+ */
+final class WorldSnapshot {
+
+	/**
+	 * Property of {@link FactoriesSnapshot} which holds the factories.
+	 */
+	private static final String FACTORIES = "\"factories\":[]";
+
+	private final FactoryRepository repository;
+	private final FactoryConverter factoryConverter;
+
+	/**
+	 * Factories which changed since they were cached.
+	 */
+	private final Set<String> changed = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Null until the first read.
+	 */
+	private Map<String, CachedFactory> factories;
+
+	/**
+	 * Ids of cached factories by their city.
+	 */
+	private final Map<String, Set<String>> cityFactories = new HashMap<>();
+
+	/**
+	 * True if a factory was loaded since the json was made.
+	 */
+	private boolean stale;
+
+	/**
+	 * Json of the whole state, with the epoch and position it was made for. Null until the first read.
+	 */
+	private String json;
+	private String jsonEpoch;
+	private long jsonPosition;
+
+	WorldSnapshot(FactoryRepository repository, FactoryConverter factoryConverter) {
+		this.repository = repository;
+		this.factoryConverter = factoryConverter;
+	}
+
+	/**
+	 * Marks the factory to be loaded again on next read. Has to be called after the change is visible
+	 * in the repository.
+	 */
+	void changed(String factoryId) {
+		changed.add(factoryId);
+	}
+
+	/**
+	 * Loads factories which changed owner again, the previous owner could have changed them while it still
+	 * thought it owned them.
+	 */
+	synchronized void ownershipChanged(FactoryOwnershipChanged ownershipChanged) {
+		if (factories == null) {
+			return;
+		}
+		for (String factoryId : factories.keySet()) {
+			UUID id = UUID.fromString(factoryId);
+			if (ownershipChanged.lost(id) || ownershipChanged.gained(id)) {
+				changed.add(factoryId);
+			}
+		}
+	}
+
+	synchronized List<FactoryDTO> getFactories() {
+		refresh();
+		List<FactoryDTO> all = new ArrayList<>(factories.size());
+		for (CachedFactory factory : factories.values()) {
+			all.add(factory.dto);
+		}
+		return all;
+	}
+
+	/**
+	 * Factories the interest covers which the previous interest did not. Only those and factories not cached yet
+	 * are loaded, other changed factories wait for the next read.
+	 */
+	synchronized List<FactoryDTO> getNewlyCovered(Interest interest, Interest previous) {
+		if (previous.isEverything()) {
+			return Collections.emptyList();
+		}
+		if (factories == null) {
+			refresh();
+		} else {
+			Iterator<String> iterator = changed.iterator();
+			while (iterator.hasNext()) {
+				String factoryId = iterator.next();
+				if (!factories.containsKey(factoryId)) {
+					iterator.remove();
+					load(factoryId);
+				}
+			}
+		}
+		Set<String> candidates = new LinkedHashSet<>(interest.getFactoryIds());
+		for (String cityId : interest.getCityIds()) {
+			if (!previous.getCityIds().contains(cityId)) {
+				candidates.addAll(cityFactories.getOrDefault(cityId, Collections.emptySet()));
+			}
+		}
+		List<FactoryDTO> covered = new ArrayList<>();
+		for (String factoryId : candidates) {
+			if (changed.remove(factoryId)) {
+				load(factoryId);
+			}
+			CachedFactory factory = factories.get(factoryId);
+			if (factory != null && !previous.covers(factoryId, factory.dto.getCityId())) {
+				covered.add(factory.dto);
+			}
+		}
+		return covered;
+	}
+
+	/**
+	 * Serialized {@link FactoriesSnapshot} of all factories.
+	 */
+	synchronized String toJson(String epoch, long position) {
+		refresh();
+		if (stale || json == null || !Objects.equals(epoch, jsonEpoch) || position != jsonPosition) {
+			String envelope = serialize(new FactoriesSnapshot(epoch, position, Collections.emptyList()));
+			int factoriesAt = envelope.indexOf(FACTORIES);
+			StringBuilder builder = new StringBuilder(envelope.length() + factories.size() * 512);
+			builder.append(envelope, 0, factoriesAt + FACTORIES.length() - 1);
+			String separator = "";
+			for (CachedFactory factory : factories.values()) {
+				builder.append(separator).append(factory.json);
+				separator = ",";
+			}
+			builder.append(envelope, factoriesAt + FACTORIES.length() - 1, envelope.length());
+			json = builder.toString();
+			stale = false;
+			jsonEpoch = epoch;
+			jsonPosition = position;
+		}
+		return json;
+	}
+
+	/**
+	 * Loads all factories on the first call, afterwards only the changed ones.
+	 */
+	private void refresh() {
+		if (factories == null) {
+			changed.clear();
+			factories = new TreeMap<>();
+			try (Stream<UUID> factoryIds = repository.streamAllIds()) {
+				factoryIds.forEach(factoryId -> load(factoryId.toString()));
+			}
+			return;
+		}
+		Iterator<String> iterator = changed.iterator();
+		while (iterator.hasNext()) {
+			String factoryId = iterator.next();
+			iterator.remove();
+			load(factoryId);
+		}
+	}
+
+	private void load(String factoryId) {
+		FactoryDTO factory = repository.findById(UUID.fromString(factoryId)).map(factoryConverter::convert).orElse(null);
+		CachedFactory previous = factory == null ? factories.remove(factoryId) :
+			factories.put(factoryId, new CachedFactory(factory, serialize(factory)));
+		if (previous != null && previous.dto.getCityId() != null) {
+			cityFactories.get(previous.dto.getCityId()).remove(factoryId);
+		}
+		if (factory != null && factory.getCityId() != null) {
+			cityFactories.computeIfAbsent(factory.getCityId(), cityId -> new HashSet<>()).add(factoryId);
+		}
+		stale = true;
+	}
+
+	/**
+	 * Compact json, so the property holding the factories can be found.
+	 */
+	private static String serialize(Object object) {
+		return new String(JsonUtils.serializeToBytes(object), StandardCharsets.UTF_8);
+	}
+
+	private static final class CachedFactory {
+
+		private final FactoryDTO dto;
+		private final String json;
+
+		private CachedFactory(FactoryDTO dto, String json) {
+			this.dto = dto;
+			this.json = json;
+		}
+	}
+
+}
@@ -0,0 +1,466 @@
+package com.soze.factory.store;
+
+import com.soze.common.dto.Resource;
+import com.soze.factory.event.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Compact binary encoding of factory events. Every record is laid out as:
+ * <pre>
+ * byte format | byte type tag | long entityId msb | long entityId lsb | long timestamp epoch millis (UTC) | varint version | body
+ * </pre>
+ * Resources are written as their ordinal and counts as zigzag varints, so a resource map entry usually takes two bytes.
+ * Type tags are fixed per {@link Event.EventType} and must never be reused, new event types get new tags.
+ */
+public final class BinaryEventCodec {
+
+	/**
+	 * Format byte of the current layout. Chosen so that it never collides with the first byte of a json record ('{').
+	 */
+	public static final byte FORMAT_VERSION = 1;
+
+	private static final int NULL = 0;
+
+	private static final Resource[] RESOURCES = Resource.values();
+
+	private BinaryEventCodec() {
+
+	}
+
+	/**
+	 * @return true if given payload was written by this codec, false if it is a json record
+	 */
+	public static boolean isBinary(byte[] payload) {
+		return payload.length > 0 && payload[0] == FORMAT_VERSION;
+	}
+
+	public static byte[] encode(Event event) {
+		Writer writer = new Writer(64);
+		writer.writeByte(FORMAT_VERSION);
+		writer.writeByte(tag(event.getType()));
+		UUID entityId = UUID.fromString(event.entityId);
+		writer.writeLong(entityId.getMostSignificantBits());
+		writer.writeLong(entityId.getLeastSignificantBits());
+		writer.writeLong(event.timestamp == null ? Long.MIN_VALUE : event.timestamp.toInstant(ZoneOffset.UTC).toEpochMilli());
+		writer.writeVarInt(event.version);
+		switch (event.getType()) {
+			case FACTORY_CREATED: {
+				FactoryCreated factoryCreated = (FactoryCreated) event;
+				writer.writeString(factoryCreated.name);
+				writer.writeString(factoryCreated.texture);
+				writer.writeString(factoryCreated.cityId);
+				break;
+			}
+			case PRODUCTION_STARTED: {
+				ProductionStarted productionStarted = (ProductionStarted) event;
+				writer.writeResource(productionStarted.resource);
+				writer.writeVarLong(productionStarted.productionStartTime);
+				break;
+			}
+			case PRODUCTION_STARTED2: {
+				writer.writeVarLong(((ProductionStarted2) event).productionStartTime);
+				break;
+			}
+			case STORAGE_CAPACITY_CHANGED: {
+				writer.writeVarInt(((StorageCapacityChanged) event).change);
+				break;
+			}
+			case PRODUCTION_LINE_ADDED: {
+				ProductionLineAdded productionLineAdded = (ProductionLineAdded) event;
+				writer.writeResource(productionLineAdded.resource);
+				writer.writeVarInt(productionLineAdded.count);
+				writer.writeVarLong(productionLineAdded.time);
+				break;
+			}
+			case PRODUCTION_LINE_ADDED2: {
+				ProductionLineAdded2 productionLineAdded2 = (ProductionLineAdded2) event;
+				writer.writeResourceMap(productionLineAdded2.input);
+				writer.writeResourceMap(productionLineAdded2.output);
+				writer.writeVarLong(productionLineAdded2.time);
+				break;
+			}
+			case PRODUCTION_FINISHED:
+				break;
+			case RESOURCE_SOLD: {
+				ResourceSold resourceSold = (ResourceSold) event;
+				writer.writeResource(resourceSold.resource == null ? null : Resource.valueOf(resourceSold.resource));
+				writer.writeVarInt(resourceSold.count);
+				break;
+			}
+			case RESOURCE_BOUGHT: {
+				ResourceBought resourceBought = (ResourceBought) event;
+				writer.writeResource(resourceBought.resource == null ? null : Resource.valueOf(resourceBought.resource));
+				writer.writeVarInt(resourceBought.count);
+				break;
+			}
+			case RESOURCE_STORAGE_CAPACITY_CHANGED: {
+				writer.writeResourceMap(((ResourceStorageCapacityChanged) event).capacityChanges);
+				break;
+			}
+			case RESOURCE_PRICE_CHANGED: {
+				writer.writeResourceMap(((ResourcePriceChanged) event).prices);
+				break;
+			}
+			case RESOURCE_PRICE_CHANGED2: {
+				writer.writeResourceMap(((ResourcePriceChanged2) event).prices);
+				break;
+			}
+			case PRODUCTION_CYCLES_COMPLETED: {
+				ProductionCyclesCompleted productionCyclesCompleted = (ProductionCyclesCompleted) event;
+				writer.writeVarInt(productionCyclesCompleted.cycles);
+				writer.writeResourceMap(productionCyclesCompleted.consumed);
+				writer.writeResourceMap(productionCyclesCompleted.produced);
+				writer.writeVarLong(productionCyclesCompleted.productionStartTime);
+				break;
+			}
+			default:
+				throw new IllegalArgumentException("Unsupported event type " + event.getType());
+		}
+		return writer.toByteArray();
+	}
+
+	public static Event decode(byte[] payload) {
+		Reader reader = new Reader(payload);
+		byte format = reader.readByte();
+		if (format != FORMAT_VERSION) {
+			throw new IllegalArgumentException("Unsupported event format " + format);
+		}
+		Event.EventType type = type(reader.readByte());
+		String entityId = new UUID(reader.readLong(), reader.readLong()).toString();
+		long epochMillis = reader.readLong();
+		LocalDateTime timestamp = epochMillis == Long.MIN_VALUE ? null :
+			LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneOffset.UTC);
+		int version = reader.readVarInt();
+		Event event;
+		switch (type) {
+			case FACTORY_CREATED: {
+				FactoryCreated factoryCreated = new FactoryCreated();
+				factoryCreated.name = reader.readString();
+				factoryCreated.texture = reader.readString();
+				factoryCreated.cityId = reader.readString();
+				event = factoryCreated;
+				break;
+			}
+			case PRODUCTION_STARTED: {
+				ProductionStarted productionStarted = new ProductionStarted();
+				productionStarted.resource = reader.readResource();
+				productionStarted.productionStartTime = reader.readVarLong();
+				event = productionStarted;
+				break;
+			}
+			case PRODUCTION_STARTED2: {
+				ProductionStarted2 productionStarted2 = new ProductionStarted2();
+				productionStarted2.productionStartTime = reader.readVarLong();
+				event = productionStarted2;
+				break;
+			}
+			case STORAGE_CAPACITY_CHANGED: {
+				StorageCapacityChanged storageCapacityChanged = new StorageCapacityChanged();
+				storageCapacityChanged.change = reader.readVarInt();
+				event = storageCapacityChanged;
+				break;
+			}
+			case PRODUCTION_LINE_ADDED: {
+				ProductionLineAdded productionLineAdded = new ProductionLineAdded();
+				productionLineAdded.resource = reader.readResource();
+				productionLineAdded.count = reader.readVarInt();
+				productionLineAdded.time = reader.readVarLong();
+				event = productionLineAdded;
+				break;
+			}
+			case PRODUCTION_LINE_ADDED2: {
+				ProductionLineAdded2 productionLineAdded2 = new ProductionLineAdded2();
+				productionLineAdded2.input = reader.readResourceMap();
+				productionLineAdded2.output = reader.readResourceMap();
+				productionLineAdded2.time = reader.readVarLong();
+				event = productionLineAdded2;
+				break;
+			}
+			case PRODUCTION_FINISHED:
+				event = new ProductionFinished();
+				break;
+			case RESOURCE_SOLD: {
+				ResourceSold resourceSold = new ResourceSold();
+				Resource resource = reader.readResource();
+				resourceSold.resource = resource == null ? null : resource.name();
+				resourceSold.count = reader.readVarInt();
+				event = resourceSold;
+				break;
+			}
+			case RESOURCE_BOUGHT: {
+				ResourceBought resourceBought = new ResourceBought();
+				Resource resource = reader.readResource();
+				resourceBought.resource = resource == null ? null : resource.name();
+				resourceBought.count = reader.readVarInt();
+				event = resourceBought;
+				break;
+			}
+			case RESOURCE_STORAGE_CAPACITY_CHANGED: {
+				ResourceStorageCapacityChanged resourceStorageCapacityChanged = new ResourceStorageCapacityChanged();
+				resourceStorageCapacityChanged.capacityChanges = reader.readResourceMap();
+				event = resourceStorageCapacityChanged;
+				break;
+			}
+			case RESOURCE_PRICE_CHANGED: {
+				ResourcePriceChanged resourcePriceChanged = new ResourcePriceChanged();
+				resourcePriceChanged.prices = reader.readResourceMap();
+				event = resourcePriceChanged;
+				break;
+			}
+			case RESOURCE_PRICE_CHANGED2: {
+				ResourcePriceChanged2 resourcePriceChanged2 = new ResourcePriceChanged2();
+				resourcePriceChanged2.prices = reader.readResourceMap();
+				event = resourcePriceChanged2;
+				break;
+			}
+			case PRODUCTION_CYCLES_COMPLETED: {
+				ProductionCyclesCompleted productionCyclesCompleted = new ProductionCyclesCompleted();
+				productionCyclesCompleted.cycles = reader.readVarInt();
+				productionCyclesCompleted.consumed = reader.readResourceMap();
+				productionCyclesCompleted.produced = reader.readResourceMap();
+				productionCyclesCompleted.productionStartTime = reader.readVarLong();
+				event = productionCyclesCompleted;
+				break;
+			}
+			default:
+				throw new IllegalArgumentException("Unsupported event type " + type);
+		}
+		event.entityId = entityId;
+		event.timestamp = timestamp;
+		event.version = version;
+		return event;
+	}
+
+	/**
+	 * Type tag of events of given type, the second byte of their payload.
+	 */
+	static byte tag(Event.EventType type) {
+		switch (type) {
+			case FACTORY_CREATED:
+				return 1;
+			case PRODUCTION_STARTED:
+				return 2;
+			case STORAGE_CAPACITY_CHANGED:
+				return 3;
+			case PRODUCTION_LINE_ADDED:
+				return 4;
+			case PRODUCTION_FINISHED:
+				return 5;
+			case RESOURCE_SOLD:
+				return 6;
+			case RESOURCE_STORAGE_CAPACITY_CHANGED:
+				return 7;
+			case RESOURCE_PRICE_CHANGED:
+				return 8;
+			case PRODUCTION_STARTED2:
+				return 9;
+			case PRODUCTION_LINE_ADDED2:
+				return 10;
+			case RESOURCE_BOUGHT:
+				return 11;
+			case RESOURCE_PRICE_CHANGED2:
+				return 12;
+			case PRODUCTION_CYCLES_COMPLETED:
+				return 13;
+			default:
+				throw new IllegalArgumentException("No type tag for " + type);
+		}
+	}
+
+	private static Event.EventType type(byte tag) {
+		switch (tag) {
+			case 1:
+				return Event.EventType.FACTORY_CREATED;
+			case 2:
+				return Event.EventType.PRODUCTION_STARTED;
+			case 3:
+				return Event.EventType.STORAGE_CAPACITY_CHANGED;
+			case 4:
+				return Event.EventType.PRODUCTION_LINE_ADDED;
+			case 5:
+				return Event.EventType.PRODUCTION_FINISHED;
+			case 6:
+				return Event.EventType.RESOURCE_SOLD;
+			case 7:
+				return Event.EventType.RESOURCE_STORAGE_CAPACITY_CHANGED;
+			case 8:
+				return Event.EventType.RESOURCE_PRICE_CHANGED;
+			case 9:
+				return Event.EventType.PRODUCTION_STARTED2;
+			case 10:
+				return Event.EventType.PRODUCTION_LINE_ADDED2;
+			case 11:
+				return Event.EventType.RESOURCE_BOUGHT;
+			case 12:
+				return Event.EventType.RESOURCE_PRICE_CHANGED2;
+			case 13:
+				return Event.EventType.PRODUCTION_CYCLES_COMPLETED;
+			default:
+				throw new IllegalArgumentException("Unknown type tag " + tag);
+		}
+	}
+
+	private static final class Writer {
+
+		private byte[] buffer;
+		private int position = 0;
+
+		private Writer(int initialSize) {
+			this.buffer = new byte[initialSize];
+		}
+
+		private void ensure(int bytes) {
+			if (position + bytes > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+			}
+		}
+
+		void writeByte(int value) {
+			ensure(1);
+			buffer[position++] = (byte) value;
+		}
+
+		void writeLong(long value) {
+			ensure(8);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				buffer[position++] = (byte) (value >>> shift);
+			}
+		}
+
+		void writeVarInt(int value) {
+			writeVarLong(value);
+		}
+
+		/**
+		 * Zigzag encoded, so small negative numbers (capacity changes) stay small as well.
+		 */
+		void writeVarLong(long value) {
+			long zigzag = (value << 1) ^ (value >> 63);
+			ensure(10);
+			while ((zigzag & ~0x7FL) != 0) {
+				buffer[position++] = (byte) ((zigzag & 0x7F) | 0x80);
+				zigzag >>>= 7;
+			}
+			buffer[position++] = (byte) zigzag;
+		}
+
+		void writeString(String value) {
+			if (value == null) {
+				writeVarInt(NULL);
+				return;
+			}
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(bytes.length + 1);
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buffer, position, bytes.length);
+			position += bytes.length;
+		}
+
+		void writeResource(Resource resource) {
+			writeByte(resource == null ? NULL : resource.ordinal() + 1);
+		}
+
+		void writeResourceMap(Map<Resource, Integer> map) {
+			if (map == null) {
+				writeVarInt(NULL);
+				return;
+			}
+			writeVarInt(map.size() + 1);
+			for (Map.Entry<Resource, Integer> entry : map.entrySet()) {
+				writeResource(entry.getKey());
+				writeVarInt(entry.getValue());
+			}
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(buffer, position);
+		}
+	}
+
+	private static final class Reader {
+
+		private final byte[] buffer;
+		private int position = 0;
+
+		private Reader(byte[] buffer) {
+			this.buffer = buffer;
+		}
+
+		byte readByte() {
+			if (position >= buffer.length) {
+				throw new IllegalArgumentException("Unexpected end of event at " + position);
+			}
+			return buffer[position++];
+		}
+
+		long readLong() {
+			long value = 0;
+			for (int i = 0; i < 8; i++) {
+				value = (value << 8) | (readByte() & 0xFF);
+			}
+			return value;
+		}
+
+		int readVarInt() {
+			return (int) readVarLong();
+		}
+
+		long readVarLong() {
+			long zigzag = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				byte b = readByte();
+				zigzag |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return (zigzag >>> 1) ^ -(zigzag & 1);
+				}
+			}
+			throw new IllegalArgumentException("Malformed varint at " + position);
+		}
+
+		String readString() {
+			int length = readVarInt();
+			if (length == NULL) {
+				return null;
+			}
+			length--;
+			if (length < 0 || position + length > buffer.length) {
+				throw new IllegalArgumentException("Malformed string at " + position);
+			}
+			String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+			position += length;
+			return value;
+		}
+
+		Resource readResource() {
+			int ordinal = readByte() & 0xFF;
+			if (ordinal == NULL) {
+				return null;
+			}
+			if (ordinal > RESOURCES.length) {
+				throw new IllegalArgumentException("Unknown resource ordinal " + (ordinal - 1));
+			}
+			return RESOURCES[ordinal - 1];
+		}
+
+		Map<Resource, Integer> readResourceMap() {
+			int size = readVarInt();
+			if (size == NULL) {
+				return null;
+			}
+			Map<Resource, Integer> map = new EnumMap<>(Resource.class);
+			for (int i = 0; i < size - 1; i++) {
+				Resource resource = readResource();
+				map.put(resource, readVarInt());
+			}
+			return map;
+		}
+	}
+}
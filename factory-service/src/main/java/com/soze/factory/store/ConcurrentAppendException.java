@@ -0,0 +1,27 @@
+package com.soze.factory.store;
+
+import java.util.UUID;
+
+/**
+ * Thrown when events are appended to an entity which changed since it was read.
+ * The command which produced the events should be handled again on the latest version of the entity.
+ */
+public class ConcurrentAppendException extends RuntimeException {
+
+	private final UUID entityId;
+	private final long expectedVersion;
+
+	public ConcurrentAppendException(UUID entityId, long expectedVersion, String message) {
+		super("Cannot append to " + entityId + " at version " + expectedVersion + ": " + message);
+		this.entityId = entityId;
+		this.expectedVersion = expectedVersion;
+	}
+
+	public UUID getEntityId() {
+		return entityId;
+	}
+
+	public long getExpectedVersion() {
+		return expectedVersion;
+	}
+}
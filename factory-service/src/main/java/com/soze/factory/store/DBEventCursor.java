@@ -0,0 +1,204 @@
+package com.soze.factory.store;
+
+import com.soze.common.json.JsonUtils;
+import com.soze.factory.event.Event;
+import com.soze.factory.event.EventUpcastService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Server side cursor over factory_event rows. Postgres only streams rows in chunks of the fetch size
+ * when autocommit is off, so the cursor holds its own connection and transaction until it is closed.
+ * Queries have to select a position, the json event and the binary payload, in this order.
+ * The connection is released when the cursor is closed, when it runs out of rows or fails to read one.
+ * Cursors which were abandoned without any of that are released once they are garbage collected,
+ * the next time a cursor is opened.
+ */
+class DBEventCursor implements Iterator<PositionedEvent>, AutoCloseable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(DBEventCursor.class);
+
+	private static final ReferenceQueue<DBEventCursor> ABANDONED = new ReferenceQueue<>();
+
+	/**
+	 * Keeps references of open cursors reachable until they are enqueued.
+	 */
+	private static final Set<CursorReference> OPEN = ConcurrentHashMap.newKeySet();
+
+	private final EventUpcastService upcaster;
+	private final Resources resources;
+	private final CursorReference reference;
+
+	private PositionedEvent next;
+
+	private DBEventCursor(EventUpcastService upcaster, Resources resources) {
+		this.upcaster = upcaster;
+		this.resources = resources;
+		this.reference = new CursorReference(this, resources);
+		OPEN.add(reference);
+	}
+
+	/**
+	 * Opens a cursor and returns it as a stream, which releases the connection when closed.
+	 */
+	static Stream<PositionedEvent> stream(DataSource dataSource, EventUpcastService upcaster, int fetchSize, String sql,
+																				Object... params
+																			 ) {
+		DBEventCursor cursor = open(dataSource, upcaster, fetchSize, sql, params);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED | Spliterator.NONNULL), false)
+												.onClose(cursor::close);
+	}
+
+	private static DBEventCursor open(DataSource dataSource, EventUpcastService upcaster, int fetchSize, String sql,
+																		Object... params
+																	 ) {
+		releaseAbandoned();
+		Resources resources = new Resources();
+		try {
+			resources.connection = dataSource.getConnection();
+			resources.connection.setAutoCommit(false);
+			resources.connection.setReadOnly(true);
+			resources.statement = resources.connection.prepareStatement(sql);
+			resources.statement.setFetchSize(fetchSize);
+			for (int i = 0; i < params.length; i++) {
+				resources.statement.setObject(i + 1, params[i]);
+			}
+			resources.resultSet = resources.statement.executeQuery();
+		} catch (SQLException | RuntimeException e) {
+			resources.close();
+			throw new IllegalStateException("Cannot open event cursor", e);
+		}
+		DBEventCursor cursor = new DBEventCursor(upcaster, resources);
+		cursor.next = cursor.advance();
+		return cursor;
+	}
+
+	private static void releaseAbandoned() {
+		Reference<? extends DBEventCursor> abandoned;
+		while ((abandoned = ABANDONED.poll()) != null) {
+			CursorReference reference = (CursorReference) abandoned;
+			if (OPEN.remove(reference)) {
+				LOG.warn("Event cursor was abandoned without being closed, releasing its connection");
+				reference.resources.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads the next row, closing the cursor when there are no more rows or the row cannot be read.
+	 */
+	private PositionedEvent advance() {
+		try {
+			if (!resources.resultSet.next()) {
+				close();
+				return null;
+			}
+			long position = resources.resultSet.getLong(1);
+			String json = resources.resultSet.getString(2);
+			Event event = json != null ? JsonUtils.parse(json, Event.class) :
+				BinaryEventCodec.decode(resources.resultSet.getBytes(3));
+			return new PositionedEvent(position, upcaster.upcast(event));
+		} catch (SQLException | RuntimeException e) {
+			close();
+			throw new IllegalStateException("Cannot read next event", e);
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return next != null;
+	}
+
+	@Override
+	public PositionedEvent next() {
+		if (next == null) {
+			throw new NoSuchElementException();
+		}
+		PositionedEvent current = next;
+		next = advance();
+		return current;
+	}
+
+	/**
+	 * Can be called any number of times.
+	 */
+	@Override
+	public void close() {
+		if (OPEN.remove(reference)) {
+			reference.clear();
+		}
+		resources.close();
+	}
+
+	/**
+	 * Everything a cursor holds in the database. Kept apart from the cursor, so it can still be released
+	 * after the cursor itself is garbage collected.
+	 */
+	private static class Resources {
+
+		private Connection connection;
+		private PreparedStatement statement;
+		private ResultSet resultSet;
+		private boolean closed;
+
+		private synchronized void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				if (resultSet != null) {
+					resultSet.close();
+				}
+				if (statement != null) {
+					statement.close();
+				}
+			} catch (SQLException e) {
+				LOG.warn("Cannot close event cursor", e);
+			}
+			if (connection == null) {
+				return;
+			}
+			try {
+				connection.rollback();
+				connection.setReadOnly(false);
+				connection.setAutoCommit(true);
+			} catch (SQLException e) {
+				LOG.warn("Cannot reset connection of event cursor", e);
+			} finally {
+				try {
+					connection.close();
+				} catch (SQLException e) {
+					LOG.warn("Cannot release connection of event cursor", e);
+				}
+			}
+		}
+	}
+
+	private static class CursorReference extends PhantomReference<DBEventCursor> {
+
+		private final Resources resources;
+
+		private CursorReference(DBEventCursor cursor, Resources resources) {
+			super(cursor, ABANDONED);
+			this.resources = resources;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.soze.factory.store;
+
+import com.soze.common.json.JsonUtils;
+import com.soze.factory.event.Event;
+import com.soze.factory.event.EventUpcastService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Rewrites legacy events in factory_event to their latest version.
+ * Rows are visited in id order and every batch is committed separately. Since rewritten rows
+ * no longer match the legacy type filter, a migration which was interrupted can be run again from the start.
+ * Json rows are matched by their type and binary rows by their type tag, every row keeps the format it was written in.
+ */
+@Service
+@Profile("database-store")
+public class DBEventMigrator {
+
+	private static final Logger LOG = LoggerFactory.getLogger(DBEventMigrator.class);
+
+	private static final String SELECT_LEGACY = "SELECT id, event::text AS event, payload FROM factory.factory_event " +
+																							"WHERE id > ? AND (event ->> 'type' IN (%s) OR get_byte(payload, 1) IN (%s)) " +
+																							"ORDER BY id LIMIT ?";
+
+	private static final String UPDATE_JSON = "UPDATE factory.factory_event SET event = CAST(? AS jsonb) WHERE id = ?";
+
+	private static final String UPDATE_BINARY = "UPDATE factory.factory_event SET payload = ? WHERE id = ?";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	private final EventUpcastService upcaster;
+
+	@Autowired
+	public DBEventMigrator(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+												 EventUpcastService upcaster
+												) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.transactionTemplate = transactionTemplate;
+		this.upcaster = upcaster;
+	}
+
+	public long migrate(int batchSize) {
+		List<String> legacyTypes = upcaster.getLegacyTypes().stream().map(Enum::name).collect(Collectors.toList());
+		if (legacyTypes.isEmpty()) {
+			return 0;
+		}
+		List<Integer> legacyTags = upcaster.getLegacyTypes()
+																			 .stream()
+																			 .map(type -> (int) BinaryEventCodec.tag(type))
+																			 .collect(Collectors.toList());
+		String placeholders = legacyTypes.stream().map(type -> "?").collect(Collectors.joining(", "));
+		String select = String.format(SELECT_LEGACY, placeholders, placeholders);
+		LOG.info("Migrating events of types {}, batchSize = {}", legacyTypes, batchSize);
+
+		UUID after = new UUID(0L, 0L);
+		long migrated = 0;
+		while (true) {
+			List<Object> params = new ArrayList<>();
+			params.add(after);
+			params.addAll(legacyTypes);
+			params.addAll(legacyTags);
+			params.add(batchSize);
+			List<Object[]> rows = jdbcTemplate.query(select, params.toArray(), (rs, rowNum) -> {
+				UUID id = rs.getObject("id", UUID.class);
+				byte[] payload = rs.getBytes("payload");
+				if (payload != null && BinaryEventCodec.isBinary(payload)) {
+					Event event = upcaster.upcast(BinaryEventCodec.decode(payload));
+					return new Object[]{BinaryEventCodec.encode(event), id};
+				}
+				Event event = upcaster.upcast(JsonUtils.parse(rs.getString("event"), Event.class));
+				return new Object[]{new String(JsonUtils.serializeToBytes(event), StandardCharsets.UTF_8), id};
+			});
+			if (rows.isEmpty()) {
+				break;
+			}
+			List<Object[]> jsonRows = rows.stream().filter(row -> row[0] instanceof String).collect(Collectors.toList());
+			List<Object[]> binaryRows = rows.stream().filter(row -> row[0] instanceof byte[]).collect(Collectors.toList());
+			transactionTemplate.execute(status -> {
+				if (!jsonRows.isEmpty()) {
+					jdbcTemplate.batchUpdate(UPDATE_JSON, jsonRows);
+				}
+				if (!binaryRows.isEmpty()) {
+					jdbcTemplate.batchUpdate(UPDATE_BINARY, binaryRows);
+				}
+				return null;
+			});
+			migrated += rows.size();
+			after = (UUID) rows.get(rows.size() - 1)[1];
+			LOG.info("Migrated {} events so far, last id = {}", migrated, after);
+			if (rows.size() < batchSize) {
+				break;
+			}
+		}
+		LOG.info("Migrated {} events", migrated);
+		return migrated;
+	}
+
+}
@@ -3,64 +3,152 @@ package com.soze.factory.store;
 import com.soze.factory.event.Event;
 import com.soze.factory.event.EventUpcastService;
 import com.soze.factory.repository.EventCrudRepository;
+import com.soze.factory.repository.FactoryRegistryCrudRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
+import javax.sql.DataSource;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
-
-import static com.soze.common.CollectionsUtils.fromIterable;
+import java.util.stream.Stream;
 
 @Service
 @Profile("database-store")
 public class DBEventStore implements EventStore {
 
 	private static final Logger LOG = LoggerFactory.getLogger(DBEventStore.class);
+
+	/**
+	 * Lowest possible uuid in postgres ordering, used as the starting point of id pages.
+	 */
+	private static final UUID FIRST_ID = new UUID(0L, 0L);
+
+	private static final String STREAM_ENTITY = "SELECT sequence, event::text, payload FROM factory.factory_event " +
+																							"WHERE entity_id = ? AND sequence >= ? ORDER BY sequence";
+
+	private static final String STREAM_ALL = "SELECT position, event::text, payload FROM factory.factory_event " +
+																					 "WHERE position >= ? ORDER BY position";
+
 	private final EventUpcastService upcaster;
 	private final EventCrudRepository repository;
+	private final FactoryRegistryCrudRepository registryRepository;
+	private final GroupCommitEventWriter writer;
+	private final DBEventMigrator migrator;
+	private final DataSource dataSource;
+	private final int fetchSize;
 
 	@Autowired
-	public DBEventStore(EventUpcastService upcaster, EventCrudRepository repository) {
+	public DBEventStore(EventUpcastService upcaster, EventCrudRepository repository,
+											FactoryRegistryCrudRepository registryRepository, GroupCommitEventWriter writer,
+											DBEventMigrator migrator, DataSource dataSource,
+											@Value("${factory.db-store.fetch-size:500}") int fetchSize
+										 ) {
 		this.upcaster = upcaster;
 		this.repository = repository;
+		this.registryRepository = registryRepository;
+		this.writer = writer;
+		this.migrator = migrator;
+		this.dataSource = dataSource;
+		this.fetchSize = fetchSize;
 	}
 
+	/**
+	 * Blocks until the batch containing this event is committed.
+	 */
 	@Override
-	@Transactional
 	public void handleEvent(Event event) {
 		LOG.info("{}", event);
-		EventEntity eventEntity = new EventEntity();
-		eventEntity.setId(UUID.randomUUID());
-		eventEntity.setEvent(event);
-		repository.save(eventEntity);
+		await(writer.append(Collections.singletonList(event)));
+	}
+
+	/**
+	 * Blocks until the batch containing these events is committed. The version is checked by the writer,
+	 * which hands out sequences, and backed by the unique index on (entity_id, sequence).
+	 */
+	@Override
+	public void append(UUID entityId, long expectedVersion, List<Event> events) {
+		LOG.info("Appending {} events to {} at version {}", events.size(), entityId, expectedVersion);
+		await(writer.append(entityId, expectedVersion, events));
+	}
+
+	private void await(CompletableFuture<Void> append) {
+		try {
+			append.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
 	}
 
 	@Override
 	public List<Event> getEventsForEntity(UUID entityId) {
-		List<EventEntity> eventEntities = repository.getByEntityId(entityId.toString());
+		return toEvents(repository.findByEntityIdOrderBySequence(entityId));
+	}
+
+	@Override
+	public List<Event> getEventsForEntity(UUID entityId, long afterVersion) {
+		return toEvents(repository.findByEntityIdAndSequenceGreaterThanOrderBySequence(entityId, afterVersion));
+	}
+
+	@Override
+	public Stream<Event> streamEventsForEntity(UUID entityId, long fromSequence) {
+		return DBEventCursor.stream(dataSource, upcaster, fetchSize, STREAM_ENTITY, entityId, fromSequence)
+												.map(PositionedEvent::getEvent);
+	}
+
+	/**
+	 * Positions come from a database sequence, which hands them out in the order rows are inserted, not committed.
+	 * Reading by position is only safe because every commit takes the same transaction level advisory lock
+	 * before inserting (see {@link GroupCommitEventWriter}). Commits of all instances sharing the database are
+	 * serialized, so a row never becomes visible after a row with a higher position.
+	 * Rows inserted into factory_event by anything else have to take the same lock.
+	 */
+	@Override
+	public Stream<PositionedEvent> streamAll(long fromPosition) {
+		return DBEventCursor.stream(dataSource, upcaster, fetchSize, STREAM_ALL, fromPosition);
+	}
+
+	@Override
+	public long getLastPosition() {
+		return repository.findLastPosition();
+	}
+
+	private List<Event> toEvents(List<EventEntity> eventEntities) {
 		return eventEntities.stream()
-												.map(EventEntity::getEvent)
+												.map(EventEntity::decodeEvent)
 												.map(upcaster::upcast)
 												.collect(Collectors.toList());
 	}
 
 	@Override
 	public List<UUID> getAllIds() {
-		List<EventEntity> entities = fromIterable(repository.findAll());
-		return entities.stream()
-									 .map(EventEntity::getEvent)
-									 .map(event -> event.entityId)
-									 .map(UUID::fromString).distinct()
-									 .collect(Collectors.toList());
+		return registryRepository.findAllIds();
+	}
+
+	@Override
+	public List<UUID> getIds(UUID after, int limit) {
+		UUID from = after == null ? FIRST_ID : after;
+		return registryRepository.findIdsAfter(from, PageRequest.of(0, limit));
 	}
 
 	@Override
 	public int count() {
-		return (int) repository.count();
+		return (int) registryRepository.count();
+	}
+
+	@Override
+	public long upcastStoredEvents(int batchSize) {
+		return migrator.migrate(batchSize);
 	}
 }
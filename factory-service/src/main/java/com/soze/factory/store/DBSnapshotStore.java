@@ -0,0 +1,45 @@
+package com.soze.factory.store;
+
+import com.soze.factory.aggregate.FactorySnapshot;
+import com.soze.factory.repository.SnapshotCrudRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+import java.util.UUID;
+
+@Service
+@Profile("database-store")
+public class DBSnapshotStore implements SnapshotStore {
+
+	private static final Logger LOG = LoggerFactory.getLogger(DBSnapshotStore.class);
+
+	private final SnapshotCrudRepository repository;
+
+	@Autowired
+	public DBSnapshotStore(SnapshotCrudRepository repository) {
+		this.repository = repository;
+	}
+
+	@Override
+	public Optional<FactorySnapshot> findLatest(UUID entityId) {
+		return repository.findById(entityId).map(SnapshotEntity::getSnapshot);
+	}
+
+	@Override
+	@Transactional
+	public void save(FactorySnapshot snapshot) {
+		LOG.trace("Saving snapshot = {}", snapshot);
+		repository.save(new SnapshotEntity(snapshot));
+	}
+
+	@Override
+	@Transactional
+	public void deleteAll() {
+		repository.deleteAll();
+	}
+}
@@ -0,0 +1,47 @@
+package com.soze.factory.store;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.UUID;
+
+/**
+ * Ordering of entity ids used for paging, the same as the ordering of their string representation.
+ * Stores which keep their entities in a map sorted this way can return a page without reading all ids.
+ */
+final class EntityIds {
+
+	/**
+	 * Compares the way {@link UUID#toString()} does, which is an unsigned comparison of both halves.
+	 * {@link UUID#compareTo} compares them signed, so it cannot be used.
+	 */
+	static final Comparator<UUID> ORDER = (first, second) -> {
+		int high = Long.compareUnsigned(first.getMostSignificantBits(), second.getMostSignificantBits());
+		if (high != 0) {
+			return high;
+		}
+		return Long.compareUnsigned(first.getLeastSignificantBits(), second.getLeastSignificantBits());
+	};
+
+	private EntityIds() {
+
+	}
+
+	/**
+	 * Returns at most {@code limit} keys greater than {@code after} (or from the start when it is null)
+	 * of a map sorted by {@link #ORDER}.
+	 */
+	static List<UUID> page(NavigableMap<UUID, ?> entities, UUID after, int limit) {
+		NavigableMap<UUID, ?> tail = after == null ? entities : entities.tailMap(after, false);
+		List<UUID> page = new ArrayList<>(Math.min(limit, 1024));
+		for (UUID id : tail.keySet()) {
+			if (page.size() == limit) {
+				break;
+			}
+			page.add(id);
+		}
+		return page;
+	}
+
+}
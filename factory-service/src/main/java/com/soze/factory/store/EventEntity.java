@@ -11,7 +11,9 @@ import java.io.Serializable;
 import java.util.UUID;
 
 @Entity
-@Table(name = "factory_event")
+@Table(name = "factory_event", indexes = {
+	@Index(name = "factory_event_entity_id_sequence_idx", columnList = "entity_id, sequence", unique = true)
+})
 @TypeDefs({@TypeDef(name = "jsonb", typeClass = JsonBinaryType.class)})
 @SqlResultSetMapping(
 	name = "Mapping",
@@ -19,7 +21,10 @@ import java.util.UUID;
 		targetClass = EventEntity.class,
 		columns = {
 			@ColumnResult(name = "id", type = UUID.class),
+			@ColumnResult(name = "entity_id", type = UUID.class),
+			@ColumnResult(name = "sequence", type = Long.class),
 			@ColumnResult(name = "event", type = Event.class),
+			@ColumnResult(name = "payload", type = byte[].class),
 		}))
 public class EventEntity implements Serializable {
 
@@ -28,17 +33,39 @@ public class EventEntity implements Serializable {
 	@Column(name = "id", columnDefinition = "uuid")
 	private UUID id;
 
+	@Type(type = "pg-uuid")
+	@Column(name = "entity_id", columnDefinition = "uuid")
+	private UUID entityId;
+
+	/**
+	 * Position of the event within its entity, starting from 1.
+	 */
+	@Column(name = "sequence")
+	private long sequence;
+
+	/**
+	 * Json form of the event, null if it was written in the binary format.
+	 */
 	@Type(type = "jsonb")
 	@Column(name = "event", columnDefinition = "jsonb")
 	private Event event;
 
+	/**
+	 * Binary form of the event (see {@link BinaryEventCodec}), null if it was written as json.
+	 */
+	@Column(name = "payload", columnDefinition = "bytea")
+	private byte[] payload;
+
 	public EventEntity() {
 
 	}
 
-	public EventEntity(UUID id, Event event) {
+	public EventEntity(UUID id, UUID entityId, Long sequence, Event event, byte[] payload) {
 		this.id = id;
+		this.entityId = entityId;
+		this.sequence = sequence;
 		this.event = event;
+		this.payload = payload;
 	}
 
 	public UUID getId() {
@@ -49,6 +76,22 @@ public class EventEntity implements Serializable {
 		this.id = id;
 	}
 
+	public UUID getEntityId() {
+		return entityId;
+	}
+
+	public void setEntityId(UUID entityId) {
+		this.entityId = entityId;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
 	public Event getEvent() {
 		return event;
 	}
@@ -57,8 +100,26 @@ public class EventEntity implements Serializable {
 		this.event = event;
 	}
 
+	public byte[] getPayload() {
+		return payload;
+	}
+
+	public void setPayload(byte[] payload) {
+		this.payload = payload;
+	}
+
+	/**
+	 * Returns the stored event regardless of the format it was written in.
+	 */
+	public Event decodeEvent() {
+		if (event != null) {
+			return event;
+		}
+		return BinaryEventCodec.decode(payload);
+	}
+
 	@Override
 	public String toString() {
-		return "EventEntity{" + "id=" + id + ", event=" + event + '}';
+		return "EventEntity{" + "id=" + id + ", entityId=" + entityId + ", sequence=" + sequence + ", event=" + event + '}';
 	}
 }
@@ -0,0 +1,34 @@
+package com.soze.factory.store;
+
+import com.soze.common.json.JsonUtils;
+import com.soze.factory.event.Event;
+
+/**
+ * How stores encode event payloads. Reading does not depend on the configured format,
+ * both kinds of records are recognized by their first byte, so a store can switch formats without a migration.
+ */
+public enum EventFormat {
+
+	JSON {
+		@Override
+		public byte[] encode(Event event) {
+			return JsonUtils.serializeToBytes(event);
+		}
+	},
+
+	BINARY {
+		@Override
+		public byte[] encode(Event event) {
+			return BinaryEventCodec.encode(event);
+		}
+	};
+
+	public abstract byte[] encode(Event event);
+
+	public static Event decode(byte[] payload) {
+		if (BinaryEventCodec.isBinary(payload)) {
+			return BinaryEventCodec.decode(payload);
+		}
+		return JsonUtils.parse(payload, Event.class);
+	}
+}
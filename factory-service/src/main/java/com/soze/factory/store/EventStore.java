@@ -1,12 +1,10 @@
 package com.soze.factory.store;
 
 import com.soze.factory.event.Event;
-import org.springframework.context.event.EventListener;
-import org.springframework.core.Ordered;
-import org.springframework.core.annotation.Order;
 
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Event store for factory service.
@@ -14,14 +12,108 @@ import java.util.UUID;
  */
 public interface EventStore {
 
-	@EventListener
-	@Order(value = Ordered.HIGHEST_PRECEDENCE)
+	/**
+	 * Appends a single event without checking the version of its entity.
+	 * Used to import existing histories, commands go through {@link #append(UUID, long, List)}.
+	 */
 	void handleEvent(Event event);
 
+	/**
+	 * Appends events of one entity, provided that exactly {@code expectedVersion} events of it are stored.
+	 * Either all events are appended or none of them.
+	 *
+	 * @throws ConcurrentAppendException if another writer appended to this entity in the meantime
+	 */
+	void append(UUID entityId, long expectedVersion, List<Event> events);
+
 	List<Event> getEventsForEntity(UUID entityId);
 
+	/**
+	 * Returns events of given entity, skipping the first {@code afterVersion} of them.
+	 */
+	default List<Event> getEventsForEntity(UUID entityId, long afterVersion) {
+		List<Event> events = getEventsForEntity(entityId);
+		if (afterVersion >= events.size()) {
+			return new ArrayList<>();
+		}
+		return new ArrayList<>(events.subList((int) afterVersion, events.size()));
+	}
+
+	/**
+	 * Lazily iterates events of given entity, starting with the one at {@code fromSequence}.
+	 * Sequences start from 1, so {@code fromSequence} of 1 or less returns the whole history.
+	 * The stream can hold resources of the store (like a database cursor) and should be closed.
+	 */
+	default Stream<Event> streamEventsForEntity(UUID entityId, long fromSequence) {
+		return getEventsForEntity(entityId, Math.max(0, fromSequence - 1)).stream();
+	}
+
+	/**
+	 * Lazily iterates events of all entities, starting with the one at {@code fromPosition}.
+	 * Stores with a global log return events in append order. The others walk entities one after another
+	 * and number their events as they go, so positions stay valid only until new entities are added.
+	 * The stream can hold resources of the store (like a database cursor) and should be closed.
+	 */
+	default Stream<PositionedEvent> streamAll(long fromPosition) {
+		long[] position = {0};
+		return getAllIds().stream()
+											.flatMap(id -> getEventsForEntity(id).stream())
+											.map(event -> new PositionedEvent(position[0]++, event))
+											.skip(Math.max(0, fromPosition));
+	}
+
+	/**
+	 * Position of the latest event, reading all events from {@code getLastPosition() + 1} yields only events
+	 * appended after this call. -1 if the store is empty. The default walks all events, stores should override it.
+	 */
+	default long getLastPosition() {
+		try (Stream<PositionedEvent> events = streamAll(0)) {
+			return events.mapToLong(PositionedEvent::getPosition).reduce((first, second) -> second).orElse(-1);
+		}
+	}
+
 	List<UUID> getAllIds();
 
+	/**
+	 * Returns at most {@code limit} entity ids greater than {@code after} (or from the start when it is null),
+	 * ordered the same way as their string representation.
+	 * The default reads all ids for every page, stores should keep their ids ordered and override it.
+	 */
+	default List<UUID> getIds(UUID after, int limit) {
+		NavigableMap<UUID, Boolean> ids = new TreeMap<>(EntityIds.ORDER);
+		for (UUID id : getAllIds()) {
+			if (after == null || EntityIds.ORDER.compare(id, after) > 0) {
+				ids.put(id, Boolean.TRUE);
+				if (ids.size() > limit) {
+					ids.pollLastEntry();
+				}
+			}
+		}
+		return new ArrayList<>(ids.keySet());
+	}
+
+	/**
+	 * Lazily walks ids of all entities, fetching them {@code pageSize} at a time.
+	 */
+	default Stream<UUID> streamAllIds(int pageSize) {
+		Iterator<UUID> iterator = new PagedIdIterator(this, pageSize);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * Number of entities in this store.
+	 */
 	int count();
 
+	/**
+	 * Rewrites stored events which are not in their latest version, so they are no longer upcast on every read.
+	 * Work is committed in batches of given size, so an interrupted migration can simply be started again.
+	 * Stores which cannot rewrite events in place keep upcasting them on read and migrate nothing.
+	 *
+	 * @return number of rewritten events
+	 */
+	default long upcastStoredEvents(int batchSize) {
+		return 0;
+	}
+
 }
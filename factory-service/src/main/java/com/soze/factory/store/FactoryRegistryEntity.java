@@ -0,0 +1,45 @@
+package com.soze.factory.store;
+
+import org.hibernate.annotations.Type;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * One row per factory, written together with its first event.
+ * Lets factories be listed and counted without touching the event table.
+ */
+@Entity
+@Table(name = "factory_registry")
+public class FactoryRegistryEntity implements Serializable {
+
+	@Id
+	@Type(type = "pg-uuid")
+	@Column(name = "entity_id", columnDefinition = "uuid")
+	private UUID entityId;
+
+	public FactoryRegistryEntity() {
+
+	}
+
+	public FactoryRegistryEntity(UUID entityId) {
+		this.entityId = entityId;
+	}
+
+	public UUID getEntityId() {
+		return entityId;
+	}
+
+	public void setEntityId(UUID entityId) {
+		this.entityId = entityId;
+	}
+
+	@Override
+	public String toString() {
+		return "FactoryRegistryEntity{" + "entityId=" + entityId + '}';
+	}
+}
@@ -14,7 +14,8 @@ import javax.annotation.PostConstruct;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.stream.Collectors;
 
 @Service
@@ -25,7 +26,7 @@ public class FileEventStore implements EventStore {
 
 	private static final String FILE = "factory-store.json";
 
-	private final Map<UUID, List<Event>> events = new ConcurrentHashMap<>();
+	private final ConcurrentNavigableMap<UUID, List<Event>> events = new ConcurrentSkipListMap<>(EntityIds.ORDER);
 
 	private final EventUpcastService upcaster;
 
@@ -48,14 +49,42 @@ public class FileEventStore implements EventStore {
 		}
 	}
 
+	/**
+	 * Events are upcast when the file is loaded, so writing them back is enough to migrate the whole file.
+	 */
 	@Override
-	public void handleEvent(Event event) {
+	public long upcastStoredEvents(int batchSize) {
+		File file = FileUtils.getFile(FILE);
+		long legacyEvents = JsonUtils.parseList(file, Event.class)
+																 .stream()
+																 .filter(event -> !upcaster.isCurrent(event.getType()))
+																 .count();
+		if (legacyEvents > 0) {
+			persistEvents();
+		}
+		return legacyEvents;
+	}
+
+	@Override
+	public synchronized void handleEvent(Event event) {
 		LOG.info("Handling event = {}", event);
 		List<Event> entityEvents = events.computeIfAbsent(UUID.fromString(event.entityId), (id) -> new ArrayList<>());
 		entityEvents.add(event);
 		persistEvents();
 	}
 
+	@Override
+	public synchronized void append(UUID entityId, long expectedVersion, List<Event> newEvents) {
+		LOG.info("Appending {} events to {} at version {}", newEvents.size(), entityId, expectedVersion);
+		List<Event> entityEvents = events.getOrDefault(entityId, new ArrayList<>());
+		if (entityEvents.size() != expectedVersion) {
+			throw new ConcurrentAppendException(entityId, expectedVersion, "current version is " + entityEvents.size());
+		}
+		entityEvents.addAll(newEvents);
+		events.put(entityId, entityEvents);
+		persistEvents();
+	}
+
 	@Override
 	public List<Event> getEventsForEntity(UUID entityId) {
 		return events.getOrDefault(entityId, new ArrayList<>());
@@ -66,6 +95,11 @@ public class FileEventStore implements EventStore {
 		return new ArrayList<>(events.keySet());
 	}
 
+	@Override
+	public List<UUID> getIds(UUID after, int limit) {
+		return EntityIds.page(events, after, limit);
+	}
+
 	@Override
 	public int count() {
 		return events.keySet().size();
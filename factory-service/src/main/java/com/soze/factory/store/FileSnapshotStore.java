@@ -0,0 +1,63 @@
+package com.soze.factory.store;
+
+import com.soze.common.json.JsonUtils;
+import com.soze.factory.aggregate.FactorySnapshot;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Keeps one json file per factory, so saving a snapshot never touches other factories.
+ */
+@Service
+@Profile({"file-store", "log-store"})
+public class FileSnapshotStore implements SnapshotStore {
+
+	private static final Logger LOG = LoggerFactory.getLogger(FileSnapshotStore.class);
+
+	private static final String DIRECTORY = "factory-snapshots";
+
+	@Override
+	public Optional<FactorySnapshot> findLatest(UUID entityId) {
+		File file = getFile(entityId);
+		if (!file.exists()) {
+			return Optional.empty();
+		}
+		try {
+			return Optional.of(JsonUtils.parse(file, FactorySnapshot.class));
+		} catch (IllegalArgumentException e) {
+			LOG.warn("Cannot read snapshot for {}, ignoring it", entityId, e);
+			return Optional.empty();
+		}
+	}
+
+	@Override
+	public void save(FactorySnapshot snapshot) {
+		LOG.trace("Saving snapshot = {}", snapshot);
+		try {
+			FileUtils.write(getFile(UUID.fromString(snapshot.id)), JsonUtils.serialize(snapshot));
+		} catch (IOException e) {
+			LOG.warn("Cannot persist snapshot", e);
+		}
+	}
+
+	@Override
+	public void deleteAll() {
+		try {
+			FileUtils.deleteDirectory(FileUtils.getFile(DIRECTORY));
+		} catch (IOException e) {
+			LOG.warn("Cannot delete snapshots", e);
+		}
+	}
+
+	private File getFile(UUID entityId) {
+		return FileUtils.getFile(DIRECTORY, entityId + ".json");
+	}
+}
@@ -0,0 +1,348 @@
+package com.soze.factory.store;
+
+import com.soze.factory.event.Event;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Collects appends coming from many command threads and writes them with a single
+ * JDBC batch insert in a single transaction. Futures of the callers complete only after the commit.
+ */
+@Service
+@Profile("database-store")
+public class GroupCommitEventWriter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(GroupCommitEventWriter.class);
+
+	private static final String INSERT = "INSERT INTO factory.factory_event (id, entity_id, sequence, event, payload) VALUES (?, ?, ?, CAST(? AS jsonb), ?)";
+
+	private static final String REGISTER = "INSERT INTO factory.factory_registry (entity_id) VALUES (?) ON CONFLICT DO NOTHING";
+
+	/**
+	 * Expected version of appends which do not check the version of their entity.
+	 */
+	private static final long UNCHECKED = -1L;
+
+	/**
+	 * Serializes commits of all writers sharing the database, see {@link DBEventStore#streamAll}.
+	 * Held until the end of the transaction, and taken before any position is drawn from the sequence.
+	 * The key is arbitrary, it only has to be the same for every writer.
+	 */
+	private static final String LOCK_POSITIONS = "SELECT pg_advisory_xact_lock(7265913274)";
+
+	private static final String LAST_SEQUENCE = "SELECT COALESCE(MAX(sequence), 0) FROM factory.factory_event WHERE entity_id = ?";
+
+	/**
+	 * How many times a batch is written when another process appended to one of its entities in the meantime.
+	 */
+	private static final int MAX_WRITE_ATTEMPTS = 2;
+
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	private final int maxBatchSize;
+	private final long windowMicros;
+	private final EventFormat format;
+
+	private final DistributionSummary batchSizes;
+	private final Timer commitLatency;
+
+	/**
+	 * Last written sequence of recently written entities, least recently used ones are evicted.
+	 * Another process can append to an entity too, so a cached sequence is only a guess, which is read again
+	 * when it does not match. Only touched by the writer thread.
+	 */
+	private final Map<UUID, Long> lastSequences;
+
+	private final BlockingQueue<PendingAppend> queue = new LinkedBlockingQueue<>();
+	private final Thread writer = new Thread(this::run, "group-commit-writer");
+	private volatile boolean running = true;
+
+	/**
+	 * Held for reading while an append is checked and queued, and for writing while stopping, so once
+	 * stopping begins no append can be queued behind the final flush.
+	 */
+	private final ReadWriteLock stopLock = new ReentrantReadWriteLock();
+
+	@Autowired
+	public GroupCommitEventWriter(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+																MeterRegistry meterRegistry,
+																@Value("${factory.group-commit.max-batch-size:256}") int maxBatchSize,
+																@Value("${factory.group-commit.window-micros:2000}") long windowMicros,
+																@Value("${factory.db-store.format:JSON}") EventFormat format,
+																@Value("${factory.group-commit.sequence-cache-size:10000}") int sequenceCacheSize
+															 ) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.transactionTemplate = transactionTemplate;
+		this.maxBatchSize = maxBatchSize;
+		this.windowMicros = windowMicros;
+		this.format = format;
+		this.lastSequences = new LinkedHashMap<UUID, Long>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<UUID, Long> eldest) {
+				return size() > sequenceCacheSize;
+			}
+		};
+		this.batchSizes = DistributionSummary.builder("factory.event-store.batch.size")
+																				 .description("Number of events written in a single commit")
+																				 .register(meterRegistry);
+		this.commitLatency = Timer.builder("factory.event-store.commit.latency")
+															.description("Time it takes to insert and commit a batch of events")
+															.register(meterRegistry);
+	}
+
+	@PostConstruct
+	public void start() {
+		LOG.info("Starting group commit writer, maxBatchSize = {}, windowMicros = {}, format = {}", maxBatchSize,
+						 windowMicros, format
+		);
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		stopLock.writeLock().lock();
+		try {
+			running = false;
+		} finally {
+			stopLock.writeLock().unlock();
+		}
+		writer.join(TimeUnit.SECONDS.toMillis(5));
+		PendingAppend pendingAppend;
+		while ((pendingAppend = queue.poll()) != null) {
+			pendingAppend.future.completeExceptionally(new IllegalStateException("Group commit writer is stopped"));
+		}
+	}
+
+	/**
+	 * Queues events to be written together in the next batch.
+	 */
+	public CompletableFuture<Void> append(List<Event> events) {
+		return enqueue(new PendingAppend(null, UNCHECKED, events));
+	}
+
+	/**
+	 * Queues events of one entity, which are written only if the entity has exactly {@code expectedVersion} events.
+	 * Otherwise the future fails with {@link ConcurrentAppendException}, without affecting other appends in the batch.
+	 */
+	public CompletableFuture<Void> append(UUID entityId, long expectedVersion, List<Event> events) {
+		return enqueue(new PendingAppend(entityId, expectedVersion, events));
+	}
+
+	private CompletableFuture<Void> enqueue(PendingAppend pendingAppend) {
+		stopLock.readLock().lock();
+		try {
+			if (!running) {
+				pendingAppend.future.completeExceptionally(new IllegalStateException("Group commit writer is stopped"));
+				return pendingAppend.future;
+			}
+			queue.add(pendingAppend);
+			return pendingAppend.future;
+		} finally {
+			stopLock.readLock().unlock();
+		}
+	}
+
+	private void run() {
+		List<PendingAppend> batch = new ArrayList<>();
+		while (running || !queue.isEmpty()) {
+			try {
+				PendingAppend first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				int events = first.events.size();
+				long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(windowMicros);
+				while (events < maxBatchSize) {
+					long remaining = deadline - System.nanoTime();
+					PendingAppend next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+					events += next.events.size();
+				}
+				flush(batch, events);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (Exception e) {
+				LOG.error("Unexpected exception in group commit writer", e);
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Writes the batch, checking versions on the sequences known to the writer. If another process appended
+	 * to an entity of the batch anyway, its sequences are read again and the batch is written once more,
+	 * so a single stale sequence does not fail every append of the batch.
+	 */
+	private void flush(List<PendingAppend> batch, int eventCount) {
+		LOG.trace("Writing batch of {} events from {} appends", eventCount, batch.size());
+		long start = System.nanoTime();
+		List<PendingAppend> pending = batch;
+		for (int attempt = 1; ; attempt++) {
+			try {
+				List<PendingAppend> accepted = new ArrayList<>(pending.size());
+				int rows = write(pending, accepted);
+				commitLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+				batchSizes.record(rows);
+				accepted.forEach(pendingAppend -> pendingAppend.future.complete(null));
+				return;
+			} catch (Exception e) {
+				// sequences handed out for this batch were not used, or were already taken, read them again
+				pending.forEach(pendingAppend -> pendingAppend.events.forEach(
+					event -> lastSequences.remove(UUID.fromString(event.entityId))));
+				List<PendingAppend> unanswered = new ArrayList<>(pending.size());
+				for (PendingAppend pendingAppend : pending) {
+					if (!pendingAppend.future.isDone()) {
+						unanswered.add(pendingAppend);
+					}
+				}
+				if (e instanceof DuplicateKeyException && attempt < MAX_WRITE_ATTEMPTS) {
+					LOG.info("Another process appended to an entity of the batch, writing it again");
+					pending = unanswered;
+					continue;
+				}
+				LOG.warn("Cannot write batch of {} events", eventCount, e);
+				unanswered.forEach(pendingAppend -> pendingAppend.future.completeExceptionally(toFailure(pendingAppend, e)));
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Inserts events of appends which pass their version check in one transaction. Appends which do not pass it
+	 * are failed right away, the rest are added to {@code accepted}.
+	 *
+	 * @return number of inserted events
+	 */
+	private int write(List<PendingAppend> batch, List<PendingAppend> accepted) {
+		List<Object[]> rows = new ArrayList<>();
+		List<Object[]> newEntities = new ArrayList<>();
+		Set<UUID> written = new HashSet<>();
+		for (PendingAppend pendingAppend : batch) {
+			if (pendingAppend.isChecked()) {
+				long version = currentVersion(pendingAppend.entityId, pendingAppend.expectedVersion, written);
+				if (version != pendingAppend.expectedVersion) {
+					pendingAppend.future.completeExceptionally(new ConcurrentAppendException(
+						pendingAppend.entityId, pendingAppend.expectedVersion, "current version is " + version));
+					continue;
+				}
+			}
+			accepted.add(pendingAppend);
+			for (Event event : pendingAppend.events) {
+				UUID entityId = UUID.fromString(event.entityId);
+				long sequence = nextSequence(entityId);
+				written.add(entityId);
+				if (sequence == 1) {
+					newEntities.add(new Object[]{entityId});
+				}
+				rows.add(toRow(entityId, sequence, event));
+			}
+		}
+		if (!rows.isEmpty()) {
+			transactionTemplate.execute(status -> {
+				jdbcTemplate.execute(LOCK_POSITIONS);
+				if (!newEntities.isEmpty()) {
+					jdbcTemplate.batchUpdate(REGISTER, newEntities);
+				}
+				return jdbcTemplate.batchUpdate(INSERT, rows);
+			});
+		}
+		return rows.size();
+	}
+
+	/**
+	 * Version of the entity an append is checked against. A cached sequence which does not match is read again
+	 * from the database, since another process could have appended to the entity, unless earlier appends
+	 * of this batch wrote to the entity, then the cached sequence includes them and is the one to check.
+	 */
+	private long currentVersion(UUID entityId, long expectedVersion, Set<UUID> written) {
+		long version = lastSequence(entityId);
+		if (version == expectedVersion || written.contains(entityId)) {
+			return version;
+		}
+		lastSequences.remove(entityId);
+		return lastSequence(entityId);
+	}
+
+	/**
+	 * A duplicate sequence means another process appended to one of the entities, callers which checked
+	 * their version can simply retry. Since the whole batch is rolled back, this applies to all of them.
+	 */
+	private Exception toFailure(PendingAppend pendingAppend, Exception e) {
+		if (e instanceof DuplicateKeyException && pendingAppend.isChecked()) {
+			return new ConcurrentAppendException(pendingAppend.entityId, pendingAppend.expectedVersion, e.getMessage());
+		}
+		return e;
+	}
+
+	/**
+	 * Json events go to the jsonb column, binary ones to the bytea column. The other column is left null.
+	 */
+	private Object[] toRow(UUID entityId, long sequence, Event event) {
+		byte[] encoded = format.encode(event);
+		if (format == EventFormat.JSON) {
+			return new Object[]{UUID.randomUUID(), entityId, sequence, new String(encoded, StandardCharsets.UTF_8), null};
+		}
+		return new Object[]{UUID.randomUUID(), entityId, sequence, null, encoded};
+	}
+
+	private long lastSequence(UUID entityId) {
+		Long lastSequence = lastSequences.get(entityId);
+		if (lastSequence == null) {
+			lastSequence = jdbcTemplate.queryForObject(LAST_SEQUENCE, Long.class, entityId);
+			lastSequences.put(entityId, lastSequence);
+		}
+		return lastSequence;
+	}
+
+	private long nextSequence(UUID entityId) {
+		long sequence = lastSequence(entityId) + 1;
+		lastSequences.put(entityId, sequence);
+		return sequence;
+	}
+
+	private static class PendingAppend {
+
+		private final UUID entityId;
+		private final long expectedVersion;
+		private final List<Event> events;
+		private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+		private PendingAppend(UUID entityId, long expectedVersion, List<Event> events) {
+			this.entityId = entityId;
+			this.expectedVersion = expectedVersion;
+			this.events = events;
+		}
+
+		private boolean isChecked() {
+			return expectedVersion != UNCHECKED;
+		}
+	}
+}
@@ -4,15 +4,13 @@ import com.soze.factory.event.Event;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Profile;
-import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
-import java.security.acl.LastOwnerException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 @Service
 @Profile("memory-store")
@@ -20,20 +18,43 @@ public class InMemoryEventStore implements EventStore {
 
 	private static final Logger LOG = LoggerFactory.getLogger(InMemoryEventStore.class);
 
-	private final Map<UUID, List<Event>> events = new ConcurrentHashMap<>();
+	private final ConcurrentNavigableMap<UUID, List<Event>> events = new ConcurrentSkipListMap<>(EntityIds.ORDER);
 
 	@Override
-	@EventListener
 	public void handleEvent(Event event) {
 		LOG.info("{}", event);
 		String entityId = event.entityId;
 		List<Event> entityEvents = events.computeIfAbsent(UUID.fromString(entityId), (key) -> new ArrayList<>());
-		entityEvents.add(event);
+		synchronized (entityEvents) {
+			entityEvents.add(event);
+		}
+	}
+
+	@Override
+	public void append(UUID entityId, long expectedVersion, List<Event> newEvents) {
+		LOG.info("Appending {} events to {} at version {}", newEvents.size(), entityId, expectedVersion);
+		List<Event> entityEvents = expectedVersion == 0 ? events.computeIfAbsent(entityId, (key) -> new ArrayList<>()) :
+			events.get(entityId);
+		if (entityEvents == null) {
+			throw new ConcurrentAppendException(entityId, expectedVersion, "entity does not exist");
+		}
+		synchronized (entityEvents) {
+			if (entityEvents.size() != expectedVersion) {
+				throw new ConcurrentAppendException(entityId, expectedVersion, "current version is " + entityEvents.size());
+			}
+			entityEvents.addAll(newEvents);
+		}
 	}
 
 	@Override
 	public List<Event> getEventsForEntity(UUID entityId) {
-		return events.getOrDefault(entityId, new ArrayList<>());
+		List<Event> entityEvents = events.get(entityId);
+		if (entityEvents == null) {
+			return new ArrayList<>();
+		}
+		synchronized (entityEvents) {
+			return new ArrayList<>(entityEvents);
+		}
 	}
 
 	@Override
@@ -45,4 +66,9 @@ public class InMemoryEventStore implements EventStore {
 	public List<UUID> getAllIds() {
 		return new ArrayList<>(events.keySet());
 	}
+
+	@Override
+	public List<UUID> getIds(UUID after, int limit) {
+		return EntityIds.page(events, after, limit);
+	}
 }
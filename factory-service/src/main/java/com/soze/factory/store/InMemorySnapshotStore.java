@@ -0,0 +1,37 @@
+package com.soze.factory.store;
+
+import com.soze.factory.aggregate.FactorySnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Service
+@Profile("memory-store")
+public class InMemorySnapshotStore implements SnapshotStore {
+
+	private static final Logger LOG = LoggerFactory.getLogger(InMemorySnapshotStore.class);
+
+	private final Map<UUID, FactorySnapshot> snapshots = new ConcurrentHashMap<>();
+
+	@Override
+	public Optional<FactorySnapshot> findLatest(UUID entityId) {
+		return Optional.ofNullable(snapshots.get(entityId));
+	}
+
+	@Override
+	public void save(FactorySnapshot snapshot) {
+		LOG.trace("Saving snapshot = {}", snapshot);
+		snapshots.put(UUID.fromString(snapshot.id), snapshot);
+	}
+
+	@Override
+	public void deleteAll() {
+		snapshots.clear();
+	}
+}
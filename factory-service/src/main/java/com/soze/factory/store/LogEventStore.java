@@ -0,0 +1,247 @@
+package com.soze.factory.store;
+
+import com.soze.factory.event.Event;
+import com.soze.factory.event.EventUpcastService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Append-only event store. Events are appended as length prefixed records to segment files,
+ * which are rolled once they reach the configured size. Segment files are named after the global
+ * position of their first record, and only an index of record positions per entity is kept in memory.
+ */
+@Service
+@Profile("log-store")
+public class LogEventStore implements EventStore {
+
+	private static final Logger LOG = LoggerFactory.getLogger(LogEventStore.class);
+
+	private final EventUpcastService upcaster;
+	private final File directory;
+	private final long segmentSize;
+	private final int fsyncBatchSize;
+	private final EventFormat format;
+
+	private final ConcurrentSkipListMap<Long, LogSegment> segments = new ConcurrentSkipListMap<>();
+	private final ConcurrentNavigableMap<UUID, PositionIndex> index = new ConcurrentSkipListMap<>(EntityIds.ORDER);
+
+	private LogSegment activeSegment;
+	private int unsyncedEvents = 0;
+
+	@Autowired
+	public LogEventStore(EventUpcastService upcaster,
+											 @Value("${factory.log-store.directory:factory-log}") String directory,
+											 @Value("${factory.log-store.segment-size:67108864}") long segmentSize,
+											 @Value("${factory.log-store.fsync-batch-size:32}") int fsyncBatchSize,
+											 @Value("${factory.log-store.format:BINARY}") EventFormat format
+											) {
+		this.upcaster = upcaster;
+		this.directory = new File(directory);
+		this.segmentSize = segmentSize;
+		this.fsyncBatchSize = fsyncBatchSize;
+		this.format = format;
+	}
+
+	@PostConstruct
+	public void setup() {
+		LOG.info("LogEventStore init, directory = {}, format = {}", directory.getAbsolutePath(), format);
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IllegalStateException("Cannot create directory " + directory.getAbsolutePath());
+		}
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(".log"));
+		List<Long> baseOffsets = new ArrayList<>();
+		for (File file : Objects.requireNonNull(files)) {
+			baseOffsets.add(LogSegment.parseBaseOffset(file.getName()));
+		}
+		Collections.sort(baseOffsets);
+
+		int events = 0;
+		for (Long baseOffset : baseOffsets) {
+			LogSegment segment = LogSegment.open(directory, baseOffset);
+			int[] count = {0};
+			segment.recover((entityId, position) -> {
+				getIndex(entityId).add(position);
+				count[0]++;
+			});
+			LOG.info("Recovered {} events from segment {}", count[0], LogSegment.fileName(baseOffset));
+			events += count[0];
+			segments.put(baseOffset, segment);
+		}
+		if (segments.isEmpty()) {
+			segments.put(0L, LogSegment.open(directory, 0L));
+		}
+		activeSegment = segments.lastEntry().getValue();
+		LOG.info("Loaded {} events of {} entities from {} segments", events, index.size(), segments.size());
+	}
+
+	@Override
+	public synchronized void handleEvent(Event event) {
+		LOG.info("Handling event = {}", event);
+		write(UUID.fromString(event.entityId), event);
+	}
+
+	/**
+	 * Records of one append are written one after another. Should the process die in between,
+	 * recovery keeps the records which were completely written, like for separate appends.
+	 */
+	@Override
+	public synchronized void append(UUID entityId, long expectedVersion, List<Event> events) {
+		LOG.info("Appending {} events to {} at version {}", events.size(), entityId, expectedVersion);
+		PositionIndex positionIndex = index.get(entityId);
+		int version = positionIndex == null ? 0 : positionIndex.size();
+		if (version != expectedVersion) {
+			throw new ConcurrentAppendException(entityId, expectedVersion, "current version is " + version);
+		}
+		for (Event event : events) {
+			write(entityId, event);
+		}
+	}
+
+	private void write(UUID entityId, Event event) {
+		byte[] payload = format.encode(event);
+		if (activeSegment.getSize() > 0 && activeSegment.getSize() + LogSegment.HEADER_SIZE + payload.length > segmentSize) {
+			roll();
+		}
+		long position = activeSegment.append(entityId, payload);
+		getIndex(entityId).add(position);
+		unsyncedEvents++;
+		if (unsyncedEvents >= fsyncBatchSize) {
+			sync();
+		}
+	}
+
+	/**
+	 * Makes sure events appended since the last batch was synced reach the disk even when traffic is low.
+	 */
+	@Scheduled(fixedDelayString = "${factory.log-store.fsync-interval:1000}")
+	public synchronized void sync() {
+		if (unsyncedEvents == 0) {
+			return;
+		}
+		LOG.trace("Syncing {} events", unsyncedEvents);
+		activeSegment.force();
+		unsyncedEvents = 0;
+	}
+
+	private void roll() {
+		sync();
+		long baseOffset = activeSegment.getEndOffset();
+		LOG.info("Rolling segment, new segment = {}", LogSegment.fileName(baseOffset));
+		activeSegment = LogSegment.open(directory, baseOffset);
+		segments.put(baseOffset, activeSegment);
+	}
+
+	@Override
+	public List<Event> getEventsForEntity(UUID entityId) {
+		return getEventsForEntity(entityId, 0);
+	}
+
+	@Override
+	public List<Event> getEventsForEntity(UUID entityId, long afterVersion) {
+		PositionIndex positionIndex = index.get(entityId);
+		if (positionIndex == null) {
+			return new ArrayList<>();
+		}
+		long[] positions = positionIndex.from((int) afterVersion);
+		List<Event> events = new ArrayList<>(positions.length);
+		for (long position : positions) {
+			events.add(read(position));
+		}
+		return events;
+	}
+
+	@Override
+	public Stream<Event> streamEventsForEntity(UUID entityId, long fromSequence) {
+		PositionIndex positionIndex = index.get(entityId);
+		if (positionIndex == null) {
+			return Stream.empty();
+		}
+		return Arrays.stream(positionIndex.from((int) Math.max(0, fromSequence - 1))).mapToObj(this::read);
+	}
+
+	/**
+	 * Positions are byte offsets in the log, so they only grow but are not consecutive.
+	 */
+	@Override
+	public Stream<PositionedEvent> streamAll(long fromPosition) {
+		Long first = segments.floorKey(fromPosition);
+		Collection<LogSegment> toRead = (first == null ? segments : segments.tailMap(first)).values();
+		return toRead.stream()
+								 .flatMap(segment -> StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+									 segment.records(fromPosition), Spliterator.ORDERED | Spliterator.NONNULL), false))
+								 .map(record -> new PositionedEvent(record.position, upcaster.upcast(EventFormat.decode(record.payload))));
+	}
+
+	private Event read(long position) {
+		LogSegment segment = segments.floorEntry(position).getValue();
+		Event event = EventFormat.decode(segment.read(position));
+		return upcaster.upcast(event);
+	}
+
+	@Override
+	public List<UUID> getAllIds() {
+		return new ArrayList<>(index.keySet());
+	}
+
+	@Override
+	public List<UUID> getIds(UUID after, int limit) {
+		return EntityIds.page(index, after, limit);
+	}
+
+	@Override
+	public int count() {
+		return index.size();
+	}
+
+	@PreDestroy
+	public synchronized void close() {
+		LOG.info("Closing LogEventStore");
+		sync();
+		segments.values().forEach(LogSegment::close);
+	}
+
+	private PositionIndex getIndex(UUID entityId) {
+		return index.computeIfAbsent(entityId, id -> new PositionIndex());
+	}
+
+	/**
+	 * Growable list of record positions of a single entity, in append order.
+	 */
+	private static class PositionIndex {
+
+		private long[] positions = new long[8];
+		private int size = 0;
+
+		synchronized void add(long position) {
+			if (size == positions.length) {
+				positions = Arrays.copyOf(positions, size * 2);
+			}
+			positions[size++] = position;
+		}
+
+		synchronized int size() {
+			return size;
+		}
+
+		synchronized long[] from(int start) {
+			if (start >= size) {
+				return new long[0];
+			}
+			return Arrays.copyOfRange(positions, start, size);
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package com.soze.factory.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Single file of the {@link LogEventStore}. Records are laid out as:
+ * <pre>
+ * int length | int crc | long entityId msb | long entityId lsb | byte[length] payload
+ * </pre>
+ * The checksum covers the entity id and the payload, so a record torn by a crash is detected on startup.
+ */
+class LogSegment {
+
+	private static final Logger LOG = LoggerFactory.getLogger(LogSegment.class);
+
+	static final int HEADER_SIZE = 24;
+
+	private final File file;
+	private final long baseOffset;
+	private final FileChannel channel;
+	private volatile long size;
+
+	private LogSegment(File file, long baseOffset, FileChannel channel, long size) {
+		this.file = file;
+		this.baseOffset = baseOffset;
+		this.channel = channel;
+		this.size = size;
+	}
+
+	static LogSegment open(File directory, long baseOffset) {
+		File file = new File(directory, fileName(baseOffset));
+		try {
+			FileChannel channel = FileChannel.open(
+				file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			return new LogSegment(file, baseOffset, channel, channel.size());
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot open segment " + file, e);
+		}
+	}
+
+	static String fileName(long baseOffset) {
+		return String.format("%020d.log", baseOffset);
+	}
+
+	static long parseBaseOffset(String fileName) {
+		return Long.parseLong(fileName.substring(0, fileName.indexOf('.')));
+	}
+
+	/**
+	 * Walks all records through a memory mapped view of the file and passes their positions to the visitor.
+	 * Everything after the first incomplete or corrupted record is cut off.
+	 */
+	void recover(RecordVisitor visitor) {
+		try {
+			long validSize = 0;
+			if (size > 0) {
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				CRC32 crc = new CRC32();
+				while (buffer.remaining() >= HEADER_SIZE) {
+					int start = buffer.position();
+					int length = buffer.getInt();
+					int checksum = buffer.getInt();
+					if (length < 0 || length > buffer.remaining() - 16) {
+						break;
+					}
+					crc.reset();
+					ByteBuffer body = buffer.slice();
+					body.limit(16 + length);
+					crc.update(body);
+					if ((int) crc.getValue() != checksum) {
+						break;
+					}
+					UUID entityId = new UUID(buffer.getLong(), buffer.getLong());
+					buffer.position(buffer.position() + length);
+					visitor.visit(entityId, baseOffset + start);
+					validSize = buffer.position();
+				}
+			}
+			if (validSize < size) {
+				LOG.warn("Truncating segment {} from {} to {} bytes", file.getName(), size, validSize);
+				channel.truncate(validSize);
+				channel.force(true);
+				size = validSize;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot recover segment " + file, e);
+		}
+	}
+
+	/**
+	 * Appends a record and returns its global position.
+	 */
+	long append(UUID entityId, byte[] payload) {
+		ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+		record.putInt(payload.length);
+		record.putInt(0);
+		record.putLong(entityId.getMostSignificantBits());
+		record.putLong(entityId.getLeastSignificantBits());
+		record.put(payload);
+
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 8, 16 + payload.length);
+		record.putInt(4, (int) crc.getValue());
+		record.flip();
+
+		long position = baseOffset + size;
+		try {
+			long offset = size;
+			while (record.hasRemaining()) {
+				offset += channel.write(record, offset);
+			}
+			size = offset;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot append to segment " + file, e);
+		}
+		return position;
+	}
+
+	/**
+	 * Reads payload of the record at given global position.
+	 */
+	byte[] read(long position) {
+		long offset = position - baseOffset;
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(header, offset);
+			header.flip();
+			ByteBuffer payload = ByteBuffer.allocate(header.getInt());
+			readFully(payload, offset + HEADER_SIZE);
+			return payload.array();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot read from segment " + file, e);
+		}
+	}
+
+	/**
+	 * Iterates records starting at given global position through a memory mapped view of the file.
+	 * Only records which were completely written when this method was called are visited.
+	 */
+	Iterator<Record> records(long fromPosition) {
+		long end = size;
+		if (end == 0) {
+			return Collections.emptyIterator();
+		}
+		MappedByteBuffer buffer;
+		try {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot map segment " + file, e);
+		}
+		return new Iterator<Record>() {
+
+			private Record next = advance();
+
+			private Record advance() {
+				while (buffer.remaining() >= HEADER_SIZE) {
+					long position = baseOffset + buffer.position();
+					int length = buffer.getInt();
+					buffer.getInt();
+					UUID entityId = new UUID(buffer.getLong(), buffer.getLong());
+					if (position < fromPosition) {
+						buffer.position(buffer.position() + length);
+						continue;
+					}
+					byte[] payload = new byte[length];
+					buffer.get(payload);
+					return new Record(position, entityId, payload);
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public Record next() {
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				Record record = next;
+				next = advance();
+				return record;
+			}
+		};
+	}
+
+	private void readFully(ByteBuffer buffer, long offset) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, offset + buffer.position());
+			if (read < 0) {
+				throw new IOException("Unexpected end of segment at " + offset);
+			}
+		}
+	}
+
+	void force() {
+		try {
+			channel.force(false);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot sync segment " + file, e);
+		}
+	}
+
+	void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			LOG.warn("Cannot close segment {}", file, e);
+		}
+	}
+
+	long getBaseOffset() {
+		return baseOffset;
+	}
+
+	long getSize() {
+		return size;
+	}
+
+	long getEndOffset() {
+		return baseOffset + size;
+	}
+
+	interface RecordVisitor {
+		void visit(UUID entityId, long position);
+	}
+
+	static class Record {
+
+		final long position;
+		final UUID entityId;
+		final byte[] payload;
+
+		Record(long position, UUID entityId, byte[] payload) {
+			this.position = position;
+			this.entityId = entityId;
+			this.payload = payload;
+		}
+	}
+}
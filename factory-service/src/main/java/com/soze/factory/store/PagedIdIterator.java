@@ -0,0 +1,50 @@
+package com.soze.factory.store;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * Iterates over all entity ids of an {@link EventStore}, keeping only one page of them in memory.
+ */
+class PagedIdIterator implements Iterator<UUID> {
+
+	private final EventStore eventStore;
+	private final int pageSize;
+
+	private List<UUID> page;
+	private int index = 0;
+	private boolean lastPage = false;
+
+	PagedIdIterator(EventStore eventStore, int pageSize) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("Page size has to be positive: " + pageSize);
+		}
+		this.eventStore = eventStore;
+		this.pageSize = pageSize;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (page != null && index < page.size()) {
+			return true;
+		}
+		if (lastPage) {
+			return false;
+		}
+		UUID after = page == null || page.isEmpty() ? null : page.get(page.size() - 1);
+		page = eventStore.getIds(after, pageSize);
+		index = 0;
+		lastPage = page.size() < pageSize;
+		return !page.isEmpty();
+	}
+
+	@Override
+	public UUID next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return page.get(index++);
+	}
+}
@@ -0,0 +1,31 @@
+package com.soze.factory.store;
+
+import com.soze.factory.event.Event;
+
+/**
+ * Event together with its position in the global order of a store.
+ * Reading all events from {@code position + 1} continues right after this event.
+ */
+public class PositionedEvent {
+
+	private final long position;
+	private final Event event;
+
+	public PositionedEvent(long position, Event event) {
+		this.position = position;
+		this.event = event;
+	}
+
+	public long getPosition() {
+		return position;
+	}
+
+	public Event getEvent() {
+		return event;
+	}
+
+	@Override
+	public String toString() {
+		return "PositionedEvent{" + "position=" + position + ", event=" + event + '}';
+	}
+}
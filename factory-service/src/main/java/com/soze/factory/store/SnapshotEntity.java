@@ -0,0 +1,68 @@
+package com.soze.factory.store;
+
+import com.soze.factory.aggregate.FactorySnapshot;
+import com.vladmihalcea.hibernate.type.json.JsonBinaryType;
+import org.hibernate.annotations.Type;
+import org.hibernate.annotations.TypeDef;
+import org.hibernate.annotations.TypeDefs;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.util.UUID;
+
+@Entity
+@Table(name = "factory_snapshot")
+@TypeDefs({@TypeDef(name = "jsonb", typeClass = JsonBinaryType.class)})
+public class SnapshotEntity implements Serializable {
+
+	@Id
+	@Type(type = "pg-uuid")
+	@Column(name = "entity_id", columnDefinition = "uuid")
+	private UUID entityId;
+
+	@Column(name = "version")
+	private long version;
+
+	@Type(type = "jsonb")
+	@Column(name = "snapshot", columnDefinition = "jsonb")
+	private FactorySnapshot snapshot;
+
+	public SnapshotEntity() {
+
+	}
+
+	public SnapshotEntity(FactorySnapshot snapshot) {
+		this.entityId = UUID.fromString(snapshot.id);
+		this.version = snapshot.version;
+		this.snapshot = snapshot;
+	}
+
+	public UUID getEntityId() {
+		return entityId;
+	}
+
+	public void setEntityId(UUID entityId) {
+		this.entityId = entityId;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	public FactorySnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	public void setSnapshot(FactorySnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	@Override
+	public String toString() {
+		return "SnapshotEntity{" + "entityId=" + entityId + ", version=" + version + '}';
+	}
+}
@@ -0,0 +1,20 @@
+package com.soze.factory.store;
+
+import com.soze.factory.aggregate.FactorySnapshot;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Stores the latest {@link FactorySnapshot} of each factory.
+ * Every {@link EventStore} profile has its own implementation.
+ */
+public interface SnapshotStore {
+
+	Optional<FactorySnapshot> findLatest(UUID entityId);
+
+	void save(FactorySnapshot snapshot);
+
+	void deleteAll();
+
+}
@@ -0,0 +1,40 @@
+package com.soze.common.websocket;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.WebSocketExtension;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+class DeflateToggleHandshakeHandlerTest {
+
+	private final WebSocketExtension deflate = new WebSocketExtension(DeflateToggleHandshakeHandler.PERMESSAGE_DEFLATE);
+	private final WebSocketExtension other = new WebSocketExtension("x-other");
+
+	@Test
+	public void deflateEnabled_deflateAccepted() {
+		List<WebSocketExtension> accepted = new DeflateToggleHandshakeHandler(true).filterRequestedExtensions(
+			null, Arrays.asList(deflate, other), Arrays.asList(deflate, other));
+
+		Assertions.assertEquals(Arrays.asList(deflate, other), accepted);
+	}
+
+	@Test
+	public void deflateDisabled_deflateDeclined() {
+		List<WebSocketExtension> accepted = new DeflateToggleHandshakeHandler(false).filterRequestedExtensions(
+			null, Arrays.asList(deflate, other), Arrays.asList(deflate, other));
+
+		Assertions.assertEquals(Collections.singletonList(other), accepted);
+	}
+
+	@Test
+	public void extensionNotSupported_declined() {
+		List<WebSocketExtension> accepted = new DeflateToggleHandshakeHandler(true).filterRequestedExtensions(
+			null, Arrays.asList(deflate, other), Collections.singletonList(other));
+
+		Assertions.assertEquals(Collections.singletonList(other), accepted);
+	}
+
+}
@@ -1,10 +1,16 @@
 package com.soze.factory;
 
+import com.soze.common.dto.Resource;
 import com.soze.factory.aggregate.Factory;
+import com.soze.factory.event.Event;
 import com.soze.factory.event.FactoryCreated;
+import com.soze.factory.event.ResourceBought;
+import com.soze.factory.event.ResourceStorageCapacityChanged;
 import com.soze.factory.repository.FactoryRepository;
 import com.soze.factory.store.EventStore;
 import com.soze.factory.store.InMemoryEventStore;
+import com.soze.factory.store.InMemorySnapshotStore;
+import com.soze.factory.store.SnapshotStore;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -12,20 +18,33 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
 
 import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @SpringBootTest
 @ActiveProfiles({"test", "database-store"})
 class FactoryRepositoryTest {
 
+	private final AtomicInteger reads = new AtomicInteger();
+
 	private FactoryRepository factoryRepository;
 	private EventStore eventStore;
+	private SnapshotStore snapshotStore;
 
 	@BeforeEach
 	public void setup() {
-		eventStore = new InMemoryEventStore();
-		factoryRepository = new FactoryRepository(eventStore);
+		eventStore = new InMemoryEventStore() {
+			@Override
+			public List<Event> getEventsForEntity(UUID entityId) {
+				reads.incrementAndGet();
+				return super.getEventsForEntity(entityId);
+			}
+		};
+		snapshotStore = new InMemorySnapshotStore();
+		factoryRepository = new FactoryRepository(eventStore, snapshotStore, 5, 2, 0);
 	}
 
 	@Test
@@ -38,5 +57,164 @@ class FactoryRepositoryTest {
 		Assertions.assertTrue(factoryOptional.isPresent());
 	}
 
+	@Test
+	public void findById_savesSnapshotEveryNEvents() {
+		UUID factoryId = UUID.randomUUID();
+		createFactoryWithWood(factoryId);
+		for (int i = 0; i < 2; i++) {
+			buyWood(factoryId);
+		}
+		factoryRepository.findById(factoryId);
+		Assertions.assertFalse(snapshotStore.findLatest(factoryId).isPresent());
+
+		buyWood(factoryId);
+		factoryRepository.findById(factoryId);
+		Assertions.assertTrue(snapshotStore.findLatest(factoryId).isPresent());
+		Assertions.assertEquals(5, snapshotStore.findLatest(factoryId).get().version);
+	}
+
+	@Test
+	public void findById_replaysEventsAfterSnapshot() {
+		UUID factoryId = UUID.randomUUID();
+		createFactoryWithWood(factoryId);
+		for (int i = 0; i < 4; i++) {
+			buyWood(factoryId);
+		}
+		factoryRepository.findById(factoryId);
+		buyWood(factoryId);
+		buyWood(factoryId);
+
+		Factory factory = factoryRepository.findById(factoryId).get();
+		Assertions.assertEquals(8, factory.getVersion());
+		Assertions.assertEquals(6, factory.getStorage().getCapacityTaken(Resource.WOOD));
+		Assertions.assertEquals(6, snapshotStore.findLatest(factoryId).get().version);
+	}
+
+	@Test
+	public void rebuildSnapshot() {
+		UUID factoryId = UUID.randomUUID();
+		createFactoryWithWood(factoryId);
+		buyWood(factoryId);
+
+		factoryRepository.rebuildSnapshot(factoryId);
+		Assertions.assertEquals(3, snapshotStore.findLatest(factoryId).get().version);
+		Assertions.assertEquals(1, factoryRepository.findById(factoryId).get().getStorage().getCapacityTaken(Resource.WOOD));
+	}
+
+	@Test
+	public void streamAll_readsAllPages() {
+		for (int i = 0; i < 5; i++) {
+			createFactoryWithWood(UUID.randomUUID());
+		}
+		Assertions.assertEquals(5, factoryRepository.streamAllIds().distinct().count());
+		Assertions.assertEquals(5, factoryRepository.streamAll().count());
+	}
+
+	@Test
+	public void streamAll_emptyStore() {
+		Assertions.assertEquals(0, factoryRepository.streamAll().count());
+	}
+
+	@Test
+	public void cachedFactory_updatedWithAppendedEventsWithoutReplay() {
+		FactoryRepository cachingRepository = new FactoryRepository(eventStore, snapshotStore, 5, 2, 10);
+		UUID factoryId = UUID.randomUUID();
+		createFactoryWithWood(factoryId);
+		Factory loaded = cachingRepository.findById(factoryId).get();
+
+		ResourceBought resourceBought = new ResourceBought(factoryId.toString(), LocalDateTime.now(), 3, Resource.WOOD.name(), 2);
+		eventStore.append(factoryId, 2, Collections.singletonList(resourceBought));
+		cachingRepository.applyAppended(factoryId, 2, Collections.singletonList(resourceBought));
+		eventStore.handleEvent(new ResourceBought(factoryId.toString(), LocalDateTime.now(), 4, Resource.WOOD.name(), 5));
+
+		int readsBefore = reads.get();
+		Factory cached = cachingRepository.findById(factoryId).get();
+		Assertions.assertEquals(readsBefore, reads.get());
+		Assertions.assertEquals(3, cached.getVersion());
+		Assertions.assertEquals(2, cached.getStorage().getCapacityTaken(Resource.WOOD));
+		Assertions.assertEquals(0, loaded.getStorage().getCapacityTaken(Resource.WOOD));
+	}
+
+	@Test
+	public void cachedFactory_returnedAsCopy() {
+		FactoryRepository cachingRepository = new FactoryRepository(eventStore, snapshotStore, 5, 2, 10);
+		UUID factoryId = UUID.randomUUID();
+		createFactoryWithWood(factoryId);
+		Factory first = cachingRepository.findById(factoryId).get();
+
+		first.apply(new ResourceBought(factoryId.toString(), LocalDateTime.now(), 3, Resource.WOOD.name(), 4));
+		Factory second = cachingRepository.findById(factoryId).get();
+
+		Assertions.assertNotSame(first, second);
+		Assertions.assertEquals(2, second.getVersion());
+		Assertions.assertEquals(0, second.getStorage().getCapacityTaken(Resource.WOOD));
+	}
+
+	@Test
+	public void appendedEvents_savedAsSnapshotEveryNEvents() {
+		FactoryRepository cachingRepository = new FactoryRepository(eventStore, snapshotStore, 5, 2, 10);
+		UUID factoryId = UUID.randomUUID();
+		createFactoryWithWood(factoryId);
+		cachingRepository.findById(factoryId);
+
+		for (int version = 2; version < 7; version++) {
+			ResourceBought resourceBought = new ResourceBought(factoryId.toString(), LocalDateTime.now(), version + 1,
+																												 Resource.WOOD.name(), 1
+			);
+			eventStore.append(factoryId, version, Collections.singletonList(resourceBought));
+			cachingRepository.applyAppended(factoryId, version, Collections.singletonList(resourceBought));
+			if (version < 4) {
+				Assertions.assertFalse(snapshotStore.findLatest(factoryId).isPresent());
+			}
+		}
+
+		Assertions.assertEquals(5, snapshotStore.findLatest(factoryId).get().version);
+		Assertions.assertEquals(3, snapshotStore.findLatest(factoryId).get().storage.get(Resource.WOOD).getCount());
+	}
+
+	@Test
+	public void staleCachedFactory_loadedAgain() {
+		FactoryRepository cachingRepository = new FactoryRepository(eventStore, snapshotStore, 5, 2, 10);
+		UUID factoryId = UUID.randomUUID();
+		createFactoryWithWood(factoryId);
+		cachingRepository.findById(factoryId);
+		buyWood(factoryId);
+
+		cachingRepository.applyAppended(factoryId, 3, Collections.emptyList());
+
+		Assertions.assertEquals(3, cachingRepository.findById(factoryId).get().getVersion());
+	}
+
+	@Test
+	public void leastRecentlyUsedFactory_evicted() {
+		FactoryRepository cachingRepository = new FactoryRepository(eventStore, snapshotStore, 5, 2, 2);
+		UUID first = UUID.randomUUID();
+		UUID second = UUID.randomUUID();
+		UUID third = UUID.randomUUID();
+		createFactoryWithWood(first);
+		createFactoryWithWood(second);
+		createFactoryWithWood(third);
+		cachingRepository.findById(first);
+		cachingRepository.findById(second);
+		cachingRepository.findById(first);
+		cachingRepository.findById(third);
+
+		int readsBefore = reads.get();
+		cachingRepository.findById(first);
+		Assertions.assertEquals(readsBefore, reads.get());
+		cachingRepository.findById(second);
+		Assertions.assertEquals(readsBefore + 1, reads.get());
+	}
+
+	private void createFactoryWithWood(UUID factoryId) {
+		eventStore.handleEvent(new FactoryCreated(factoryId.toString(), LocalDateTime.now(), 1, "forester", "png", "wroclaw"));
+		eventStore.handleEvent(new ResourceStorageCapacityChanged(factoryId.toString(), LocalDateTime.now(), 1,
+																															Collections.singletonMap(Resource.WOOD, 10)
+		));
+	}
+
+	private void buyWood(UUID factoryId) {
+		eventStore.handleEvent(new ResourceBought(factoryId.toString(), LocalDateTime.now(), 1, Resource.WOOD.name(), 1));
+	}
 
-}
\ No newline at end of file
+}
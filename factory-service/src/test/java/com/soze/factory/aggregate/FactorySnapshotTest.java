@@ -0,0 +1,61 @@
+package com.soze.factory.aggregate;
+
+import com.soze.common.dto.Resource;
+import com.soze.common.json.JsonUtils;
+import com.soze.factory.event.FactoryCreated;
+import com.soze.factory.event.ProductionLineAdded2;
+import com.soze.factory.event.ProductionStarted2;
+import com.soze.factory.event.ResourceBought;
+import com.soze.factory.event.ResourceStorageCapacityChanged;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.UUID;
+
+class FactorySnapshotTest {
+
+	@Test
+	public void snapshot_restoresFactory() {
+		Factory factory = createFactory();
+
+		FactorySnapshot snapshot = JsonUtils.parse(JsonUtils.serialize(factory.toSnapshot()), FactorySnapshot.class);
+		Factory restored = new Factory(snapshot);
+
+		Assertions.assertEquals(factory.getId(), restored.getId());
+		Assertions.assertEquals(factory.getName(), restored.getName());
+		Assertions.assertEquals(factory.getCityId(), restored.getCityId());
+		Assertions.assertEquals(factory.getVersion(), restored.getVersion());
+		Assertions.assertEquals(factory.getStorage().getCapacityTaken(Resource.WOOD), restored.getStorage().getCapacityTaken(Resource.WOOD));
+		Assertions.assertEquals(factory.getStorage().getPrices(), restored.getStorage().getPrices());
+		Assertions.assertEquals(factory.getProducer().getOutput(), restored.getProducer().getOutput());
+		Assertions.assertTrue(restored.getProducer().isProducing());
+		Assertions.assertEquals(factory.getProducer().getProductionStartTime(), restored.getProducer().getProductionStartTime());
+	}
+
+	@Test
+	public void snapshot_isIndependentOfFactory() {
+		Factory factory = createFactory();
+		FactorySnapshot snapshot = factory.toSnapshot();
+
+		factory.apply(new ResourceBought(factory.getId().toString(), LocalDateTime.now(), 1, Resource.WOOD.name(), 3));
+
+		Assertions.assertEquals(5, snapshot.version);
+		Assertions.assertEquals(2, snapshot.storage.get(Resource.WOOD).getCount());
+	}
+
+	private Factory createFactory() {
+		String id = UUID.randomUUID().toString();
+		Factory factory = new Factory(new FactoryCreated(id, LocalDateTime.now(), 1, "Forester", "png", "Warsaw"));
+		factory.apply(new ResourceStorageCapacityChanged(id, LocalDateTime.now(), 1, Collections.singletonMap(Resource.WOOD, 10)));
+		factory.apply(new ProductionLineAdded2(id, LocalDateTime.now(), 1, new HashMap<>(),
+																					Collections.singletonMap(Resource.WOOD, 1), 60
+		));
+		factory.apply(new ResourceBought(id, LocalDateTime.now(), 1, Resource.WOOD.name(), 2));
+		factory.apply(new ProductionStarted2(id, LocalDateTime.now(), 1, 1000L));
+		return factory;
+	}
+
+}
@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.test.context.ActiveProfiles;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -122,4 +123,67 @@ class FactoryStorageTest {
 		Assertions.assertEquals(Resource.WOOD.getMinPrice(), (int) factoryStorage.getPrices().get(Resource.WOOD));
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void capacityChangedToZero_resourceRemoved() {
+		Map<Resource, StorageSlot> resources = new HashMap<>();
+		resources.put(Resource.WOOD, new StorageSlot(0, 5, 0));
+		resources.put(Resource.STONE, new StorageSlot(0, 10, 0));
+		FactoryStorage factoryStorage = new FactoryStorage(resources);
+		factoryStorage.addResource(Resource.WOOD, 3);
+
+		factoryStorage.changeCapacities(Collections.singletonMap(Resource.WOOD, -5));
+
+		Assertions.assertFalse(factoryStorage.getResources().containsKey(Resource.WOOD));
+		Assertions.assertFalse(factoryStorage.getPrices().containsKey(Resource.WOOD));
+		Assertions.assertEquals(0, factoryStorage.getCapacityTaken(Resource.WOOD));
+		Assertions.assertEquals(Collections.singletonMap(Resource.STONE, 10), factoryStorage.getCapacities());
+	}
+
+	@Test
+	public void copy_independentOfOriginal() {
+		Map<Resource, StorageSlot> resources = new HashMap<>();
+		resources.put(Resource.WOOD, new StorageSlot(0, 10, 0));
+		FactoryStorage factoryStorage = new FactoryStorage(resources);
+
+		FactoryStorage copy = factoryStorage.copy();
+		copy.addResource(Resource.WOOD, 10);
+
+		Assertions.assertEquals(0, factoryStorage.getCapacityTaken(Resource.WOOD));
+		Assertions.assertEquals(Resource.WOOD.getMaxPrice(), factoryStorage.getPrice(Resource.WOOD));
+		Assertions.assertEquals(Resource.WOOD.getMinPrice(), copy.getPrice(Resource.WOOD));
+	}
+
+	@Test
+	public void priceChangesAfter_sameAsChangedCopy() {
+		Map<Resource, StorageSlot> resources = new HashMap<>();
+		resources.put(Resource.WOOD, new StorageSlot(0, 10, 0));
+		resources.put(Resource.PLANK, new StorageSlot(0, 10, 0));
+		FactoryStorage factoryStorage = new FactoryStorage(resources);
+		factoryStorage.addResource(Resource.PLANK, 5);
+		Map<Resource, Integer> knownPrices = factoryStorage.getPrices();
+		Map<Resource, Integer> output = new HashMap<>();
+		output.put(Resource.WOOD, 4);
+		output.put(Resource.PLANK, 1);
+
+		Map<Resource, Integer> priceChanges = factoryStorage.getPriceChangesAfter(output, knownPrices);
+
+		FactoryStorage copy = factoryStorage.copy();
+		copy.addResources(output);
+		Assertions.assertEquals(copy.getPriceChanges(knownPrices), priceChanges);
+		Assertions.assertEquals(copy.getPrices().get(Resource.WOOD), priceChanges.get(Resource.WOOD));
+		Assertions.assertEquals(knownPrices, factoryStorage.getPrices());
+		Assertions.assertEquals(0, factoryStorage.getCapacityTaken(Resource.WOOD));
+	}
+
+	@Test
+	public void priceChangesAfter_emptyWhenPriceDoesNotMove() {
+		Map<Resource, StorageSlot> resources = new HashMap<>();
+		resources.put(Resource.WOOD, new StorageSlot(0, 100, 0));
+		FactoryStorage factoryStorage = new FactoryStorage(resources);
+
+		Map<Resource, Integer> priceChanges = factoryStorage.getPriceChangesAfter(Resource.WOOD, 1, factoryStorage.getPrices());
+
+		Assertions.assertTrue(priceChanges.isEmpty());
+	}
+
+}
@@ -0,0 +1,123 @@
+package com.soze.factory.aggregate;
+
+import com.soze.common.dto.Resource;
+import com.soze.factory.command.*;
+import com.soze.factory.event.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+class FactoryTest {
+
+	@Test
+	public void trade_priceEventHoldsOnlyChangedPrices() {
+		Factory factory = createFactory();
+		applyAll(factory, factory.visit(new BuyResource(factory.getId(), Resource.WOOD, 1)));
+
+		List<Event> events = factory.visit(new BuyResource(factory.getId(), Resource.WOOD, 50));
+
+		Assertions.assertEquals(2, events.size());
+		ResourcePriceChanged2 priceChanged = (ResourcePriceChanged2) events.get(1);
+		Assertions.assertEquals(Collections.singletonMap(Resource.WOOD, 4), priceChanged.prices);
+		Assertions.assertEquals(factory.getVersion() + 2, priceChanged.version);
+	}
+
+	@Test
+	public void trade_noPriceEventWhenPricesDidNotChange() {
+		Factory factory = createFactory();
+		applyAll(factory, factory.visit(new BuyResource(factory.getId(), Resource.WOOD, 1)));
+
+		List<Event> events = factory.visit(new SellResource(factory.getId(), Resource.WOOD, 1));
+
+		Assertions.assertEquals(1, events.size());
+		Assertions.assertEquals(Event.EventType.RESOURCE_SOLD, events.get(0).getType());
+	}
+
+	@Test
+	public void firstTrade_announcesPricesOfAllStoredResources() {
+		Factory factory = createFactory();
+
+		List<Event> events = factory.visit(new BuyResource(factory.getId(), Resource.WOOD, 1));
+
+		ResourcePriceChanged2 priceChanged = (ResourcePriceChanged2) events.get(1);
+		Assertions.assertEquals(factory.getStorage().getPrices().keySet(), priceChanged.prices.keySet());
+	}
+
+	@Test
+	public void catchUp_allMissedCyclesInOneEvent() {
+		Factory factory = createProducingFactory(50);
+
+		List<Event> events = factory.visit(new CatchUpProduction(factory.getId(), minutes(3) + minutes(1) / 2));
+
+		ProductionCyclesCompleted cyclesCompleted = (ProductionCyclesCompleted) events.get(0);
+		Assertions.assertEquals(3, cyclesCompleted.cycles);
+		Assertions.assertEquals(Collections.singletonMap(Resource.WOOD, 6), cyclesCompleted.consumed);
+		Assertions.assertEquals(Collections.singletonMap(Resource.PLANK, 3), cyclesCompleted.produced);
+		Assertions.assertEquals(minutes(3), cyclesCompleted.productionStartTime);
+		applyAll(factory, events);
+		Assertions.assertEquals(42, factory.getStorage().getCapacityTaken(Resource.WOOD));
+		Assertions.assertEquals(3, factory.getStorage().getCapacityTaken(Resource.PLANK));
+		Assertions.assertEquals(minutes(3), factory.getProducer().getProductionStartTime());
+	}
+
+	@Test
+	public void catchUp_stopsWhenInputRunsOut() {
+		Factory factory = createProducingFactory(10);
+
+		List<Event> events = factory.visit(new CatchUpProduction(factory.getId(), minutes(20)));
+		applyAll(factory, events);
+
+		ProductionCyclesCompleted cyclesCompleted = (ProductionCyclesCompleted) events.get(0);
+		Assertions.assertEquals(5, cyclesCompleted.cycles);
+		Assertions.assertEquals(-1, cyclesCompleted.productionStartTime);
+		Assertions.assertEquals(0, factory.getStorage().getCapacityTaken(Resource.WOOD));
+		Assertions.assertEquals(5, factory.getStorage().getCapacityTaken(Resource.PLANK));
+		Assertions.assertFalse(factory.getProducer().isProducing());
+	}
+
+	@Test
+	public void catchUp_singleCycle_finishesProduction() {
+		Factory factory = createProducingFactory(10);
+
+		List<Event> events = factory.visit(new CatchUpProduction(factory.getId(), minutes(1)));
+
+		Assertions.assertEquals(Event.EventType.PRODUCTION_FINISHED, events.get(0).getType());
+		Assertions.assertTrue(factory.visit(new CatchUpProduction(factory.getId(), minutes(1) - 1)).isEmpty());
+	}
+
+	private Factory createProducingFactory(int wood) {
+		Factory factory = createFactory();
+		applyAll(factory, factory.visit(new BuyResource(factory.getId(), Resource.WOOD, wood)));
+		applyAll(factory, factory.visit(new AddProductionLine(factory.getId(), Collections.singletonMap(Resource.WOOD, 2),
+																													Collections.singletonMap(Resource.PLANK, 1), 1
+		)));
+		applyAll(factory, factory.visit(new StartProduction(factory.getId(), 0)));
+		return factory;
+	}
+
+	private long minutes(long minutes) {
+		return TimeUnit.MINUTES.toMillis(minutes);
+	}
+
+	private Factory createFactory() {
+		String id = UUID.randomUUID().toString();
+		Map<Resource, Integer> capacities = new HashMap<>();
+		capacities.put(Resource.WOOD, 100);
+		capacities.put(Resource.PLANK, 100);
+		Factory factory = new Factory(new FactoryCreated(id, LocalDateTime.now(), 1, "Saw mill", "png", "Opole"));
+		factory.apply(new ResourceStorageCapacityChanged(id, LocalDateTime.now(), 2, capacities));
+		return factory;
+	}
+
+	private void applyAll(Factory factory, List<Event> events) {
+		events.forEach(factory::apply);
+	}
+
+}
@@ -0,0 +1,99 @@
+package com.soze.factory.benchmark;
+
+import com.soze.common.dto.Resource;
+import com.soze.factory.event.*;
+import com.soze.factory.store.EventFormat;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding and decoding of a typical replay (a factory history dominated by trades and production)
+ * in the json and binary event formats. Total payload size of each format is logged during setup.
+ * Run with {@code main} from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventCodecBenchmark {
+
+	private static final Logger LOG = LoggerFactory.getLogger(EventCodecBenchmark.class);
+
+	@Param({"JSON", "BINARY"})
+	public EventFormat format;
+
+	private List<Event> events;
+	private List<byte[]> encoded;
+
+	@Setup
+	public void setup() {
+		events = createHistory(200);
+		encoded = new ArrayList<>(events.size());
+		long bytes = 0;
+		for (Event event : events) {
+			byte[] payload = format.encode(event);
+			bytes += payload.length;
+			encoded.add(payload);
+		}
+		LOG.info("{}: {} events, {} bytes", format, events.size(), bytes);
+	}
+
+	@Benchmark
+	public int encode() {
+		int size = 0;
+		for (Event event : events) {
+			size += format.encode(event).length;
+		}
+		return size;
+	}
+
+	@Benchmark
+	public List<Event> decode() {
+		List<Event> decoded = new ArrayList<>(encoded.size());
+		for (byte[] payload : encoded) {
+			decoded.add(EventFormat.decode(payload));
+		}
+		return decoded;
+	}
+
+	static List<Event> createHistory(int trades) {
+		String id = UUID.randomUUID().toString();
+		LocalDateTime now = LocalDateTime.now();
+		Map<Resource, Integer> capacities = new HashMap<>();
+		capacities.put(Resource.WOOD, 50);
+		capacities.put(Resource.PLANK, 50);
+		Map<Resource, Integer> input = Collections.singletonMap(Resource.WOOD, 2);
+		Map<Resource, Integer> output = Collections.singletonMap(Resource.PLANK, 1);
+		Map<Resource, Integer> priceChange = Collections.singletonMap(Resource.WOOD, 4);
+
+		List<Event> events = new ArrayList<>();
+		events.add(new FactoryCreated(id, now, 1, "Saw mill", "saw_mill.png", UUID.randomUUID().toString()));
+		events.add(new ResourceStorageCapacityChanged(id, now, 1, capacities));
+		events.add(new ProductionLineAdded2(id, now, 1, input, output, 60));
+		for (int i = 0; i < trades; i++) {
+			events.add(new ResourceBought(id, now, 1, Resource.WOOD.name(), 2));
+			events.add(new ResourcePriceChanged2(id, now, 1, priceChange));
+			events.add(new ProductionStarted2(id, now, 1, System.currentTimeMillis()));
+			events.add(new ProductionFinished(id, now, 1));
+			events.add(new ResourceSold(id, now, 1, Resource.PLANK.name(), 1));
+		}
+		return events;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder().include(EventCodecBenchmark.class.getSimpleName()).build();
+		new Runner(options).run();
+	}
+
+}
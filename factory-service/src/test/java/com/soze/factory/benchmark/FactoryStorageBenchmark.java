@@ -0,0 +1,98 @@
+package com.soze.factory.benchmark;
+
+import com.soze.common.dto.Resource;
+import com.soze.factory.aggregate.FactoryStorage;
+import com.soze.factory.aggregate.StorageSlot;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the storage operations behind the hottest commands: buying and selling a resource
+ * (check, then prices after the trade for the price event, evaluated without changing the storage)
+ * and a production cycle of a saw mill (take input, add output).
+ * Run with {@code main} from the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FactoryStorageBenchmark {
+
+	private static final Resource[] RESOURCES = Resource.values();
+
+	/**
+	 * Large enough for the produce benchmark to never fill the storage within an iteration.
+	 */
+	private static final int CAPACITY = 500000000;
+
+	private final Map<Resource, Integer> input = Collections.singletonMap(Resource.WOOD, 2);
+	private final Map<Resource, Integer> output = Collections.singletonMap(Resource.PLANK, 1);
+
+	private final Map<Resource, Integer> knownPrices = new EnumMap<>(Resource.class);
+
+	private FactoryStorage storage;
+
+	@Setup(Level.Iteration)
+	public void setup() {
+		Map<Resource, StorageSlot> slots = new EnumMap<>(Resource.class);
+		slots.put(Resource.WOOD, new StorageSlot(0, CAPACITY, 0));
+		slots.put(Resource.PLANK, new StorageSlot(0, CAPACITY, 0));
+		storage = new FactoryStorage(slots);
+		storage.addResource(Resource.WOOD, 100);
+		storage.addResource(Resource.PLANK, 100);
+		knownPrices.putAll(storage.getPrices());
+	}
+
+	@Benchmark
+	public Map<Resource, Integer> buy() {
+		if (!storage.canFit(Resource.WOOD, 2)) {
+			return null;
+		}
+		return storage.getPriceChangesAfter(Resource.WOOD, 2, knownPrices);
+	}
+
+	@Benchmark
+	public Map<Resource, Integer> sell() {
+		if (!storage.hasResource(Resource.PLANK, 1)) {
+			return null;
+		}
+		return storage.getPriceChangesAfter(Resource.PLANK, -1, knownPrices);
+	}
+
+	@Benchmark
+	public int produce() {
+		storage.addResources(input);
+		if (storage.hasResources(input) && storage.canFit(output)) {
+			storage.removeResources(input);
+			storage.addResources(output);
+		}
+		return storage.getCapacityTaken(Resource.PLANK);
+	}
+
+	@Benchmark
+	public int query() {
+		int remaining = 0;
+		for (Resource resource : RESOURCES) {
+			if (storage.hasResource(resource)) {
+				remaining += storage.getRemainingCapacity(resource) + storage.getPrice(resource);
+			}
+		}
+		return remaining;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder().include(FactoryStorageBenchmark.class.getSimpleName()).build();
+		new Runner(options).run();
+	}
+
+}
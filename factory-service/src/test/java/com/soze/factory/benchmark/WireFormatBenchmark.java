@@ -0,0 +1,107 @@
+package com.soze.factory.benchmark;
+
+import com.soze.factory.event.Event;
+import com.soze.factory.service.WireFormat;
+import com.soze.factory.service.WireMessage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Compares WebSocket frames of a broadcast tick (trades and production of several factories) in the json text
+ * and the binary wire format, as sent and after permessage-deflate. Frame sizes of each format are logged
+ * during setup. Every invocation encodes fresh messages, so serialization is part of the measured time.
+ * Run with {@code main} from the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WireFormatBenchmark {
+
+	private static final Logger LOG = LoggerFactory.getLogger(WireFormatBenchmark.class);
+
+	private static final int FACTORIES = 20;
+
+	@Param({"JSON", "BINARY"})
+	public WireFormat format;
+
+	private List<Event> tick;
+	private final byte[] deflated = new byte[1 << 20];
+
+	@Setup
+	public void setup() {
+		tick = new ArrayList<>();
+		for (int i = 0; i < FACTORIES; i++) {
+			tick.addAll(EventCodecBenchmark.createHistory(2));
+		}
+		byte[] frame = bytes(format.encode(messages()));
+		LOG.info("{}: {} messages, {} bytes, {} bytes deflated", format, tick.size(), frame.length, deflate(frame));
+	}
+
+	@Benchmark
+	public int encode() {
+		return bytes(format.encode(messages())).length;
+	}
+
+	@Benchmark
+	public int encodeAndDeflate() {
+		return deflate(bytes(format.encode(messages())));
+	}
+
+	private List<WireMessage> messages() {
+		List<WireMessage> messages = new ArrayList<>(tick.size());
+		for (int i = 0; i < tick.size(); i++) {
+			messages.add(new WireMessage(i + 1, tick.get(i)));
+		}
+		return messages;
+	}
+
+	/**
+	 * Compresses the frame the way permessage-deflate does, without a context shared between frames.
+	 */
+	private int deflate(byte[] frame) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			deflater.setInput(frame);
+			deflater.finish();
+			int size = 0;
+			while (!deflater.finished()) {
+				size += deflater.deflate(deflated);
+			}
+			return size;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] bytes(WebSocketMessage<?> message) {
+		if (message instanceof TextMessage) {
+			return ((TextMessage) message).asBytes();
+		}
+		ByteBuffer payload = ((ByteBuffer) message.getPayload()).duplicate();
+		byte[] bytes = new byte[payload.remaining()];
+		payload.get(bytes);
+		return bytes;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder().include(WireFormatBenchmark.class.getSimpleName()).build();
+		new Runner(options).run();
+	}
+
+}
@@ -0,0 +1,138 @@
+package com.soze.factory.cluster;
+
+import com.soze.factory.event.Event;
+import com.soze.factory.event.FactoryCreated;
+import com.soze.factory.event.ResourceBought;
+import com.soze.factory.service.FactoryService;
+import com.soze.factory.store.InMemoryEventStore;
+import com.soze.factory.store.PositionedEvent;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class ClusterEventRelayTest {
+
+	/**
+	 * Factories owned by another instance.
+	 */
+	private final Set<UUID> foreign = new HashSet<>();
+	private final List<Event> relayed = new ArrayList<>();
+
+	private LoggedEventStore eventStore;
+	private ClusterEventRelay relay;
+
+	@BeforeEach
+	public void setup() {
+		eventStore = new LoggedEventStore();
+		FactoryService factoryService = mock(FactoryService.class);
+		doAnswer(invocation -> relayed.add(invocation.getArgument(0))).when(factoryService).relay(any());
+		relay = new ClusterEventRelay(eventStore, new FactoryOwnership() {
+			@Override
+			public boolean isOwner(UUID factoryId) {
+				return !foreign.contains(factoryId);
+			}
+
+			@Override
+			public Optional<URI> getOwnerUri(UUID factoryId) {
+				return Optional.empty();
+			}
+		}, factoryService, 2);
+	}
+
+	@Test
+	public void relaysOnlyEventsOfForeignFactories() {
+		relay.start();
+		createFactory();
+		UUID other = createFactory();
+		foreign.add(other);
+
+		relay.relay();
+
+		Assertions.assertEquals(1, relayed.size());
+		Assertions.assertEquals(other.toString(), relayed.get(0).entityId);
+	}
+
+	@Test
+	public void skipsEventsAppendedBeforeStart() {
+		UUID before = createFactory();
+		foreign.add(before);
+		relay.start();
+		buy(before, 2);
+
+		relay.relay();
+
+		Assertions.assertEquals(1, relayed.size());
+		Assertions.assertTrue(relayed.get(0) instanceof ResourceBought);
+	}
+
+	@Test
+	public void relaysInBatches_continuesAfterLastRelayedEvent() {
+		relay.start();
+		UUID factoryId = createFactory();
+		foreign.add(factoryId);
+		IntStream.rangeClosed(2, 5).forEach(version -> buy(factoryId, version));
+
+		relay.relay();
+		Assertions.assertEquals(2, relayed.size());
+		relay.relay();
+		relay.relay();
+		relay.relay();
+
+		Assertions.assertEquals(5, relayed.size());
+		for (int i = 0; i < relayed.size(); i++) {
+			Assertions.assertEquals(i + 1, relayed.get(i).version);
+		}
+	}
+
+	private UUID createFactory() {
+		UUID id = UUID.randomUUID();
+		eventStore.append(id, 0, Collections.singletonList(
+			new FactoryCreated(id.toString(), LocalDateTime.now(), 1, "Saw mill", "png", "Opole")));
+		return id;
+	}
+
+	private void buy(UUID factoryId, int version) {
+		eventStore.append(factoryId, version - 1, Collections.singletonList(
+			new ResourceBought(factoryId.toString(), LocalDateTime.now(), version, "WOOD", 1)));
+	}
+
+	/**
+	 * Keeps events in append order, the way stores shared between instances do.
+	 */
+	private static final class LoggedEventStore extends InMemoryEventStore {
+
+		private final List<Event> log = new ArrayList<>();
+
+		@Override
+		public synchronized void append(UUID entityId, long expectedVersion, List<Event> newEvents) {
+			super.append(entityId, expectedVersion, newEvents);
+			log.addAll(newEvents);
+		}
+
+		@Override
+		public synchronized Stream<PositionedEvent> streamAll(long fromPosition) {
+			List<PositionedEvent> events = new ArrayList<>();
+			for (int position = (int) fromPosition; position < log.size(); position++) {
+				events.add(new PositionedEvent(position, log.get(position)));
+			}
+			return events.stream();
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+package com.soze.factory.cluster;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+class ConsistentHashRingTest {
+
+	private final List<UUID> factoryIds = new ArrayList<>();
+
+	{
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			factoryIds.add(new UUID(random.nextLong(), random.nextLong()));
+		}
+	}
+
+	@Test
+	public void factoriesSpreadOverAllInstances() {
+		ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("a", "b", "c", "d"), 128);
+
+		Map<String, Integer> counts = new HashMap<>();
+		factoryIds.forEach(id -> counts.merge(ring.owner(id), 1, Integer::sum));
+
+		Assertions.assertEquals(4, counts.size());
+		counts.values().forEach(count -> Assertions.assertTrue(count > 1800 && count < 3200, "unbalanced " + counts));
+	}
+
+	@Test
+	public void sameInstances_sameOwners() {
+		ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("a", "b", "c"), 64);
+		ConsistentHashRing otherRing = new ConsistentHashRing(Arrays.asList("c", "a", "b"), 64);
+
+		factoryIds.forEach(id -> Assertions.assertEquals(ring.owner(id), otherRing.owner(id)));
+	}
+
+	@Test
+	public void instanceJoins_onlyItsShareMovesToIt() {
+		ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("a", "b", "c"), 128);
+		ConsistentHashRing joined = new ConsistentHashRing(Arrays.asList("a", "b", "c", "d"), 128);
+
+		int moved = 0;
+		for (UUID id : factoryIds) {
+			if (!ring.owner(id).equals(joined.owner(id))) {
+				Assertions.assertEquals("d", joined.owner(id));
+				moved++;
+			}
+		}
+		Assertions.assertTrue(moved > 1800 && moved < 3200, "moved " + moved);
+	}
+
+	@Test
+	public void instanceLeaves_onlyItsFactoriesMove() {
+		ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("a", "b", "c"), 128);
+		ConsistentHashRing left = new ConsistentHashRing(Arrays.asList("a", "c"), 128);
+
+		for (UUID id : factoryIds) {
+			if (!ring.owner(id).equals("b")) {
+				Assertions.assertEquals(ring.owner(id), left.owner(id));
+			}
+		}
+	}
+
+	@Test
+	public void noInstances_noOwner() {
+		Assertions.assertNull(new ConsistentHashRing(Collections.emptyList(), 16).owner(UUID.randomUUID()));
+	}
+
+}
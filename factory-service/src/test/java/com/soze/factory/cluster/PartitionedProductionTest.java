@@ -0,0 +1,257 @@
+package com.soze.factory.cluster;
+
+import com.soze.common.dto.Clock;
+import com.soze.common.dto.Resource;
+import com.soze.factory.aggregate.Factory;
+import com.soze.factory.command.Command;
+import com.soze.factory.command.StartProduction;
+import com.soze.factory.event.*;
+import com.soze.factory.repository.FactoryRepository;
+import com.soze.factory.service.FactoryCommandService;
+import com.soze.factory.service.FactoryProductionScheduler;
+import com.soze.factory.store.InMemoryEventStore;
+import com.soze.factory.store.InMemorySnapshotStore;
+import com.soze.factory.world.RemoteWorldService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Several instances sharing one event store, each running its own production scheduler
+ * for the factories it owns. Game time runs fast, so a production cycle takes a few dozen milliseconds.
+ */
+class PartitionedProductionTest {
+
+	private static final int FACTORIES = 60;
+	private static final int CYCLES = 10;
+	private static final long CYCLE_MILLIS = 30;
+	private static final long MULTIPLIER = TimeUnit.MINUTES.toMillis(1) / CYCLE_MILLIS;
+
+	private final InMemoryEventStore eventStore = new InMemoryEventStore();
+	private final InMemorySnapshotStore snapshotStore = new InMemorySnapshotStore();
+	private final EventUpcastService upcaster = new EventUpcastService();
+	private final Clock clock = new Clock(MULTIPLIER, System.currentTimeMillis());
+	private final List<UUID> factoryIds = new ArrayList<>();
+	private final List<Instance> instances = new ArrayList<>();
+
+	/**
+	 * Instances which sent a command to each factory.
+	 */
+	private final Map<UUID, Set<String>> commandingInstances = new ConcurrentHashMap<>();
+
+	@BeforeEach
+	public void setup() {
+		upcaster.setup();
+		for (int i = 0; i < FACTORIES; i++) {
+			factoryIds.add(createFactory());
+		}
+	}
+
+	@AfterEach
+	public void cleanup() throws InterruptedException {
+		for (Instance instance : instances) {
+			instance.scheduler.stop();
+		}
+	}
+
+	@Test
+	public void stableMembership_everyFactoryDrivenByItsOwnerOnly() throws Exception {
+		ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("a", "b", "c"), 64);
+
+		start("a", ring);
+		start("b", ring);
+		start("c", ring);
+
+		awaitProduced(CYCLES);
+		assertProducedExactly(CYCLES);
+		for (UUID factoryId : factoryIds) {
+			Assertions.assertEquals(Collections.singleton(ring.owner(factoryId)), commandingInstances.get(factoryId));
+		}
+	}
+
+	@Test
+	public void instanceJoins_noDoubleProduction() throws Exception {
+		ConsistentHashRing before = new ConsistentHashRing(Arrays.asList("a", "b", "c"), 64);
+		ConsistentHashRing after = new ConsistentHashRing(Arrays.asList("a", "b", "c", "d"), 64);
+		Instance a = start("a", before);
+		Instance b = start("b", before);
+		Instance c = start("c", before);
+		Thread.sleep(2 * CYCLE_MILLIS);
+
+		// the new instance sees itself on the ring a few cycles before the others notice it, so for a while
+		// both the old and the new owner drive the moved factories
+		start("d", after);
+		Thread.sleep(2 * CYCLE_MILLIS);
+		a.changeRing(after);
+		b.changeRing(after);
+		c.changeRing(after);
+
+		awaitProduced(CYCLES);
+		assertProducedExactly(CYCLES);
+		long moved = factoryIds.stream().filter(id -> "d".equals(after.owner(id))).count();
+		Assertions.assertTrue(moved > 0);
+		for (UUID factoryId : factoryIds) {
+			Assertions.assertTrue(commandingInstances.get(factoryId).contains(after.owner(factoryId)));
+		}
+	}
+
+	private Instance start(String instanceId, ConsistentHashRing ring) {
+		Instance instance = new Instance(instanceId, ring);
+		instances.add(instance);
+		instance.scheduler.scheduleFactories();
+		return instance;
+	}
+
+	/**
+	 * Waits until every factory went through all its cycles, or gives up after a generous timeout.
+	 */
+	private void awaitProduced(int cycles) throws InterruptedException {
+		FactoryRepository repository = new FactoryRepository(eventStore, new InMemorySnapshotStore(), 1000, 100, 0);
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+		while (System.currentTimeMillis() < deadline) {
+			boolean done = factoryIds.stream().map(repository::findById).map(Optional::get).allMatch(
+				factory -> !factory.getProducer().isProducing() &&
+									 factory.getStorage().getCapacityTaken(Resource.PLANK) == cycles);
+			if (done) {
+				return;
+			}
+			Thread.sleep(CYCLE_MILLIS);
+		}
+	}
+
+	/**
+	 * Every cycle was started and completed exactly once, one after the other, and nothing else was produced.
+	 */
+	private void assertProducedExactly(int cycles) {
+		FactoryRepository repository = new FactoryRepository(eventStore, new InMemorySnapshotStore(), 1000, 100, 0);
+		for (UUID factoryId : factoryIds) {
+			boolean producing = false;
+			int completed = 0;
+			for (Event event : eventStore.getEventsForEntity(factoryId)) {
+				if (event instanceof ProductionStarted2) {
+					Assertions.assertFalse(producing, "started twice " + factoryId);
+					producing = true;
+				} else if (event instanceof ProductionFinished) {
+					Assertions.assertTrue(producing, "finished twice " + factoryId);
+					producing = false;
+					completed++;
+				} else if (event instanceof ProductionCyclesCompleted) {
+					Assertions.assertTrue(producing, "finished twice " + factoryId);
+					producing = ((ProductionCyclesCompleted) event).productionStartTime >= 0;
+					completed += ((ProductionCyclesCompleted) event).cycles;
+				}
+			}
+			Assertions.assertFalse(producing);
+			Assertions.assertEquals(cycles, completed);
+			Factory factory = repository.findById(factoryId).get();
+			Assertions.assertEquals(0, factory.getStorage().getCapacityTaken(Resource.WOOD));
+			Assertions.assertEquals(cycles, factory.getStorage().getCapacityTaken(Resource.PLANK));
+		}
+	}
+
+	private UUID createFactory() {
+		UUID id = UUID.randomUUID();
+		String entityId = id.toString();
+		Map<Resource, Integer> capacities = new HashMap<>();
+		capacities.put(Resource.WOOD, 100);
+		capacities.put(Resource.PLANK, 100);
+		eventStore.append(id, 0, Arrays.asList(
+			new FactoryCreated(entityId, LocalDateTime.now(), 1, "Saw mill", "png", "Opole"),
+			new ResourceStorageCapacityChanged(entityId, LocalDateTime.now(), 2, capacities),
+			new ProductionLineAdded2(entityId, LocalDateTime.now(), 3, Collections.singletonMap(Resource.WOOD, 2),
+															 Collections.singletonMap(Resource.PLANK, 1), 1
+			),
+			new ResourceBought(entityId, LocalDateTime.now(), 4, Resource.WOOD.name(), 2 * CYCLES)
+		));
+		return id;
+	}
+
+	/**
+	 * One factory-service instance, with its own cache, command service, scheduler and view of the ring.
+	 * Events of its commands are only published to its own scheduler, the way they are within one application.
+	 */
+	private final class Instance {
+
+		private final String instanceId;
+		private final RingOwnership ownership;
+		private final FactoryRepository repository;
+		private final FactoryProductionScheduler scheduler;
+
+		private Instance(String instanceId, ConsistentHashRing ring) {
+			this.instanceId = instanceId;
+			this.ownership = new RingOwnership(instanceId, ring);
+			this.repository = new FactoryRepository(eventStore, snapshotStore, 5, 100, 1000, ownership);
+			FactoryCommandService commandService = new FactoryCommandService(
+				repository, mock(RemoteWorldService.class), new EventBus(this::publish, upcaster), eventStore, 5) {
+				@Override
+				public CompletableFuture<List<Event>> submit(Command command) {
+					record(command);
+					return super.submit(command);
+				}
+
+				@Override
+				public List<Event> visit(StartProduction startProduction) {
+					record(startProduction);
+					return super.visit(startProduction);
+				}
+			};
+			this.scheduler = new FactoryProductionScheduler(commandService, repository, clock, ownership, 5, 64, 100);
+		}
+
+		private void changeRing(ConsistentHashRing ring) {
+			FactoryOwnershipChanged ownershipChanged = new FactoryOwnershipChanged(instanceId, ownership.ring, ring);
+			ownership.ring = ring;
+			repository.handleOwnershipChanged(ownershipChanged);
+			scheduler.handleOwnershipChanged(ownershipChanged);
+		}
+
+		private void record(Command command) {
+			commandingInstances.computeIfAbsent(command.getEntityId(), id -> ConcurrentHashMap.newKeySet()).add(instanceId);
+		}
+
+		/**
+		 * Delivers events to the scheduler listeners which production events reach.
+		 */
+		private void publish(Object event) {
+			if (event instanceof ProductionStarted2) {
+				scheduler.handleProductionStarted((ProductionStarted2) event);
+			} else if (event instanceof ProductionCyclesCompleted) {
+				scheduler.handleProductionCyclesCompleted((ProductionCyclesCompleted) event);
+			} else if (event instanceof ProductionFinished) {
+				scheduler.handleProductionFinished((ProductionFinished) event);
+			}
+		}
+	}
+
+	private static final class RingOwnership implements FactoryOwnership {
+
+		private final String instanceId;
+		private volatile ConsistentHashRing ring;
+
+		private RingOwnership(String instanceId, ConsistentHashRing ring) {
+			this.instanceId = instanceId;
+			this.ring = ring;
+		}
+
+		@Override
+		public boolean isOwner(UUID factoryId) {
+			return instanceId.equals(ring.owner(factoryId));
+		}
+
+		@Override
+		public Optional<URI> getOwnerUri(UUID factoryId) {
+			return Optional.empty();
+		}
+	}
+
+}
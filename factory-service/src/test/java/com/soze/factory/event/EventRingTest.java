@@ -0,0 +1,148 @@
+package com.soze.factory.event;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+class EventRingTest {
+
+	private EventRing ring;
+
+	@AfterEach
+	public void cleanup() throws InterruptedException {
+		ring.stop(1000);
+	}
+
+	@Test
+	public void eventsOfAggregate_deliveredInOrder() throws Exception {
+		int aggregates = 12;
+		int eventsPerAggregate = 2000;
+		Map<String, List<Integer>> delivered = new ConcurrentHashMap<>();
+		CountDownLatch done = new CountDownLatch(aggregates * eventsPerAggregate);
+		ring = new EventRing(64, 4, event -> {
+			Event e = (Event) event;
+			delivered.computeIfAbsent(e.entityId, id -> Collections.synchronizedList(new ArrayList<>())).add(e.version);
+			done.countDown();
+		});
+		ring.start();
+
+		List<Thread> producers = new ArrayList<>();
+		for (int p = 0; p < 3; p++) {
+			List<String> ids = new ArrayList<>();
+			for (int i = 0; i < aggregates / 3; i++) {
+				ids.add(UUID.randomUUID().toString());
+			}
+			producers.add(new Thread(() -> {
+				for (int version = 1; version <= eventsPerAggregate; version++) {
+					for (String id : ids) {
+						ring.publish(new ProductionFinished(id, LocalDateTime.now(), version));
+					}
+				}
+			}));
+		}
+		producers.forEach(Thread::start);
+
+		Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+		Assertions.assertEquals(aggregates, delivered.size());
+		for (List<Integer> versions : delivered.values()) {
+			Assertions.assertEquals(eventsPerAggregate, versions.size());
+			for (int i = 0; i < versions.size(); i++) {
+				Assertions.assertEquals(i + 1, (int) versions.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void laneThread_publishingIntoFullRing_doesNotBlock() throws Exception {
+		List<Object> delivered = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch done = new CountDownLatch(9);
+		ring = new EventRing(2, 1, new Consumer<Object>() {
+			@Override
+			public void accept(Object event) {
+				delivered.add(event);
+				if ("first".equals(event)) {
+					for (int i = 0; i < 8; i++) {
+						ring.publish(i);
+					}
+				}
+				done.countDown();
+			}
+		});
+		ring.start();
+
+		ring.publish("first");
+
+		Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+		Assertions.assertEquals(9, delivered.size());
+	}
+
+	@Test
+	public void idleLanes_blockUntilPublished() throws Exception {
+		List<Object> delivered = Collections.synchronizedList(new ArrayList<>());
+		ring = new EventRing(8, 2, delivered::add);
+		ring.start();
+
+		Set<String> laneStates = new HashSet<>();
+		for (int i = 0; i < 100 && !laneStates.equals(Collections.singleton("WAITING")); i++) {
+			Thread.sleep(10);
+			laneStates.clear();
+			for (Thread thread : Thread.getAllStackTraces().keySet()) {
+				if (thread.getName().startsWith("event-bus-")) {
+					laneStates.add(thread.getState().name());
+				}
+			}
+		}
+		Assertions.assertEquals(Collections.singleton("WAITING"), laneStates);
+
+		ring.publish("event");
+		for (int i = 0; i < 100 && delivered.isEmpty(); i++) {
+			Thread.sleep(10);
+		}
+		Assertions.assertEquals(Collections.singletonList("event"), delivered);
+	}
+
+	@Test
+	public void producer_blockedOnFullRing_resumesWhenLaneCatchesUp() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(20);
+		ring = new EventRing(2, 1, event -> {
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			done.countDown();
+		});
+		ring.start();
+		Thread producer = new Thread(() -> {
+			for (int i = 0; i < 20; i++) {
+				ring.publish(i);
+			}
+		});
+		producer.start();
+
+		for (int i = 0; i < 100 && producer.getState() != Thread.State.WAITING; i++) {
+			Thread.sleep(10);
+		}
+		Assertions.assertEquals(Thread.State.WAITING, producer.getState());
+
+		release.countDown();
+		Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void sizeNotPowerOfTwo_rejected() {
+		ring = new EventRing(8, 1, event -> {
+		});
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new EventRing(100, 1, event -> {
+		}));
+	}
+
+}
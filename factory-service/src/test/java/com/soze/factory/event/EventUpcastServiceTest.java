@@ -0,0 +1,60 @@
+package com.soze.factory.event;
+
+import com.soze.common.dto.Resource;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.EnumSet;
+
+class EventUpcastServiceTest {
+
+	private EventUpcastService upcaster;
+
+	@BeforeEach
+	public void setup() {
+		upcaster = new EventUpcastService();
+		upcaster.setup();
+	}
+
+	@Test
+	public void legacyEvent_upcastToLatestVersion() {
+		ProductionStarted productionStarted = new ProductionStarted(
+			"id", LocalDateTime.now(), 1, Resource.WOOD, 150L);
+
+		Event event = upcaster.upcast(productionStarted);
+
+		Assertions.assertEquals(Event.EventType.PRODUCTION_STARTED2, event.getType());
+		Assertions.assertEquals(150L, ((ProductionStarted2) event).productionStartTime);
+		Assertions.assertEquals("id", event.entityId);
+	}
+
+	@Test
+	public void currentEvent_returnedAsIs() {
+		ProductionStarted2 productionStarted = new ProductionStarted2("id", LocalDateTime.now(), 1, 150L);
+
+		Assertions.assertSame(productionStarted, upcaster.upcast(productionStarted));
+		Assertions.assertTrue(upcaster.isCurrent(Event.EventType.PRODUCTION_STARTED2));
+	}
+
+	@Test
+	public void legacyPriceEvent_upcastToPriceChangesOfAllResources() {
+		ResourcePriceChanged resourcePriceChanged = new ResourcePriceChanged(
+			"id", LocalDateTime.now(), 4, Collections.singletonMap(Resource.WOOD, 5));
+
+		ResourcePriceChanged2 event = (ResourcePriceChanged2) upcaster.upcast(resourcePriceChanged);
+
+		Assertions.assertEquals(Collections.singletonMap(Resource.WOOD, 5), event.prices);
+		Assertions.assertEquals(4, event.version);
+	}
+
+	@Test
+	public void legacyTypes() {
+		Assertions.assertEquals(EnumSet.of(Event.EventType.PRODUCTION_STARTED, Event.EventType.STORAGE_CAPACITY_CHANGED,
+																			 Event.EventType.PRODUCTION_LINE_ADDED, Event.EventType.RESOURCE_PRICE_CHANGED
+		), upcaster.getLegacyTypes());
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.soze.factory.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.soze.common.dto.FactoryDTO;
+import com.soze.common.dto.Resource;
+import com.soze.common.json.JsonUtils;
+import com.soze.common.message.server.FactoryAdded;
+import com.soze.factory.event.Event;
+import com.soze.factory.event.ResourcePriceChanged2;
+import com.soze.factory.event.ResourceSold;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+class BinaryFrameCodecTest {
+
+	private final String id = UUID.randomUUID().toString();
+	private final LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+
+	@Test
+	public void eventsAndMessages_roundTrip() {
+		FactoryDTO factory = new FactoryDTO();
+		factory.setId(id);
+		List<WireMessage> messages = Arrays.asList(
+			new WireMessage(7, new ResourceSold(id, now, 2, Resource.WOOD.name(), 3)),
+			new WireMessage(8, new FactoryAdded(factory)),
+			new WireMessage(300, new ResourcePriceChanged2(id, now, 3, Collections.singletonMap(Resource.PLANK, 6)))
+		);
+
+		List<WireMessage> decoded = BinaryFrameCodec.decode(BinaryFrameCodec.encode(messages));
+
+		Assertions.assertEquals(3, decoded.size());
+		Assertions.assertEquals(7, decoded.get(0).getPosition());
+		ResourceSold resourceSold = (ResourceSold) decoded.get(0).getMessage();
+		Assertions.assertEquals(id, resourceSold.entityId);
+		Assertions.assertEquals(now, resourceSold.timestamp);
+		Assertions.assertEquals(3, resourceSold.count);
+		Assertions.assertEquals(8, decoded.get(1).getPosition());
+		JsonNode factoryAdded = JsonUtils.parse(decoded.get(1).getJson(), JsonNode.class);
+		Assertions.assertEquals("FACTORY_ADDED", factoryAdded.get("type").asText());
+		Assertions.assertEquals(8, factoryAdded.get("position").asLong());
+		Assertions.assertEquals(300, decoded.get(2).getPosition());
+		Assertions.assertEquals(6, ((ResourcePriceChanged2) decoded.get(2).getMessage()).prices.get(Resource.PLANK).intValue());
+	}
+
+	@Test
+	public void events_smallerThanJsonFrame() {
+		List<WireMessage> messages = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			Event event = new ResourceSold(id, now, i + 2, Resource.WOOD.name(), 1);
+			messages.add(new WireMessage(i + 1, event));
+		}
+
+		int binary = BinaryFrameCodec.encode(messages).length;
+		int json = ((String) WireFormat.JSON.encode(messages).getPayload()).length();
+
+		Assertions.assertTrue(binary * 3 < json, "binary " + binary + " json " + json);
+	}
+
+	@Test
+	public void otherFormat_rejected() {
+		Assertions.assertThrows(IllegalArgumentException.class, () -> BinaryFrameCodec.decode("[]".getBytes()));
+	}
+
+}
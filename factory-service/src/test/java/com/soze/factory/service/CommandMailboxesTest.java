@@ -0,0 +1,168 @@
+package com.soze.factory.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class CommandMailboxesTest {
+
+	private final AtomicInteger rejected = new AtomicInteger();
+	private CommandMailboxes mailboxes;
+
+	@AfterEach
+	public void tearDown() throws InterruptedException {
+		if (mailboxes != null) {
+			mailboxes.stop(1000);
+		}
+	}
+
+	@Test
+	public void tasksWithSameKey_runInSubmissionOrder() throws Exception {
+		mailboxes = start(4, 1000);
+		List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+		List<CompletableFuture<Integer>> results = new ArrayList<>();
+
+		for (int i = 0; i < 500; i++) {
+			int task = i;
+			results.add(mailboxes.submit("factory", () -> {
+				order.add(task);
+				return task;
+			}));
+		}
+
+		for (int i = 0; i < results.size(); i++) {
+			Assertions.assertEquals(i, (int) results.get(i).get(5, TimeUnit.SECONDS));
+			Assertions.assertEquals(i, (int) order.get(i));
+		}
+	}
+
+	@Test
+	public void tasksWithDifferentKeys_runInParallel() throws Exception {
+		mailboxes = start(2, 10);
+		String first = "a";
+		String second = keyOfOtherWorker(first, 2);
+		CountDownLatch bothRunning = new CountDownLatch(2);
+
+		CompletableFuture<Boolean> firstResult = mailboxes.submit(first, () -> meet(bothRunning));
+		CompletableFuture<Boolean> secondResult = mailboxes.submit(second, () -> meet(bothRunning));
+
+		Assertions.assertTrue(firstResult.get(5, TimeUnit.SECONDS));
+		Assertions.assertTrue(secondResult.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void fullMailbox_rejected() throws Exception {
+		mailboxes = start(1, 1);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch running = new CountDownLatch(1);
+		CompletableFuture<Boolean> blocking = mailboxes.submit("a", () -> {
+			running.countDown();
+			return waitFor(release);
+		});
+		running.await(5, TimeUnit.SECONDS);
+		CompletableFuture<Integer> queued = mailboxes.submit("a", () -> 1);
+
+		CompletableFuture<Integer> overflow = mailboxes.submit("a", () -> 2);
+
+		ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> overflow.get(5, TimeUnit.SECONDS));
+		Assertions.assertTrue(e.getCause() instanceof RejectedExecutionException);
+		Assertions.assertEquals(1, rejected.get());
+		Assertions.assertEquals(1, mailboxes.size());
+		release.countDown();
+		Assertions.assertTrue(blocking.get(5, TimeUnit.SECONDS));
+		Assertions.assertEquals(1, (int) queued.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void taskSubmittedFromItsOwnWorker_runsInline() throws Exception {
+		mailboxes = start(1, 1);
+
+		CompletableFuture<Integer> result = mailboxes.submit("a", () -> mailboxes.submit("a", () -> 5).join() + 1);
+
+		Assertions.assertEquals(6, (int) result.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void taskOfOtherKeySubmittedFromWorker_queuedBehindWaitingTasks() throws Exception {
+		mailboxes = start(1, 10);
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch release = new CountDownLatch(1);
+		List<CompletableFuture<Boolean>> nested = new ArrayList<>();
+		CompletableFuture<Boolean> first = mailboxes.submit("a", () -> {
+			waitFor(release);
+			order.add("a");
+			nested.add(mailboxes.submit("b", () -> order.add("b2")));
+			return order.add("a done");
+		});
+		CompletableFuture<Boolean> queued = mailboxes.submit("b", () -> order.add("b1"));
+
+		release.countDown();
+
+		Assertions.assertTrue(first.get(5, TimeUnit.SECONDS));
+		Assertions.assertTrue(queued.get(5, TimeUnit.SECONDS));
+		Assertions.assertTrue(nested.get(0).get(5, TimeUnit.SECONDS));
+		Assertions.assertEquals(Arrays.asList("a", "a done", "b1", "b2"), order);
+	}
+
+	@Test
+	public void failedTask_completesExceptionally() {
+		mailboxes = start(1, 1);
+
+		CompletableFuture<Integer> result = mailboxes.submit("a", () -> {
+			throw new IllegalStateException("failed");
+		});
+
+		ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+		Assertions.assertTrue(e.getCause() instanceof IllegalStateException);
+	}
+
+	@Test
+	public void invalidSizes() {
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new CommandMailboxes(0, 1, rejected::incrementAndGet));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new CommandMailboxes(1, 0, rejected::incrementAndGet));
+	}
+
+	private CommandMailboxes start(int workers, int mailboxSize) {
+		CommandMailboxes mailboxes = new CommandMailboxes(workers, mailboxSize, rejected::incrementAndGet);
+		mailboxes.start();
+		return mailboxes;
+	}
+
+	/**
+	 * Finds a key which goes to another worker than the given one, by checking which thread runs it.
+	 */
+	private String keyOfOtherWorker(String key, int workers) throws Exception {
+		Thread worker = mailboxes.submit(key, Thread::currentThread).get(5, TimeUnit.SECONDS);
+		for (int i = 0; i < workers * 100; i++) {
+			String other = key + i;
+			if (mailboxes.submit(other, Thread::currentThread).get(5, TimeUnit.SECONDS) != worker) {
+				return other;
+			}
+		}
+		throw new IllegalStateException("All keys go to one worker");
+	}
+
+	/**
+	 * Waits until all parties reached the latch.
+	 */
+	private static boolean meet(CountDownLatch latch) {
+		latch.countDown();
+		return waitFor(latch);
+	}
+
+	private static boolean waitFor(CountDownLatch latch) {
+		try {
+			return latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
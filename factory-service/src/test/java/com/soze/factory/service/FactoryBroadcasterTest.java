@@ -0,0 +1,396 @@
+package com.soze.factory.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.soze.common.dto.Resource;
+import com.soze.common.json.JsonUtils;
+import com.soze.factory.event.ResourceBought;
+import com.soze.factory.event.ResourcePriceChanged2;
+import com.soze.factory.event.ResourceSold;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+class FactoryBroadcasterTest {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private SocketSessionContainer sessions;
+	private TestWebSocketSession session;
+
+	@BeforeEach
+	public void setup() {
+		sessions = new SocketSessionContainer(meterRegistry, false, 1, 100, OverflowPolicy.DISCONNECT);
+		session = new TestWebSocketSession();
+	}
+
+	@Test
+	public void noTick_everyMessageSentRightAway() {
+		FactoryBroadcaster broadcaster = new FactoryBroadcaster(sessions, meterRegistry, 0);
+		broadcaster.addSession(session);
+
+		broadcaster.broadcast("factory", "city", new ResourceSold("factory", LocalDateTime.now(), 2, Resource.WOOD.name(), 1));
+		broadcaster.broadcast("city", prices("factory", 3, Resource.WOOD, 5));
+
+		Assertions.assertEquals(2, session.getMessages().size());
+		Assertions.assertEquals("RESOURCE_SOLD", parse(0).get("type").asText());
+	}
+
+	@Test
+	public void messagesOfTick_sentAsOneArrayFrame() {
+		FactoryBroadcaster broadcaster = new FactoryBroadcaster(sessions, meterRegistry, 50);
+		broadcaster.addSession(session);
+
+		broadcaster.broadcast("factory", "city", new ResourceSold("factory", LocalDateTime.now(), 2, Resource.WOOD.name(), 1));
+		broadcaster.broadcast("factory", "city", new ResourceBought("factory", LocalDateTime.now(), 3, Resource.PLANK.name(), 1));
+		Assertions.assertTrue(session.getMessages().isEmpty());
+		broadcaster.flush();
+
+		Assertions.assertEquals(1, session.getMessages().size());
+		JsonNode frame = parse(0);
+		Assertions.assertTrue(frame.isArray());
+		Assertions.assertEquals("RESOURCE_SOLD", frame.get(0).get("type").asText());
+		Assertions.assertEquals("RESOURCE_BOUGHT", frame.get(1).get("type").asText());
+	}
+
+	@Test
+	public void priceChangesOfTick_mergedPerFactory() {
+		FactoryBroadcaster broadcaster = new FactoryBroadcaster(sessions, meterRegistry, 50);
+		broadcaster.addSession(session);
+
+		broadcaster.broadcast("city", prices("factory", 2, Resource.WOOD, 5));
+		broadcaster.broadcast("city", prices("other", 2, Resource.WOOD, 7));
+		broadcaster.broadcast("factory", "city", new ResourceBought("factory", LocalDateTime.now(), 3, Resource.PLANK.name(), 1));
+		broadcaster.broadcast("city", prices("factory", 4, Resource.PLANK, 6));
+		broadcaster.broadcast("city", prices("factory", 5, Resource.WOOD, 4));
+		broadcaster.flush();
+
+		JsonNode frame = parse(0);
+		Assertions.assertEquals(3, frame.size());
+		Assertions.assertEquals("other", frame.get(0).get("entityId").asText());
+		Assertions.assertEquals("RESOURCE_BOUGHT", frame.get(1).get("type").asText());
+		JsonNode merged = frame.get(2);
+		Assertions.assertEquals("factory", merged.get("entityId").asText());
+		Assertions.assertEquals(5, merged.get("version").asInt());
+		Assertions.assertEquals(4, merged.get("prices").get("WOOD").asInt());
+		Assertions.assertEquals(6, merged.get("prices").get("PLANK").asInt());
+	}
+
+	@Test
+	public void newSession_doesNotGetMessagesBufferedBeforeIt() {
+		FactoryBroadcaster broadcaster = new FactoryBroadcaster(sessions, meterRegistry, 50);
+		broadcaster.broadcast("factory", "city", new ResourceSold("factory", LocalDateTime.now(), 2, Resource.WOOD.name(), 1));
+
+		broadcaster.addSession(session);
+		broadcaster.flush();
+
+		Assertions.assertTrue(session.getMessages().isEmpty());
+	}
+
+	@Test
+	public void subscribedSession_getsOnlyItsCityAndFactories() {
+		FactoryBroadcaster broadcaster = new FactoryBroadcaster(sessions, meterRegistry, 50);
+		broadcaster.addSession(session);
+		NamedSession viewer = new NamedSession("viewer");
+		broadcaster.addSession(viewer);
+		broadcaster.subscribe("viewer", Interest.of(Collections.singleton("Wroclaw"), Collections.singleton("factory")),
+													previous -> Collections.emptyList()
+		);
+
+		broadcaster.broadcast("factory", "Warsaw", new ResourceSold("factory", LocalDateTime.now(), 2, Resource.WOOD.name(), 1));
+		broadcaster.broadcast("other", "Wroclaw", new ResourceSold("other", LocalDateTime.now(), 2, Resource.WOOD.name(), 1));
+		broadcaster.broadcast("third", "Opole", new ResourceSold("third", LocalDateTime.now(), 2, Resource.WOOD.name(), 1));
+		broadcaster.flush();
+
+		Assertions.assertEquals(3, parse(0).size());
+		JsonNode frame = JsonUtils.parse(viewer.getMessages().get(0), JsonNode.class);
+		Assertions.assertEquals(2, frame.size());
+		Assertions.assertEquals("factory", frame.get(0).get("entityId").asText());
+		Assertions.assertEquals("other", frame.get(1).get("entityId").asText());
+	}
+
+	@Test
+	public void subscribedSession_nothingOfInterest_noFrame() {
+		FactoryBroadcaster broadcaster = new FactoryBroadcaster(sessions, meterRegistry, 0);
+		broadcaster.addSession(session);
+		broadcaster.subscribe("session", Interest.of(Collections.singleton("Wroclaw"), Collections.emptySet()),
+													previous -> Collections.emptyList()
+		);
+
+		broadcaster.broadcast("factory", "Warsaw", new ResourceSold("factory", LocalDateTime.now(), 2, Resource.WOOD.name(), 1));
+
+		Assertions.assertTrue(session.getMessages().isEmpty());
+	}
+
+	@Test
+	public void subscription_catchUpForPreviousInterest() {
+		FactoryBroadcaster broadcaster = new FactoryBroadcaster(sessions, meterRegistry, 50);
+		broadcaster.addSession(session);
+		Interest wroclaw = Interest.of(Collections.singleton("Wroclaw"), Collections.emptySet());
+		List<Interest> previousInterests = new ArrayList<>();
+
+		broadcaster.subscribe("session", wroclaw, previous -> {
+			previousInterests.add(previous);
+			return Collections.singletonList(new TextMessage("state"));
+		});
+		broadcaster.subscribe("session", Interest.EVERYTHING, previous -> {
+			previousInterests.add(previous);
+			return Collections.emptyList();
+		});
+
+		Assertions.assertEquals(Arrays.asList(Interest.EVERYTHING, wroclaw), previousInterests);
+		Assertions.assertEquals(Collections.singletonList("state"), session.getMessages());
+	}
+
+	@Test
+	public void messages_carryConsecutivePositions() {
+		FactoryBroadcaster broadcaster = new FactoryBroadcaster(sessions, meterRegistry, 50);
+		broadcaster.addSession(session);
+
+		broadcaster.broadcast("factory", "city", new ResourceSold("factory", LocalDateTime.now(), 2, Resource.WOOD.name(), 1));
+		broadcaster.flush();
+		broadcaster.broadcast("factory", "city", new ResourceBought("factory", LocalDateTime.now(), 3, Resource.PLANK.name(), 1));
+		broadcaster.broadcast("city", prices("factory", 4, Resource.PLANK, 6));
+		broadcaster.flush();
+
+		Assertions.assertEquals(1, parse(0).get(0).get("position").asLong());
+		Assertions.assertEquals(2, parse(1).get(0).get("position").asLong());
+		Assertions.assertEquals(3, parse(1).get(1).get("position").asLong());
+	}
+
+	@Test
+	public void connect_noEpoch_getsSnapshot() {
+		FactoryBroadcaster broadcaster = new FactoryBroadcaster(sessions, meterRegistry, 0);
+		broadcaster.broadcast("factory", "city", new ResourceSold("factory", LocalDateTime.now(), 2, Resource.WOOD.name(), 1));
+
+		broadcaster.connect(session, WireFormat.JSON, null, -1, (epoch, position) -> epoch + ":" + position);
+
+		Assertions.assertEquals(1, session.getMessages().size());
+		Assertions.assertTrue(session.getMessages().get(0).endsWith(":1"));
+	}
+
+	@Test
+	public void connect_messagesBroadcastWhileStateIsMade_sentAfterState() throws Exception {
+		FactoryBroadcaster broadcaster = new FactoryBroadcaster(sessions, meterRegistry, 0);
+		NamedSession other = new NamedSession("other");
+		broadcaster.addSession(other);
+
+		broadcaster.connect(session, WireFormat.JSON, null, -1, (epoch, position) -> {
+			Thread broadcasting = new Thread(() -> broadcaster.broadcast(
+				"factory", "city", new ResourceSold("factory", LocalDateTime.now(), 2, Resource.WOOD.name(), 1)));
+			broadcasting.start();
+			try {
+				broadcasting.join(5000);
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+			Assertions.assertFalse(broadcasting.isAlive(), "broadcasting waited for the state");
+			return "state:" + position;
+		});
+
+		Assertions.assertEquals(1, other.getMessages().size());
+		Assertions.assertEquals(2, session.getMessages().size());
+		Assertions.assertEquals("state:0", session.getMessages().get(0));
+		Assertions.assertEquals(1, parse(1).get(0).get("position").asLong());
+	}
+
+	@Test
+	public void connect_sessionClosedWhileStateIsMade_notAdded() {
+		FactoryBroadcaster broadcaster = new FactoryBroadcaster(sessions, meterRegistry, 0);
+		TestWebSocketSession closed = new TestWebSocketSession() {
+			@Override
+			public boolean isOpen() {
+				return false;
+			}
+		};
+
+		broadcaster.connect(closed, WireFormat.JSON, null, -1, (epoch, position) -> "state");
+
+		Assertions.assertTrue(closed.getMessages().isEmpty());
+		Assertions.assertTrue(sessions.getAllSessions().isEmpty());
+	}
+
+	@Test
+	public void connect_sameEpoch_getsOnlyMissedMessages() {
+		FactoryBroadcaster broadcaster = new FactoryBroadcaster(sessions, meterRegistry, 0);
+		broadcaster.connect(session, WireFormat.JSON, null, -1, (epoch, position) -> epoch);
+		String epoch = session.getMessages().get(0);
+		for (int version = 2; version < 5; version++) {
+			broadcaster.broadcast("factory", "city", new ResourceSold("factory", LocalDateTime.now(), version, Resource.WOOD.name(), 1));
+		}
+		NamedSession reconnected = new NamedSession("reconnected");
+
+		broadcaster.connect(reconnected, WireFormat.JSON, epoch, 1, (otherEpoch, position) -> "snapshot");
+
+		Assertions.assertEquals(1, reconnected.getMessages().size());
+		JsonNode frame = JsonUtils.parse(reconnected.getMessages().get(0), JsonNode.class);
+		Assertions.assertEquals(2, frame.size());
+		Assertions.assertEquals(2, frame.get(0).get("position").asLong());
+		Assertions.assertEquals(4, frame.get(1).get("version").asInt());
+	}
+
+	@Test
+	public void connect_sameEpochNothingMissed_getsNothing() {
+		FactoryBroadcaster broadcaster = new FactoryBroadcaster(sessions, meterRegistry, 0);
+		broadcaster.connect(session, WireFormat.JSON, null, -1, (epoch, position) -> epoch);
+		String epoch = session.getMessages().get(0);
+		broadcaster.broadcast("factory", "city", new ResourceSold("factory", LocalDateTime.now(), 2, Resource.WOOD.name(), 1));
+		NamedSession reconnected = new NamedSession("reconnected");
+
+		broadcaster.connect(reconnected, WireFormat.JSON, epoch, 1, (otherEpoch, position) -> "snapshot");
+
+		Assertions.assertTrue(reconnected.getMessages().isEmpty());
+	}
+
+	@Test
+	public void connect_missedMessagesNoLongerKept_getsSnapshot() {
+		FactoryBroadcaster broadcaster = new FactoryBroadcaster(sessions, meterRegistry, 0, 2);
+		broadcaster.connect(session, WireFormat.JSON, null, -1, (epoch, position) -> epoch);
+		String epoch = session.getMessages().get(0);
+		for (int version = 2; version < 6; version++) {
+			broadcaster.broadcast("factory", "city", new ResourceSold("factory", LocalDateTime.now(), version, Resource.WOOD.name(), 1));
+		}
+		NamedSession reconnected = new NamedSession("reconnected");
+
+		broadcaster.connect(reconnected, WireFormat.JSON, epoch, 1, (otherEpoch, position) -> "snapshot " + position);
+
+		Assertions.assertEquals(Collections.singletonList("snapshot 4"), reconnected.getMessages());
+	}
+
+	@Test
+	public void connect_otherEpoch_getsSnapshot() {
+		FactoryBroadcaster broadcaster = new FactoryBroadcaster(sessions, meterRegistry, 0);
+		broadcaster.broadcast("factory", "city", new ResourceSold("factory", LocalDateTime.now(), 2, Resource.WOOD.name(), 1));
+
+		broadcaster.connect(session, WireFormat.JSON, "previous run", 0, (epoch, position) -> "snapshot");
+
+		Assertions.assertEquals(Collections.singletonList("snapshot"), session.getMessages());
+	}
+
+	@Test
+	public void binarySession_getsSameTickAsBinaryFrame() {
+		FactoryBroadcaster broadcaster = new FactoryBroadcaster(sessions, meterRegistry, 50);
+		broadcaster.addSession(session);
+		BinarySession binary = new BinarySession();
+		broadcaster.addSession(binary, WireFormat.BINARY);
+		String factoryId = UUID.randomUUID().toString();
+
+		broadcaster.broadcast(factoryId, "city", new ResourceSold(factoryId, LocalDateTime.now(), 2, Resource.WOOD.name(), 1));
+		broadcaster.broadcast("city", prices(factoryId, 3, Resource.WOOD, 5));
+		broadcaster.flush();
+
+		Assertions.assertEquals(2, parse(0).size());
+		Assertions.assertEquals(1, binary.frames.size());
+		List<WireMessage> decoded = BinaryFrameCodec.decode(binary.frames.get(0));
+		Assertions.assertEquals(2, decoded.size());
+		Assertions.assertEquals(parse(0).get(1).get("position").asLong(), decoded.get(1).getPosition());
+		Assertions.assertTrue(decoded.get(0).getMessage() instanceof ResourceSold);
+	}
+
+	@Test
+	public void ticksOfSlowSession_coalesce_mergedInsteadOfDisconnecting() throws Exception {
+		SocketSessionContainer slowSessions = new SocketSessionContainer(meterRegistry, true, 1, 2, OverflowPolicy.COALESCE);
+		FactoryBroadcaster broadcaster = new FactoryBroadcaster(slowSessions, meterRegistry, 50);
+		StalledSession stalled = new StalledSession();
+		broadcaster.addSession(stalled);
+
+		for (int version = 1; version <= 6; version++) {
+			broadcaster.broadcast("factory", "city", new ResourceSold("factory", LocalDateTime.now(), version, Resource.WOOD.name(), 1));
+			broadcaster.flush();
+		}
+		stalled.release.countDown();
+		slowSessions.stop();
+
+		Assertions.assertNull(stalled.closeStatus);
+		Assertions.assertTrue(stalled.getMessages().size() <= 3);
+		List<Long> positions = new ArrayList<>();
+		for (String frame : stalled.getMessages()) {
+			for (JsonNode message : JsonUtils.parse(frame, JsonNode.class)) {
+				positions.add(message.get("position").asLong());
+			}
+		}
+		Assertions.assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L), positions);
+	}
+
+	private JsonNode parse(int index) {
+		return JsonUtils.parse(session.getMessages().get(index), JsonNode.class);
+	}
+
+	private static final class NamedSession extends TestWebSocketSession {
+
+		private final String id;
+
+		private NamedSession(String id) {
+			this.id = id;
+		}
+
+		@Override
+		public String getId() {
+			return id;
+		}
+	}
+
+	/**
+	 * Session which blocks the sender thread on the first frame until it is released.
+	 */
+	private static final class StalledSession extends TestWebSocketSession {
+
+		private final CountDownLatch release = new CountDownLatch(1);
+		private volatile CloseStatus closeStatus;
+
+		@Override
+		public void sendMessage(WebSocketMessage<?> message) throws IOException {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			super.sendMessage(message);
+		}
+
+		@Override
+		public void close(CloseStatus status) {
+			this.closeStatus = status;
+		}
+	}
+
+	private static final class BinarySession extends TestWebSocketSession {
+
+		private final List<byte[]> frames = new ArrayList<>();
+
+		@Override
+		public String getId() {
+			return "binary";
+		}
+
+		@Override
+		public void sendMessage(WebSocketMessage<?> message) {
+			ByteBuffer payload = ((BinaryMessage) message).getPayload();
+			byte[] frame = new byte[payload.remaining()];
+			payload.get(frame);
+			frames.add(frame);
+		}
+	}
+
+	private static ResourcePriceChanged2 prices(String factoryId, int version, Resource resource, int price) {
+		Map<Resource, Integer> prices = new EnumMap<>(Resource.class);
+		prices.put(resource, price);
+		return new ResourcePriceChanged2(factoryId, LocalDateTime.now(), version, prices);
+	}
+
+}
@@ -0,0 +1,241 @@
+package com.soze.factory.service;
+
+import com.soze.common.dto.CityDTO;
+import com.soze.common.dto.Resource;
+import com.soze.factory.command.BuyResource;
+import com.soze.factory.command.ChangeResourceStorageCapacity;
+import com.soze.factory.command.Command;
+import com.soze.factory.command.CommandVisitor;
+import com.soze.factory.command.CreateFactory;
+import com.soze.factory.event.Event;
+import com.soze.factory.event.EventBus;
+import com.soze.factory.event.EventUpcastService;
+import com.soze.factory.event.ResourceBought;
+import com.soze.factory.repository.FactoryRepository;
+import com.soze.factory.store.ConcurrentAppendException;
+import com.soze.factory.store.InMemoryEventStore;
+import com.soze.factory.store.InMemorySnapshotStore;
+import com.soze.factory.world.RemoteWorldService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FactoryCommandServiceTest {
+
+	private final List<Object> published = new ArrayList<>();
+
+	/**
+	 * Number of appends before which another writer sneaks in an event.
+	 */
+	private final AtomicInteger interleavedAppends = new AtomicInteger();
+
+	private final AtomicInteger appends = new AtomicInteger();
+
+	private InMemoryEventStore eventStore;
+	private FactoryRepository repository;
+	private FactoryCommandService commandService;
+
+	@BeforeEach
+	public void setup() {
+		eventStore = new InMemoryEventStore() {
+			@Override
+			public void append(UUID entityId, long expectedVersion, List<Event> events) {
+				if (interleavedAppends.getAndDecrement() > 0) {
+					int version = getEventsForEntity(entityId).size() + 1;
+					handleEvent(new ResourceBought(entityId.toString(), LocalDateTime.now(), version, Resource.WOOD.name(), 1));
+				}
+				appends.incrementAndGet();
+				super.append(entityId, expectedVersion, events);
+			}
+		};
+		EventUpcastService upcaster = new EventUpcastService();
+		upcaster.setup();
+		RemoteWorldService worldService = mock(RemoteWorldService.class);
+		when(worldService.getCityById(anyString())).thenReturn(new CityDTO());
+		repository = new FactoryRepository(eventStore, new InMemorySnapshotStore(), 50, 10, 100);
+		commandService = new FactoryCommandService(repository, worldService, new EventBus(published::add, upcaster),
+																							 eventStore, 3
+		);
+	}
+
+	@Test
+	public void eventsGetConsecutiveVersions() {
+		UUID id = createFactory();
+
+		commandService.visit(new BuyResource(id, Resource.WOOD, 2));
+
+		List<Event> events = eventStore.getEventsForEntity(id);
+		Assertions.assertEquals(4, events.size());
+		for (int i = 0; i < events.size(); i++) {
+			Assertions.assertEquals(i + 1, events.get(i).version);
+		}
+		Assertions.assertEquals(events.subList(2, 4), published);
+	}
+
+	@Test
+	public void conflictingAppend_commandHandledAgainOnLatestVersion() {
+		UUID id = createFactory();
+		interleavedAppends.set(1);
+
+		List<Event> events = commandService.visit(new BuyResource(id, Resource.WOOD, 2));
+
+		Assertions.assertEquals(2, events.size());
+		Assertions.assertEquals(4, events.get(0).version);
+		Assertions.assertEquals(5, eventStore.getEventsForEntity(id).size());
+		Assertions.assertEquals(3, repository.findById(id).get().getStorage().getCapacityTaken(Resource.WOOD));
+	}
+
+	@Test
+	public void conflictingAppend_givesUpAfterMaxAttempts() {
+		UUID id = createFactory();
+		interleavedAppends.set(3);
+
+		Assertions.assertThrows(ConcurrentAppendException.class,
+														() -> commandService.visit(new BuyResource(id, Resource.WOOD, 2)));
+		Assertions.assertEquals(5, eventStore.getEventsForEntity(id).size());
+	}
+
+	@Test
+	public void createFactory_conflictReportedAsExisting() {
+		UUID id = UUID.randomUUID();
+		interleavedAppends.set(1);
+
+		Assertions.assertThrows(IllegalStateException.class,
+														() -> commandService.visit(new CreateFactory(id, "Forester", "png", "Warsaw")));
+	}
+
+	@Test
+	public void commandsInMailboxes_handledOneAtATimeWithoutConflicts() throws Exception {
+		UUID id = createFactory();
+		EventUpcastService upcaster = new EventUpcastService();
+		upcaster.setup();
+		FactoryCommandService mailboxService = new FactoryCommandService(repository, mock(RemoteWorldService.class),
+																																		 new EventBus(event -> {}, upcaster),
+																																		 eventStore, 1, new SimpleMeterRegistry(), 4, 100
+		);
+		mailboxService.start();
+		List<CompletableFuture<List<Event>>> results = new ArrayList<>();
+
+		for (int i = 0; i < 10; i++) {
+			results.add(mailboxService.submit(new BuyResource(id, Resource.WOOD, 1)));
+		}
+
+		for (CompletableFuture<List<Event>> result : results) {
+			Assertions.assertTrue(result.get(5, TimeUnit.SECONDS).get(0) instanceof ResourceBought);
+		}
+		mailboxService.stop();
+		Assertions.assertEquals(10, repository.findById(id).get().getStorage().getCapacityTaken(Resource.WOOD));
+	}
+
+	@Test
+	public void createFactory_cityResolvedBeforeMailbox() throws Exception {
+		List<Thread> resolvingThreads = Collections.synchronizedList(new ArrayList<>());
+		RemoteWorldService worldService = new RemoteWorldService(null) {
+			@Override
+			public CityDTO getCityById(String cityId) {
+				resolvingThreads.add(Thread.currentThread());
+				return "Warsaw".equals(cityId) ? new CityDTO() : null;
+			}
+		};
+		EventUpcastService upcaster = new EventUpcastService();
+		upcaster.setup();
+		FactoryCommandService mailboxService = new FactoryCommandService(repository, worldService,
+																																		 new EventBus(event -> {}, upcaster),
+																																		 eventStore, 1, new SimpleMeterRegistry(), 1, 100
+		);
+		mailboxService.start();
+		UUID id = UUID.randomUUID();
+
+		mailboxService.submit(new CreateFactory(id, "Forester", "png", "Warsaw")).get(5, TimeUnit.SECONDS);
+		CompletableFuture<List<Event>> unknownCity = mailboxService.submit(
+			new CreateFactory(UUID.randomUUID(), "Forester", "png", "Opole"));
+		mailboxService.stop();
+
+		Assertions.assertEquals(Arrays.asList(Thread.currentThread(), Thread.currentThread()), resolvingThreads);
+		Assertions.assertTrue(repository.findById(id).isPresent());
+		ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+																									 () -> unknownCity.get(5, TimeUnit.SECONDS));
+		Assertions.assertTrue(e.getCause() instanceof IllegalArgumentException);
+	}
+
+	@Test
+	public void batch_appendedOnceWithConsecutiveVersions() {
+		UUID id = UUID.randomUUID();
+
+		List<Event> events = commandService.visitAll(Arrays.asList(
+			new CreateFactory(id, "Forester", "png", "Warsaw"),
+			new ChangeResourceStorageCapacity(id, Collections.singletonMap(Resource.WOOD, 10)),
+			new BuyResource(id, Resource.WOOD, 2)
+		));
+
+		Assertions.assertEquals(1, appends.get());
+		Assertions.assertEquals(eventStore.getEventsForEntity(id), events);
+		for (int i = 0; i < events.size(); i++) {
+			Assertions.assertEquals(i + 1, events.get(i).version);
+		}
+		Assertions.assertEquals(events, published);
+		Assertions.assertEquals(2, repository.findById(id).get().getStorage().getCapacityTaken(Resource.WOOD));
+	}
+
+	@Test
+	public void batchWithFailingCommand_nothingAppended() {
+		UUID id = createFactory();
+		appends.set(0);
+
+		Command failing = new Command() {
+			@Override
+			public UUID getEntityId() {
+				return id;
+			}
+
+			@Override
+			public List<Event> accept(CommandVisitor commandVisitor) {
+				throw new IllegalStateException("failed");
+			}
+		};
+
+		Assertions.assertThrows(IllegalStateException.class, () -> commandService.visitAll(Arrays.asList(
+			new BuyResource(id, Resource.WOOD, 2),
+			failing
+		)));
+
+		Assertions.assertEquals(0, appends.get());
+		Assertions.assertEquals(2, eventStore.getEventsForEntity(id).size());
+		Assertions.assertEquals(0, repository.findById(id).get().getStorage().getCapacityTaken(Resource.WOOD));
+	}
+
+	@Test
+	public void batchForManyFactories_rejected() {
+		UUID id = createFactory();
+
+		Assertions.assertThrows(IllegalArgumentException.class, () -> commandService.visitAll(Arrays.asList(
+			new BuyResource(id, Resource.WOOD, 2),
+			new BuyResource(UUID.randomUUID(), Resource.WOOD, 2)
+		)));
+	}
+
+	private UUID createFactory() {
+		UUID id = UUID.randomUUID();
+		commandService.visit(new CreateFactory(id, "Forester", "png", "Warsaw"));
+		commandService.visit(new ChangeResourceStorageCapacity(id, Collections.singletonMap(Resource.WOOD, 10)));
+		published.clear();
+		return id;
+	}
+
+}
@@ -0,0 +1,162 @@
+package com.soze.factory.service;
+
+import com.soze.common.dto.Clock;
+import com.soze.common.dto.Resource;
+import com.soze.factory.aggregate.Factory;
+import com.soze.factory.cluster.SingleInstanceOwnership;
+import com.soze.factory.command.CatchUpProduction;
+import com.soze.factory.command.Command;
+import com.soze.factory.command.StartProduction;
+import com.soze.factory.event.*;
+import com.soze.factory.repository.FactoryRepository;
+import com.soze.factory.store.InMemoryEventStore;
+import com.soze.factory.store.InMemorySnapshotStore;
+import com.soze.factory.world.RemoteWorldService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import static org.mockito.Mockito.mock;
+
+class FactoryProductionSchedulerTest {
+
+	private final InMemoryEventStore eventStore = new InMemoryEventStore();
+	private final EventUpcastService upcaster = new EventUpcastService();
+	private final AtomicInteger failingFinishes = new AtomicInteger();
+	private final AtomicInteger failingStarts = new AtomicInteger();
+	private final AtomicInteger finishes = new AtomicInteger();
+
+	private FactoryRepository repository;
+	private FactoryProductionScheduler scheduler;
+
+	@BeforeEach
+	public void setup() {
+		upcaster.setup();
+		repository = new FactoryRepository(eventStore, new InMemorySnapshotStore(), 50, 100, 0);
+		FactoryCommandService commandService = new FactoryCommandService(
+			repository, mock(RemoteWorldService.class), new EventBus(event -> { }, upcaster), eventStore, 5) {
+			@Override
+			public CompletableFuture<List<Event>> submit(Command command) {
+				if (command instanceof CatchUpProduction) {
+					finishes.incrementAndGet();
+				}
+				if (command instanceof CatchUpProduction && failingFinishes.getAndDecrement() > 0) {
+					CompletableFuture<List<Event>> failed = new CompletableFuture<>();
+					failed.completeExceptionally(new IllegalStateException("event store unavailable"));
+					return failed;
+				}
+				return super.submit(command);
+			}
+
+			@Override
+			public List<Event> visit(StartProduction startProduction) {
+				if (failingStarts.getAndDecrement() > 0) {
+					throw new IllegalStateException("event store unavailable");
+				}
+				return super.visit(startProduction);
+			}
+		};
+		scheduler = new FactoryProductionScheduler(commandService, repository, new Clock(1, System.currentTimeMillis()),
+																							 new SingleInstanceOwnership(), 10, 64, 40
+		);
+	}
+
+	@AfterEach
+	public void cleanup() throws InterruptedException {
+		scheduler.stop();
+	}
+
+	@Test
+	public void failedFinish_retriedUntilProductionFinishes() throws Exception {
+		failingFinishes.set(3);
+		UUID factoryId = createProducingFactory();
+
+		scheduler.scheduleFactories();
+
+		Factory factory = awaitIdle(factoryId);
+		Assertions.assertFalse(factory.getProducer().isProducing());
+		Assertions.assertEquals(1, factory.getStorage().getCapacityTaken(Resource.PLANK));
+		Assertions.assertTrue(failingFinishes.get() < 0);
+	}
+
+	@Test
+	public void failedStart_retriedUntilProductionStarts() throws Exception {
+		failingStarts.set(3);
+		UUID factoryId = createIdleFactory();
+
+		scheduler.scheduleFactories();
+
+		Factory factory = await(factoryId, f -> f.getProducer().isProducing());
+		Assertions.assertTrue(factory.getProducer().isProducing());
+		Assertions.assertTrue(failingStarts.get() < 0);
+	}
+
+	@Test
+	public void deadlineScheduledAgain_onlyLatestOneFinishes() throws Exception {
+		UUID factoryId = createProducingFactory();
+		ProductionStarted2 started = (ProductionStarted2) eventStore.getEventsForEntity(factoryId).get(4);
+		scheduler.handleProductionStarted(started);
+		scheduler.handleProductionStarted(started);
+
+		scheduler.scheduleFactories();
+
+		awaitIdle(factoryId);
+		Thread.sleep(100);
+		Assertions.assertEquals(1, finishes.get());
+	}
+
+	private Factory awaitIdle(UUID factoryId) throws InterruptedException {
+		return await(factoryId, factory -> !factory.getProducer().isProducing());
+	}
+
+	private Factory await(UUID factoryId, Predicate<Factory> condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+		Factory factory = repository.findById(factoryId).get();
+		while (!condition.test(factory) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+			factory = repository.findById(factoryId).get();
+		}
+		return factory;
+	}
+
+
+	/**
+	 * Factory which started its only possible cycle long ago, so its deadline has already passed.
+	 */
+	private UUID createProducingFactory() {
+		UUID id = createIdleFactory();
+		long productionStartTime = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(5);
+		eventStore.append(id, 4, Collections.singletonList(
+			new ProductionStarted2(id.toString(), LocalDateTime.now(), 5, productionStartTime)));
+		return id;
+	}
+
+	/**
+	 * Factory with input for one cycle, which has not started producing yet.
+	 */
+	private UUID createIdleFactory() {
+		UUID id = UUID.randomUUID();
+		String entityId = id.toString();
+		Map<Resource, Integer> capacities = new HashMap<>();
+		capacities.put(Resource.WOOD, 10);
+		capacities.put(Resource.PLANK, 10);
+		eventStore.append(id, 0, Arrays.asList(
+			new FactoryCreated(entityId, LocalDateTime.now(), 1, "Saw mill", "png", "Opole"),
+			new ResourceStorageCapacityChanged(entityId, LocalDateTime.now(), 2, capacities),
+			new ProductionLineAdded2(entityId, LocalDateTime.now(), 3, Collections.singletonMap(Resource.WOOD, 2),
+															 Collections.singletonMap(Resource.PLANK, 1), 1
+			),
+			new ResourceBought(entityId, LocalDateTime.now(), 4, Resource.WOOD.name(), 2)
+		));
+		return id;
+	}
+
+}
@@ -0,0 +1,199 @@
+package com.soze.factory.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class SessionOutboxTest {
+
+	/**
+	 * Sender tasks, only run when the test runs them, as if the sender threads were stalled until then.
+	 */
+	private final Queue<Runnable> tasks = new ArrayDeque<>();
+	private final List<Long> latencies = new ArrayList<>();
+	private final AtomicInteger dropped = new AtomicInteger();
+	private final ClosableSession session = new ClosableSession();
+
+	@Test
+	public void messages_sentInOrderBySingleTask() {
+		SessionOutbox outbox = create(10, OverflowPolicy.DISCONNECT);
+
+		outbox.offer(message("a"), null);
+		outbox.offer(message("b"), null);
+		outbox.offer(message("c"), null);
+
+		Assertions.assertEquals(1, tasks.size());
+		runTasks();
+		Assertions.assertEquals(Arrays.asList("a", "b", "c"), session.getMessages());
+		Assertions.assertEquals(3, latencies.size());
+		Assertions.assertEquals(0, outbox.size());
+	}
+
+	@Test
+	public void manyMessages_senderThreadGivenUpBetweenBatches() {
+		SessionOutbox outbox = create(1000, OverflowPolicy.DISCONNECT);
+
+		for (int i = 0; i < 100; i++) {
+			outbox.offer(message(String.valueOf(i)), null);
+		}
+		tasks.poll().run();
+
+		Assertions.assertEquals(64, session.getMessages().size());
+		Assertions.assertEquals(1, tasks.size());
+		runTasks();
+		Assertions.assertEquals(100, session.getMessages().size());
+		Assertions.assertEquals("99", session.getMessages().get(99));
+	}
+
+	@Test
+	public void dropOldest_oldestMessageDropped() {
+		SessionOutbox outbox = create(2, OverflowPolicy.DROP_OLDEST);
+
+		outbox.offer(message("a"), null);
+		outbox.offer(message("b"), null);
+		outbox.offer(message("c"), null);
+
+		runTasks();
+		Assertions.assertEquals(Arrays.asList("b", "c"), session.getMessages());
+		Assertions.assertEquals(1, dropped.get());
+		Assertions.assertNull(session.closeStatus);
+	}
+
+	@Test
+	public void coalesce_supersededMessageReplaced() {
+		SessionOutbox outbox = create(2, OverflowPolicy.COALESCE);
+
+		outbox.offer(message("price 1"), "price");
+		outbox.offer(message("bought"), null);
+		outbox.offer(message("price 2"), "price");
+
+		runTasks();
+		Assertions.assertEquals(Arrays.asList("bought", "price 2"), session.getMessages());
+		Assertions.assertEquals(1, dropped.get());
+		Assertions.assertNull(session.closeStatus);
+	}
+
+	@Test
+	public void coalesce_nothingSuperseded_disconnected() {
+		SessionOutbox outbox = create(2, OverflowPolicy.COALESCE);
+
+		outbox.offer(message("price 1"), "price");
+		outbox.offer(message("bought"), null);
+		outbox.offer(message("sold"), null);
+		outbox.offer(message("price 2"), "price");
+
+		runTasks();
+		Assertions.assertTrue(session.getMessages().isEmpty());
+		Assertions.assertEquals(CloseStatus.SESSION_NOT_RELIABLE, session.closeStatus);
+	}
+
+	@Test
+	public void coalesce_framesOfTicksMergedIntoLastQueued() {
+		SessionOutbox outbox = create(2, OverflowPolicy.COALESCE);
+
+		outbox.offer(tick(1), WireFormat.JSON, null);
+		outbox.offer(tick(2), WireFormat.JSON, null);
+		outbox.offer(tick(3), WireFormat.JSON, null);
+		outbox.offer(tick(4, 5), WireFormat.JSON, null);
+
+		Assertions.assertEquals(2, outbox.size());
+		runTasks();
+		Assertions.assertEquals(Arrays.asList("[{\"position\":1}]", "[{\"position\":2},{\"position\":3},{\"position\":4},{\"position\":5}]"),
+														session.getMessages());
+		Assertions.assertNull(session.closeStatus);
+		Assertions.assertEquals(0, dropped.get());
+	}
+
+	@Test
+	public void coalesce_frameNotMergedIntoInitialState_disconnected() {
+		SessionOutbox outbox = create(1, OverflowPolicy.COALESCE);
+
+		outbox.offerAll(Arrays.asList(message("snapshot")));
+		outbox.offer(tick(1), WireFormat.JSON, null);
+
+		runTasks();
+		Assertions.assertEquals(CloseStatus.SESSION_NOT_RELIABLE, session.closeStatus);
+	}
+
+	@Test
+	public void disconnect_slowSessionDisconnected() {
+		SessionOutbox outbox = create(1, OverflowPolicy.DISCONNECT);
+
+		outbox.offer(message("a"), null);
+		outbox.offer(message("b"), null);
+		outbox.offer(message("c"), null);
+
+		runTasks();
+		Assertions.assertTrue(session.getMessages().isEmpty());
+		Assertions.assertEquals(CloseStatus.SESSION_NOT_RELIABLE, session.closeStatus);
+		Assertions.assertEquals(0, outbox.size());
+	}
+
+	@Test
+	public void initialState_queuedRegardlessOfCapacity() {
+		SessionOutbox outbox = create(1, OverflowPolicy.DISCONNECT);
+
+		outbox.offerAll(Arrays.asList(message("a"), message("b"), message("c")));
+
+		runTasks();
+		Assertions.assertEquals(Arrays.asList("a", "b", "c"), session.getMessages());
+		Assertions.assertNull(session.closeStatus);
+	}
+
+	@Test
+	public void closed_nothingSent() {
+		SessionOutbox outbox = create(10, OverflowPolicy.DISCONNECT);
+		outbox.offer(message("a"), null);
+
+		outbox.close();
+		outbox.offer(message("b"), null);
+
+		runTasks();
+		Assertions.assertTrue(session.getMessages().isEmpty());
+	}
+
+	private SessionOutbox create(int capacity, OverflowPolicy policy) {
+		return new SessionOutbox(session, capacity, policy, tasks::add, latencies::add, dropped::incrementAndGet);
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			task.run();
+		}
+	}
+
+	private static TextMessage message(String payload) {
+		return new TextMessage(payload);
+	}
+
+	/**
+	 * Array frame of already serialized messages with the positions.
+	 */
+	private static WireFrame tick(long... positions) {
+		List<WireMessage> messages = new ArrayList<>();
+		for (long position : positions) {
+			messages.add(new WireMessage(position, "{\"position\":" + position + "}"));
+		}
+		return new WireFrame(messages, true);
+	}
+
+	private static final class ClosableSession extends TestWebSocketSession {
+
+		private CloseStatus closeStatus;
+
+		@Override
+		public void close(CloseStatus status) {
+			this.closeStatus = status;
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+package com.soze.factory.service;
+
+import com.soze.common.dto.Resource;
+import com.soze.factory.aggregate.Factory;
+import com.soze.factory.command.AddProductionLine;
+import com.soze.factory.command.BuyResource;
+import com.soze.factory.command.SellResource;
+import com.soze.factory.event.Event;
+import com.soze.factory.event.FactoryCreated;
+import com.soze.factory.event.ResourceStorageCapacityChanged;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+class StartableFactoryIndexTest {
+
+	private final Queue<Runnable> tasks = new ArrayDeque<>();
+	private final List<UUID> started = new ArrayList<>();
+	private final StartableFactoryIndex index = new StartableFactoryIndex(tasks::add, started::add);
+
+	@Test
+	public void factoryWithoutInput_notStarted() {
+		Factory factory = createSawMill();
+
+		index.update(factory);
+
+		Assertions.assertEquals(0, index.size());
+		Assertions.assertTrue(tasks.isEmpty());
+	}
+
+	@Test
+	public void factoryWhichBecameStartable_startedOnce() {
+		Factory factory = createSawMill();
+		applyAll(factory, factory.visit(new BuyResource(factory.getId(), Resource.WOOD, 10)));
+
+		index.update(factory);
+		index.update(factory);
+		runTasks();
+
+		Assertions.assertEquals(Collections.singletonList(factory.getId()), started);
+		Assertions.assertEquals(0, index.size());
+	}
+
+	@Test
+	public void factoryBlockedBeforeItsStart_notStarted() {
+		Factory factory = createSawMill();
+		applyAll(factory, factory.visit(new BuyResource(factory.getId(), Resource.WOOD, 2)));
+		index.update(factory);
+
+		applyAll(factory, factory.visit(new BuyResource(factory.getId(), Resource.PLANK, 100)));
+		index.update(factory);
+		runTasks();
+
+		Assertions.assertTrue(started.isEmpty());
+		applyAll(factory, factory.visit(new SellResource(factory.getId(), Resource.PLANK, 1)));
+		index.update(factory);
+		runTasks();
+		Assertions.assertEquals(Collections.singletonList(factory.getId()), started);
+	}
+
+	@Test
+	public void failedStart_startedAgainOnNextUpdate() {
+		List<UUID> attempts = new ArrayList<>();
+		StartableFactoryIndex failingIndex = new StartableFactoryIndex(tasks::add, id -> {
+			attempts.add(id);
+			if (attempts.size() == 1) {
+				throw new IllegalStateException("store unavailable");
+			}
+		});
+		Factory factory = createSawMill();
+		applyAll(factory, factory.visit(new BuyResource(factory.getId(), Resource.WOOD, 10)));
+
+		failingIndex.update(factory);
+		runTasks();
+		Assertions.assertEquals(0, failingIndex.size());
+		failingIndex.update(factory);
+		runTasks();
+
+		Assertions.assertEquals(Arrays.asList(factory.getId(), factory.getId()), attempts);
+	}
+
+	private Factory createSawMill() {
+		String id = UUID.randomUUID().toString();
+		Map<Resource, Integer> capacities = new HashMap<>();
+		capacities.put(Resource.WOOD, 100);
+		capacities.put(Resource.PLANK, 100);
+		Factory factory = new Factory(new FactoryCreated(id, LocalDateTime.now(), 1, "Saw mill", "png", "Opole"));
+		factory.apply(new ResourceStorageCapacityChanged(id, LocalDateTime.now(), 2, capacities));
+		applyAll(factory, factory.visit(new AddProductionLine(factory.getId(), Collections.singletonMap(Resource.WOOD, 2),
+																													Collections.singletonMap(Resource.PLANK, 1), 1
+		)));
+		return factory;
+	}
+
+	private void applyAll(Factory factory, List<Event> events) {
+		events.forEach(factory::apply);
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			task.run();
+		}
+	}
+
+}
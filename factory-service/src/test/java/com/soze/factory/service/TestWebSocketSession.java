@@ -92,7 +92,7 @@ public class TestWebSocketSession implements WebSocketSession {
 
 	@Override
 	public boolean isOpen() {
-		return false;
+		return true;
 	}
 
 	@Override
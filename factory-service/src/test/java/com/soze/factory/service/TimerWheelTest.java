@@ -0,0 +1,67 @@
+package com.soze.factory.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+class TimerWheelTest {
+
+	private final List<String> expired = new ArrayList<>();
+	private final TimerWheel<String> wheel = new TimerWheel<>(10, 8, 1000, expired::add);
+
+	@Test
+	public void timer_expiresOnTickOfDeadline() {
+		wheel.schedule("a", 1055);
+
+		wheel.advance(1059);
+		Assertions.assertTrue(expired.isEmpty());
+		wheel.advance(1060);
+		Assertions.assertEquals(Collections.singletonList("a"), expired);
+		Assertions.assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void timerSeveralRoundsAhead_expiresOnlyAfterAllRounds() {
+		wheel.schedule("far", 1000 + 8 * 10 * 3 + 20);
+		wheel.schedule("near", 1020);
+
+		wheel.advance(1000 + 8 * 10 * 3 + 19);
+		Assertions.assertEquals(Collections.singletonList("near"), expired);
+		wheel.advance(1000 + 8 * 10 * 3 + 20);
+		Assertions.assertEquals(Arrays.asList("near", "far"), expired);
+	}
+
+	@Test
+	public void pastDeadline_expiresOnNextTick() {
+		wheel.advance(1500);
+		wheel.schedule("late", 1100);
+
+		wheel.advance(1500);
+		Assertions.assertTrue(expired.isEmpty());
+		wheel.advance(1510);
+		Assertions.assertEquals(Collections.singletonList("late"), expired);
+	}
+
+	@Test
+	public void timersOfSameTick_allExpire() {
+		for (int i = 0; i < 100; i++) {
+			wheel.schedule("t" + i, 1000 + i % 7);
+		}
+		Assertions.assertEquals(100, wheel.size());
+
+		wheel.advance(1010);
+
+		Assertions.assertEquals(100, expired.size());
+		Assertions.assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void wheelSizeNotPowerOfTwo_rejected() {
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new TimerWheel<String>(10, 100, 0, expired::add));
+	}
+
+}
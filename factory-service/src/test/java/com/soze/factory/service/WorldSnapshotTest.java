@@ -0,0 +1,210 @@
+package com.soze.factory.service;
+
+import com.soze.common.dto.FactoryDTO;
+import com.soze.common.dto.Resource;
+import com.soze.common.json.JsonUtils;
+import com.soze.common.message.server.FactoriesSnapshot;
+import com.soze.common.message.server.ServerMessage;
+import com.soze.factory.FactoryConverter;
+import com.soze.factory.aggregate.Factory;
+import com.soze.factory.cluster.ConsistentHashRing;
+import com.soze.factory.cluster.FactoryOwnershipChanged;
+import com.soze.factory.event.FactoryCreated;
+import com.soze.factory.event.ResourceStorageCapacityChanged;
+import com.soze.factory.repository.FactoryRepository;
+import com.soze.factory.store.InMemoryEventStore;
+import com.soze.factory.store.InMemorySnapshotStore;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class WorldSnapshotTest {
+
+	private final AtomicInteger loads = new AtomicInteger();
+
+	private InMemoryEventStore eventStore;
+	private WorldSnapshot worldSnapshot;
+
+	@BeforeEach
+	public void setup() {
+		eventStore = new InMemoryEventStore();
+		FactoryRepository repository = new FactoryRepository(eventStore, new InMemorySnapshotStore(), 50, 10, 0) {
+			@Override
+			public Optional<Factory> findById(UUID factoryId) {
+				loads.incrementAndGet();
+				return super.findById(factoryId);
+			}
+		};
+		worldSnapshot = new WorldSnapshot(repository, new FactoryConverter());
+	}
+
+	@Test
+	public void toJson_parsesAsSnapshot() {
+		String id = createFactory("Warsaw");
+
+		ServerMessage message = JsonUtils.parse(worldSnapshot.toJson("epoch", 7), ServerMessage.class);
+
+		Assertions.assertTrue(message instanceof FactoriesSnapshot);
+		FactoriesSnapshot snapshot = (FactoriesSnapshot) message;
+		Assertions.assertEquals("epoch", snapshot.getEpoch());
+		Assertions.assertEquals(7, snapshot.getPosition());
+		Assertions.assertEquals(1, snapshot.getFactories().size());
+		Assertions.assertEquals(id, snapshot.getFactories().get(0).getId());
+		Assertions.assertEquals(1, snapshot.getFactories().get(0).getVersion());
+	}
+
+	@Test
+	public void read_onlyChangedFactoriesLoadedAgain() {
+		String changed = createFactory("Warsaw");
+		createFactory("Wroclaw");
+		worldSnapshot.getFactories();
+		int loadsAfterFirstRead = loads.get();
+
+		eventStore.handleEvent(new ResourceStorageCapacityChanged(changed, LocalDateTime.now(), 2,
+																															Collections.singletonMap(Resource.WOOD, 10)
+		));
+		worldSnapshot.changed(changed);
+		List<FactoryDTO> factories = worldSnapshot.getFactories();
+		worldSnapshot.getFactories();
+
+		Assertions.assertEquals(loadsAfterFirstRead + 1, loads.get());
+		FactoryDTO factory = factories.stream().filter(dto -> dto.getId().equals(changed)).findFirst().get();
+		Assertions.assertEquals(2, factory.getVersion());
+		Assertions.assertEquals(10, factory.getStorage().get(Resource.WOOD).getCapacity());
+	}
+
+	@Test
+	public void read_newFactoryAdded() {
+		createFactory("Warsaw");
+		worldSnapshot.getFactories();
+
+		String added = createFactory("Wroclaw");
+		worldSnapshot.changed(added);
+
+		Assertions.assertEquals(2, worldSnapshot.getFactories().size());
+	}
+
+	@Test
+	public void toJson_nothingChanged_reused() {
+		createFactory("Warsaw");
+		String first = worldSnapshot.toJson("epoch", 7);
+		int loadsAfterFirstRead = loads.get();
+
+		Assertions.assertSame(first, worldSnapshot.toJson("epoch", 7));
+		Assertions.assertEquals(loadsAfterFirstRead, loads.get());
+	}
+
+	@Test
+	public void toJson_changedFactoryPatched_othersNotLoadedAgain() {
+		String changed = createFactory("Warsaw");
+		String other = createFactory("Wroclaw");
+		worldSnapshot.toJson("epoch", 7);
+		int loadsAfterFirstRead = loads.get();
+
+		eventStore.handleEvent(new ResourceStorageCapacityChanged(changed, LocalDateTime.now(), 2,
+																															Collections.singletonMap(Resource.WOOD, 10)
+		));
+		worldSnapshot.changed(changed);
+		FactoriesSnapshot snapshot = (FactoriesSnapshot) JsonUtils.parse(worldSnapshot.toJson("epoch", 8), ServerMessage.class);
+
+		Assertions.assertEquals(loadsAfterFirstRead + 1, loads.get());
+		Assertions.assertEquals(8, snapshot.getPosition());
+		Assertions.assertEquals(2, snapshot.getFactories().size());
+		for (FactoryDTO factory : snapshot.getFactories()) {
+			Assertions.assertEquals(factory.getId().equals(changed) ? 2 : 1, factory.getVersion());
+		}
+		Assertions.assertTrue(snapshot.getFactories().stream().anyMatch(factory -> factory.getId().equals(other)));
+	}
+
+	@Test
+	public void toJson_noFactories_parsesAsEmptySnapshot() {
+		FactoriesSnapshot snapshot = (FactoriesSnapshot) JsonUtils.parse(worldSnapshot.toJson("epoch", 0), ServerMessage.class);
+
+		Assertions.assertTrue(snapshot.getFactories().isEmpty());
+	}
+
+	@Test
+	public void read_factoryLostAndRegained_loadedAgain() {
+		String id = createFactory("Warsaw");
+		worldSnapshot.getFactories();
+
+		ConsistentHashRing withOther = new ConsistentHashRing(Arrays.asList("this", "other"), 16);
+		ConsistentHashRing thisOnly = new ConsistentHashRing(Collections.singletonList("this"), 16);
+		ConsistentHashRing otherOnly = new ConsistentHashRing(Collections.singletonList("other"), 16);
+		worldSnapshot.ownershipChanged(new FactoryOwnershipChanged("this", thisOnly, otherOnly));
+		eventStore.handleEvent(new ResourceStorageCapacityChanged(id, LocalDateTime.now(), 2,
+																															Collections.singletonMap(Resource.WOOD, 10)
+		));
+		worldSnapshot.ownershipChanged(new FactoryOwnershipChanged("this", otherOnly, withOther));
+
+		Assertions.assertEquals(2, worldSnapshot.getFactories().get(0).getVersion());
+	}
+
+	@Test
+	public void newlyCovered_onlyFactoriesOfNewCitiesAndIds() {
+		String warsaw = createFactory("Warsaw");
+		createFactory("Wroclaw");
+		String opole = createFactory("Opole");
+		String listed = createFactory("Krakow");
+		Interest previous = Interest.of(Collections.singleton("Opole"), Collections.emptySet());
+		Interest interest = Interest.of(new HashSet<>(Arrays.asList("Warsaw", "Opole")), new HashSet<>(Arrays.asList(listed, opole)));
+
+		Set<String> covered = ids(worldSnapshot.getNewlyCovered(interest, previous));
+
+		Assertions.assertEquals(new HashSet<>(Arrays.asList(warsaw, listed)), covered);
+	}
+
+	@Test
+	public void newlyCovered_previouslyEverything_nothingLoaded() {
+		createFactory("Warsaw");
+		Interest interest = Interest.of(Collections.singleton("Warsaw"), Collections.emptySet());
+
+		Assertions.assertTrue(worldSnapshot.getNewlyCovered(interest, Interest.EVERYTHING).isEmpty());
+		Assertions.assertEquals(0, loads.get());
+	}
+
+	@Test
+	public void newlyCovered_onlyCoveredChangedFactoriesLoaded() {
+		String warsaw = createFactory("Warsaw");
+		String wroclaw = createFactory("Wroclaw");
+		worldSnapshot.getFactories();
+		int loadsAfterFirstRead = loads.get();
+		worldSnapshot.changed(warsaw);
+		worldSnapshot.changed(wroclaw);
+		String added = createFactory("Warsaw");
+		worldSnapshot.changed(added);
+
+		Interest interest = Interest.of(Collections.singleton("Warsaw"), Collections.emptySet());
+		Set<String> covered = ids(worldSnapshot.getNewlyCovered(interest, Interest.of(Collections.emptySet(), Collections.emptySet())));
+
+		Assertions.assertEquals(new HashSet<>(Arrays.asList(warsaw, added)), covered);
+		Assertions.assertEquals(loadsAfterFirstRead + 2, loads.get());
+		worldSnapshot.getFactories();
+		Assertions.assertEquals(loadsAfterFirstRead + 3, loads.get());
+	}
+
+	private static Set<String> ids(List<FactoryDTO> factories) {
+		Set<String> ids = new HashSet<>();
+		for (FactoryDTO factory : factories) {
+			ids.add(factory.getId());
+		}
+		return ids;
+	}
+
+	private String createFactory(String cityId) {
+		String id = UUID.randomUUID().toString();
+		eventStore.handleEvent(new FactoryCreated(id, LocalDateTime.now(), 1, "Forester", "png", cityId));
+		return id;
+	}
+
+}
@@ -0,0 +1,92 @@
+package com.soze.factory.store;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.soze.common.dto.Resource;
+import com.soze.common.json.JsonUtils;
+import com.soze.factory.event.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+class BinaryEventCodecTest {
+
+	private final String id = UUID.randomUUID().toString();
+	private final LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+
+	@Test
+	public void allEventTypes_roundTrip() {
+		Map<Resource, Integer> input = new HashMap<>();
+		input.put(Resource.WOOD, 2);
+		Map<Resource, Integer> capacities = new HashMap<>();
+		capacities.put(Resource.WOOD, -15);
+		capacities.put(Resource.PLANK, 300);
+
+		List<Event> events = Arrays.asList(
+			new FactoryCreated(id, now, 1, "Saw mill", "saw_mill.png", "Opole"),
+			new ProductionStarted(id, now, 2, Resource.STONE, 1500000L),
+			new ProductionStarted2(id, now, 3, 1500000L),
+			new StorageCapacityChanged(id, now, 4, -5),
+			new ProductionLineAdded(id, now, 5, Resource.PLANK, 3, 60L),
+			new ProductionLineAdded2(id, now, 6, input, capacities, 60L),
+			new ProductionFinished(id, now, 7),
+			new ResourceSold(id, now, 8, Resource.WOOD.name(), 12),
+			new ResourceBought(id, now, 9, Resource.STONE.name(), 7),
+			new ResourceStorageCapacityChanged(id, now, 10, capacities),
+			new ResourcePriceChanged(id, now, 11, input),
+			new ResourcePriceChanged2(id, now, 12, input),
+			new ProductionCyclesCompleted(id, now, 13, 3, input, capacities, 1234L)
+		);
+		Assertions.assertEquals(Event.EventType.values().length, events.size());
+
+		for (Event event : events) {
+			byte[] encoded = BinaryEventCodec.encode(event);
+			Assertions.assertTrue(BinaryEventCodec.isBinary(encoded));
+			Event decoded = EventFormat.decode(encoded);
+			Assertions.assertEquals(event.getType(), decoded.getType());
+			Assertions.assertEquals(toTree(event), toTree(decoded));
+		}
+	}
+
+	@Test
+	public void nullFields_roundTrip() {
+		FactoryCreated factoryCreated = new FactoryCreated(id, null, 1, null, "png", null);
+
+		FactoryCreated decoded = (FactoryCreated) BinaryEventCodec.decode(BinaryEventCodec.encode(factoryCreated));
+
+		Assertions.assertNull(decoded.timestamp);
+		Assertions.assertNull(decoded.name);
+		Assertions.assertNull(decoded.cityId);
+		Assertions.assertEquals("png", decoded.texture);
+	}
+
+	@Test
+	public void binary_smallerThanJson() {
+		ResourceSold resourceSold = new ResourceSold(id, now, 1, Resource.WOOD.name(), 5);
+
+		byte[] binary = EventFormat.BINARY.encode(resourceSold);
+		byte[] json = EventFormat.JSON.encode(resourceSold);
+
+		Assertions.assertTrue(binary.length * 3 < json.length, binary.length + " vs " + json.length);
+		Assertions.assertEquals(toTree(resourceSold), toTree(EventFormat.decode(json)));
+	}
+
+	@Test
+	public void unknownFormat_rejected() {
+		byte[] encoded = BinaryEventCodec.encode(new ProductionFinished(id, now, 1));
+		encoded[0] = 2;
+
+		Assertions.assertThrows(IllegalArgumentException.class, () -> BinaryEventCodec.decode(encoded));
+	}
+
+	private JsonNode toTree(Event event) {
+		return JsonUtils.parse(JsonUtils.serializeToBytes(event), JsonNode.class);
+	}
+
+}
@@ -0,0 +1,169 @@
+package com.soze.factory.store;
+
+import com.soze.factory.event.EventUpcastService;
+import com.soze.factory.event.FactoryCreated;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+class DBEventCursorTest {
+
+	private final EventUpcastService upcaster = new EventUpcastService();
+	private final AtomicInteger openConnections = new AtomicInteger();
+
+	private List<byte[]> rows = new ArrayList<>();
+	private boolean failRollback;
+
+	@Test
+	public void exhaustedCursor_releasesConnection() {
+		rows.add(event());
+		rows.add(event());
+
+		Stream<PositionedEvent> events = stream();
+		Assertions.assertEquals(2, events.collect(Collectors.toList()).size());
+
+		Assertions.assertEquals(0, openConnections.get());
+	}
+
+	@Test
+	public void closedTwice_releasesConnectionOnce() {
+		rows.add(event());
+		rows.add(event());
+
+		Stream<PositionedEvent> events = stream();
+		events.iterator().next();
+		Assertions.assertEquals(1, openConnections.get());
+		events.close();
+		events.close();
+
+		Assertions.assertEquals(0, openConnections.get());
+	}
+
+	@Test
+	public void failedReset_stillReleasesConnection() {
+		rows.add(event());
+		failRollback = true;
+
+		stream().close();
+
+		Assertions.assertEquals(0, openConnections.get());
+	}
+
+	@Test
+	public void unreadableRow_releasesConnection() {
+		rows.add(new byte[]{BinaryEventCodec.FORMAT_VERSION, 127});
+
+		Assertions.assertThrows(IllegalStateException.class, this::stream);
+
+		Assertions.assertEquals(0, openConnections.get());
+	}
+
+	@Test
+	public void abandonedCursor_releasedWhenNextCursorOpens() throws InterruptedException {
+		rows.add(event());
+		rows.add(event());
+		stream().iterator().next();
+		Assertions.assertEquals(1, openConnections.get());
+
+		for (int i = 0; i < 50 && openConnections.get() > 0; i++) {
+			System.gc();
+			Thread.sleep(20);
+			rows.clear();
+			stream();
+		}
+
+		Assertions.assertEquals(0, openConnections.get());
+	}
+
+	private Stream<PositionedEvent> stream() {
+		return DBEventCursor.stream(dataSource(), upcaster, 10, "SELECT");
+	}
+
+	private byte[] event() {
+		return BinaryEventCodec.encode(new FactoryCreated(UUID.randomUUID().toString(), LocalDateTime.now(), 1, "Forester",
+																											"png", "Warsaw"
+		));
+	}
+
+	private DataSource dataSource() {
+		return proxy(DataSource.class, (method, args) -> {
+			if (method.equals("getConnection")) {
+				openConnections.incrementAndGet();
+				return connection();
+			}
+			return null;
+		});
+	}
+
+	private Connection connection() {
+		List<byte[]> payloads = new ArrayList<>(rows);
+		return proxy(Connection.class, (method, args) -> {
+			switch (method) {
+				case "prepareStatement":
+					return statement(payloads);
+				case "rollback":
+					if (failRollback) {
+						throw new SQLException("connection broken");
+					}
+					return null;
+				case "close":
+					openConnections.decrementAndGet();
+					return null;
+				default:
+					return null;
+			}
+		});
+	}
+
+	private PreparedStatement statement(List<byte[]> payloads) {
+		return proxy(PreparedStatement.class, (method, args) -> {
+			if (method.equals("executeQuery")) {
+				return resultSet(payloads);
+			}
+			return null;
+		});
+	}
+
+	private ResultSet resultSet(List<byte[]> payloads) {
+		int[] row = {-1};
+		return proxy(ResultSet.class, (method, args) -> {
+			switch (method) {
+				case "next":
+					return ++row[0] < payloads.size();
+				case "getLong":
+					return (long) row[0];
+				case "getBytes":
+					return payloads.get(row[0]);
+				default:
+					return null;
+			}
+		});
+	}
+
+	private interface Handler {
+
+		Object handle(String method, Object[] args) throws Exception;
+
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, Handler handler) {
+		return (T) Proxy.newProxyInstance(DBEventCursorTest.class.getClassLoader(), new Class<?>[]{type},
+																			(proxy, method, args) -> handler.handle(method.getName(), args)
+		);
+	}
+
+}
@@ -0,0 +1,77 @@
+package com.soze.factory.store;
+
+import com.soze.factory.event.Event;
+import com.soze.factory.event.FactoryCreated;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+class EntityIdsTest {
+
+	@Test
+	public void order_sameAsStringOrder() {
+		List<UUID> ids = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			ids.add(UUID.randomUUID());
+		}
+		ids.add(new UUID(-1L, -1L));
+		ids.add(new UUID(0L, 0L));
+		ids.add(new UUID(Long.MIN_VALUE, 1L));
+
+		List<String> byOrder = ids.stream().sorted(EntityIds.ORDER).map(UUID::toString).collect(Collectors.toList());
+		List<String> byString = ids.stream().map(UUID::toString).sorted().collect(Collectors.toList());
+
+		Assertions.assertEquals(byString, byOrder);
+	}
+
+	@Test
+	public void pages_sameForSortedStoreAndDefault() {
+		InMemoryEventStore store = new InMemoryEventStore();
+		for (int i = 0; i < 95; i++) {
+			store.handleEvent(event());
+		}
+		EventStore unsorted = new EventStore() {
+			@Override
+			public void handleEvent(Event event) {
+
+			}
+
+			@Override
+			public void append(UUID entityId, long expectedVersion, List<Event> events) {
+
+			}
+
+			@Override
+			public List<Event> getEventsForEntity(UUID entityId) {
+				return new ArrayList<>();
+			}
+
+			@Override
+			public List<UUID> getAllIds() {
+				return store.getAllIds();
+			}
+
+			@Override
+			public int count() {
+				return store.count();
+			}
+		};
+
+		List<UUID> sortedPages = store.streamAllIds(10).collect(Collectors.toList());
+		List<UUID> defaultPages = unsorted.streamAllIds(10).collect(Collectors.toList());
+
+		Assertions.assertEquals(95, sortedPages.size());
+		Assertions.assertEquals(store.getAllIds().stream().sorted(EntityIds.ORDER).collect(Collectors.toList()), sortedPages);
+		Assertions.assertEquals(sortedPages, defaultPages);
+	}
+
+	private Event event() {
+		return new FactoryCreated(UUID.randomUUID().toString(), LocalDateTime.now(), 1, "Forester", "png", "Warsaw");
+	}
+
+}
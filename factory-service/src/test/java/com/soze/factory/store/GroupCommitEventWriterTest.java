@@ -0,0 +1,264 @@
+package com.soze.factory.store;
+
+import com.soze.factory.event.Event;
+import com.soze.factory.event.FactoryCreated;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class GroupCommitEventWriterTest {
+
+	private static final String INSERT_EVENT = "INSERT INTO factory.factory_event";
+	private static final String INSERT_REGISTRY = "INSERT INTO factory.factory_registry";
+
+	private final List<Integer> batches = Collections.synchronizedList(new ArrayList<>());
+	private final CountDownLatch firstBatchStarted = new CountDownLatch(1);
+	private final CountDownLatch releaseFirstBatch = new CountDownLatch(1);
+
+	/**
+	 * Last sequence of every entity in the simulated table, for tests which go through {@link #insert}.
+	 */
+	private final Map<UUID, Long> stored = new ConcurrentHashMap<>();
+
+	private JdbcTemplate jdbcTemplate;
+	private MeterRegistry meterRegistry;
+	private GroupCommitEventWriter writer;
+
+	@BeforeEach
+	public void setup() {
+		jdbcTemplate = mock(JdbcTemplate.class);
+		meterRegistry = new SimpleMeterRegistry();
+		TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+		when(jdbcTemplate.queryForObject(anyString(), eq(Long.class), any())).thenAnswer(
+			invocation -> stored.getOrDefault((UUID) invocation.getArgument(2), 0L));
+		writer = new GroupCommitEventWriter(jdbcTemplate, transactionTemplate, meterRegistry, 100, 1000, EventFormat.JSON,
+																						 1000
+		);
+		writer.start();
+	}
+
+	@AfterEach
+	public void cleanup() throws InterruptedException {
+		writer.stop();
+	}
+
+	@Test
+	public void appendsQueuedDuringCommit_areWrittenInOneBatch() throws Exception {
+		when(jdbcTemplate.batchUpdate(startsWith(INSERT_EVENT), anyList())).thenAnswer(invocation -> {
+			List<Object[]> rows = invocation.getArgument(1);
+			batches.add(rows.size());
+			firstBatchStarted.countDown();
+			releaseFirstBatch.await(5, TimeUnit.SECONDS);
+			return new int[rows.size()];
+		});
+
+		CompletableFuture<Void> first = writer.append(Collections.singletonList(event()));
+		Assertions.assertTrue(firstBatchStarted.await(5, TimeUnit.SECONDS));
+
+		List<CompletableFuture<Void>> waiting = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			waiting.add(writer.append(Arrays.asList(event(), event())));
+		}
+		Assertions.assertFalse(waiting.get(0).isDone());
+		releaseFirstBatch.countDown();
+
+		first.get(5, TimeUnit.SECONDS);
+		for (CompletableFuture<Void> future : waiting) {
+			future.get(5, TimeUnit.SECONDS);
+		}
+		Assertions.assertEquals(Arrays.asList(1, 20), batches);
+		Assertions.assertEquals(2, meterRegistry.get("factory.event-store.batch.size").summary().count());
+		Assertions.assertEquals(21, (int) meterRegistry.get("factory.event-store.batch.size").summary().totalAmount());
+		Assertions.assertEquals(2, meterRegistry.get("factory.event-store.commit.latency").timer().count());
+	}
+
+	@Test
+	public void sequencesAreAssignedPerEntity() throws Exception {
+		List<Object[]> written = Collections.synchronizedList(new ArrayList<>());
+		when(jdbcTemplate.batchUpdate(startsWith(INSERT_EVENT), anyList())).thenAnswer(invocation -> {
+			List<Object[]> rows = invocation.getArgument(1);
+			written.addAll(rows);
+			return new int[rows.size()];
+		});
+		UUID first = UUID.randomUUID();
+		UUID second = UUID.randomUUID();
+
+		writer.append(Arrays.asList(event(first), event(second), event(first))).get(5, TimeUnit.SECONDS);
+		writer.append(Collections.singletonList(event(first))).get(5, TimeUnit.SECONDS);
+
+		Assertions.assertEquals(4, written.size());
+		Assertions.assertEquals(first, written.get(0)[1]);
+		Assertions.assertEquals(1L, written.get(0)[2]);
+		Assertions.assertEquals(1L, written.get(1)[2]);
+		Assertions.assertEquals(2L, written.get(2)[2]);
+		Assertions.assertEquals(3L, written.get(3)[2]);
+	}
+
+	@Test
+	public void firstEventOfEntity_registersEntity() throws Exception {
+		List<Object[]> registered = Collections.synchronizedList(new ArrayList<>());
+		when(jdbcTemplate.batchUpdate(startsWith(INSERT_REGISTRY), anyList())).thenAnswer(invocation -> {
+			List<Object[]> rows = invocation.getArgument(1);
+			registered.addAll(rows);
+			return new int[rows.size()];
+		});
+		UUID existing = UUID.randomUUID();
+		UUID created = UUID.randomUUID();
+		when(jdbcTemplate.queryForObject(anyString(), eq(Long.class), eq(existing))).thenReturn(3L);
+
+		writer.append(Arrays.asList(event(existing), event(created), event(created))).get(5, TimeUnit.SECONDS);
+
+		Assertions.assertEquals(1, registered.size());
+		Assertions.assertEquals(created, registered.get(0)[0]);
+	}
+
+	@Test
+	public void failedCommit_failsEveryCallerInBatch() {
+		when(jdbcTemplate.batchUpdate(startsWith(INSERT_EVENT), anyList())).thenThrow(new IllegalStateException("db down"));
+
+		CompletableFuture<Void> future = writer.append(Collections.singletonList(event()));
+
+		CompletionException exception = Assertions.assertThrows(CompletionException.class, future::join);
+		Assertions.assertTrue(exception.getCause() instanceof IllegalStateException);
+	}
+
+	@Test
+	public void staleExpectedVersion_failsOnlyThatAppend() throws Exception {
+		List<Object[]> written = Collections.synchronizedList(new ArrayList<>());
+		when(jdbcTemplate.batchUpdate(startsWith(INSERT_EVENT), anyList())).thenAnswer(invocation -> {
+			List<Object[]> rows = invocation.getArgument(1);
+			written.addAll(rows);
+			return insert(rows);
+		});
+		UUID id = UUID.randomUUID();
+		UUID other = UUID.randomUUID();
+
+		writer.append(id, 0, Collections.singletonList(event(id))).get(5, TimeUnit.SECONDS);
+		CompletableFuture<Void> stale = writer.append(id, 0, Collections.singletonList(event(id)));
+		CompletableFuture<Void> current = writer.append(other, 0, Collections.singletonList(event(other)));
+
+		CompletionException exception = Assertions.assertThrows(CompletionException.class, stale::join);
+		Assertions.assertTrue(exception.getCause() instanceof ConcurrentAppendException);
+		Assertions.assertEquals(0L, ((ConcurrentAppendException) exception.getCause()).getExpectedVersion());
+		current.get(5, TimeUnit.SECONDS);
+		Assertions.assertEquals(2, written.size());
+
+		writer.append(id, 1, Collections.singletonList(event(id))).get(5, TimeUnit.SECONDS);
+		Assertions.assertEquals(2L, written.get(2)[2]);
+	}
+
+	@Test
+	public void appendsDuringStop_areWrittenOrRejected() throws Exception {
+		when(jdbcTemplate.batchUpdate(startsWith(INSERT_EVENT), anyList())).thenAnswer(invocation -> {
+			List<Object[]> rows = invocation.getArgument(1);
+			return new int[rows.size()];
+		});
+		List<CompletableFuture<Void>> futures = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch appending = new CountDownLatch(4);
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			Thread thread = new Thread(() -> {
+				appending.countDown();
+				for (int j = 0; j < 500; j++) {
+					futures.add(writer.append(Collections.singletonList(event())));
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		appending.await(5, TimeUnit.SECONDS);
+
+		writer.stop();
+		for (Thread thread : threads) {
+			thread.join(TimeUnit.SECONDS.toMillis(5));
+		}
+
+		Assertions.assertEquals(2000, futures.size());
+		for (CompletableFuture<Void> future : futures) {
+			Assertions.assertTrue(future.isDone());
+		}
+		CompletionException exception = Assertions.assertThrows(
+			CompletionException.class, () -> writer.append(Collections.singletonList(event())).join());
+		Assertions.assertTrue(exception.getCause() instanceof IllegalStateException);
+	}
+
+	@Test
+	public void rowWrittenByAnotherProcess_checkedAppendAtRealVersionSucceeds() throws Exception {
+		when(jdbcTemplate.batchUpdate(startsWith(INSERT_EVENT), anyList())).thenAnswer(
+			invocation -> insert(invocation.getArgument(1)));
+		UUID id = UUID.randomUUID();
+		writer.append(id, 0, Collections.singletonList(event(id))).get(5, TimeUnit.SECONDS);
+
+		stored.put(id, 2L);
+		writer.append(id, 2, Collections.singletonList(event(id))).get(5, TimeUnit.SECONDS);
+
+		Assertions.assertEquals(3L, (long) stored.get(id));
+		CompletionException exception = Assertions.assertThrows(
+			CompletionException.class, () -> writer.append(id, 2, Collections.singletonList(event(id))).join());
+		Assertions.assertTrue(exception.getCause() instanceof ConcurrentAppendException);
+	}
+
+	@Test
+	public void rowWrittenByAnotherProcess_uncheckedAppendRetriedWithoutFailingBatch() throws Exception {
+		when(jdbcTemplate.batchUpdate(startsWith(INSERT_EVENT), anyList())).thenAnswer(
+			invocation -> insert(invocation.getArgument(1)));
+		UUID id = UUID.randomUUID();
+		UUID other = UUID.randomUUID();
+		writer.append(Collections.singletonList(event(id))).get(5, TimeUnit.SECONDS);
+
+		stored.put(id, 2L);
+		CompletableFuture<Void> stale = writer.append(Collections.singletonList(event(id)));
+		CompletableFuture<Void> unrelated = writer.append(other, 0, Collections.singletonList(event(other)));
+
+		stale.get(5, TimeUnit.SECONDS);
+		unrelated.get(5, TimeUnit.SECONDS);
+		Assertions.assertEquals(3L, (long) stored.get(id));
+		Assertions.assertEquals(1L, (long) stored.get(other));
+	}
+
+	/**
+	 * Inserts rows into the simulated table, failing all of them if any sequence is already taken.
+	 */
+	private int[] insert(List<Object[]> rows) {
+		Map<UUID, Long> inserted = new HashMap<>();
+		for (Object[] row : rows) {
+			UUID entityId = (UUID) row[1];
+			long sequence = (Long) row[2];
+			long last = inserted.getOrDefault(entityId, stored.getOrDefault(entityId, 0L));
+			if (sequence != last + 1) {
+				throw new DuplicateKeyException("duplicate sequence " + sequence + " of " + entityId);
+			}
+			inserted.put(entityId, sequence);
+		}
+		stored.putAll(inserted);
+		return new int[rows.size()];
+	}
+
+	private Event event() {
+		return event(UUID.randomUUID());
+	}
+
+	private Event event(UUID id) {
+		return new FactoryCreated(id.toString(), LocalDateTime.now(), 1, "Forester", "png", "Warsaw");
+	}
+
+}
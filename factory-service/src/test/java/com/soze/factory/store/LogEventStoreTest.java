@@ -0,0 +1,181 @@
+package com.soze.factory.store;
+
+import com.soze.common.dto.Resource;
+import com.soze.factory.event.Event;
+import com.soze.factory.event.EventUpcastService;
+import com.soze.factory.event.FactoryCreated;
+import com.soze.factory.event.ResourceSold;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+class LogEventStoreTest {
+
+	private Path directory;
+
+	private EventUpcastService upcaster;
+
+	@BeforeEach
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory("factory-log");
+		upcaster = new EventUpcastService();
+		upcaster.setup();
+	}
+
+	@AfterEach
+	public void cleanup() throws IOException {
+		FileUtils.deleteDirectory(directory.toFile());
+	}
+
+	@Test
+	public void appendAndRead_acrossSegments() {
+		LogEventStore store = createStore(512);
+		UUID first = UUID.randomUUID();
+		UUID second = UUID.randomUUID();
+		store.handleEvent(factoryCreated(first));
+		store.handleEvent(factoryCreated(second));
+		for (int i = 0; i < 10; i++) {
+			store.handleEvent(resourceSold(first, i));
+		}
+
+		Assertions.assertTrue(directory.toFile().listFiles().length > 1);
+		List<Event> events = store.getEventsForEntity(first);
+		Assertions.assertEquals(11, events.size());
+		Assertions.assertTrue(events.get(0) instanceof FactoryCreated);
+		Assertions.assertEquals(9, ((ResourceSold) events.get(10)).count);
+		Assertions.assertEquals(1, store.getEventsForEntity(second).size());
+		Assertions.assertEquals(2, store.getEventsForEntity(first, 9).size());
+		Assertions.assertEquals(2, store.count());
+		store.close();
+	}
+
+	@Test
+	public void restart_rebuildsIndex() {
+		LogEventStore store = createStore(512);
+		UUID id = UUID.randomUUID();
+		store.handleEvent(factoryCreated(id));
+		for (int i = 0; i < 10; i++) {
+			store.handleEvent(resourceSold(id, i));
+		}
+		store.close();
+
+		LogEventStore reopened = createStore(512);
+		Assertions.assertEquals(11, reopened.getEventsForEntity(id).size());
+		reopened.handleEvent(resourceSold(id, 100));
+		Assertions.assertEquals(12, reopened.getEventsForEntity(id).size());
+		reopened.close();
+	}
+
+	@Test
+	public void restart_truncatesTornRecord() throws IOException {
+		LogEventStore store = createStore(1024 * 1024);
+		UUID id = UUID.randomUUID();
+		store.handleEvent(factoryCreated(id));
+		store.handleEvent(resourceSold(id, 1));
+		store.close();
+
+		File segment = new File(directory.toFile(), LogSegment.fileName(0));
+		long validLength = segment.length();
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			file.seek(validLength);
+			file.writeInt(1000);
+			file.writeInt(42);
+			file.write(new byte[20]);
+		}
+
+		LogEventStore reopened = createStore(1024 * 1024);
+		Assertions.assertEquals(validLength, segment.length());
+		Assertions.assertEquals(2, reopened.getEventsForEntity(id).size());
+		reopened.close();
+	}
+
+	@Test
+	public void restart_readsSegmentsWrittenInOtherFormat() {
+		LogEventStore store = createStore(1024 * 1024, EventFormat.JSON);
+		UUID id = UUID.randomUUID();
+		store.handleEvent(factoryCreated(id));
+		store.handleEvent(resourceSold(id, 1));
+		store.close();
+
+		LogEventStore reopened = createStore(1024 * 1024, EventFormat.BINARY);
+		reopened.handleEvent(resourceSold(id, 2));
+		List<Event> events = reopened.getEventsForEntity(id);
+		Assertions.assertEquals(3, events.size());
+		Assertions.assertEquals("Forester", ((FactoryCreated) events.get(0)).name);
+		Assertions.assertEquals(2, ((ResourceSold) events.get(2)).count);
+		reopened.close();
+	}
+
+	@Test
+	public void streamAll_readsAllSegmentsInAppendOrder() {
+		LogEventStore store = createStore(512);
+		UUID first = UUID.randomUUID();
+		UUID second = UUID.randomUUID();
+		store.handleEvent(factoryCreated(first));
+		store.handleEvent(factoryCreated(second));
+		for (int i = 0; i < 10; i++) {
+			store.handleEvent(resourceSold(i % 2 == 0 ? first : second, i));
+		}
+
+		List<PositionedEvent> all = store.streamAll(0).collect(Collectors.toList());
+		Assertions.assertEquals(12, all.size());
+		for (int i = 2; i < all.size(); i++) {
+			Assertions.assertEquals(i - 2, ((ResourceSold) all.get(i).getEvent()).count);
+			Assertions.assertTrue(all.get(i).getPosition() > all.get(i - 1).getPosition());
+		}
+
+		List<PositionedEvent> rest = store.streamAll(all.get(7).getPosition()).collect(Collectors.toList());
+		Assertions.assertEquals(5, rest.size());
+		Assertions.assertEquals(5, ((ResourceSold) rest.get(0).getEvent()).count);
+		Assertions.assertEquals(0, store.streamAll(all.get(11).getPosition() + 1).count());
+		store.close();
+	}
+
+	@Test
+	public void streamEventsForEntity_startsAtSequence() {
+		LogEventStore store = createStore(512);
+		UUID id = UUID.randomUUID();
+		store.handleEvent(factoryCreated(id));
+		for (int i = 0; i < 5; i++) {
+			store.handleEvent(resourceSold(id, i));
+		}
+
+		Assertions.assertEquals(6, store.streamEventsForEntity(id, 1).count());
+		List<Event> events = store.streamEventsForEntity(id, 4).collect(Collectors.toList());
+		Assertions.assertEquals(3, events.size());
+		Assertions.assertEquals(2, ((ResourceSold) events.get(0)).count);
+		Assertions.assertEquals(0, store.streamEventsForEntity(UUID.randomUUID(), 1).count());
+		store.close();
+	}
+
+	private LogEventStore createStore(long segmentSize) {
+		return createStore(segmentSize, EventFormat.BINARY);
+	}
+
+	private LogEventStore createStore(long segmentSize, EventFormat format) {
+		LogEventStore store = new LogEventStore(upcaster, directory.toString(), segmentSize, 4, format);
+		store.setup();
+		return store;
+	}
+
+	private FactoryCreated factoryCreated(UUID id) {
+		return new FactoryCreated(id.toString(), LocalDateTime.now(), 1, "Forester", "png", "Warsaw");
+	}
+
+	private ResourceSold resourceSold(UUID id, int count) {
+		return new ResourceSold(id.toString(), LocalDateTime.now(), 1, Resource.WOOD.name(), count);
+	}
+
+}
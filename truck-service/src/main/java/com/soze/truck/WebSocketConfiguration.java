@@ -1,7 +1,9 @@
 package com.soze.truck;
 
+import com.soze.common.websocket.DeflateToggleHandshakeHandler;
 import com.soze.truck.ws.TruckWebSocketController;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
@@ -13,14 +15,25 @@ public class WebSocketConfiguration implements WebSocketConfigurer {
 
 	private final TruckWebSocketController webSocketController;
 
+	/**
+	 * If true, frames are compressed for clients which offer permessage-deflate, otherwise the extension is declined.
+	 */
+	private final boolean compression;
+
 	@Autowired
-	public WebSocketConfiguration(TruckWebSocketController webSocketController) {
+	public WebSocketConfiguration(TruckWebSocketController webSocketController,
+																@Value("${truck.websocket.compression:true}") boolean compression
+															 ) {
 		this.webSocketController = webSocketController;
+		this.compression = compression;
 	}
 
 	@Override
 	public void registerWebSocketHandlers(WebSocketHandlerRegistry registry
 																			 ) {
-		registry.addHandler(webSocketController, "/websocket").setAllowedOrigins("*");
+		registry.addHandler(webSocketController, "/websocket")
+						.setHandshakeHandler(new DeflateToggleHandshakeHandler(compression))
+						.setAllowedOrigins("*");
 	}
+
 }
@@ -4,13 +4,15 @@ export const FACTORY_INIT = "FACTORY_INIT";
 export const factoryInit = makeActionCreator(FACTORY_INIT);
 
 export const FACTORY_ADDED = "FACTORY_ADDED";
+export const FACTORIES_SNAPSHOT = "FACTORIES_SNAPSHOT";
 export const RESOURCE_PRODUCED = "RESOURCE_PRODUCED";
 export const STORAGE_CONTENT_CHANGED = "STORAGE_CONTENT_CHANGED";
 export const RESOURCE_STORAGE_CAPACITY_CHANGED =
   "RESOURCE_STORAGE_CAPACITY_CHANGED";
 export const PRODUCTION_FINISHED = "PRODUCTION_FINISHED";
 export const PRODUCTION_STARTED = "PRODUCTION_STARTED2";
+export const PRODUCTION_CYCLES_COMPLETED = "PRODUCTION_CYCLES_COMPLETED";
 export const RESOURCE_SOLD = "RESOURCE_SOLD";
 export const RESOURCE_BOUGHT = "RESOURCE_BOUGHT";
-export const RESOURCE_PRICE_CHANGED = "RESOURCE_PRICE_CHANGED";
+export const RESOURCE_PRICE_CHANGED = "RESOURCE_PRICE_CHANGED2";
 export const PRODUCTION_LINE_ADDED = "PRODUCTION_LINE_ADDED2";
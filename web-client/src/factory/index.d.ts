@@ -1,7 +1,9 @@
 import { ICity, ResourceName } from "../world";
 import {
+    FACTORIES_SNAPSHOT,
     FACTORY_ADDED,
     FACTORY_INIT,
+    PRODUCTION_CYCLES_COMPLETED,
     PRODUCTION_FINISHED,
     PRODUCTION_LINE_ADDED,
     PRODUCTION_STARTED,
@@ -15,6 +17,14 @@ import { IResourceCount, ResourceCounts, StorageContentChangedAction } from "../
 
 export interface FactoryState {
   factories: IFactory[];
+  /**
+   * Epoch of the server which sent the factories, null before the first snapshot.
+   */
+  epoch: string | null;
+  /**
+   * Position of the last message received from the server.
+   */
+  position: number;
 }
 
 export interface IFactory {
@@ -22,6 +32,7 @@ export interface IFactory {
   name: string;
   texture: string;
   cityId: string;
+  version: number;
   storage: IFactoryStorage;
   producer: Producer;
 }
@@ -96,6 +107,13 @@ export interface FactoryAddedAction {
   factoryDTO: IFactory;
 }
 
+export interface FactoriesSnapshotAction {
+  type: typeof FACTORIES_SNAPSHOT;
+  epoch: string;
+  position: number;
+  factories: IFactory[];
+}
+
 export interface ResourceProducedAction {
   type: typeof RESOURCE_PRODUCED;
   factoryId: string;
@@ -119,6 +137,15 @@ export interface ProductionStarted {
   productionStartTime: number;
 }
 
+export interface ProductionCyclesCompletedAction {
+  type: typeof PRODUCTION_CYCLES_COMPLETED;
+  entityId: string;
+  cycles: number;
+  consumed: ProducerInput;
+  produced: ProducerOutput;
+  productionStartTime: number;
+}
+
 export interface ResourceSoldAction {
   type: typeof RESOURCE_SOLD;
   entityId: string;
@@ -150,10 +177,12 @@ export interface ProductionLineAddedAction {
 export type FactoryAction =
   | FactoryInitAction
   | FactoryAddedAction
+  | FactoriesSnapshotAction
   | StorageContentChangedAction
   | ResourceStorageCapacityChanged
   | ProductionFinishedAction
   | ProductionStarted
+  | ProductionCyclesCompletedAction
   | ResourceSoldAction
   | ResourceBoughtAction
   | ProductionLineAddedAction
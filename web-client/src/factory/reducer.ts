@@ -1,7 +1,9 @@
 import { produce } from "immer";
 import {
+  FACTORIES_SNAPSHOT,
   FACTORY_ADDED,
   FACTORY_INIT,
+  PRODUCTION_CYCLES_COMPLETED,
   PRODUCTION_FINISHED,
   PRODUCTION_LINE_ADDED,
   PRODUCTION_STARTED,
@@ -14,9 +16,11 @@ import {
 import {
   FactoryAction,
   FactoryAddedAction,
+  FactoriesSnapshotAction,
   FactoryState,
   IFactory,
   ProductionFinishedAction,
+  ProductionCyclesCompletedAction,
   ResourceSoldAction,
   ResourcePriceChangedAction,
   ProductionLineAddedAction,
@@ -29,16 +33,28 @@ import { StorageContentChangedAction } from "../storage";
 import { ResourceName } from "../world";
 
 const initialState: FactoryState = {
-  factories: []
+  factories: [],
+  epoch: null,
+  position: 0
 };
 
 export function reducer(
   state: FactoryState = initialState,
   action: FactoryAction
 ): FactoryState {
+  // the snapshot can be ahead of messages sent before it, such events are already applied
+  if (isStale(state, action)) {
+    return trackPosition(state, action);
+  }
+  return trackPosition(applyAction(state, action), action);
+}
+
+function applyAction(state: FactoryState, action: FactoryAction): FactoryState {
   switch (action.type) {
     case FACTORY_INIT:
       return initialState;
+    case FACTORIES_SNAPSHOT:
+      return factoriesSnapshot(state, action);
     case FACTORY_ADDED:
       return factoryAdded(state, action);
     case STORAGE_CONTENT_CHANGED:
@@ -49,6 +65,8 @@ export function reducer(
       return productionFinished(state, action);
     case PRODUCTION_STARTED:
       return productionStarted(state, action);
+    case PRODUCTION_CYCLES_COMPLETED:
+      return productionCyclesCompleted(state, action);
     case RESOURCE_SOLD:
       return resourceSold(state, action);
     case RESOURCE_BOUGHT:
@@ -62,10 +80,46 @@ export function reducer(
   }
 }
 
+function isStale(state: FactoryState, action: any): boolean {
+  if (typeof action.version !== "number" || !action.entityId) {
+    return false;
+  }
+  const factory = findFactory(state, action.entityId);
+  return !!factory && action.version <= factory.version;
+}
+
+const trackPosition = produce((state: FactoryState, action: any) => {
+  if (typeof action.position === "number" && action.position > state.position) {
+    state.position = action.position;
+  }
+  if (typeof action.version === "number" && action.entityId) {
+    const factory = findFactory(state, action.entityId);
+    if (factory && action.version > factory.version) {
+      factory.version = action.version;
+    }
+  }
+});
+
+const factoriesSnapshot = produce(
+  (state: FactoryState, action: FactoriesSnapshotAction) => {
+    state.factories = action.factories;
+    state.epoch = action.epoch;
+    state.position = action.position;
+  }
+);
+
 const factoryAdded = produce(
   (state: FactoryState, action: FactoryAddedAction) => {
     const { factoryDTO } = action;
-    state.factories.push(factoryDTO);
+    // sent again when a subscription starts covering a factory the client already knows
+    const index = state.factories.findIndex(
+      factory => factory.id === factoryDTO.id
+    );
+    if (index >= 0) {
+      state.factories[index] = factoryDTO;
+    } else {
+      state.factories.push(factoryDTO);
+    }
   }
 );
 
@@ -95,6 +149,20 @@ const productionStarted = produce((state, action) => {
   factory.producer.productionStartTime = productionStartTime;
 });
 
+const productionCyclesCompleted = produce(
+  (state: FactoryState, action: ProductionCyclesCompletedAction) => {
+    const { entityId, consumed, produced, productionStartTime } = action;
+    const factory = findFactory(state, entityId);
+    if (!factory) {
+      return state;
+    }
+    const { storage } = factory;
+    removeInput(storage, consumed);
+    addOutput(storage, produced);
+    factory.producer.productionStartTime = productionStartTime;
+  }
+);
+
 const storageContentChanged = produce(
   (state: FactoryState, action: StorageContentChangedAction) => {
     const { entityId, resource, change } = action;
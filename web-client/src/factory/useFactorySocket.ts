@@ -1,18 +1,38 @@
 import { FACTORY_SERVICE_SOCKET_URL } from "../config/urls";
 import { UseWebSocket, useWebsocket } from "../websocket/hook";
-import { useDispatch } from "react-redux";
-import { factoryInit } from "./actions";
+import { useDispatch, useStore } from "react-redux";
 import { useCallback } from "react";
+import { AppState } from "../store";
+import { FLAGS } from "../featureFlags";
 
 export function useFactorySocket(): UseWebSocket {
   const dispatch = useDispatch();
+  const store = useStore<AppState>();
 
-  const reset = useCallback(() => dispatch(factoryInit()), [dispatch]);
+  // factories are kept while disconnected, the server sends what was missed or a new snapshot on reconnect
+  const reset = useCallback(() => {}, []);
+
+  const connectUrl = useCallback(() => {
+    const { epoch, position } = store.getState().factory;
+    const parameters = [];
+    if (FLAGS.BINARY_FACTORY_SOCKET) {
+      parameters.push("format=binary");
+    }
+    if (epoch) {
+      parameters.push("epoch=" + encodeURIComponent(epoch));
+      parameters.push("position=" + position);
+    }
+    if (parameters.length === 0) {
+      return FACTORY_SERVICE_SOCKET_URL;
+    }
+    return FACTORY_SERVICE_SOCKET_URL + "?" + parameters.join("&");
+  }, [store]);
 
   const { socket, readyState } = useWebsocket(
     FACTORY_SERVICE_SOCKET_URL,
     dispatch,
-    reset
+    reset,
+    connectUrl
   );
 
   return { socket, readyState };
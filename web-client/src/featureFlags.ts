@@ -1,8 +1,8 @@
 
-export type Flag = never;
+export type Flag = "BINARY_FACTORY_SOCKET";
 
 export const FLAGS: Record<Flag, boolean> = {
-
+  BINARY_FACTORY_SOCKET: false
 };
 
 console.log(FLAGS);
\ No newline at end of file
@@ -0,0 +1,240 @@
+/**
+ * Decodes binary frames of the factory service into the same messages its json frames carry.
+ * A frame is: byte format | varint count | count * (varint position | varint length | payload),
+ * a payload is either a binary event or the json of any other message.
+ */
+
+const FRAME_FORMAT = 2;
+const EVENT_FORMAT = 1;
+
+/**
+ * Resources by ordinal, in the order of the Resource enum of the server.
+ */
+const RESOURCES = ["WOOD", "STONE", "PLANK"];
+
+/**
+ * Event types by their binary tag, tags are never reused.
+ */
+const EVENT_TYPES: { [tag: number]: string } = {
+  1: "FACTORY_CREATED",
+  2: "PRODUCTION_STARTED",
+  3: "STORAGE_CAPACITY_CHANGED",
+  4: "PRODUCTION_LINE_ADDED",
+  5: "PRODUCTION_FINISHED",
+  6: "RESOURCE_SOLD",
+  7: "RESOURCE_STORAGE_CAPACITY_CHANGED",
+  8: "RESOURCE_PRICE_CHANGED",
+  9: "PRODUCTION_STARTED2",
+  10: "PRODUCTION_LINE_ADDED2",
+  11: "RESOURCE_BOUGHT",
+  12: "RESOURCE_PRICE_CHANGED2",
+  13: "PRODUCTION_CYCLES_COMPLETED"
+};
+
+const textDecoder = new TextDecoder("utf-8");
+
+class Reader {
+  private readonly view: DataView;
+  private offset: number;
+
+  constructor(view: DataView, offset: number = 0) {
+    this.view = view;
+    this.offset = offset;
+  }
+
+  get position(): number {
+    return this.offset;
+  }
+
+  skip(bytes: number) {
+    this.offset += bytes;
+  }
+
+  byte(): number {
+    return this.view.getUint8(this.offset++);
+  }
+
+  /**
+   * Unsigned varint, as used by the frame layout.
+   */
+  uvarint(): number {
+    let value = 0;
+    let scale = 1;
+    for (;;) {
+      const b = this.byte();
+      value += (b & 0x7f) * scale;
+      if ((b & 0x80) === 0) {
+        return value;
+      }
+      scale *= 128;
+    }
+  }
+
+  /**
+   * Zigzag varint, as used by binary events.
+   */
+  varint(): number {
+    const zigzag = this.uvarint();
+    return zigzag % 2 === 1 ? -(zigzag + 1) / 2 : zigzag / 2;
+  }
+
+  uuid(): string {
+    let hex = "";
+    for (let i = 0; i < 16; i++) {
+      hex += this.byte()
+        .toString(16)
+        .padStart(2, "0");
+    }
+    return (
+      hex.substring(0, 8) +
+      "-" +
+      hex.substring(8, 12) +
+      "-" +
+      hex.substring(12, 16) +
+      "-" +
+      hex.substring(16, 20) +
+      "-" +
+      hex.substring(20)
+    );
+  }
+
+  /**
+   * Epoch millis as the array json of a date time, null if the event had no timestamp.
+   */
+  timestamp(): number[] | null {
+    const high = this.view.getInt32(this.offset);
+    const low = this.view.getUint32(this.offset + 4);
+    this.offset += 8;
+    if (high === -0x80000000 && low === 0) {
+      return null;
+    }
+    const date = new Date(high * 0x100000000 + low);
+    return [
+      date.getUTCFullYear(),
+      date.getUTCMonth() + 1,
+      date.getUTCDate(),
+      date.getUTCHours(),
+      date.getUTCMinutes(),
+      date.getUTCSeconds(),
+      date.getUTCMilliseconds() * 1000000
+    ];
+  }
+
+  string(): string | null {
+    const length = this.varint();
+    if (length === 0) {
+      return null;
+    }
+    const bytes = new Uint8Array(
+      this.view.buffer,
+      this.view.byteOffset + this.offset,
+      length - 1
+    );
+    this.offset += length - 1;
+    return textDecoder.decode(bytes);
+  }
+
+  resource(): string | null {
+    const ordinal = this.byte();
+    return ordinal === 0 ? null : RESOURCES[ordinal - 1];
+  }
+
+  resourceMap(): { [resource: string]: number } | null {
+    const size = this.varint();
+    if (size === 0) {
+      return null;
+    }
+    const map: { [resource: string]: number } = {};
+    for (let i = 0; i < size - 1; i++) {
+      const resource = this.resource();
+      map[resource!] = this.varint();
+    }
+    return map;
+  }
+}
+
+export function decodeFrame(buffer: ArrayBuffer): any[] {
+  const view = new DataView(buffer);
+  const reader = new Reader(view);
+  const format = reader.byte();
+  if (format !== FRAME_FORMAT) {
+    throw new Error("Unsupported frame format " + format);
+  }
+  const count = reader.uvarint();
+  const messages = [];
+  for (let i = 0; i < count; i++) {
+    const position = reader.uvarint();
+    const length = reader.uvarint();
+    const start = reader.position;
+    if (view.getUint8(start) === EVENT_FORMAT) {
+      const event = decodeEvent(new Reader(view, start + 1));
+      event.position = position;
+      messages.push(event);
+    } else {
+      const json = new Uint8Array(buffer, start, length);
+      messages.push(JSON.parse(textDecoder.decode(json)));
+    }
+    reader.skip(length);
+  }
+  return messages;
+}
+
+function decodeEvent(reader: Reader): any {
+  const type = EVENT_TYPES[reader.byte()];
+  const event: any = {
+    type,
+    entityId: reader.uuid(),
+    timestamp: reader.timestamp(),
+    version: reader.varint()
+  };
+  switch (type) {
+    case "FACTORY_CREATED":
+      event.name = reader.string();
+      event.texture = reader.string();
+      event.cityId = reader.string();
+      break;
+    case "PRODUCTION_STARTED":
+      event.resource = reader.resource();
+      event.productionStartTime = reader.varint();
+      break;
+    case "PRODUCTION_STARTED2":
+      event.productionStartTime = reader.varint();
+      break;
+    case "STORAGE_CAPACITY_CHANGED":
+      event.change = reader.varint();
+      break;
+    case "PRODUCTION_LINE_ADDED":
+      event.resource = reader.resource();
+      event.count = reader.varint();
+      event.time = reader.varint();
+      break;
+    case "PRODUCTION_LINE_ADDED2":
+      event.input = reader.resourceMap();
+      event.output = reader.resourceMap();
+      event.time = reader.varint();
+      break;
+    case "PRODUCTION_FINISHED":
+      break;
+    case "RESOURCE_SOLD":
+    case "RESOURCE_BOUGHT":
+      event.resource = reader.resource();
+      event.count = reader.varint();
+      break;
+    case "RESOURCE_STORAGE_CAPACITY_CHANGED":
+      event.capacityChanges = reader.resourceMap();
+      break;
+    case "RESOURCE_PRICE_CHANGED":
+    case "RESOURCE_PRICE_CHANGED2":
+      event.prices = reader.resourceMap();
+      break;
+    case "PRODUCTION_CYCLES_COMPLETED":
+      event.cycles = reader.varint();
+      event.consumed = reader.resourceMap();
+      event.produced = reader.resourceMap();
+      event.productionStartTime = reader.varint();
+      break;
+    default:
+      throw new Error("Unknown event type " + type);
+  }
+  return event;
+}
@@ -13,13 +13,22 @@ export interface UseWebSocket {
   readyState: number;
 }
 
-export function useWebsocket(url: string, dispatch: Function, resetAction: Function): UseWebSocket {
+export function useWebsocket(
+  url: string,
+  dispatch: Function,
+  resetAction: Function,
+  connectUrl?: () => string
+): UseWebSocket {
   const [readyState, setReadyState] = useState(WebSocket.CONNECTING);
 
   useEffect(() => {
     if (!isSocketCreated(url) || readyState === WebSocket.CLOSED) {
       setReadyState(WebSocket.CONNECTING);
-      const socket = createSocket(url, dispatch);
+      const socket = createSocket(
+        url,
+        dispatch,
+        connectUrl ? connectUrl() : url
+      );
       socket.onopen = function onOpen() {
         console.log("WebSocket connected to " + url);
         setReadyState(WebSocket.OPEN);
@@ -31,7 +40,7 @@ export function useWebsocket(url: string, dispatch: Function, resetAction: Funct
         }, 2500);
       };
     }
-  }, [url, dispatch, readyState, resetAction]);
+  }, [url, dispatch, readyState, resetAction, connectUrl]);
 
   const socket = getSocket(url);
 
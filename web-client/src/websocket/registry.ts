@@ -1,3 +1,5 @@
+import { decodeFrame } from "./binary";
+
 interface Sockets {
   [url: string]: WebSocket;
 }
@@ -9,14 +11,29 @@ const sockets: Sockets = {};
 
 /**
  * Creates a WebSocket connected to a given url.
+ * It can connect to a different url, such as the url with parameters of a reconnect, but is still kept under the given url.
  */
-export function createSocket(url: string, dispatch: Function) {
-  const socket = new WebSocket(url);
+export function createSocket(
+  url: string,
+  dispatch: Function,
+  connectUrl: string = url
+) {
+  const socket = new WebSocket(connectUrl);
+  socket.binaryType = "arraybuffer";
   sockets[url] = socket;
   socket.onmessage = function onMessage(msg) {
     if (dispatch) {
-      const payload = JSON.parse(msg.data);
-      dispatch(payload);
+      // binary frames are sent only to sockets which asked for them
+      const payload =
+        msg.data instanceof ArrayBuffer
+          ? decodeFrame(msg.data)
+          : JSON.parse(msg.data);
+      // a server tick sends all its messages in one array frame
+      if (Array.isArray(payload)) {
+        payload.forEach(message => dispatch(message));
+      } else {
+        dispatch(payload);
+      }
     }
   };
   return socket;